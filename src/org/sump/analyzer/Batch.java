@@ -0,0 +1,261 @@
+/*
+ *  Copyright (C) 2012 John Pritchard
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.sump.analyzer.tools.Decoder;
+import org.sump.analyzer.tools.I2CProtocolAnalysis;
+import org.sump.analyzer.tools.SPIProtocolAnalysis;
+import org.sump.analyzer.tools.StateAnalysis;
+import org.sump.analyzer.tools.UARTProtocolAnalysis;
+import org.sump.util.Properties;
+
+/**
+ * Runs the protocol decoders of the tools over data files without a
+ * display, writing the results of each tool to a CSV or JSON file
+ * named for the data file and the tool.
+ * <p>
+ * The tools take their settings from a project file, as saved by the
+ * UI.  Data files are decoded in parallel, each by one thread, so
+ * that no more captures are held in memory than there are threads.
+ * <p>
+ * From the command line, <code>run -batch</code> with the arguments
+ * of {@link #main(String[])}.
+ *
+ * @see Decoder
+ * @author John Pritchard
+ */
+public class Batch
+    extends Object
+{
+    /** names of the tools */
+    public final static String[] TOOLS = {"uart", "spi", "i2c", "state"};
+
+
+    /**
+     * @param tool one of {@link #TOOLS}
+     * @param properties project properties with the settings of the tool
+     * @return decoder configured from the settings of the tool
+     */
+    public static Decoder Decoder(String tool, Properties properties){
+        if (tool.equals("uart"))
+            return new UARTProtocolAnalysis.UARTDecoder(properties);
+        else if (tool.equals("spi"))
+            return new SPIProtocolAnalysis.SPIDecoder(properties);
+        else if (tool.equals("i2c"))
+            return new I2CProtocolAnalysis.I2CDecoder(properties);
+        else if (tool.equals("state"))
+            return new StateAnalysis.StateDecoder(properties);
+        else
+            throw new IllegalArgumentException(tool);
+    }
+
+
+    private final Properties properties;
+    private final String[] tools;
+    private final boolean json;
+    private final File output;
+
+
+    /**
+     * @param properties project properties with the settings of the tools
+     * @param tools names of the tools to run
+     * @param json write JSON rather than CSV
+     * @param output directory of the results, or null for the
+     * directory of each data file
+     */
+    public Batch(Properties properties, String[] tools, boolean json, File output){
+        super();
+        this.properties = properties;
+        this.tools = tools;
+        this.json = json;
+        this.output = output;
+    }
+
+
+    /**
+     * Decodes a data file with each tool, writing a result file per
+     * tool.
+     * @param data data file
+     * @return result files, in the order of the tools
+     */
+    public List<File> run(File data) throws IOException {
+        CapturedData capture = new CapturedData(data);
+
+        String name = data.getName();
+        int idx = name.lastIndexOf('.');
+        if (0 < idx)
+            name = name.substring(0, idx);
+        File dir = (output != null) ? output : data.getAbsoluteFile().getParentFile();
+
+        List<File> results = new ArrayList<File>(tools.length);
+        for (String tool : tools) {
+            Decoder decoder = Decoder(tool, properties);
+            decoder.decode(capture);
+            if (Thread.currentThread().isInterrupted())
+                throw new IOException("Interrupted");
+
+            File result = new File(dir, name + "." + tool + (json ? ".json" : ".csv"));
+            Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(result), "UTF-8"));
+            try {
+                if (json)
+                    decoder.writeJSON(out);
+                else
+                    decoder.writeCSV(out);
+            }
+            finally {
+                out.close();
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+
+    /**
+     * Decodes data files.  The arguments are
+     * <pre>
+     * [-project file.slp] [-tools uart,spi,i2c,state] [-format csv|json] [-output dir] [-threads n] file.sla...
+     * </pre>
+     * where all tools are run by default, and the number of threads
+     * defaults to the number of processors.  Exits with status 1 when
+     * any file fails.
+     *
+     * @param args arguments
+     */
+    public static void main(String[] args) {
+        File project = null, output = null;
+        String[] tools = TOOLS;
+        boolean json = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<File> files = new ArrayList<File>();
+        try {
+            for (int argx = 0; argx < args.length; argx++) {
+                String arg = args[argx];
+                if (arg.equals("-project") && argx + 1 < args.length)
+                    project = new File(args[++argx]);
+                else if (arg.equals("-tools") && argx + 1 < args.length) {
+                    tools = args[++argx].toLowerCase().split(",");
+                    for (String tool : tools)
+                        Decoder(tool, new Properties());
+                }
+                else if (arg.equals("-format") && argx + 1 < args.length) {
+                    String format = args[++argx].toLowerCase();
+                    if (format.equals("json"))
+                        json = true;
+                    else if (format.equals("csv"))
+                        json = false;
+                    else
+                        throw new IllegalArgumentException(format);
+                }
+                else if (arg.equals("-output") && argx + 1 < args.length)
+                    output = new File(args[++argx]);
+                else if (arg.equals("-threads") && argx + 1 < args.length) {
+                    threads = Integer.parseInt(args[++argx]);
+                    if (threads < 1)
+                        throw new IllegalArgumentException(arg);
+                }
+                else if (arg.startsWith("-"))
+                    throw new IllegalArgumentException(arg);
+                else
+                    files.add(new File(arg));
+            }
+            if (files.isEmpty())
+                throw new IllegalArgumentException("missing file name");
+        }
+        catch (IllegalArgumentException e) {
+            System.out.println("Usage: run -batch [-project file.slp] [-tools uart,spi,i2c,state] [-format csv|json] [-output dir] [-threads n] file.sla...");
+            System.exit(1);
+        }
+
+        if (output != null && !output.isDirectory()) {
+            System.out.printf("Error, directory not found '%s'%n", output);
+            System.exit(1);
+        }
+
+        Properties properties = new Properties();
+        if (project != null) {
+            try {
+                InputStream in = new FileInputStream(project);
+                try {
+                    properties.load(in);
+                }
+                finally {
+                    in.close();
+                }
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+
+        final Batch batch = new Batch(properties, tools, json, output);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()), new ThreadFactory(){
+                public Thread newThread(Runnable task){
+                    Thread thread = new Thread(task, "Batch");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        List<Future<List<File>>> results = new ArrayList<Future<List<File>>>(files.size());
+        for (final File file : files) {
+            results.add(executor.submit(new Callable<List<File>>(){
+                    public List<File> call() throws IOException {
+                        return batch.run(file);
+                    }
+                }));
+        }
+        executor.shutdown();
+
+        int status = 0;
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                for (File result : results.get(i).get())
+                    System.out.printf("%s -> %s%n", files.get(i), result);
+            }
+            catch (ExecutionException e) {
+                System.out.printf("Error, %s: %s%n", files.get(i), e.getCause());
+                status = 1;
+            }
+            catch (InterruptedException e) {
+                status = 1;
+                break;
+            }
+        }
+        System.exit(status);
+    }
+}
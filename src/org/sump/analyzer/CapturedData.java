@@ -24,6 +24,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.HashMap;
 
 /**
  * CapturedData encapsulates the data obtained by the analyzer during a single run.
@@ -120,116 +121,128 @@ public class CapturedData extends Object {
 	 * @throws IOException when reading from file failes
 	 */
 	public CapturedData(File file) throws IOException {
+		this(new BufferedReader(new FileReader(file)));
+	}
+
+	/**
+	 * Constructs CapturedData based on the data read from the given reader,
+	 * in the format of data files.  The reader is closed.
+	 * 
+	 * @param br			reader to read captured data from
+	 * @throws IOException when reading failes
+	 */
+	public CapturedData(BufferedReader br) throws IOException {
 		int size = 0, r = -1, channels = 32, enabledChannels = -1;
 		long t = -1, a = 0, b = 0;
 		boolean cursors = false;
 		boolean compressed = false;
 		long absLen = 0;
 		String line;
-		BufferedReader br = new BufferedReader(new FileReader(file));
-		do {
-			line = br.readLine();
-			if (line == null)
-				throw new IOException("File appears to be corrupted.");
-			else if (line.startsWith(";Size: "))
-				size = Integer.parseInt(line.substring(7));
-			else if (line.startsWith(";Rate: "))
-				r = Integer.parseInt(line.substring(7));
-			else if (line.startsWith(";Channels: "))
-				channels = Integer.parseInt(line.substring(11));
-			else if (line.startsWith(";TriggerPosition: "))
-				t = Long.parseLong(line.substring(18));
-			else if (line.startsWith(";EnabledChannels: "))
-				enabledChannels = Integer.parseInt(line.substring(18));
-			else if (line.startsWith(";CursorA: "))
-				a = Long.parseLong(line.substring(10));
-			else if (line.startsWith(";CursorB: "))
-				b = Long.parseLong(line.substring(10));
-			else if (line.startsWith(";CursorEnabled: "))
-				cursors = Boolean.parseBoolean(line.substring(16));
-			else if (line.startsWith(";Compressed: "))
-				compressed = Boolean.parseBoolean(line.substring(13));
-			else if (line.startsWith(";AbsoluteLength: "))
-				absLen = Long.parseLong(line.substring(17));
-		} while (line.startsWith(";"));
+		try {
+			do {
+				line = br.readLine();
+				if (line == null)
+					throw new IOException("File appears to be corrupted.");
+				else if (line.startsWith(";Size: "))
+					size = Integer.parseInt(line.substring(7));
+				else if (line.startsWith(";Rate: "))
+					r = Integer.parseInt(line.substring(7));
+				else if (line.startsWith(";Channels: "))
+					channels = Integer.parseInt(line.substring(11));
+				else if (line.startsWith(";TriggerPosition: "))
+					t = Long.parseLong(line.substring(18));
+				else if (line.startsWith(";EnabledChannels: "))
+					enabledChannels = Integer.parseInt(line.substring(18));
+				else if (line.startsWith(";CursorA: "))
+					a = Long.parseLong(line.substring(10));
+				else if (line.startsWith(";CursorB: "))
+					b = Long.parseLong(line.substring(10));
+				else if (line.startsWith(";CursorEnabled: "))
+					cursors = Boolean.parseBoolean(line.substring(16));
+				else if (line.startsWith(";Compressed: "))
+					compressed = Boolean.parseBoolean(line.substring(13));
+				else if (line.startsWith(";AbsoluteLength: "))
+					absLen = Long.parseLong(line.substring(17));
+			} while (line.startsWith(";"));
 
-		if(compressed) {
-			// new compressed file format
-			this.absoluteLength = absLen;
-			this.values = new int[size];
-			this.timestamps = new long[size];
-			try {
-				for (int i = 0; i < this.values.length && line != null; i++) {
-					this.values[i] = 					
-						Integer.parseInt(line.substring(0, 4), 16) << 16
-						| Integer.parseInt(line.substring(4, 8), 16);
-					this.timestamps[i] = Long.parseLong(line.substring(9));
-					line = br.readLine();
-				}
-			} catch (NumberFormatException E) {
-				throw new IOException("Invalid data encountered.");
-			}
-		} else {
-			// old sample based file format
-			if (size <= 0 || size > 1024 * 256)
-				throw new IOException("Invalid size encountered.");
-			
-			this.absoluteLength = size;
-			int[] tmpValues = new int[size];
-			try {
-				// read all values
-				for (int i = 0; i < tmpValues.length && line != null; i++) {
-					// TODO: modify to work with all channel counts up to 32
-					if (channels > 16) {
-						tmpValues[i] =
+			if(compressed) {
+				// new compressed file format
+				this.absoluteLength = absLen;
+				this.values = new int[size];
+				this.timestamps = new long[size];
+				try {
+					for (int i = 0; i < this.values.length && line != null; i++) {
+						this.values[i] = 					
 							Integer.parseInt(line.substring(0, 4), 16) << 16
 							| Integer.parseInt(line.substring(4, 8), 16);
-					} else {
-						tmpValues[i] = Integer.parseInt(line.substring(0, 4), 16);					
+						this.timestamps[i] = Long.parseLong(line.substring(9));
+						line = br.readLine();
 					}
-					line = br.readLine();
+				} catch (NumberFormatException E) {
+					throw new IOException("Invalid data encountered.");
+				}
+			} else {
+				// old sample based file format
+				if (size <= 0 || size > 1024 * 256)
+					throw new IOException("Invalid size encountered.");
+			
+				this.absoluteLength = size;
+				int[] tmpValues = new int[size];
+				try {
+					// read all values
+					for (int i = 0; i < tmpValues.length && line != null; i++) {
+						// TODO: modify to work with all channel counts up to 32
+						if (channels > 16) {
+							tmpValues[i] =
+								Integer.parseInt(line.substring(0, 4), 16) << 16
+								| Integer.parseInt(line.substring(4, 8), 16);
+						} else {
+							tmpValues[i] = Integer.parseInt(line.substring(0, 4), 16);					
+						}
+						line = br.readLine();
+					}
+				} catch (NumberFormatException E) {
+					throw new IOException("Invalid data encountered.");
 				}
-			} catch (NumberFormatException E) {
-				throw new IOException("Invalid data encountered.");
-			}
 			
-			int count = 0;
-			int tmp = tmpValues[0];
+				int count = 0;
+				int tmp = tmpValues[0];
 
-			// calculate transitions
-			for(int i=0;i<tmpValues.length;i++) {
-				if(tmp != tmpValues[i]) count++;
-				tmp = tmpValues[i];
-			}
-			count++;
+				// calculate transitions
+				for(int i=0;i<tmpValues.length;i++) {
+					if(tmp != tmpValues[i]) count++;
+					tmp = tmpValues[i];
+				}
+				count++;
 			
-			// compress
-			this.values = new int[count];
-			this.timestamps = new long[count];
-			this.timestamps[0] = 0;
-			this.values[0] = tmpValues[0];
-			tmp = tmpValues[0];
-			count = 1;
-			for(int i=0;i<tmpValues.length;i++) {
-				if(tmp != tmpValues[i]) {
-					// store only transitions
-					this.timestamps[count] = i;
-					this.values[count] = tmpValues[i];
-					count++;
+				// compress
+				this.values = new int[count];
+				this.timestamps = new long[count];
+				this.timestamps[0] = 0;
+				this.values[0] = tmpValues[0];
+				tmp = tmpValues[0];
+				count = 1;
+				for(int i=0;i<tmpValues.length;i++) {
+					if(tmp != tmpValues[i]) {
+						// store only transitions
+						this.timestamps[count] = i;
+						this.values[count] = tmpValues[i];
+						count++;
+					}
+					tmp = tmpValues[i];
 				}
-				tmp = tmpValues[i];
 			}
-		}
 
-		this.triggerPosition = t;
-		this.rate = r;
-		this.channels = channels;
-		this.enabledChannels = enabledChannels;
-		this.cursorPositionA = a;
-		this.cursorPositionB = b;
-		this.cursorEnabled = cursors;
-
-		br.close();
+			this.triggerPosition = t;
+			this.rate = r;
+			this.channels = channels;
+			this.enabledChannels = enabledChannels;
+			this.cursorPositionA = a;
+			this.cursorPositionB = b;
+			this.cursorEnabled = cursors;
+		} finally {
+			br.close();
+		}
 	}
 	
 	/**
@@ -240,8 +253,21 @@ public class CapturedData extends Object {
 	 */
 	public void writeToFile(File file) throws IOException  {
 		try {
-			BufferedWriter bw = new BufferedWriter(new FileWriter(file));
-			
+			write(new BufferedWriter(new FileWriter(file)));
+		} catch (Exception E) {
+			E.printStackTrace(System.out);
+		}
+	}
+
+	/**
+	 * Writes device data to given writer, in the format of data files.
+	 * The writer is closed.
+	 * 
+	 * @param bw			writer to write to
+	 * @throws IOException when writing failes
+	 */
+	public void write(BufferedWriter bw) throws IOException  {
+		try {
 			bw.write(";Size: " + values.length);
 			bw.newLine();
 			bw.write(";Rate: " + rate);
@@ -271,9 +297,8 @@ public class CapturedData extends Object {
 				bw.write("@" + timestamps[i]);
 				bw.newLine();
 			}
+		} finally {
 			bw.close();
-		} catch (Exception E) {
-			E.printStackTrace(System.out);
 		}
 	}
 
@@ -327,16 +352,24 @@ public class CapturedData extends Object {
 	}
 
 	/**
-	 * calculate index number from absolute time
+	 * calculate index number from absolute time (binary search)
 	 * @param abs absolute time value
 	 * @return sample number before selected absolute time
 	 */
 	public int getSampleIndex(long abs) {
-		int i;
-		for(i=1;i<timestamps.length;i++) {
-			if(abs < timestamps[i]) break;
+		// last index in [1, length) with timestamps[index] <= abs, else 0
+		int lo = 1;
+		int hi = timestamps.length - 1;
+		int found = 0;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (timestamps[mid] <= abs) {
+				found = mid;
+				lo = mid + 1;
+			} else
+				hi = mid - 1;
 		}
-		return i-1;
+		return found;
 	}
 	
 	/**
@@ -348,6 +381,112 @@ public class CapturedData extends Object {
 		return values[getSampleIndex(abs)];
 	}
 
+	/**
+	 * Indices of the transitions changing any of the channels in a mask,
+	 * built on first use and kept for later calls with the same mask.
+	 * @param mask bit map of channels
+	 * @return ascending indices <code>i</code> (at least 1) where <code>values[i]</code> differs from <code>values[i-1]</code> in <code>mask</code>
+	 */
+	public int[] getChangeIndex(int mask) {
+		synchronized (changeIndex) {
+			int[] index = changeIndex.get(mask);
+			if (index == null) {
+				int count = 0;
+				for (int i = 1; i < values.length; i++)
+					if (((values[i] ^ values[i - 1]) & mask) != 0)
+						count++;
+				index = new int[count];
+				for (int i = 1, j = 0; i < values.length; i++)
+					if (((values[i] ^ values[i - 1]) & mask) != 0)
+						index[j++] = i;
+				changeIndex.put(mask, index);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * @return heap size in bytes of the change indices built so far
+	 */
+	public long getChangeIndexSize() {
+		synchronized (changeIndex) {
+			long size = 0;
+			for (int[] index : changeIndex.values())
+				size += 4L * index.length;
+			return size;
+		}
+	}
+
+	/**
+	 * Start of the steady run of the channels in a mask containing a transition.
+	 * @param mask bit map of channels
+	 * @param index transition index
+	 * @return absolute time of the last change in <code>mask</code> at or before <code>index</code>, or 0
+	 */
+	public long getRunStart(int mask, int index) {
+		int[] changes = getChangeIndex(mask);
+		int found = lastChange(changes, index);
+		return (found < 0) ? 0 : timestamps[changes[found]];
+	}
+
+	/**
+	 * End of the steady run of the channels in a mask containing a transition.
+	 * @param mask bit map of channels
+	 * @param index transition index
+	 * @return absolute time of the first change in <code>mask</code> after <code>index</code>, or the absolute length
+	 */
+	public long getRunEnd(int mask, int index) {
+		int[] changes = getChangeIndex(mask);
+		int found = lastChange(changes, index) + 1;
+		return (found < changes.length) ? timestamps[changes[found]] : absoluteLength;
+	}
+
+	/**
+	 * Next change of the channels in a mask, found in the change index
+	 * with two binary searches.
+	 * @param mask bit map of channels
+	 * @param abs absolute time
+	 * @return absolute time of the first change in <code>mask</code> after <code>abs</code>, or <code>NOT_AVAILABLE</code>
+	 */
+	public long getNextChange(int mask, long abs) {
+		int[] changes = getChangeIndex(mask);
+		int found = lastChange(changes, getSampleIndex(abs)) + 1;
+		return (found < changes.length) ? timestamps[changes[found]] : NOT_AVAILABLE;
+	}
+
+	/**
+	 * Previous change of the channels in a mask, found in the change
+	 * index with two binary searches.
+	 * @param mask bit map of channels
+	 * @param abs absolute time
+	 * @return absolute time of the last change in <code>mask</code> before <code>abs</code>, or <code>NOT_AVAILABLE</code>
+	 */
+	public long getPreviousChange(int mask, long abs) {
+		if (abs <= 0)
+			return NOT_AVAILABLE;
+		int[] changes = getChangeIndex(mask);
+		int found = lastChange(changes, getSampleIndex(abs - 1));
+		return (found < 0) ? NOT_AVAILABLE : timestamps[changes[found]];
+	}
+
+	/**
+	 * @param changes change index
+	 * @param index transition index
+	 * @return position in <code>changes</code> of the last change at or before <code>index</code>, or -1
+	 */
+	private static int lastChange(int[] changes, int index) {
+		int lo = 0, hi = changes.length - 1, found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (changes[mid] <= index) {
+				found = mid;
+				lo = mid + 1;
+			} else
+				hi = mid - 1;
+		}
+		return found;
+	}
+
 	/** captured values */
 	public final int[] values;
 	/** timestamp values in samples count from start */
@@ -369,4 +508,7 @@ public class CapturedData extends Object {
 	private long cursorPositionB;
 	/** cursors enabled status */
 	public boolean cursorEnabled;
+
+	/* change indices by channel mask */
+	private final HashMap<Integer,int[]> changeIndex = new HashMap<Integer,int[]>();
 }
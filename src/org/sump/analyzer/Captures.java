@@ -0,0 +1,582 @@
+/*
+ *  Copyright (C) 2012 John Pritchard
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.sump.util.Properties;
+
+/**
+ * The open captures, of which one is shown in the {@link Diagram}.
+ * <p>
+ * The data of the open captures is held in memory up to a budget,
+ * property <code>captures.budget</code> in megabytes.  Beyond it, the
+ * data of the least recently viewed captures is spilled to temporary
+ * files, and memory mapped back in when the capture is viewed again.
+ * The capture being viewed is always held in memory.  Spilled data is
+ * written and read back in the background, a capture keeping its data
+ * in memory until it has been written.
+ * <p>
+ * Captures from devices are recorded in a history of the last few,
+ * property <code>captures.history</code>, the oldest closed as new
+ * ones arrive.  A capture identical to the previous one is not kept
+ * again, but counted as a repeat of it.
+ *
+ * @author John Pritchard
+ */
+public class Captures
+    extends Object
+    implements Configurable
+{
+    /**
+     * An open capture, holding its data or the file it has been spilled to.
+     */
+    public final static class Capture
+        extends Object
+    {
+        public final String name;
+        /** true for a capture recorded from a device */
+        public final boolean device;
+        /** content hash of the data as recorded, zero unless recorded from a device */
+        public final long hash;
+
+        private CapturedData data;
+        private File spill;
+        private boolean spilling;
+        private int repeats;
+
+        Capture(String name, CapturedData data, boolean device, long hash){
+            super();
+            this.name = name;
+            this.data = data;
+            this.device = device;
+            this.hash = hash;
+        }
+
+        /**
+         * @return data of the capture, or null when spilled
+         */
+        public CapturedData getData(){
+            return this.data;
+        }
+        /**
+         * @return number of identical captures that followed this one
+         */
+        public int getRepeats(){
+            return this.repeats;
+        }
+        /**
+         * @return <code>true</code> when the data is in memory
+         */
+        public boolean isLoaded(){
+            return (null != this.data);
+        }
+        /**
+         * @return approximate heap size of the data in bytes, or zero when spilled
+         */
+        public long size(){
+            return Size(this.data);
+        }
+        public String toString(){
+            if (0 == this.repeats)
+                return this.name;
+            else
+                return this.name + " (" + (this.repeats + 1) + " identical)";
+        }
+    }
+
+
+    /** default budget in megabytes, a quarter of the heap */
+    public final static int BUDGET = (int)Math.max(16, Runtime.getRuntime().maxMemory() / (4 << 20));
+    /** default number of device captures kept */
+    public final static int HISTORY = 8;
+
+    private final static int MAGIC = 0x534c4143;  // "SLAC"
+    private final static int HEADER = 4 + 4 + 4 + 4 + 8 + 8 + 8 + 8 + 4 + 4;
+    /** bytes written or read at a time */
+    private final static int CHUNK = 1 << 20;
+    /**
+     * Writes and reads spilled data one capture at a time, off the
+     * event dispatch thread.
+     */
+    private final static ExecutorService Spill = Executors.newSingleThreadExecutor(new ThreadFactory(){
+            public Thread newThread(Runnable task){
+                Thread thread = new Thread(task, "Spill");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+
+    private final List<Capture> open = new ArrayList<Capture>();
+    /*
+     * Open captures in order of viewing, the most recent first
+     */
+    private final LinkedList<Capture> recent = new LinkedList<Capture>();
+    private Capture current;
+    private int budget = BUDGET;
+    private int history = HISTORY;
+    private int count;
+    private Capture recorded;
+
+
+    public Captures(){
+        super();
+    }
+
+
+    /**
+     * @return open captures in the order they were opened
+     */
+    public synchronized List<Capture> list(){
+        return new ArrayList<Capture>(this.open);
+    }
+    /**
+     * @return the capture being viewed, or null
+     */
+    public synchronized Capture getCurrent(){
+        return this.current;
+    }
+    /**
+     * @return budget for captures held in memory in megabytes
+     */
+    public int getBudget(){
+        return this.budget;
+    }
+    public synchronized void setBudget(int budget){
+        this.budget = Math.max(1, budget);
+        this.evict();
+    }
+    /**
+     * @return number of device captures kept
+     */
+    public int getHistory(){
+        return this.history;
+    }
+    public synchronized void setHistory(int history){
+        this.history = Math.max(1, history);
+        this.trim();
+    }
+    /**
+     * Records a capture from a device as the current capture, or
+     * counts it as a repeat of the previous device capture when their
+     * data is identical.  The data is hashed and compared in the
+     * background, reading the previous capture when it has been
+     * spilled without viewing it.
+     * @param data captured data
+     * @return the new capture, or the previous one it repeats
+     */
+    public CompletableFuture<Capture> record(final CapturedData data){
+        final CompletableFuture<Capture> future = new CompletableFuture<Capture>();
+        Spill.execute(new Runnable(){
+                public void run(){
+                    try {
+                        long hash = Hash(data);
+                        Capture previous = null;
+                        CapturedData loaded = null;
+                        File spill = null;
+                        synchronized (Captures.this){
+                            Capture recorded = Captures.this.recorded;
+                            if (null != recorded && Captures.this.open.contains(recorded) && recorded.hash == hash){
+                                previous = recorded;
+                                loaded = recorded.data;
+                                spill = recorded.spill;
+                            }
+                        }
+                        boolean equal = false;
+                        if (null != previous){
+                            try {
+                                equal = Equal((null != loaded) ? loaded : Read(spill), data);
+                            }
+                            catch (IOException exc){
+                                /*
+                                 * Closed since, or unreadable: not a repeat
+                                 */
+                            }
+                        }
+                        synchronized (Captures.this){
+                            if (equal && Captures.this.open.contains(previous))
+                                future.complete(Captures.this.repeat(previous, data));
+                            else
+                                future.complete(Captures.this.create(data, hash));
+                        }
+                    }
+                    catch (Throwable t){
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        return future;
+    }
+    private Capture create(CapturedData data, long hash){
+        Capture capture = new Capture("Capture " + (++this.count), data, true, hash);
+        this.recorded = capture;
+        this.open(capture);
+        this.trim();
+        return capture;
+    }
+    /**
+     * Counts a repeat, holding the identical data in memory for the
+     * previous capture when it has been spilled.
+     */
+    private Capture repeat(Capture previous, CapturedData data){
+        previous.repeats += 1;
+        if (null == previous.data){
+            previous.spill.delete();
+            previous.spill = null;
+            previous.data = data;
+            this.evict();
+        }
+        return previous;
+    }
+    /**
+     * Opens new data as the current capture.
+     * @param name name of the capture, or null for a numbered name
+     * @param data captured data
+     * @return the new capture
+     */
+    public synchronized Capture add(String name, CapturedData data){
+        if (null == name)
+            name = "Capture " + (++this.count);
+
+        Capture capture = new Capture(name, data, false, 0L);
+        this.open(capture);
+        return capture;
+    }
+    private void open(Capture capture){
+        this.open.add(capture);
+        this.current = capture;
+        this.recent.addFirst(capture);
+        this.evict();
+    }
+    /**
+     * Replaces the data of a capture, as when a tool has processed it.
+     */
+    public synchronized void replace(Capture capture, CapturedData data){
+        if (null != capture.spill){
+            capture.spill.delete();
+            capture.spill = null;
+        }
+        capture.data = data;
+        this.evict();
+    }
+    /**
+     * Makes a capture current, reading its data back in the
+     * background if it has been spilled.
+     * @return data of the capture, failing when the spilled data cannot be read
+     */
+    public synchronized CompletableFuture<CapturedData> view(final Capture capture){
+        if (!this.open.contains(capture))
+            throw new IllegalArgumentException(capture.name);
+
+        this.current = capture;
+        this.recent.remove(capture);
+        this.recent.addFirst(capture);
+
+        if (null != capture.data){
+            this.evict();
+            return CompletableFuture.completedFuture(capture.data);
+        }
+        else {
+            final File spill = capture.spill;
+            final CompletableFuture<CapturedData> future = new CompletableFuture<CapturedData>();
+            Spill.execute(new Runnable(){
+                    public void run(){
+                        try {
+                            CapturedData data = Read(spill);
+                            synchronized (Captures.this){
+                                if (spill == capture.spill){
+                                    spill.delete();
+                                    capture.spill = null;
+                                    capture.data = data;
+                                    Captures.this.evict();
+                                }
+                                else if (null != capture.data)
+                                    data = capture.data;
+                            }
+                            future.complete(data);
+                        }
+                        catch (Throwable t){
+                            future.completeExceptionally(t);
+                        }
+                    }
+                });
+            return future;
+        }
+    }
+    /**
+     * Closes a capture, deleting its spilled data.
+     * @return the capture now current, the most recently viewed one, or null
+     */
+    public synchronized Capture close(Capture capture){
+        this.open.remove(capture);
+        this.recent.remove(capture);
+        if (null != capture.spill){
+            capture.spill.delete();
+            capture.spill = null;
+        }
+        capture.data = null;
+        if (capture == this.current)
+            this.current = this.recent.peekFirst();
+        return this.current;
+    }
+    /**
+     * Closes the oldest device captures, excepting the current one,
+     * while there are more than the history keeps.
+     */
+    private void trim(){
+        int devices = 0;
+        for (Capture capture: this.open)
+            if (capture.device)
+                devices++;
+
+        for (Capture capture: this.list()){
+            if (devices <= this.history)
+                break;
+            else if (capture.device && capture != this.current){
+                this.close(capture);
+                devices--;
+            }
+        }
+    }
+    /**
+     * Spills the least recently viewed captures, excepting the current
+     * one, while the captures in memory exceed the budget.  The data
+     * is written in the background, and released when written unless
+     * the capture has since been viewed, replaced or closed.
+     */
+    private void evict(){
+        long limit = (long)this.budget << 20;
+        long total = 0;
+        for (Capture capture: this.open)
+            if (!capture.spilling)
+                total += capture.size();
+
+        for (int index = this.recent.size() - 1; index > 0 && total > limit; index--){
+            final Capture capture = this.recent.get(index);
+            if (capture != this.current && capture.isLoaded() && !capture.spilling){
+                final CapturedData data = capture.data;
+                capture.spilling = true;
+                total -= capture.size();
+                Spill.execute(new Runnable(){
+                        public void run(){
+                            Captures.this.spill(capture, data);
+                        }
+                    });
+            }
+        }
+    }
+    /**
+     * Writes the data of a capture, releasing it when still wanted.  A
+     * capture that cannot be spilled stays in memory.
+     */
+    private void spill(Capture capture, CapturedData data){
+        File file = null;
+        try {
+            file = Write(data);
+        }
+        catch (IOException exc){
+            exc.printStackTrace();
+        }
+        synchronized (this){
+            capture.spilling = false;
+            if (null == file)
+                return;
+            else if (data == capture.data && capture != this.current && this.open.contains(capture)){
+                capture.spill = file;
+                capture.data = null;
+            }
+            else
+                file.delete();
+        }
+    }
+
+    public void readProperties(Properties properties){
+        String value = properties.getProperty("captures.budget");
+        if (null != value){
+            try {
+                this.setBudget(Integer.parseInt(value.trim()));
+            }
+            catch (NumberFormatException exc){
+            }
+        }
+        value = properties.getProperty("captures.history");
+        if (null != value){
+            try {
+                this.setHistory(Integer.parseInt(value.trim()));
+            }
+            catch (NumberFormatException exc){
+            }
+        }
+    }
+    public void writeProperties(Properties properties){
+        properties.setProperty("captures.budget", String.valueOf(this.budget));
+        properties.setProperty("captures.history", String.valueOf(this.history));
+    }
+
+
+    private final static long Size(CapturedData data){
+        if (null == data)
+            return 0L;
+        else
+            return 4L * data.values.length + 8L * data.timestamps.length + data.getChangeIndexSize();
+    }
+    /**
+     * @return hash of the transitions of the data
+     */
+    private final static long Hash(CapturedData data){
+        return ((long)Arrays.hashCode(data.values) << 32) ^ (Arrays.hashCode(data.timestamps) & 0xffffffffL);
+    }
+    /**
+     * @return <code>true</code> when the data has the same transitions and settings
+     */
+    private final static boolean Equal(CapturedData a, CapturedData b){
+        return (a.rate == b.rate && a.channels == b.channels && a.enabledChannels == b.enabledChannels
+                && a.triggerPosition == b.triggerPosition && a.absoluteLength == b.absoluteLength
+                && Arrays.equals(a.values, b.values) && Arrays.equals(a.timestamps, b.timestamps));
+    }
+    /**
+     * Writes the data to a new temporary file, deleted on exit.
+     */
+    private final static File Write(CapturedData data) throws IOException {
+        File file = File.createTempFile("capture", ".spill");
+        file.deleteOnExit();
+        boolean written = false;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC);
+            header.putInt(data.rate);
+            header.putInt(data.channels);
+            header.putInt(data.enabledChannels);
+            header.putLong(data.triggerPosition);
+            header.putLong(data.absoluteLength);
+            header.putLong(data.getCursorPositionA());
+            header.putLong(data.getCursorPositionB());
+            header.putInt(data.cursorEnabled ? 1 : 0);
+            header.putInt(data.values.length);
+            header.flip();
+            while (header.hasRemaining())
+                channel.write(header);
+
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK);
+            int[] values = data.values;
+            for (int index = 0; index < values.length; ){
+                int n = Math.min(values.length - index, CHUNK / 4);
+                buffer.clear();
+                buffer.asIntBuffer().put(values, index, n);
+                buffer.limit(4 * n);
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                index += n;
+            }
+            long[] timestamps = data.timestamps;
+            for (int index = 0; index < timestamps.length; ){
+                int n = Math.min(timestamps.length - index, CHUNK / 8);
+                buffer.clear();
+                buffer.asLongBuffer().put(timestamps, index, n);
+                buffer.limit(8 * n);
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                index += n;
+            }
+            written = true;
+            return file;
+        }
+        finally {
+            raf.close();
+            if (!written)
+                file.delete();
+        }
+    }
+    /**
+     * Reads data written by {@link #Write(CapturedData)}.
+     */
+    private final static CapturedData Read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            Fill(channel, header, file);
+            if (MAGIC != header.getInt())
+                throw new IOException("Corrupt capture file '"+file+"'");
+
+            int rate = header.getInt();
+            int channels = header.getInt();
+            int enabledChannels = header.getInt();
+            long triggerPosition = header.getLong();
+            long absoluteLength = header.getLong();
+            long cursorA = header.getLong();
+            long cursorB = header.getLong();
+            boolean cursorEnabled = (0 != header.getInt());
+            int count = header.getInt();
+
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK);
+            int[] values = new int[count];
+            for (int index = 0; index < count; ){
+                int n = Math.min(count - index, CHUNK / 4);
+                buffer.clear();
+                buffer.limit(4 * n);
+                Fill(channel, buffer, file);
+                buffer.asIntBuffer().get(values, index, n);
+                index += n;
+            }
+            long[] timestamps = new long[count];
+            for (int index = 0; index < count; ){
+                int n = Math.min(count - index, CHUNK / 8);
+                buffer.clear();
+                buffer.limit(8 * n);
+                Fill(channel, buffer, file);
+                buffer.asLongBuffer().get(timestamps, index, n);
+                index += n;
+            }
+            CapturedData data = new CapturedData(values, timestamps, triggerPosition, rate, channels, enabledChannels, absoluteLength);
+            data.setCursorPositionA(cursorA);
+            data.setCursorPositionB(cursorB);
+            data.cursorEnabled = cursorEnabled;
+            return data;
+        }
+        finally {
+            raf.close();
+        }
+    }
+    /**
+     * Reads the remaining bytes of the buffer, and flips it for getting them.
+     */
+    private final static void Fill(FileChannel channel, ByteBuffer buffer, File file) throws IOException {
+        while (buffer.hasRemaining()){
+            if (0 > channel.read(buffer))
+                throw new IOException("Truncated capture file '"+file+"'");
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *  Copyright (C) 2012 John Pritchard
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Loads and saves data files on a background thread, reporting the
+ * bytes processed as a percentage and stopping when the returned
+ * future is cancelled.
+ * <p>
+ * A file is saved to a temporary file next to it, which replaces it
+ * when complete, so that a cancelled or failed save leaves an existing
+ * file unchanged.
+ *
+ * @see CapturedData
+ * @author John Pritchard
+ */
+final class DataFile
+    extends Object
+{
+
+    /**
+     * Receives the progress of a load or save on its background thread,
+     * when the percentage changes.
+     */
+    public interface Progress {
+
+        public void progress(int percentage);
+    }
+
+
+    /**
+     * @param file data file
+     * @param progress receives the percentage of bytes read
+     * @return captured data when read, cancel to stop reading
+     */
+    public static CompletableFuture<CapturedData> Load(final File file, final Progress progress){
+        final CompletableFuture<CapturedData> future = new CompletableFuture<CapturedData>();
+        Start(new Runnable(){
+                public void run(){
+                    try {
+                        InputStream in = new Input(new FileInputStream(file), file.length(), future, progress);
+                        future.complete(new CapturedData(new BufferedReader(new InputStreamReader(in))));
+                    }
+                    catch (Throwable t){
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        return future;
+    }
+    /**
+     * @param data captured data to save
+     * @param file data file, replaced when complete
+     * @param progress receives the estimated percentage of bytes written
+     * @return the file when written, cancel to stop writing
+     */
+    public static CompletableFuture<File> Save(final CapturedData data, final File file, final Progress progress){
+        final CompletableFuture<File> future = new CompletableFuture<File>();
+        Start(new Runnable(){
+                public void run(){
+                    File tmp = null;
+                    try {
+                        File dir = file.getAbsoluteFile().getParentFile();
+                        tmp = File.createTempFile(file.getName(), ".tmp", dir);
+                        OutputStream out = new Output(new FileOutputStream(tmp), Estimate(data), future, progress);
+                        data.write(new BufferedWriter(new OutputStreamWriter(out)));
+                        if (!future.isDone()){
+                            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                            tmp = null;
+                            future.complete(file);
+                        }
+                    }
+                    catch (Throwable t){
+                        future.completeExceptionally(t);
+                    }
+                    finally {
+                        if (null != tmp)
+                            tmp.delete();
+                    }
+                }
+            });
+        return future;
+    }
+
+
+    private static void Start(Runnable task){
+        Thread thread = new Thread(task, "DataFile");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    /**
+     * @return approximate size of the data file, from the line length
+     * of the largest timestamp
+     */
+    private static long Estimate(CapturedData data){
+        return 256L + (long)data.values.length * (10 + Long.toString(data.absoluteLength).length());
+    }
+    /**
+     * Counts bytes, reports the percentage when it changes, and throws
+     * when cancelled.
+     */
+    private static int Count(long bytes, long total, int percentage, CompletableFuture<?> future, Progress progress)
+        throws IOException
+    {
+        if (future.isCancelled())
+            throw new InterruptedIOException("Cancelled");
+        int p = (total > 0) ? (int)Math.min(100, bytes * 100 / total) : 0;
+        if (p != percentage)
+            progress.progress(p);
+        return p;
+    }
+
+
+    private final static class Input
+        extends FilterInputStream
+    {
+        private final long total;
+        private final CompletableFuture<?> future;
+        private final Progress progress;
+        private long bytes;
+        private int percentage;
+
+        Input(InputStream in, long total, CompletableFuture<?> future, Progress progress){
+            super(in);
+            this.total = total;
+            this.future = future;
+            this.progress = progress;
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                percentage = Count(++bytes, total, percentage, future, progress);
+            return b;
+        }
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0){
+                bytes += n;
+                percentage = Count(bytes, total, percentage, future, progress);
+            }
+            return n;
+        }
+    }
+
+    private final static class Output
+        extends FilterOutputStream
+    {
+        private final long total;
+        private final CompletableFuture<?> future;
+        private final Progress progress;
+        private long bytes;
+        private int percentage;
+
+        Output(OutputStream out, long total, CompletableFuture<?> future, Progress progress){
+            super(out);
+            this.total = total;
+            this.future = future;
+            this.progress = progress;
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            percentage = Count(++bytes, total, percentage, future, progress);
+        }
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytes += len;
+            percentage = Count(bytes, total, percentage, future, progress);
+        }
+    }
+}
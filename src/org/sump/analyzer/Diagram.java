@@ -22,19 +22,41 @@ package org.sump.analyzer;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Dimension;
+import java.awt.Font;
 import java.awt.Frame;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.Shape;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.MouseEvent;
-import java.text.NumberFormat;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
+import javax.swing.AbstractAction;
 import javax.swing.JComponent;
 import javax.swing.JMenuItem;
 import javax.swing.JPopupMenu;
+import javax.swing.JScrollBar;
+import javax.swing.KeyStroke;
+import javax.swing.Scrollable;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.MouseInputListener;
 
 import org.sump.util.Properties;
@@ -44,8 +66,18 @@ import org.sump.util.Properties;
  * The settings for the diagram are obtained from the embedded {@link DiagramSettings} and {@link DiagramLabels} objects.
  * Look there for an overview of ways to display data.
  * <p>
- * Component size changes with the size of the diagram.
- * Therefore it should only be used from within a JScrollPane.
+ * The diagram is a viewport on the scaled waveform: it is as wide as
+ * its container, and keeps the horizontal position of the view as a
+ * long pixel offset in the scaled waveform, which is scrolled with the
+ * scroll bar returned by {@link #getScrollBar()}.  Any capture length
+ * can be scrolled at any scale.  The component height changes with
+ * the displayed groups, so it should be placed in a JScrollPane
+ * without a horizontal scroll bar.
+ * <p>
+ * The arrow keys left and right step the view to the previous or next
+ * edge of the channel under the mouse, centering it; with shift to the
+ * previous or next change of the group under the mouse.  With control
+ * they move cursor A instead of the view, and with alt cursor B.
  *
  * @version 0.8
  * @author Michael "Mr. Sump" Poppitz
@@ -53,10 +85,23 @@ import org.sump.util.Properties;
  */
 public class Diagram 
     extends JComponent 
-    implements MouseInputListener, Configurable, ActionListener
+    implements MouseInputListener, Configurable, ActionListener, AdjustmentListener, Scrollable
 {
 
     private static final long serialVersionUID = 1L;
+
+    /** name of the bound property changed by {@link #setCapturedData(CapturedData)} */
+    public final static String CAPTURED_DATA = "capturedData";
+
+    /** edge navigation target, see {@link #gotoEdge(int,boolean,boolean)} */
+    public final static int NAVIGATE_VIEW = 0;
+    /** edge navigation target, see {@link #gotoEdge(int,boolean,boolean)} */
+    public final static int NAVIGATE_CURSOR_A = 1;
+    /** edge navigation target, see {@link #gotoEdge(int,boolean,boolean)} */
+    public final static int NAVIGATE_CURSOR_B = 2;
+
+    /** milliseconds by which mouse drags are coalesced, about one display refresh */
+    private final static int DRAG_DELAY = 16;
 	
     private CapturedData capturedData;
     private DiagramSettings settings;
@@ -73,23 +118,35 @@ public class Diagram
 	
     private double scale;
     private double maxScale;
-    private int timeDivider;
-    private int currentPage;
-    private int maxPages;
-    private int pageLen;
+
+    /*
+     * View position: the pixel of the scaled waveform (in which sample s
+     * starts at floor(s * scale)) drawn at offsetX.  The scroll bar
+     * counts in units of scrollUnit pixels, so that its int range
+     * covers the waveform.
+     */
+    private long viewX;
+    private final JScrollBar scrollBar;
+    private long scrollUnit;
+    private boolean scrollUpdating;
+    private DiagramRenderer labelRenderer;
+
+    /*
+     * Edge last navigated to by the view, and the view position
+     * centering it: the next step starts from the edge rather than
+     * from the view center, which can round to a sample before it
+     */
+    private long navigated;
+    private long navigatedViewX = -1;
 	
-    private Color signal;
     private Color trigger;
-    private Color grid;
-    private Color text;
-    private Color time;
-    private Color groupBackground;
     private Color background;
     private Color label;
     private Color cursorA;
     private Color cursorB;
 	
     private int draggedCursor;
+    private final Timer dragTimer;
     private Cursor cursorDefault;
     private Cursor cursorDrag;
     private Vector<DiagramCursorChangeListener> curListners;
@@ -99,13 +156,32 @@ public class Diagram
 	
     private Dimension size;
 
-
     /*
-     * TODO: Optimization: drawEdge is called many times with data containing many signal transitions.
-     * - Optimize 1: draw a rectangle instead of the edges when zoomed to fit
-     * - Optimize 2: enable double buffering could increase performance
+     * Waveform tiles, rendered by a shared pool of daemon threads and
+     * composited by paintComponent with trigger, cursors and channel
+     * labels drawn on top.  The pool also counts the histogram of the
+     * DiagramOverview.
      */
-	
+    final static ExecutorService Renderers = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "DiagramRenderer");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+    private final DiagramTiles tiles = new DiagramTiles();
+    private final HashMap<DiagramTiles.Key,FutureTask<BufferedImage>> pending = new HashMap<DiagramTiles.Key,FutureTask<BufferedImage>>();
+    /** key set for each tile looked up while painting */
+    private final DiagramTiles.Key probe = new DiagramTiles.Key(0, 0, 0, 0, 0);
+    /** renderer reused by each rendering thread */
+    private final static ThreadLocal<DiagramRenderer> TileRenderer = new ThreadLocal<DiagramRenderer>() {
+            protected DiagramRenderer initialValue() {
+                return new DiagramRenderer(null, new int[4], 1, 0, 0, 0);
+            }
+        };
+    private final Color placeholder = new Color(242,242,242);
+
 
 	
     /**
@@ -116,12 +192,7 @@ public class Diagram
 		
         this.size = new Dimension(25, 1);
 		
-        this.signal = new Color(0,0,196);
-        this.trigger = new Color(196,255,196);
-        this.grid = new Color(196,196,196);
-        this.text = new Color(0,0,0);
-        this.time = new Color(0,0,0);
-        this.groupBackground = new Color(242,242,242);
+        this.trigger = new Color(0,224,0,48);
         this.background = new Color(255,255,255);
         this.label = new Color(255,196,196);
         this.cursorA = new Color(190,120,0);
@@ -152,13 +223,59 @@ public class Diagram
         this.cursorDefault = this.getCursor();
         this.cursorDrag = new Cursor(Cursor.MOVE_CURSOR);
         this.draggedCursor = 0;
+        this.dragTimer = new Timer(DRAG_DELAY, new ActionListener() {
+                public void actionPerformed(ActionEvent event) {
+                    dragged();
+                }
+            });
+        this.dragTimer.setRepeats(false);
         this.curListners = new Vector<DiagramCursorChangeListener>();
 		
         this.maxScale = 10.0;
-        this.timeDivider = 1;
-        this.maxPages = 1;
-        this.currentPage = 0;
-        this.pageLen = 0;
+
+        this.scrollUnit = 1;
+        this.scrollBar = new JScrollBar(JScrollBar.HORIZONTAL);
+        this.scrollBar.addAdjustmentListener(this);
+        this.addComponentListener(new ComponentAdapter() {
+                public void componentResized(ComponentEvent event) {
+                    setViewX(viewX);
+                    updateScrollBar();
+                }
+            });
+
+        bindEdgeKey("LEFT", NAVIGATE_VIEW, false, false);
+        bindEdgeKey("RIGHT", NAVIGATE_VIEW, false, true);
+        bindEdgeKey("shift LEFT", NAVIGATE_VIEW, true, false);
+        bindEdgeKey("shift RIGHT", NAVIGATE_VIEW, true, true);
+        bindEdgeKey("ctrl LEFT", NAVIGATE_CURSOR_A, false, false);
+        bindEdgeKey("ctrl RIGHT", NAVIGATE_CURSOR_A, false, true);
+        bindEdgeKey("ctrl shift LEFT", NAVIGATE_CURSOR_A, true, false);
+        bindEdgeKey("ctrl shift RIGHT", NAVIGATE_CURSOR_A, true, true);
+        bindEdgeKey("alt LEFT", NAVIGATE_CURSOR_B, false, false);
+        bindEdgeKey("alt RIGHT", NAVIGATE_CURSOR_B, false, true);
+        bindEdgeKey("alt shift LEFT", NAVIGATE_CURSOR_B, true, false);
+        bindEdgeKey("alt shift RIGHT", NAVIGATE_CURSOR_B, true, true);
+    }
+
+    /**
+     * Binds a key of the window to {@link #gotoEdge(int,boolean,boolean)}.
+     */
+    private void bindEdgeKey(String key, final int target, final boolean group, final boolean forward) {
+        getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(key), key);
+        getActionMap().put(key, new AbstractAction() {
+                private static final long serialVersionUID = 1L;
+
+                public void actionPerformed(ActionEvent event) {
+                    gotoEdge(target, group, forward);
+                }
+            });
+    }
+
+    /**
+     * @return horizontal scroll bar of the diagram, to be placed below it
+     */
+    public JScrollBar getScrollBar() {
+        return scrollBar;
     }
 	
     public void addCursorChangeListener(DiagramCursorChangeListener listener) {
@@ -166,35 +283,24 @@ public class Diagram
     }
 	
     /**
-     * Resizes the diagram as required by available data and scaling factor.
+     * Resizes the diagram as required by available data and displayed
+     * groups, and updates the scroll bar for the scaling factor.
      *
      */
     private void resize() {
         if (capturedData == null)
             return;
 
-        int height = 20;
-        for (int group = 0; group < capturedData.channels / 8 && group < 4; group++)
-            if (((capturedData.enabledChannels >> (8 * group)) & 0xff) != 0) {
-                if ((settings.groupSettings[group] & DiagramSettings.DISPLAY_CHANNELS) > 0)
-                    height += 20 * 8;
-                if ((settings.groupSettings[group] & DiagramSettings.DISPLAY_SCOPE) > 0)
-                    height += 133;
-                if ((settings.groupSettings[group] & DiagramSettings.DISPLAY_BYTE) > 0)
-                    height += 20;
-            }
-		
-        long width = (long)(scale * capturedData.absoluteLength);
-        width /= maxPages;
-        width += 25;
-		
-        //		System.out.println("set width=" + width);
+        labelRenderer = new DiagramRenderer(capturedData, settings.groupSettings, scale, 0, offsetX, offsetY);
+
+        int height = labelRenderer.getHeight();
 		
-        Rectangle rect = getBounds();
-        rect.setSize((int)width, height);
-        setBounds(rect);
-        size.width = (int)width;
-        size.height = height;
+        if (size.height != height) {
+            size.height = height;
+            revalidate();
+        }
+        setViewX(viewX);
+        updateScrollBar();
 		
         /**
          * !!! fk - Update call removed !!!
@@ -215,19 +321,20 @@ public class Diagram
      * @param capturedData		captured data to base diagram on
      */
     public void setCapturedData(CapturedData capturedData) {
+        CapturedData previous = this.capturedData;
         this.capturedData = capturedData;
+        invalidateTiles();
 		
         // reset zoom, etc.
+        viewX = 0;
+        navigatedViewX = -1;
         scale = maxScale;
         zoomDefault();
-        timeDivider = 1;
-        maxPages = 1;
-        currentPage = 0;
-        pageLen = 0;
 		
         // show data
         calculateUnits();
         resize();
+        firePropertyChange(CAPTURED_DATA, previous, capturedData);
     }
 
     private void calculateUnits() {
@@ -270,39 +377,49 @@ public class Diagram
     }
 	
     /**
-     * Zooms in by factor 2 and resizes the component accordingly.
+     * Zooms in by factor 2, keeping the center of the view in place.
      *
      */
     public void zoomIn() {
-        if (scale < maxScale) {
-            scale = scale * 2;
-            if(scale > maxScale) scale = maxScale;
-            calculatePages();
-            calculateUnits();
-            resize();
-        }
+        zoomIn(offsetX + getVisibleWidth() / 2);
+    }
+
+    /**
+     * Zooms in by factor 2, keeping the sample at the given position in place.
+     * @param x horizontal position in the diagram
+     */
+    public void zoomIn(int x) {
+        if (scale < maxScale)
+            setScale(Math.min(scale * 2, maxScale), x);
     }
 	
     /**
-     * Zooms out by factor 2 and resizes the component accordingly.
+     * Zooms out by factor 2, keeping the center of the view in place.
      *
      */
     public void zoomOut() {
-        scale = scale / 2;
-        calculatePages();
-        calculateUnits();
-        resize();
+        zoomOut(offsetX + getVisibleWidth() / 2);
+    }
+
+    /**
+     * Zooms out by factor 2, keeping the sample at the given position
+     * in place.  Zooms to fit when the data becomes narrower than the view.
+     * @param x horizontal position in the diagram
+     */
+    public void zoomOut(int x) {
+        if (capturedData != null && (scale / 2) * capturedData.absoluteLength < getVisibleWidth())
+            zoomFit(getWidth());
+        else
+            setScale(scale / 2, x);
     }
 	
     /**
-     * Reverts back to the standard zoom level.
+     * Reverts back to the standard zoom level, keeping the center of
+     * the view in place.
      *
      */
     public void zoomDefault() {
-        scale = maxScale;
-        calculatePages();
-        calculateUnits();
-        resize();
+        setScale(maxScale, offsetX + getVisibleWidth() / 2);
     }
 
     /**
@@ -311,7 +428,7 @@ public class Diagram
      */
     public void zoomFit(int width) {
         // reverse the scaling
-        width -= 25;
+        width -= offsetX;
         if(width < 1) width = 1;
 
         // avoid null pointer exception when no data available
@@ -321,78 +438,197 @@ public class Diagram
             scale = (double)width / (double)capturedData.absoluteLength;
         else
             scale = maxScale;
-		
-        calculatePages();
+
+        viewX = 0;
+        navigatedViewX = -1;
         calculateUnits();
         resize();
     }
-	
+
     /**
-     * calculate number and size of pages for various zoom levels.
+     * Changes the scale, keeping the sample at the given position in place.
+     * @param scale new scaling factor
+     * @param x horizontal position in the diagram
      */
-    private void calculatePages() {
-        if(capturedData != null) {
-            double maxAvailableWidth = Integer.MAX_VALUE - 100;
-            double currentScaledSize = (long)(scale * capturedData.absoluteLength);
-            if(currentScaledSize > maxAvailableWidth) {
-                maxPages = (int)Math.ceil(currentScaledSize / maxAvailableWidth);
-                pageLen = (int)(scale * capturedData.absoluteLength / maxPages);
-            } else {
-                maxPages = 1;
-                pageLen = (int)(scale * capturedData.absoluteLength);
+    private void setScale(double scale, int x) {
+        double sample = (x - offsetX + viewX) / this.scale;
+        this.scale = scale;
+        viewX = (long)Math.floor(sample * scale) - (x - offsetX);
+        navigatedViewX = -1;
+        calculateUnits();
+        resize();
+    }
+
+    /**
+     * @return width of the waveform part of the view
+     */
+    private int getVisibleWidth() {
+        return Math.max(0, getWidth() - offsetX);
+    }
+
+    /**
+     * @return width of the scaled waveform
+     */
+    private long getScaledWidth() {
+        if (capturedData == null)
+            return 0;
+        else
+            return (long)Math.ceil(scale * capturedData.absoluteLength);
+    }
+
+    /**
+     * Scrolls the view.
+     * @param dx distance in pixels, positive to the right
+     */
+    public void scrollBy(int dx) {
+        setViewX(viewX + dx);
+    }
+
+    /**
+     * Scrolls the view to show the given sample near its left edge.
+     * Does nothing when the data is about as wide as the view.
+     * @param pos sample position
+     */
+    public void gotoPosition(long pos) {
+        if (getScaledWidth() < getVisibleWidth() * 2)
+            return;
+        setViewX((long)Math.floor(pos * scale) - 20);
+    }
+
+    /**
+     * Scrolls the view to center the given sample, as far as the data
+     * reaches, however wide the data is.
+     * @param pos sample position
+     */
+    public void centerPosition(long pos) {
+        setViewX((long)Math.floor(pos * scale) - getVisibleWidth() / 2);
+    }
+
+    /**
+     * Moves the view or a cursor to the next or previous edge of the
+     * channel under the mouse, or to the next or previous change of
+     * any channel of the group under the mouse.  Without a row under
+     * the mouse, changes of any channel are used.  Edges are found
+     * with the change index of the captured data, in logarithmic time.
+     * @param target one of <code>NAVIGATE_VIEW</code>, <code>NAVIGATE_CURSOR_A</code> and <code>NAVIGATE_CURSOR_B</code>
+     * @param group <code>true</code> to find changes of the group rather than edges of the channel
+     * @param forward <code>true</code> for the next, <code>false</code> for the previous edge
+     * @return <code>true</code> when an edge was found
+     */
+    public boolean gotoEdge(int target, boolean group, boolean forward) {
+        if (capturedData == null || labelRenderer == null)
+            return false;
+        if (target != NAVIGATE_VIEW && !capturedData.cursorEnabled)
+            return false;
+
+        int mask = labelRenderer.getMaskAt(mouseY);
+        if (mask == 0)
+            mask = capturedData.enabledChannels;
+        else if (group)
+            mask = 0xff << (8 * (Integer.numberOfTrailingZeros(mask) / 8));
+
+        long from;
+        switch (target) {
+        case NAVIGATE_CURSOR_A:
+            from = capturedData.getCursorPositionA();
+            break;
+        case NAVIGATE_CURSOR_B:
+            from = capturedData.getCursorPositionB();
+            break;
+        default:
+            if (viewX == navigatedViewX)
+                from = navigated;
+            else
+                from = xToIndex(offsetX + getVisibleWidth() / 2);
+            break;
+        }
+
+        long edge = forward ? capturedData.getNextChange(mask, from) : capturedData.getPreviousChange(mask, from);
+        if (edge == CapturedData.NOT_AVAILABLE)
+            return false;
+
+        switch (target) {
+        case NAVIGATE_CURSOR_A:
+            repaintCursor(capturedData.getCursorPositionA());
+            capturedData.setCursorPositionA(edge);
+            repaintCursor(edge);
+            break;
+        case NAVIGATE_CURSOR_B:
+            repaintCursor(capturedData.getCursorPositionB());
+            capturedData.setCursorPositionB(edge);
+            repaintCursor(edge);
+            break;
+        default:
+            break;
+        }
+        if (target == NAVIGATE_VIEW || edge < getFirstVisibleSample() || edge > getLastVisibleSample()) {
+            setViewX((long)Math.floor(edge * scale) - getVisibleWidth() / 2);
+            if (target == NAVIGATE_VIEW) {
+                navigated = edge;
+                navigatedViewX = viewX;
             }
-        } else {
-            maxPages = 1;
-            pageLen = 0;
         }
-        //		System.out.println("maxPages=" + maxPages + " pageLen=" + pageLen);
+        updateStatus(false);
+        return true;
     }
-	
+
     /**
-     * calulate the position within a window (pane) based on current page and zoom settings
-     * @param width window width
-     * @param pos sample position
-     * @return current position within window
+     * @return first sample of the view
      */
-    public int getTargetPosition(int width, long pos) {
-        pos -= getPageOffset();
-        if(pos < 0) pos = 0;
-        return (int)((double)pos * (double)width * (double)scale / (double)pageLen);
+    public long getFirstVisibleSample() {
+        return xToIndex(offsetX);
     }
 
     /**
-     * @param page set the current page
+     * @return last sample of the view
      */
-    public void setCurrentPage(int page) {
-        currentPage = page;
-        resize();
+    public long getLastVisibleSample() {
+        return xToIndex(getWidth());
     }
-	
+
     /**
-     * get the page number based on a sample position
-     * @param pos sample position
-     * @return page number
+     * Moves the view, limited to the scaled waveform, and repaints.
+     * @param x pixel of the scaled waveform to show at the left of the view
      */
-    public int getPage(long pos) {
-        if(capturedData != null) {
-            return (int)(pos * maxPages / capturedData.absoluteLength);
-        } else {
-            return 0;
+    private void setViewX(long x) {
+        long max = Math.max(0, getScaledWidth() - getVisibleWidth());
+        if (x > max)
+            x = max;
+        if (x < 0)
+            x = 0;
+        if (x != viewX) {
+            viewX = x;
+            updateScrollBar();
+            repaint();
         }
     }
 
     /**
-     * @return the maxPages
+     * Sets the scroll bar from the view, in units keeping its values
+     * within the int range.
      */
-    public int getMaxPages() {
-        return maxPages;
+    private void updateScrollBar() {
+        long width = getScaledWidth();
+        scrollUnit = Math.max(1, width / (Integer.MAX_VALUE / 2));
+        int extent = (int)Math.max(1, getVisibleWidth() / scrollUnit);
+        int maximum = (int)Math.max(extent, (width + scrollUnit - 1) / scrollUnit);
+
+        scrollUpdating = true;
+        try {
+            scrollBar.setValues((int)(viewX / scrollUnit), extent, 0, maximum);
+            scrollBar.setUnitIncrement((int)Math.max(1, 30 / scrollUnit));
+            scrollBar.setBlockIncrement(Math.max(1, extent - 1));
+        } finally {
+            scrollUpdating = false;
+        }
     }
 
     /**
-     * @return the sample offset of the current page
+     * Scrolls the view with the scroll bar.
      */
-    public long getPageOffset() {
-        return (currentPage * capturedData.absoluteLength / maxPages);
+    public void adjustmentValueChanged(AdjustmentEvent event) {
+        if (!scrollUpdating && (viewX / scrollUnit) != event.getValue())
+            setViewX(event.getValue() * scrollUnit);
     }
 
     /**
@@ -412,7 +648,7 @@ public class Diagram
      */
     public void showLabelsDialog(Frame frame) {
         if (labels.showDialog(frame) == DiagramLabels.OK)
-            resize();
+            repaint();
     }
 
     /**
@@ -433,6 +669,29 @@ public class Diagram
         return (size);
     }
 
+    public Dimension getPreferredScrollableViewportSize() {
+        return (size);
+    }
+
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return 20;
+    }
+
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return Math.max(20, visibleRect.height - 20);
+    }
+
+    /**
+     * The diagram is as wide as the viewport, and scrolls horizontally by itself.
+     */
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+
+    public boolean getScrollableTracksViewportHeight() {
+        return false;
+    }
+
     /**
      * Enable/Disable diagram cursors
      */
@@ -451,382 +710,226 @@ public class Diagram
             return false;
     }
 
-    private void drawEdge(Graphics g, int x, int y, boolean falling, boolean rising) {
-        if (scale <= 1) {
-            g.drawLine(x, y, x, y + 14);
-        } else {
-            int edgeX = x;
-            if (scale >= 5)
-                edgeX += (int)(scale * 0.4);
-	
-            if (rising) {
-                g.drawLine(x, y + 14, edgeX, y);
-                g.drawLine(edgeX, y, x + (int)scale, y);
-            }	
-            if (falling) {
-                g.drawLine(x, y, edgeX, y + 14);
-                g.drawLine(edgeX, y + 14, x + (int)scale, y + 14);
-            }	
-        }
-    }
     /**
-     * Draws a channel.
-     * @param g graphics context to draw on
-     * @param x x offset
-     * @param y y offset
-     * @param data array containing the sampled data
-     * @param n number of channel to display
-     * @param from index of first sample to display
-     * @param to index of last sample to display
+     * Paints the diagram to the extend necessary, from cached waveform
+     * tiles with cursors and channel labels drawn on top.
      */
-    private void drawChannel(Graphics g, int x, int y, int[] data, long[] time, int n, long from, long to) {
-        int dataIndex = 0;
-
-        //		boolean printit = true;
-		
-        from /= timeDivider;
-        to /= timeDivider;
-		
-        do {
-            if((time[dataIndex] / timeDivider) > from) 	break;
-            dataIndex++;
-        } while(dataIndex < time.length);
-        if(dataIndex > 0) dataIndex--;
-		
-        for (long current = from; current < to;) {
-            //			if(printit) {
-            //				System.out.println("X=" + x + " current=" + current + " getPageOffset=" + getPageOffset());
-            //			}
-            int currentX = (int)((current - getPageOffset()) * scale * timeDivider);
-            int currentV = (data[dataIndex] >> n) & 0x01;
-            int nextV = currentV;
-            long next = current;
-	
-            // here is a transition
-            dataIndex++;
-            if(dataIndex < data.length) {
-                nextV = (data[dataIndex] >> n) & 0x01;
-                next = time[dataIndex] / timeDivider;
-            } else {
-                next = to;
-            }
-            if(next >= to) next = to + 1;
-			
-            if(currentX < 0) currentX = 0;
-            currentX += x;
-			
-            int currentEndX = currentX + (int)(scale * (next - current - 1) * timeDivider);
-			
-            //			if(printit) {
-            //				System.out.println("currentX=" + currentX + " currentEndX=" + currentEndX + " next=" + next + " current=" + current + " poffs=" + getPageOffset());
-            //				printit = false;
-            //			}
-			
-            // draw straight line up to the point of change and a edge if not at end
-            if (currentV == nextV) {
-                g.drawLine(currentX, y + 14 * (1 - currentV), currentEndX + (int)(scale * timeDivider), y + 14 * (1 - currentV));
-            } else {
-                g.drawLine(currentX, y + 14 * (1 - currentV), currentEndX, y + 14 * (1 - currentV));
-                if (currentV > nextV)
-                    drawEdge(g, currentEndX, y, true, false);
-                else if (currentV < nextV)
-                    drawEdge(g, currentEndX, y, false, true);
-            }
-            current = next;
-        }
-    }
-	
-    private void drawGridLine(Graphics g, Rectangle clipArea, int y) {
-        g.setColor(grid);
-        g.drawLine(clipArea.x, y, clipArea.x + clipArea.width, y);
-    }
-	
-    /**
-     * Draws a byte bar.
-     * @param g graphics context to draw on
-     * @param x x offset
-     * @param y y offset
-     * @param data array containing the sampled data
-     * @param n number of group to display (0-3 for 32 channels)
-     * @param from index of first sample to display
-     * @param to index of last sample to display
-     */
-    private int drawGroupByte(Graphics g, int x, int y, int[] data, long[] time, Rectangle clipArea, int n, long from, long to) {
-		
-        int dataIndex = 0;
-        // find the time index one before "from" 
-		
-        from /= timeDivider;
-        to /= timeDivider;
-		
-        do {
-            if((time[dataIndex] / timeDivider) > from) 	break;
-            dataIndex++;
-        } while(dataIndex < time.length);
-        if(dataIndex > 0) dataIndex--;
-
-        // draw background
-        g.setColor(groupBackground);
-        g.fillRect(clipArea.x, y, clipArea.width, 19);
-        g.setColor(text);
-        g.drawString("B" + n, 5, y + 14);
-        // draw bottom grid line
-        drawGridLine(g, clipArea, y + 19);
-		
-        g.setColor(signal);
-		
-        int yOfs = y + 2;
-        int h = 14;
-
-        for (long current = from; current < to;) {
-            int currentX = (int)((current - getPageOffset()) * scale * timeDivider);
-            int currentXSpace = (int)(x + (current - 1) * scale * timeDivider);
-            int currentV = (data[dataIndex] >> (8 * n)) & 0xff;
-            int nextV = currentV;
-            long next = current;
+    @Override
+    public void paintComponent(Graphics g) {
+        if (capturedData == null)
+            return;
 
-			
-            // here is a transition
-            dataIndex++;
-            if(dataIndex < data.length) {
-                nextV = (data[dataIndex] >> n) & 0x01;
-                next = time[dataIndex] / timeDivider;
-            } else {
-                next = to;
-            }
-            if(next >= to) next = to + 1;
+        Rectangle clipArea = g.getClipBounds();
+        g.setColor(background);
+        g.fillRect(clipArea.x, clipArea.y, clipArea.width, clipArea.height);
 
-            if(currentX < 0) currentX = 0;
-            currentX += x;
+        int height = size.height;
+        int groups = 0;
+        for (int block = 0; block < 4; block++)
+            groups |= settings.groupSettings[block] << (8 * block);
 
-            int currentEndX = currentX + (int)(scale * (next - current - 1) * timeDivider);
-			
-            // draw straight lines up to the point of change and a edge if not at end
-            if (currentV == nextV) {
-                g.drawLine(currentX, yOfs + h, currentEndX + (int)scale * timeDivider, yOfs + h);
-                g.drawLine(currentX, yOfs, currentEndX + (int)scale * timeDivider, yOfs);
-            } else {
-                g.drawLine(currentX, yOfs + h, currentEndX, yOfs + h);
-                g.drawLine(currentX, yOfs, currentEndX, yOfs);
-                drawEdge(g, currentEndX, yOfs, true, true);
+        // cancel rendering of tiles no longer wanted
+        Rectangle visible = getVisibleRect();
+        tiles.setVisible(visible.width, visible.height);
+        long firstVisible = viewX / DiagramTiles.WIDTH - 1;
+        long lastVisible = (viewX + getVisibleWidth()) / DiagramTiles.WIDTH + 1;
+        int topVisible = visible.y / DiagramTiles.HEIGHT - 1;
+        int bottomVisible = (visible.y + visible.height) / DiagramTiles.HEIGHT + 1;
+        Iterator<Map.Entry<DiagramTiles.Key,FutureTask<BufferedImage>>> tasks = pending.entrySet().iterator();
+        while (tasks.hasNext()) {
+            Map.Entry<DiagramTiles.Key,FutureTask<BufferedImage>> task = tasks.next();
+            DiagramTiles.Key key = task.getKey();
+            if (key.scale != scale || key.settings != groups || key.height != height
+                || key.column < firstVisible || key.column > lastVisible
+                || key.row < topVisible || key.row > bottomVisible)
+            {
+                task.getValue().cancel(true);
+                tasks.remove();
             }
-			
-            // if steady long enough, add hex value
-            if (currentEndX - currentXSpace > 15) {
-                if (currentV >= 0x10)
-                    g.drawString(Integer.toString(currentV, 16), (currentXSpace + currentEndX) / 2 - 2, y + 14);
-                else
-                    g.drawString("0" + Integer.toString(currentV, 16), (currentXSpace + currentEndX) / 2 - 2, y + 14);
+        }
 
+        // waveform tiles intersecting the clip, right of the row labels
+        int left = Math.max(clipArea.x, offsetX);
+        int right = clipArea.x + clipArea.width;
+        int top = Math.max(clipArea.y, 0);
+        int bottom = Math.min(clipArea.y + clipArea.height, height);
+        if (left < right && top < bottom) {
+            Shape clip = g.getClip();
+            g.clipRect(left, clipArea.y, right - left, clipArea.height);
+            long first = (left - offsetX + viewX) / DiagramTiles.WIDTH;
+            long last = (right - 1 - offsetX + viewX) / DiagramTiles.WIDTH;
+            int firstRow = top / DiagramTiles.HEIGHT;
+            int lastRow = (bottom - 1) / DiagramTiles.HEIGHT;
+            for (int row = firstRow; row <= lastRow; row++) {
+                int y = row * DiagramTiles.HEIGHT;
+                for (long column = first; column <= last; column++) {
+                    int x = tileToX(column);
+                    DiagramTiles.Key key = probe.set(scale, groups, height, column, row);
+                    BufferedImage tile = tiles.get(key);
+                    if (tile != null)
+                        g.drawImage(tile, x, y, null);
+                    else {
+                        g.setColor(placeholder);
+                        g.fillRect(x, y, DiagramTiles.WIDTH, key.getImageHeight());
+                        renderTile(key, g.getFont());
+                    }
+                }
             }
-			
-            current = next;
+            g.setClip(clip);
         }
-        return (20);
+        if (clipArea.x < offsetX)
+            labelRenderer.paintLabels(g);
+
+        paintOverlay(g);
     }
-	
-    private int drawGroupAnalyzer(Graphics g, int xofs, int yofs, int data[], long[] time, Rectangle clipArea, int n, long from, long to, String labels[]) {
-        // draw channel separators
-        for (int bit = 0; bit < 8; bit++) {
-            g.setColor(grid);
-            g.drawLine(clipArea.x, 20 * bit + yofs + 19, clipArea.x + clipArea.width, 20 * bit + yofs + 19);
-            g.setColor(text);
-            g.drawString("" + (bit + n * 8), 5, 20 * bit + yofs + 14);
-            g.setColor(label);
-            if(labels[bit + n * 8] != null)
-                {
-                    if(clipArea.x < xofs)
-                        g.drawString(labels[bit + n * 8], xofs, 20 * bit + yofs + 14);
-                    else
-                        g.drawString(labels[bit + n * 8], clipArea.x, 20 * bit + yofs + 14);
-                }
-        }
-		
-        // draw actual data
-        g.setColor(signal);
-        for (int bit = 0; bit < 8; bit++)
-            drawChannel(g, xofs, yofs + 20 * bit + 2, data, time, 8 * n + bit, from, to);
 
-        return (20 * 8);
+    /**
+     * @param column tile column
+     * @return horizontal position of the tile in the diagram
+     */
+    private int tileToX(long column) {
+        return (int)(column * DiagramTiles.WIDTH - viewX) + offsetX;
     }
 
-    private int drawGroupScope(Graphics g, int x, int y, int data[], long[] time, Rectangle clipArea, int n, long from, long to) {
-        int dataIndex = 0;
-        // find the time index one before "from" 
-		
-        from /= timeDivider;
-        to /= timeDivider;
-		
-        do {
-            if((time[dataIndex] / timeDivider) > from) 	break;
-            dataIndex++;
-        } while(dataIndex < time.length);
-        if(dataIndex > 0) dataIndex--;
-
-        // draw label
-        g.setColor(text);
-        g.drawString("S" + n, 5, y + 70);
-		
-        //		System.out.println("Scope: from=" + from + " to=" + to);
-
-        // draw actual data
-        g.setColor(signal);
-        int last = (255 - ((data[dataIndex] >> (n * 8)) & 0xff)) / 2;
-        int val = (255 - ((data[dataIndex] >> (n * 8)) & 0xff)) / 2;
-        int oldPosTmp = calcTmpPos(from);
-        oldPosTmp += x;
-        int posTmp;
-        for (long pos = from; pos < to; ) {
-            long oldPos = pos;
-            pos = time[dataIndex] / timeDivider;
-            if(pos > oldPos) {
-                val = (255 - ((data[dataIndex] >> (n * 8)) & 0xff)) / 2;
-					
-                oldPosTmp = calcTmpPos(oldPos);
-                oldPosTmp += x;
-				
-                posTmp = calcTmpPos(pos);
-                posTmp += x;
+    /**
+     * Starts rendering a tile in the background, unless already pending.
+     * The tile is cached and repainted when done.
+     * @param probe key of the tile, copied when rendering starts
+     */
+    private void renderTile(DiagramTiles.Key probe, final Font font) {
+        if (pending.containsKey(probe))
+            return;
 
-                //				System.out.println("Scope: oldPos=" + oldPos + " pos=" + pos + " val=" + val + " idx=" + dataIndex + " posTmp=" + posTmp + " oldPosTmp=" + oldPosTmp + " pageOffs=" + getPageOffset());
-					
-                g.drawLine(oldPosTmp, y + 2 + last, posTmp, y + 2 + val);
+        final DiagramTiles.Key key = new DiagramTiles.Key(probe);
+        final CapturedData data = capturedData;
+        final int[] groupSettings = settings.groupSettings.clone();
+        final int offsetY = this.offsetY;
+        FutureTask<BufferedImage> task = new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+                public BufferedImage call() {
+                    int y = key.row * DiagramTiles.HEIGHT;
+                    BufferedImage tile = tiles.obtain(DiagramTiles.WIDTH, key.getImageHeight());
+                    Graphics2D tg = tile.createGraphics();
+                    tg.setFont(font);
+                    tg.translate(0, -y);
+                    tg.setClip(0, y, DiagramTiles.WIDTH, key.getImageHeight());
+                    DiagramRenderer renderer = TileRenderer.get().set(data, groupSettings, key.scale, key.column * DiagramTiles.WIDTH, 0, offsetY);
+                    try {
+                        renderer.paint(tg);
+                    } finally {
+                        renderer.release();
+                        tg.dispose();
+                    }
+                    if (Thread.currentThread().isInterrupted()) {
+                        tiles.recycle(tile);
+                        return null;
+                    }
+                    return tile;
+                }
+            }) {
+                protected void set(BufferedImage tile) {
+                    super.set(tile);
+                    // cancelled after rendering completed
+                    if (tile != null && isCancelled())
+                        tiles.recycle(tile);
+                }
+                protected void done() {
+                    if (!isCancelled()) {
+                        final FutureTask<BufferedImage> task = this;
+                        SwingUtilities.invokeLater(new Runnable() {
+                                public void run() {
+                                    tileRendered(key, task, data);
+                                }
+                            });
+                    }
+                }
+            };
+        pending.put(key, task);
+        Renderers.execute(task);
+    }
 
-                last = val;
+    /**
+     * Caches a rendered tile and repaints its area, unless it has been
+     * superseded, in which case its image is returned for reuse.
+     */
+    private void tileRendered(DiagramTiles.Key key, FutureTask<BufferedImage> task, CapturedData data) {
+        boolean wanted = (pending.get(key) == task);
+        if (wanted)
+            pending.remove(key);
+        try {
+            BufferedImage tile = task.get();
+            if (tile != null && wanted && data == capturedData) {
+                tiles.put(key, tile);
+                repaint(tileToX(key.column), key.row * DiagramTiles.HEIGHT, DiagramTiles.WIDTH, key.getImageHeight());
             }
-            dataIndex++;
-            if(dataIndex >= time.length) break;
+            else if (tile != null)
+                tiles.recycle(tile);
+        } catch (InterruptedException e) {
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
         }
-        posTmp = calcTmpPos(to);
-        posTmp += x;
-
-        //		System.out.println("Scope: val=" + val + " posTmp=" + posTmp + " oldPosTmp=" + oldPosTmp);
-		
-        g.drawLine(oldPosTmp, y + 2 + last, posTmp, y + 2 + val);
-		
-        // draw bottom grid line
-        drawGridLine(g, clipArea, y + 132);
-
-        return (133);
     }
 
-    private int calcTmpPos(long pos) {
-        long lval = (long)((pos * timeDivider - getPageOffset()) * scale);
-        if(lval >= Integer.MAX_VALUE) lval = Integer.MAX_VALUE - 100;
-        if(lval < 0) lval = 0;
-        return (int)lval;
-    }
-	
     /**
-     * Paints the diagram to the extend necessary.
+     * Drops cached waveform tiles and pending renderings, to be called
+     * when the captured data changes.
      */
-    @Override
-    public void paintComponent(Graphics g) {
-        if (capturedData == null)
-            return;
-		
-        boolean hasTiming = capturedData.hasTimingData();
-        boolean hasTrigger = capturedData.hasTriggerData();
-        int channels = capturedData.channels;
-        int enabled = capturedData.enabledChannels;
-        long triggerPosition = capturedData.triggerPosition;
-        if (!hasTrigger)
-            triggerPosition = 0;
-        int rate = capturedData.rate;
-        if (!hasTiming)	// value of rate is only valid if timing data exists
-            rate = 1;
-		
-        int xofs = offsetX;
-        int yofs = offsetY + 2;
+    private void invalidateTiles() {
+        for (FutureTask<BufferedImage> task: pending.values())
+            task.cancel(true);
+        pending.clear();
+        tiles.clear();
+    }
 
-        // obtain portion of graphics that needs to be drawn
+    /**
+     * Paints the trigger, channel labels at the left of the visible area, and the cursors.
+     */
+    private void paintOverlay(Graphics g) {
         Rectangle clipArea = g.getClipBounds();
-
-        //		System.out.println("clip: x=" + clipArea.x + " y=" + clipArea.y + " w=" + clipArea.width + " h=" + clipArea.height);
-		
-        // find index of first row that needs drawing
-        long firstRow = xToIndex(clipArea.x);
-			
-        // find index of last row that needs drawing
+        long firstRow = xToIndex(Math.max(clipArea.x, offsetX));
         long lastRow = xToIndex(clipArea.x + clipArea.width) + 1;
-
-        // calculate time divider for samplecount > 2^31-1
-        long visibleSamples = lastRow - firstRow;
-        timeDivider = 1;
-        while((visibleSamples / timeDivider) >= Integer.MAX_VALUE) timeDivider++;
-	
-        //		System.out.println("first=" + firstRow + " last=" + lastRow + " visible=" + visibleSamples + " divider=" + timeDivider + " scale=" + scale + " pages=" + maxPages + " pageLen=" + pageLen);
-		
-        // paint portion of background that needs drawing
-        g.setColor(background);
-        g.fillRect(clipArea.x, clipArea.y, clipArea.width, clipArea.height);
+        int xofs = offsetX;
+        int yofs = offsetY + 2;
 
         // draw trigger if existing and visible
-        if (hasTrigger && triggerPosition >= firstRow && triggerPosition <= lastRow) {
+        long triggerPosition = capturedData.triggerPosition;
+        if (capturedData.hasTriggerData() && triggerPosition >= firstRow && triggerPosition <= lastRow) {
             g.setColor(trigger);
-            g.fillRect(xofs + (int)((triggerPosition - getPageOffset()) * scale) - 1, 0, (int)(scale) + 2, yofs + 36 * 20);		
+            g.fillRect(indexToX(triggerPosition) - 1, 0, (int)(scale) + 2, size.height);
         }
-		
-        // draw time line
-        int rowInc = (int)(10 / scale);
-        int timeLineShift = (int)(triggerPosition % rowInc);
-        g.setColor(time);
-        for (long row = ( firstRow / rowInc) * rowInc + timeLineShift; row < lastRow; row += rowInc) {
-            int pos = (int)(scale * (row - getPageOffset()));
-            if(pos < 0) pos = 0;
-            pos += xofs;
-            if (((row - triggerPosition) / rowInc) % 20 == 0) {
-                g.drawLine(pos, 1, pos, 15);
-                if (hasTiming) {
-                    NumberFormat nf = NumberFormat.getInstance();
-                    nf.setMaximumFractionDigits(15);
-                    nf.setMinimumFractionDigits(1);
-                    g.drawString(nf.format((double)(row - triggerPosition) / (double)rate) + " sec", pos + 5, 10);
-                } else
-                    g.drawString(Long.toString(row - triggerPosition), pos + 5, 10);
-            } else {
-                g.drawLine(pos, 12, pos, 15);
-            }
+
+        // draw channel labels
+        g.setColor(label);
+        for (int channel = 0; channel < labels.diagramLabels.length; channel++) {
+            int y = labelRenderer.getChannelY(channel);
+            if (labels.diagramLabels[channel] != null && y >= 0)
+                g.drawString(labels.diagramLabels[channel], xofs, y + 14);
         }
 
-        // draw groups
-        int bofs = yofs;
-        drawGridLine(g, clipArea, bofs++);
-        for (int block = 0; block < channels / 8; block++)
-            if (((enabled >> (8 * block)) & 0xff) != 0) {
-                if (block < 4 && (settings.groupSettings[block] & DiagramSettings.DISPLAY_CHANNELS) > 0)
-                    bofs += drawGroupAnalyzer(g, xofs, bofs, capturedData.values, capturedData.timestamps, clipArea, block, firstRow, lastRow, labels.diagramLabels);
-                if (block < 4 && (settings.groupSettings[block] & DiagramSettings.DISPLAY_SCOPE) > 0)
-                    bofs += drawGroupScope(g, xofs, bofs, capturedData.values, capturedData.timestamps, clipArea, block, firstRow, lastRow);
-                if (block < 4 && (settings.groupSettings[block] & DiagramSettings.DISPLAY_BYTE) > 0)
-                    bofs += drawGroupByte(g, xofs, bofs, capturedData.values, capturedData.timestamps, clipArea, block, firstRow, lastRow);
-            }
-		
         // draw cursors if enabled
         if(capturedData.cursorEnabled) {
             // draw cursor B first (lower priority)
             if (capturedData.getCursorPositionB() >= firstRow && capturedData.getCursorPositionB() <= lastRow) {
                 g.setColor(background);
-                g.fillRect(xofs + (int)((capturedData.getCursorPositionB() - getPageOffset()) * scale), 0, 8, 12);
+                g.fillRect(indexToX(capturedData.getCursorPositionB()), 0, 8, 12);
                 g.setColor(cursorB);
-                g.drawRect(xofs + (int)((capturedData.getCursorPositionB() - getPageOffset()) * scale), 0, 8, 12);
-                g.drawLine(xofs + (int)((capturedData.getCursorPositionB() - getPageOffset()) * scale), 
+                g.drawRect(indexToX(capturedData.getCursorPositionB()), 0, 8, 12);
+                g.drawLine(indexToX(capturedData.getCursorPositionB()), 
                            0, 
-                           xofs + (int)((capturedData.getCursorPositionB() - getPageOffset()) * scale), 
+                           indexToX(capturedData.getCursorPositionB()), 
                            yofs + 36 * 20);
-                g.drawString("B",xofs + (int)((capturedData.getCursorPositionB() - getPageOffset()) * scale) + 1, 11);
+                g.drawString("B",indexToX(capturedData.getCursorPositionB()) + 1, 11);
             }
             // draw cursor A last (higher priority)
             if (capturedData.getCursorPositionA() >= firstRow && capturedData.getCursorPositionA() <= lastRow) {
                 g.setColor(background);
-                g.fillRect(xofs + (int)((capturedData.getCursorPositionA() - getPageOffset()) * scale), 0, 8, 12);
+                g.fillRect(indexToX(capturedData.getCursorPositionA()), 0, 8, 12);
                 g.setColor(cursorA);
-                g.drawRect(xofs + (int)((capturedData.getCursorPositionA() - getPageOffset()) * scale), 0, 8, 12);
-                g.drawLine(xofs + (int)((capturedData.getCursorPositionA() - getPageOffset()) * scale), 
+                g.drawRect(indexToX(capturedData.getCursorPositionA()), 0, 8, 12);
+                g.drawLine(indexToX(capturedData.getCursorPositionA()), 
                            0, 
-                           xofs + (int)((capturedData.getCursorPositionA() - getPageOffset()) * scale), 
+                           indexToX(capturedData.getCursorPositionA()), 
                            yofs + 36 * 20);
-                g.drawString("A",xofs + (int)((capturedData.getCursorPositionA() - getPageOffset()) * scale), 11);
+                g.drawString("A",indexToX(capturedData.getCursorPositionA()), 11);
             }
         }
     }
@@ -837,8 +940,7 @@ public class Diagram
      * @return sample index
      */
     private long xToIndex(int x) {
-        long index = (long)((x - offsetX) / scale);
-        index += getPageOffset();
+        long index = (long)Math.floor((x - offsetX + viewX) / scale);
         if (index < 0)
             index = 0;
         if (index >= capturedData.absoluteLength)
@@ -846,6 +948,16 @@ public class Diagram
         return (index);
     }
 	
+    /**
+     * Convert sample index to x position.
+     * @param index sample index
+     * @return horizontal position in pixels, limited to the int range
+     */
+    private int indexToX(long index) {
+        long x = (long)Math.floor(index * scale) - viewX + offsetX;
+        return (int)Math.max(Integer.MIN_VALUE / 2, Math.min(Integer.MAX_VALUE / 2, x));
+    }
+
     /**
      * Convert sample count to time string.
      * @param count sample count (or index)
@@ -944,7 +1056,9 @@ public class Diagram
                 case 1:
                     // cursor A is dragged
                     index = xToIndex(mouseDragX);
+                    repaintCursor(capturedData.getCursorPositionA());
                     capturedData.setCursorPositionA(index);
+                    repaintCursor(index);
                     // notify cursor change listeners
                     if(index > 0 && index < (capturedData.absoluteLength - 1)) {
                         for(int i=0;i<curListners.size();i++) {
@@ -955,7 +1069,9 @@ public class Diagram
                 case 2:
                     // cursor B is dragged
                     index = xToIndex(mouseDragX);
+                    repaintCursor(capturedData.getCursorPositionB());
                     capturedData.setCursorPositionB(index);
+                    repaintCursor(index);
                     // notify cursor change listeners
                     if(index > 0 && index < (capturedData.absoluteLength - 1)) {
                         for(int i=0;i<curListners.size();i++) {
@@ -966,7 +1082,6 @@ public class Diagram
                 default:
                     break;
                 }
-                this.repaint();
             } else {
                 // not dragged, just check if the cursor is near by a trigger
                 if(Math.abs(xToIndex(mouseX) - (capturedData.getCursorPositionA())) < (5 / scale)) {
@@ -983,11 +1098,29 @@ public class Diagram
         }
     }
 	
+    /**
+     * Repaints the strip of a cursor at a sample position.
+     * @param index sample position of the cursor
+     */
+    private void repaintCursor(long index) {
+        repaint(indexToX(index) - 1, 0, 11, size.height);
+    }
+
     /**
      * Handles mouse dragged events and produces status change "events" accordingly.
+     * Drag events are coalesced to the display refresh rate.
      */
     public void mouseDragged(MouseEvent event) {
         mouseDragX = event.getX();
+        if (!dragTimer.isRunning())
+            dragTimer.start();
+    }
+
+    /**
+     * Applies the last drag position.
+     */
+    private void dragged() {
+        dragTimer.stop();
         updateCursors(true);
         updateStatus(true);
     }
@@ -1014,6 +1147,8 @@ public class Diagram
     }
 	
     public void mouseReleased(MouseEvent event) {
+        if (dragTimer.isRunning())
+            dragged();
     }
 	
     public void mouseClicked(MouseEvent event) {
@@ -1030,11 +1165,14 @@ public class Diagram
      */
     public void actionPerformed(ActionEvent event) {
         if(event.getActionCommand().equals("Set Cursor A")) {
+            repaintCursor(capturedData.getCursorPositionA());
             capturedData.setCursorPositionA(xToIndex(contextMenuPosition.x));
+            repaintCursor(capturedData.getCursorPositionA());
         } else if(event.getActionCommand().equals("Set Cursor B")) {
+            repaintCursor(capturedData.getCursorPositionB());
             capturedData.setCursorPositionB(xToIndex(contextMenuPosition.x));
+            repaintCursor(capturedData.getCursorPositionB());
         }
-        this.repaint();
     }
 	
     /**
@@ -1045,14 +1183,28 @@ public class Diagram
         statusChangeListener = listener;
     }
 
+    /**
+     * Reads diagram settings, labels and the tile cache budget
+     * ("Diagram.tileCache", in megabytes) from the given properties.
+     * A budget below {@link DiagramTiles#MINIMUM} is ignored.
+     */
     public void readProperties(Properties properties) {
         settings.readProperties(properties);
         labels.readProperties(properties);
+        String budget = properties.getProperty("Diagram.tileCache");
+        if (budget != null) {
+            try {
+                int megabytes = Integer.parseInt(budget.trim());
+                if (megabytes >= DiagramTiles.MINIMUM)
+                    tiles.setBudget(megabytes);
+            } catch (NumberFormatException e) { /* keep default */ }
+        }
         resize();
     }
 
     public void writeProperties(Properties properties) {
         settings.writeProperties(properties);
         labels.writeProperties(properties);
+        properties.setProperty("Diagram.tileCache", Integer.toString(tiles.getBudget()));
     }
 }
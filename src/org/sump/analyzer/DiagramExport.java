@@ -0,0 +1,351 @@
+/*
+ *  Copyright (C) 2012 John Pritchard
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.sump.util.PngWriter;
+import org.sump.util.Properties;
+import org.sump.util.SvgGraphics;
+
+/**
+ * Renders the waveform of a {@link CapturedData} object to a PNG or SVG
+ * image without a display, as drawn by {@link Diagram} with the group
+ * settings of {@link DiagramSettings} and the channel names of
+ * {@link DiagramLabels}.
+ * <p>
+ * A range of samples is drawn at a given width in pixels, right of the
+ * row labels.  Neither format is held in memory as a whole: the SVG
+ * document is written while drawing it, and the PNG image is drawn in
+ * horizontal bands on the diagram renderer threads and written band by
+ * band.
+ * <p>
+ * From the command line, <code>run -export</code> with the arguments
+ * of {@link #main(String[])}.
+ *
+ * @author John Pritchard
+ */
+public class DiagramExport
+    extends Object
+{
+    /** width of the row labels */
+    public final static int OFFSET_X = 25;
+    /** height of the time line */
+    public final static int OFFSET_Y = 18;
+    /** width of the strips of an SVG document */
+    public final static int STRIP = 4096;
+    /** memory for the bands of a PNG image in progress, in bytes */
+    public final static int BUDGET = 64 * 1024 * 1024;
+    /** default width of the waveform in pixels */
+    public final static int WIDTH = 2000;
+
+    private final static Font font = new Font(Font.DIALOG, Font.PLAIN, 12);
+    private final static Color trigger = new Color(0,224,0,48);
+    private final static Color label = new Color(255,196,196);
+
+
+    private final CapturedData capturedData;
+    private final DiagramSettings settings;
+    private final DiagramLabels labels;
+    private long first;
+    private long last;
+    private int width;
+
+
+    /**
+     * Exports the whole capture at the default width.
+     * @param capturedData data to draw
+     * @param settings group settings
+     * @param labels channel names
+     */
+    public DiagramExport(CapturedData capturedData, DiagramSettings settings, DiagramLabels labels) {
+        super();
+        this.capturedData = capturedData;
+        this.settings = settings;
+        this.labels = labels;
+        this.setRange(0, capturedData.absoluteLength);
+        this.setWidth(WIDTH);
+    }
+
+
+    /**
+     * @param first first sample to draw
+     * @param last sample following the last sample to draw
+     */
+    public void setRange(long first, long last) {
+        if (first < 0 || last <= first)
+            throw new IllegalArgumentException("Range "+first+":"+last);
+        this.first = first;
+        this.last = last;
+    }
+    /**
+     * @param width width of the sample range in pixels
+     */
+    public void setWidth(int width) {
+        if (width < 1 || width > DiagramRenderer.COORDINATE_MAX - OFFSET_X)
+            throw new IllegalArgumentException("Width "+width);
+        this.width = width;
+    }
+    /**
+     * @return width of the image, including the row labels
+     */
+    public int getImageWidth() {
+        return OFFSET_X + width;
+    }
+    /**
+     * @return height of the image
+     */
+    public int getImageHeight() {
+        return createRenderer().getHeight();
+    }
+
+    /**
+     * Writes an SVG document.
+     * @param out stream to write to, not closed
+     */
+    public void writeSVG(OutputStream out) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(out), "UTF-8"));
+        DiagramRenderer renderer = createRenderer();
+        int imageWidth = getImageWidth();
+        int imageHeight = renderer.getHeight();
+
+        SvgGraphics g = new SvgGraphics(writer);
+        g.begin(imageWidth, imageHeight);
+        g.setFont(font);
+        paint(g, renderer, new Rectangle(0, 0, imageWidth, imageHeight));
+        g.end();
+        if (writer.checkError())
+            throw new IOException("Error writing SVG");
+    }
+
+    /**
+     * Writes a PNG image, drawn in bands in parallel.  The bands in
+     * progress take at most {@link #BUDGET} bytes, unless the image is
+     * too wide for bands of one row.  Every band draws the whole sample
+     * range, so bands are made as high as the budget allows.
+     * @param out stream to write to, not closed
+     */
+    public void writePNG(OutputStream out) throws IOException {
+        final int imageWidth = getImageWidth();
+        final int imageHeight = getImageHeight();
+        int window = Math.max(2, Runtime.getRuntime().availableProcessors());
+        int bandHeight = (int)Math.max(1, Math.min(imageHeight, BUDGET / (4L * imageWidth * window)));
+
+        PngWriter png = new PngWriter(out, imageWidth, imageHeight);
+        LinkedList<Future<BufferedImage>> bands = new LinkedList<Future<BufferedImage>>();
+        int next = 0;
+        try {
+            while (next < imageHeight || !bands.isEmpty()) {
+                // keep a bounded number of bands rendering ahead of the writer
+                while (next < imageHeight && bands.size() < window) {
+                    final int y = next;
+                    final int h = Math.min(bandHeight, imageHeight - y);
+                    bands.addLast(Diagram.Renderers.submit(new Callable<BufferedImage>() {
+                            public BufferedImage call() {
+                                BufferedImage band = new BufferedImage(imageWidth, h, BufferedImage.TYPE_INT_RGB);
+                                Graphics2D g = band.createGraphics();
+                                g.setFont(font);
+                                g.translate(0, -y);
+                                paint(g, createRenderer(), new Rectangle(0, y, imageWidth, h));
+                                g.dispose();
+                                return band;
+                            }
+                        }));
+                    next += h;
+                }
+                BufferedImage band = bands.removeFirst().get();
+                int[] pixels = ((DataBufferInt)band.getRaster().getDataBuffer()).getData();
+                for (int row = 0; row < band.getHeight(); row++)
+                    png.writeRow(pixels, row * imageWidth);
+            }
+            png.finish();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted writing PNG");
+        } catch (ExecutionException e) {
+            throw new IOException("Error drawing PNG", e.getCause());
+        } finally {
+            for (Future<BufferedImage> band: bands)
+                band.cancel(true);
+        }
+    }
+
+
+    private DiagramRenderer createRenderer() {
+        double scale = width / (double)(last - first);
+        long originX = (long)Math.floor(first * scale);
+        return new DiagramRenderer(capturedData, settings.groupSettings, scale, originX, OFFSET_X, OFFSET_Y);
+    }
+
+    /**
+     * Paints the part of the image within an area, as the diagram
+     * paints its tiles, row labels and overlay.  The waveform is
+     * painted in strips of {@link #STRIP} pixels, which bound the level
+     * of detail buffers of the renderer.
+     */
+    private void paint(Graphics g, DiagramRenderer renderer, Rectangle area) {
+        int right = Math.min(area.x + area.width, getImageWidth());
+        for (int x = Math.max(area.x, OFFSET_X); x < right; x += STRIP) {
+            g.setClip(x, area.y, Math.min(STRIP, right - x), area.height);
+            renderer.paint(g);
+        }
+        paintLabels(g, renderer, area);
+    }
+
+    /**
+     * Paints the row labels, the trigger and the channel names.
+     */
+    private void paintLabels(Graphics g, DiagramRenderer renderer, Rectangle area) {
+        if (area.x < OFFSET_X) {
+            g.setClip(area.intersection(new Rectangle(0, area.y, OFFSET_X, area.height)));
+            renderer.paintLabels(g);
+        }
+        g.setClip(area);
+
+        double scale = width / (double)(last - first);
+        long originX = (long)Math.floor(first * scale);
+        int imageHeight = renderer.getHeight();
+
+        long triggerPosition = capturedData.triggerPosition;
+        if (capturedData.hasTriggerData() && triggerPosition >= first && triggerPosition < last) {
+            int x = (int)((long)Math.floor(triggerPosition * scale) - originX) + OFFSET_X;
+            g.setColor(trigger);
+            g.fillRect(x - 1, 0, (int)(scale) + 2, imageHeight);
+        }
+
+        g.setColor(label);
+        for (int channel = 0; channel < labels.diagramLabels.length; channel++) {
+            String name = labels.diagramLabels[channel];
+            int y = renderer.getChannelY(channel);
+            if (name != null && name.length() > 0 && y >= 0)
+                g.drawString(name, OFFSET_X, y + 14);
+        }
+    }
+
+
+    /**
+     * Exports a data file to an image.  The arguments are
+     * <pre>
+     * data.sla image.(png|svg) [-width pixels] [-range first:last] [-project file.slp]
+     * </pre>
+     * where the range is given in samples from the start of the
+     * capture, and the project supplies the group settings and channel
+     * names.  Exits with status 1 on errors.
+     *
+     * @param args arguments
+     */
+    public static void main(String[] args) {
+        File data = null, image = null, project = null;
+        int width = WIDTH;
+        long first = -1, last = -1;
+        try {
+            for (int argx = 0; argx < args.length; argx++) {
+                String arg = args[argx];
+                if (arg.equals("-width") && argx + 1 < args.length)
+                    width = Integer.parseInt(args[++argx]);
+                else if (arg.equals("-range") && argx + 1 < args.length) {
+                    String range = args[++argx];
+                    int colon = range.indexOf(':');
+                    if (colon < 0)
+                        throw new IllegalArgumentException(range);
+                    first = Long.parseLong(range.substring(0, colon));
+                    last = Long.parseLong(range.substring(colon + 1));
+                }
+                else if (arg.equals("-project") && argx + 1 < args.length)
+                    project = new File(args[++argx]);
+                else if (arg.startsWith("-"))
+                    throw new IllegalArgumentException(arg);
+                else if (data == null)
+                    data = new File(arg);
+                else if (image == null)
+                    image = new File(arg);
+                else
+                    throw new IllegalArgumentException(arg);
+            }
+            if (image == null)
+                throw new IllegalArgumentException("missing file name");
+        }
+        catch (IllegalArgumentException e) {
+            System.out.println("Usage: run -export file.sla image.(png|svg) [-width pixels] [-range first:last] [-project file.slp]");
+            System.exit(1);
+        }
+
+        String name = image.getName().toLowerCase();
+        boolean svg = name.endsWith(".svg");
+        if (!svg && !name.endsWith(".png")) {
+            System.out.printf("Error, unrecognized image file name extension in '%s'%n", image);
+            System.exit(1);
+        }
+
+        try {
+            DiagramSettings settings = new DiagramSettings();
+            DiagramLabels labels = new DiagramLabels();
+            if (project != null) {
+                Properties properties = new Properties();
+                InputStream in = new FileInputStream(project);
+                try {
+                    properties.load(in);
+                }
+                finally {
+                    in.close();
+                }
+                settings.readProperties(properties);
+                labels.readProperties(properties);
+            }
+
+            DiagramExport export = new DiagramExport(new CapturedData(data), settings, labels);
+            if (first >= 0)
+                export.setRange(first, last);
+            export.setWidth(width);
+
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(image));
+            try {
+                if (svg)
+                    export.writeSVG(out);
+                else
+                    export.writePNG(out);
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ *  Copyright (C) 2012 John Pritchard
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
+import java.awt.event.MouseEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+import javax.swing.event.MouseInputListener;
+
+/**
+ * Strip above the {@link Diagram} showing the transition density of
+ * each channel group over the whole capture, with the visible part
+ * of the diagram marked.  Clicking or dragging in the strip moves the
+ * diagram view there.
+ * <p>
+ * The density is counted once per capture in the background into a
+ * histogram of a fixed number of bins, so that painting the strip
+ * costs time proportional to its width, whatever the capture length.
+ *
+ * @author John Pritchard
+ */
+public class DiagramOverview
+    extends JComponent
+    implements MouseInputListener, AdjustmentListener, PropertyChangeListener
+{
+    private static final long serialVersionUID = 1L;
+
+    /** number of histogram bins over the capture */
+    public final static int BINS = 1024;
+    /** height of the strip of a channel group in pixels */
+    public final static int ROW = 10;
+
+    private final static Color background = new Color(255,255,255);
+    private final static Color density = new Color(0,0,196);
+    private final static Color groupBackground = new Color(242,242,242);
+    private final static Color trigger = new Color(0,224,0);
+    private final static Color view = new Color(255,196,0,64);
+    private final static Color viewBorder = new Color(190,120,0);
+
+
+    private final Diagram diagram;
+
+    private CapturedData capturedData;
+    /*
+     * Transition counts by group and bin, and the largest count, or
+     * null while the counting task is pending
+     */
+    private int[][] histogram;
+    private int histogramMax;
+    private FutureTask<int[][]> pending;
+
+
+    /**
+     * Creates the overview of a diagram, following its captured data and view.
+     */
+    public DiagramOverview(Diagram diagram) {
+        super();
+        this.diagram = diagram;
+        diagram.addPropertyChangeListener(Diagram.CAPTURED_DATA, this);
+        diagram.getScrollBar().addAdjustmentListener(this);
+        this.addMouseListener(this);
+        this.addMouseMotionListener(this);
+        this.setCapturedData(diagram.getCapturedData());
+    }
+
+
+    /**
+     * Drops the histogram of the previous data and starts counting the
+     * transitions of the new data in the background.
+     */
+    private void setCapturedData(final CapturedData data) {
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
+        }
+        capturedData = data;
+        histogram = null;
+        histogramMax = 0;
+
+        if (data != null) {
+            FutureTask<int[][]> task = new FutureTask<int[][]>(new Callable<int[][]>() {
+                    public int[][] call() {
+                        return Count(data);
+                    }
+                }) {
+                    protected void done() {
+                        if (!isCancelled()) {
+                            final FutureTask<int[][]> task = this;
+                            SwingUtilities.invokeLater(new Runnable() {
+                                    public void run() {
+                                        counted(task);
+                                    }
+                                });
+                        }
+                    }
+                };
+            pending = task;
+            Diagram.Renderers.execute(task);
+        }
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Keeps the histogram of a completed counting task, unless it has been superseded.
+     */
+    private void counted(FutureTask<int[][]> task) {
+        if (pending != task)
+            return;
+        pending = null;
+        try {
+            int[][] counts = task.get();
+            if (counts != null) {
+                int max = 0;
+                for (int[] group: counts)
+                    for (int count: group)
+                        max = Math.max(max, count);
+                histogram = counts;
+                histogramMax = max;
+                repaint();
+            }
+        } catch (InterruptedException e) {
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+    }
+
+    /**
+     * Counts the transitions of each channel group into the bins of
+     * the histogram, in one pass over the data.
+     * @return counts by group and bin, or null when interrupted
+     */
+    private final static int[][] Count(CapturedData data) {
+        int[][] counts = new int[4][BINS];
+        int[] values = data.values;
+        long[] timestamps = data.timestamps;
+        double binScale = BINS / (double)Math.max(1, data.absoluteLength);
+
+        for (int i = 1; i < values.length; i++) {
+            int changed = values[i] ^ values[i - 1];
+            if (changed != 0) {
+                int bin = Math.min(BINS - 1, Math.max(0, (int)(timestamps[i] * binScale)));
+                for (int group = 0; group < 4; group++)
+                    if (((changed >> (8 * group)) & 0xff) != 0)
+                        counts[group][bin]++;
+            }
+            if ((i & 0xffff) == 0 && Thread.currentThread().isInterrupted())
+                return null;
+        }
+        return counts;
+    }
+
+    /**
+     * @return number of displayed channel groups
+     */
+    private int getGroupCount() {
+        int count = 0;
+        if (capturedData != null)
+            for (int group = 0; group < capturedData.channels / 8 && group < 4; group++)
+                if (((capturedData.enabledChannels >> (8 * group)) & 0xff) != 0)
+                    count++;
+        return count;
+    }
+
+    public Dimension getPreferredSize() {
+        return new Dimension(100, getGroupCount() * ROW + 2);
+    }
+
+    public Dimension getMinimumSize() {
+        return new Dimension(0, getGroupCount() * ROW + 2);
+    }
+
+    /**
+     * Paints the histogram, one vertical line per pixel column, the
+     * trigger and the visible part of the diagram.
+     */
+    public void paintComponent(Graphics g) {
+        int width = getWidth();
+        int height = getHeight();
+        g.setColor(background);
+        g.fillRect(0, 0, width, height);
+
+        CapturedData data = capturedData;
+        if (data == null || width < 1)
+            return;
+
+        double length = Math.max(1, data.absoluteLength);
+        int[][] counts = histogram;
+        double norm = Math.log1p(histogramMax);
+        int y = 1;
+        for (int group = 0; group < data.channels / 8 && group < 4; group++) {
+            if (((data.enabledChannels >> (8 * group)) & 0xff) == 0)
+                continue;
+
+            g.setColor(groupBackground);
+            g.fillRect(0, y, width, ROW - 1);
+            if (counts != null && histogramMax > 0) {
+                int[] bins = counts[group];
+                g.setColor(density);
+                for (int x = 0; x < width; x++) {
+                    int from = (int)((long)x * BINS / width);
+                    int to = Math.max(from + 1, (int)((long)(x + 1) * BINS / width));
+                    int max = 0;
+                    for (int bin = from; bin < to; bin++)
+                        max = Math.max(max, bins[bin]);
+                    if (max > 0) {
+                        int h = (int)Math.ceil((ROW - 2) * Math.log1p(max) / norm);
+                        g.drawLine(x, y + ROW - 1 - h, x, y + ROW - 2);
+                    }
+                }
+            }
+            y += ROW;
+        }
+
+        if (data.hasTriggerData() && data.triggerPosition >= 0) {
+            int x = (int)(data.triggerPosition / length * width);
+            g.setColor(trigger);
+            g.drawLine(x, 0, x, height - 1);
+        }
+
+        int first = (int)(diagram.getFirstVisibleSample() / length * width);
+        int last = (int)Math.ceil(diagram.getLastVisibleSample() / length * width);
+        int w = Math.max(2, last - first);
+        g.setColor(view);
+        g.fillRect(first, 0, w, height);
+        g.setColor(viewBorder);
+        g.drawRect(first, 0, w - 1, height - 1);
+    }
+
+    /**
+     * Moves the diagram view to center the sample under the mouse.
+     */
+    private void moveView(int x) {
+        CapturedData data = capturedData;
+        int width = getWidth();
+        if (data == null || width < 1)
+            return;
+
+        long sample = (long)(Math.max(0, Math.min(width, x)) / (double)width * data.absoluteLength);
+        diagram.centerPosition(sample);
+    }
+
+    /**
+     * Follows the captured data of the diagram.
+     */
+    public void propertyChange(PropertyChangeEvent event) {
+        setCapturedData(diagram.getCapturedData());
+    }
+
+    /**
+     * Follows the view of the diagram, which updates its scroll bar
+     * whenever it scrolls or zooms.
+     */
+    public void adjustmentValueChanged(AdjustmentEvent event) {
+        repaint();
+    }
+
+    public void mousePressed(MouseEvent event) {
+        moveView(event.getX());
+    }
+
+    public void mouseDragged(MouseEvent event) {
+        moveView(event.getX());
+    }
+
+    public void mouseReleased(MouseEvent event) {
+    }
+
+    public void mouseClicked(MouseEvent event) {
+    }
+
+    public void mouseMoved(MouseEvent event) {
+    }
+
+    public void mouseEntered(MouseEvent event) {
+    }
+
+    public void mouseExited(MouseEvent event) {
+    }
+}
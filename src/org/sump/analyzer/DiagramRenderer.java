@@ -0,0 +1,888 @@
+/*
+ *  Copyright (C) 2012 John Pritchard
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.text.FieldPosition;
+import java.text.NumberFormat;
+import java.util.Arrays;
+
+/**
+ * Draws the waveform of a {@link CapturedData} object, as displayed by
+ * {@link Diagram}, for a fixed scale and position.
+ * <p>
+ * Positions are mapped through the scaled waveform, in which sample
+ * <i>s</i> starts at pixel <code>floor(s * scale)</code>.  This space
+ * is addressed with long coordinates, and the renderer draws the part
+ * of it starting at <code>originX</code> at component position
+ * <code>offsetX</code>.  Adjacent parts drawn by different renderers
+ * therefore join without seams.
+ * <p>
+ * A renderer takes a snapshot of the view parameters when constructed
+ * or set, so it can draw on any thread while the diagram changes.  Its
+ * level of detail buffers make it unsuitable for concurrent use; use one
+ * renderer per thread.
+ *
+ * @author Michael "Mr. Sump" Poppitz
+ * @author John Pritchard
+ */
+final class DiagramRenderer
+    extends Object
+{
+
+    private CapturedData capturedData;
+    private int[] groupSettings;
+    private double scale;
+    private long originX;
+    private int offsetX;
+    private int offsetY;
+
+    private final static Color signal = new Color(0,0,196);
+    private final static Color grid = new Color(196,196,196);
+    private final static Color text = new Color(0,0,0);
+    private final static Color time = new Color(0,0,0);
+    private final static Color groupBackground = new Color(242,242,242);
+    private final static Color background = new Color(255,255,255);
+
+    /*
+     * Labels, so that painting does not build strings
+     */
+    private final static String[] HEX = new String[256];
+    private final static String[] CHANNEL = new String[32];
+    private final static String[] BYTE = new String[4];
+    private final static String[] SCOPE = new String[4];
+    static {
+        for (int i = 0; i < HEX.length; i++)
+            HEX[i] = (i < 0x10 ? "0" : "") + Integer.toString(i, 16);
+        for (int i = 0; i < CHANNEL.length; i++)
+            CHANNEL[i] = Integer.toString(i);
+        for (int i = 0; i < BYTE.length; i++) {
+            BYTE[i] = "B" + i;
+            SCOPE[i] = "S" + i;
+        }
+    }
+
+    /**
+     * Points of a line drawn with a single call, as the Java2D overhead
+     * per call dominates the drawing of dense signals.
+     */
+    private final static class Polyline {
+        int[] x = new int[256];
+        int[] y = new int[256];
+        int length;
+
+        /**
+         * Appends a point.  Repeated points are dropped, and horizontal
+         * runs are merged into one segment.
+         */
+        void add(int px, int py) {
+            int last = length - 1;
+            if (last >= 0 && x[last] == px && y[last] == py)
+                return;
+            else if (last >= 1 && y[last] == py && y[last - 1] == py && x[last - 1] <= x[last] && x[last] <= px)
+                x[last] = px;
+            else {
+                if (length == x.length) {
+                    x = Arrays.copyOf(x, 2 * length);
+                    y = Arrays.copyOf(y, 2 * length);
+                }
+                x[length] = px;
+                y[length] = py;
+                length++;
+            }
+        }
+        /**
+         * @return vertical position of the last point
+         */
+        int level() {
+            return y[length - 1];
+        }
+        /**
+         * Draws the line, and clears it for reuse.
+         */
+        void draw(Graphics g) {
+            if (length > 1)
+                g.drawPolyline(x, y, length);
+            length = 0;
+        }
+    }
+
+    /**
+     * Buffers reused by all renderers painting on a thread.
+     */
+    private final static class Scratch {
+        final Polyline line = new Polyline();
+        final Polyline other = new Polyline();
+        int[] activityValues = new int[0];
+        int[] activityChanges = new int[0];
+        int[] activityLow = new int[0];
+        int[] activityHigh = new int[0];
+        final NumberFormat format = NumberFormat.getInstance();
+        final FieldPosition position = new FieldPosition(0);
+        final StringBuffer label = new StringBuffer(32);
+        char[] chars = new char[32];
+
+        Scratch() {
+            format.setMaximumFractionDigits(15);
+            format.setMinimumFractionDigits(1);
+        }
+        /**
+         * Draws the label buffer without creating a string.
+         */
+        void drawLabel(Graphics g, int x, int y) {
+            int length = label.length();
+            if (chars.length < length)
+                chars = new char[length];
+            label.getChars(0, length, chars, 0);
+            g.drawChars(chars, 0, length, x, y);
+        }
+    }
+    private final static ThreadLocal<Scratch> Scratch = new ThreadLocal<Scratch>() {
+            protected Scratch initialValue() {
+                return new Scratch();
+            }
+        };
+
+    private Scratch scratch;
+
+    /** drawing coordinates are limited to plus or minus this value */
+    final static long COORDINATE_MAX = 1 << 24;
+
+    /*
+     * Level of detail: when a pixel column spans more than one sample,
+     * the value at the start of each visible column and the channels
+     * changing within it are computed once per paint (if a visible row
+     * needs them), and rows are drawn per column instead of per
+     * transition.  When a scope is displayed, the lowest and highest
+     * value of each group within each column are computed as well, so
+     * the scope is drawn as an envelope of one vertical span per column.
+     */
+    private int[] activityValues;
+    private int[] activityChanges;
+    private int[] activityLow;
+    private int[] activityHigh;
+    private int activityX;
+    private int activityWidth;
+    private int activityStride;
+    private boolean activityPending;
+    private boolean activityEnvelope;
+    private int activityFirstIndex;
+    private int activityLastIndex;
+
+
+
+    /**
+     * @param capturedData data to draw
+     * @param groupSettings display settings of the groups (copied)
+     * @param scale pixels per sample
+     * @param originX position in the scaled waveform drawn at <code>offsetX</code>
+     * @param offsetX width of the row labels
+     * @param offsetY height of the time line
+     */
+    public DiagramRenderer(CapturedData capturedData, int[] groupSettings, double scale, long originX, int offsetX, int offsetY) {
+        super();
+        set(capturedData, groupSettings, scale, originX, offsetX, offsetY);
+    }
+
+    /**
+     * Sets the view parameters of a renderer reused for another part of the waveform.
+     * @param capturedData data to draw
+     * @param groupSettings display settings of the groups (copied)
+     * @param scale pixels per sample
+     * @param originX position in the scaled waveform drawn at <code>offsetX</code>
+     * @param offsetX width of the row labels
+     * @param offsetY height of the time line
+     * @return this renderer
+     */
+    DiagramRenderer set(CapturedData capturedData, int[] groupSettings, double scale, long originX, int offsetX, int offsetY) {
+        this.capturedData = capturedData;
+        if (this.groupSettings != null && this.groupSettings.length == groupSettings.length)
+            System.arraycopy(groupSettings, 0, this.groupSettings, 0, groupSettings.length);
+        else
+            this.groupSettings = groupSettings.clone();
+        this.scale = scale;
+        this.originX = originX;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        return this;
+    }
+
+    /**
+     * Drops the reference to the data of a reused renderer when done
+     * drawing, so that it does not keep a closed capture in memory.
+     */
+    void release() {
+        this.capturedData = null;
+    }
+
+
+    /**
+     * @return height of the time line and the displayed groups in pixels
+     */
+    public int getHeight() {
+        int height = offsetY + 2;
+        for (int block = 0; block < capturedData.channels / 8 && block < 4; block++)
+            if (((capturedData.enabledChannels >> (8 * block)) & 0xff) != 0) {
+                if ((groupSettings[block] & DiagramSettings.DISPLAY_CHANNELS) > 0)
+                    height += 20 * 8;
+                if ((groupSettings[block] & DiagramSettings.DISPLAY_SCOPE) > 0)
+                    height += 133;
+                if ((groupSettings[block] & DiagramSettings.DISPLAY_BYTE) > 0)
+                    height += 20;
+            }
+        return height;
+    }
+
+    /**
+     * @param y vertical position
+     * @return bit map of the channel of a channel row, or of the
+     * channels of a scope or byte row, at a position, or 0
+     */
+    public int getMaskAt(int y) {
+        int bofs = offsetY + 3;
+        if (y < bofs)
+            return 0;
+        for (int block = 0; block < capturedData.channels / 8 && block < 4; block++)
+            if (((capturedData.enabledChannels >> (8 * block)) & 0xff) != 0) {
+                if ((groupSettings[block] & DiagramSettings.DISPLAY_CHANNELS) > 0) {
+                    if (y < bofs + 20 * 8)
+                        return 1 << (block * 8 + (y - bofs) / 20);
+                    bofs += 20 * 8;
+                }
+                if ((groupSettings[block] & DiagramSettings.DISPLAY_SCOPE) > 0) {
+                    if (y < bofs + 133)
+                        return 0xff << (8 * block);
+                    bofs += 133;
+                }
+                if ((groupSettings[block] & DiagramSettings.DISPLAY_BYTE) > 0) {
+                    if (y < bofs + 20)
+                        return 0xff << (8 * block);
+                    bofs += 20;
+                }
+            }
+        return 0;
+    }
+
+    /**
+     * @param channel channel number
+     * @return top of the row of a channel, or -1 when the channel has no row
+     */
+    public int getChannelY(int channel) {
+        int bofs = offsetY + 3;
+        for (int block = 0; block < capturedData.channels / 8 && block < 4; block++)
+            if (((capturedData.enabledChannels >> (8 * block)) & 0xff) != 0) {
+                if ((groupSettings[block] & DiagramSettings.DISPLAY_CHANNELS) > 0) {
+                    if (block == channel / 8)
+                        return bofs + 20 * (channel % 8);
+                    bofs += 20 * 8;
+                }
+                if ((groupSettings[block] & DiagramSettings.DISPLAY_SCOPE) > 0)
+                    bofs += 133;
+                if ((groupSettings[block] & DiagramSettings.DISPLAY_BYTE) > 0)
+                    bofs += 20;
+            }
+        return -1;
+    }
+
+    /**
+     * Adds an edge to a line, from its last point to the given level.
+     * @param line line at the level before the edge
+     * @param x position of the last sample before the edge
+     * @param level vertical position after the edge
+     */
+    private void addEdge(Polyline line, int x, int level) {
+        if (scale <= 1) {
+            line.add(x, level);
+        } else {
+            int edgeX = x;
+            if (scale >= 5)
+                edgeX += (int)(scale * 0.4);
+
+            line.add(edgeX, level);
+            line.add(x + (int)scale, level);
+        }
+    }
+
+    /**
+     * Draws a channel.
+     * @param g graphics context to draw on
+     * @param y y offset
+     * @param data array containing the sampled data
+     * @param n number of channel to display
+     * @param dataIndex index of the transition at or before <code>from</code>
+     * @param from index of first sample to display
+     * @param to index of last sample to display
+     */
+    private void drawChannel(Graphics g, int y, int[] data, long[] time, int n, int dataIndex, long from, long to) {
+
+        Polyline line = scratch.line;
+        for (long current = from; current < to;) {
+            int currentX = sampleToX(current);
+            int currentV = (data[dataIndex] >> n) & 0x01;
+            int nextV = currentV;
+            long next = current;
+	
+            // here is a transition
+            dataIndex++;
+            if(dataIndex < data.length) {
+                nextV = (data[dataIndex] >> n) & 0x01;
+                next = time[dataIndex];
+            } else {
+                next = to;
+            }
+            if(next >= to) next = to + 1;
+			
+            int currentEndX = sampleToX(next - 1);
+			
+            // straight line up to the point of change and a edge if not at end
+            line.add(currentX, y + 14 * (1 - currentV));
+            if (currentV == nextV) {
+                line.add(currentEndX + (int)scale, y + 14 * (1 - currentV));
+            } else {
+                line.add(currentEndX, y + 14 * (1 - currentV));
+                addEdge(line, currentEndX, y + 14 * (1 - nextV));
+            }
+            current = next;
+        }
+        line.draw(g);
+    }
+	
+    /**
+     * @return the rows from <code>y</code> to <code>y + height</code> intersect the clip
+     */
+    private static boolean intersects(Rectangle clipArea, int y, int height) {
+        return (y < clipArea.y + clipArea.height && y + height > clipArea.y);
+    }
+
+    private void drawGridLine(Graphics g, Rectangle clipArea, int y) {
+        g.setColor(grid);
+        g.drawLine(clipArea.x, y, clipArea.x + clipArea.width, y);
+    }
+
+    /**
+     * @param sample sample index
+     * @return horizontal position of the sample, limited to a range safe for drawing
+     */
+    private int sampleToX(long sample) {
+        long x = (long)Math.floor(sample * scale) - originX;
+        if (x > COORDINATE_MAX)
+            x = COORDINATE_MAX;
+        else if (x < -COORDINATE_MAX)
+            x = -COORDINATE_MAX;
+        return (int)x + offsetX;
+    }
+	
+    /**
+     * Draws a byte bar.
+     * @param g graphics context to draw on
+     * @param y y offset
+     * @param data array containing the sampled data
+     * @param n number of group to display (0-3 for 32 channels)
+     * @param dataIndex index of the transition at or before <code>from</code>
+     * @param from index of first sample to display
+     * @param to index of last sample to display
+     */
+    private int drawGroupByte(Graphics g, int y, int[] data, long[] time, Rectangle clipArea, int n, int dataIndex, long from, long to) {
+        if (!intersects(clipArea, y, 20))
+            return (20);
+        prepareActivity(clipArea, dataIndex);
+
+        // draw background
+        g.setColor(groupBackground);
+        g.fillRect(clipArea.x, y, clipArea.width, 19);
+        // draw bottom grid line
+        drawGridLine(g, clipArea, y + 19);
+		
+        g.setColor(signal);
+		
+        int yOfs = y + 2;
+        int h = 14;
+
+        if (activityWidth > 0) {
+            drawGroupByteActivity(g, yOfs, h, n);
+            return (20);
+        }
+
+        // the upper and lower lines of the bar change places at every edge
+        Polyline upper = scratch.line;
+        Polyline lower = scratch.other;
+        for (long current = from; current < to;) {
+            int currentX = sampleToX(current);
+            long runStart = Math.min(time[dataIndex], current);
+            int currentXSpace = sampleToX(runStart);
+            int currentV = (data[dataIndex] >> (8 * n)) & 0xff;
+            int nextV = currentV;
+            long next = current;
+
+			
+            // here is a transition
+            dataIndex++;
+            if(dataIndex < data.length) {
+                nextV = (data[dataIndex] >> (8 * n)) & 0xff;
+                next = time[dataIndex];
+            } else {
+                next = to;
+            }
+            if(next >= to) next = to + 1;
+
+            int currentEndX = sampleToX(next - 1);
+			
+            // straight lines up to the point of change and a edge if not at end
+            upper.add(currentX, yOfs);
+            lower.add(currentX, yOfs + h);
+            if (currentV == nextV) {
+                upper.add(currentEndX + (int)scale, yOfs);
+                lower.add(currentEndX + (int)scale, yOfs + h);
+            } else {
+                upper.add(currentEndX, yOfs);
+                lower.add(currentEndX, yOfs + h);
+                addEdge(upper, currentEndX, yOfs + h);
+                addEdge(lower, currentEndX, yOfs);
+                Polyline swap = upper;
+                upper = lower;
+                lower = swap;
+            }
+			
+            // if steady long enough, add hex value centered on the whole run
+            long runEnd = (dataIndex < data.length) ? time[dataIndex] : capturedData.absoluteLength;
+            int runEndX = sampleToX(runEnd);
+            if (runEndX - currentXSpace > 15) {
+                g.drawString(HEX[currentV], (currentXSpace + runEndX) / 2 - 2, y + 14);
+
+            }
+			
+            current = next;
+        }
+        upper.draw(g);
+        lower.draw(g);
+        return (20);
+    }
+	
+    /**
+     * Computes the per column activity of the visible columns.
+     * @param time transition timestamps
+     * @param data transition values
+     * @param dataIndex index of the transition at or before the first column
+     * @param x first visible column
+     * @param width number of visible columns
+     */
+    private void computeActivity(int[] data, long[] time, int dataIndex, int x, int width) {
+        if (scratch.activityValues.length < width) {
+            scratch.activityValues = new int[width];
+            scratch.activityChanges = new int[width];
+        }
+        activityValues = scratch.activityValues;
+        activityChanges = scratch.activityChanges;
+        if (activityEnvelope && scratch.activityLow.length < 4 * width) {
+            scratch.activityLow = new int[4 * width];
+            scratch.activityHigh = new int[4 * width];
+        }
+        activityLow = scratch.activityLow;
+        activityHigh = scratch.activityHigh;
+        // nothing is drawn left of the channel labels
+        if (x < offsetX) {
+            width -= offsetX - x;
+            x = offsetX;
+        }
+        activityX = x;
+        activityWidth = 0;
+        activityStride = width;
+
+        long end = columnToSample(x);
+        int index = dataIndex;
+        while (index + 1 < time.length && time[index + 1] < end)
+            index++;
+        activityFirstIndex = index;
+        for (int column = 0; column < width; column++) {
+            long start = end;
+            end = columnToSample(x + column + 1);
+            if (start >= capturedData.absoluteLength)
+                break;
+
+            // value entering the column, and channels changing within it
+            int value = data[index];
+            int changes = 0;
+            activityValues[column] = value;
+            if (activityEnvelope) {
+                for (int n = 0; n < 4; n++)
+                    activityLow[n * width + column] = activityHigh[n * width + column] = (value >>> (8 * n)) & 0xff;
+            }
+            while (index + 1 < time.length && time[index + 1] < end) {
+                index++;
+                changes |= data[index] ^ value;
+                value = data[index];
+                if (activityEnvelope) {
+                    for (int n = 0; n < 4; n++) {
+                        int v = (value >>> (8 * n)) & 0xff;
+                        if (v < activityLow[n * width + column])
+                            activityLow[n * width + column] = v;
+                        else if (v > activityHigh[n * width + column])
+                            activityHigh[n * width + column] = v;
+                    }
+                }
+            }
+            activityChanges[column] = changes;
+            activityWidth = column + 1;
+        }
+        activityLastIndex = index;
+    }
+
+    /**
+     * Computes the per column activity on first use by a visible row,
+     * when pixel columns span several samples.
+     * @param dataIndex index of the transition at or before the first column
+     */
+    private void prepareActivity(Rectangle clipArea, int dataIndex) {
+        if (activityPending) {
+            activityPending = false;
+            computeActivity(capturedData.values, capturedData.timestamps, dataIndex, clipArea.x, clipArea.width + 1);
+        }
+    }
+
+    /**
+     * Draws a channel from the per column activity: steady runs as one
+     * line, columns in which the channel changes as a vertical bar.
+     * @param g graphics context to draw on
+     * @param y y offset
+     * @param n number of channel to display
+     */
+    private void drawChannelActivity(Graphics g, int y, int n) {
+        Polyline line = scratch.line;
+        for (int column = 0; column < activityWidth; column++) {
+            int x = activityX + column;
+            if (((activityChanges[column] >> n) & 0x01) != 0) {
+                // bar from the current level to the opposite one
+                if (line.length == 0)
+                    line.add(x, y);
+                else
+                    line.add(x, line.level());
+                line.add(x, (line.level() == y) ? y + 14 : y);
+            } else {
+                int level = y + 14 * (1 - ((activityValues[column] >> n) & 0x01));
+                if (line.length > 0 && line.level() != level)
+                    line.add(line.x[line.length - 1], level);
+                line.add(x, level);
+            }
+        }
+        line.draw(g);
+    }
+
+    /**
+     * Draws a byte bar from the per column activity.
+     * @param g graphics context to draw on
+     * @param yOfs y offset of the bar
+     * @param h height of the bar
+     * @param n number of group to display (0-3 for 32 channels)
+     */
+    private void drawGroupByteActivity(Graphics g, int yOfs, int h, int n) {
+        Polyline upper = scratch.line;
+        Polyline lower = scratch.other;
+        int runX = -1;
+        int runV = 0;
+        for (int column = 0; column <= activityWidth; column++) {
+            int x = activityX + column;
+            boolean changing = (column < activityWidth) && ((activityChanges[column] >> (8 * n)) & 0xff) != 0;
+            int v = (column < activityWidth) ? (activityValues[column] >> (8 * n)) & 0xff : -1;
+            if (runX >= 0 && (changing || v != runV)) {
+                upper.add(x, yOfs);
+                lower.add(x, yOfs + h);
+                // label at the center of the whole run, also when it continues beyond the drawn range
+                int startX = runX;
+                int endX = x;
+                if (runX == activityX)
+                    startX = sampleToX(capturedData.getRunStart(0xff << (8 * n), activityFirstIndex));
+                if (column == activityWidth)
+                    endX = sampleToX(capturedData.getRunEnd(0xff << (8 * n), activityLastIndex));
+                if (endX - startX > 15) {
+                    g.drawString(HEX[runV], (startX + endX) / 2 - 2, yOfs + 12);
+                }
+                runX = -1;
+            }
+            if (changing) {
+                upper.add(x, yOfs);
+                upper.add(x, yOfs + h);
+                upper.add(x, yOfs);
+                lower.add(x, yOfs + h);
+            }
+            else if (runX < 0 && v >= 0) {
+                runX = x;
+                runV = v;
+                upper.add(x, yOfs);
+                lower.add(x, yOfs + h);
+            }
+        }
+        upper.draw(g);
+        lower.draw(g);
+    }
+
+    private int drawGroupAnalyzer(Graphics g, int yofs, int data[], long[] time, Rectangle clipArea, int n, int dataIndex, long from, long to) {
+        if (!intersects(clipArea, yofs, 20 * 8))
+            return (20 * 8);
+        prepareActivity(clipArea, dataIndex);
+
+        for (int bit = 0; bit < 8; bit++) {
+            if (!intersects(clipArea, yofs + 20 * bit, 20))
+                continue;
+            // draw channel separator and actual data
+            drawGridLine(g, clipArea, 20 * bit + yofs + 19);
+            g.setColor(signal);
+            if (activityWidth > 0)
+                drawChannelActivity(g, yofs + 20 * bit + 2, 8 * n + bit);
+            else
+                drawChannel(g, yofs + 20 * bit + 2, data, time, 8 * n + bit, dataIndex, from, to);
+        }
+
+        return (20 * 8);
+    }
+
+    private int drawGroupScope(Graphics g, int y, int data[], long[] time, Rectangle clipArea, int n, int dataIndex, long from, long to) {
+        if (!intersects(clipArea, y, 133))
+            return (133);
+        prepareActivity(clipArea, dataIndex);
+
+        // draw actual data
+        g.setColor(signal);
+        if (activityWidth > 0)
+            drawGroupScopeActivity(g, y, n);
+        else
+            drawGroupScopeTransitions(g, y, data, time, n, dataIndex, from, to);
+
+        // draw bottom grid line
+        drawGridLine(g, clipArea, y + 132);
+
+        return (133);
+    }
+
+    /**
+     * Draws a scope from the per column envelope: a vertical span from
+     * the lowest to the highest value within each column, joined from
+     * the value leaving a column to the value entering the next.
+     * @param g graphics context to draw on
+     * @param y y offset
+     * @param n number of group to display (0-3 for 32 channels)
+     */
+    private void drawGroupScopeActivity(Graphics g, int y, int n) {
+        Polyline line = scratch.line;
+        int base = n * activityStride;
+        for (int column = 0; column < activityWidth; column++) {
+            int x = activityX + column;
+            int first = (activityValues[column] >>> (8 * n)) & 0xff;
+            int last;
+            if (column + 1 < activityWidth)
+                last = (activityValues[column + 1] >>> (8 * n)) & 0xff;
+            else
+                last = (capturedData.values[activityLastIndex] >>> (8 * n)) & 0xff;
+
+            line.add(x, y + 2 + (255 - first) / 2);
+            line.add(x, y + 2 + (255 - activityHigh[base + column]) / 2);
+            line.add(x, y + 2 + (255 - activityLow[base + column]) / 2);
+            line.add(x, y + 2 + (255 - last) / 2);
+        }
+        line.draw(g);
+    }
+
+    /**
+     * Draws a scope from the transitions: one segment per change of the group value.
+     */
+    private void drawGroupScopeTransitions(Graphics g, int y, int data[], long[] time, int n, int dataIndex, long from, long to) {
+        Polyline line = scratch.line;
+        int last = (255 - ((data[dataIndex] >> (n * 8)) & 0xff)) / 2;
+        int val = (255 - ((data[dataIndex] >> (n * 8)) & 0xff)) / 2;
+        for (long pos = from; pos < to; ) {
+            long oldPos = pos;
+            pos = time[dataIndex];
+            if(pos > oldPos) {
+                val = (255 - ((data[dataIndex] >> (n * 8)) & 0xff)) / 2;
+
+                line.add(sampleToX(oldPos), y + 2 + last);
+                line.add(sampleToX(pos), y + 2 + val);
+
+                last = val;
+            }
+            dataIndex++;
+            if(dataIndex >= time.length) break;
+        }
+        if (line.length == 0)
+            line.add(sampleToX(from), y + 2 + val);
+        line.add(sampleToX(to), y + 2 + val);
+        line.draw(g);
+    }
+
+    /**
+     * Paints the waveform (background, time line and groups) within the
+     * clip bounds.  Returns early when the rendering thread is interrupted.
+     * The row labels are painted by {@link #paintLabels(Graphics)}.
+     * @param g graphics context to draw on
+     */
+    public void paint(Graphics g) {
+        scratch = Scratch.get();
+		
+        boolean hasTiming = capturedData.hasTimingData();
+        boolean hasTrigger = capturedData.hasTriggerData();
+        int channels = capturedData.channels;
+        int enabled = capturedData.enabledChannels;
+        long triggerPosition = capturedData.triggerPosition;
+        if (!hasTrigger)
+            triggerPosition = 0;
+        int rate = capturedData.rate;
+        if (!hasTiming)	// value of rate is only valid if timing data exists
+            rate = 1;
+		
+        int yofs = offsetY + 2;
+
+        // obtain portion of graphics that needs to be drawn
+        Rectangle clipArea = g.getClipBounds();
+
+        // find index of first row that needs drawing, including the edge into it
+        long firstRow = Math.max(0, xToIndex(clipArea.x) - 1);
+			
+        // find index of last row that needs drawing
+        long lastRow = xToIndex(clipArea.x + clipArea.width) + 1;
+
+        // paint portion of background that needs drawing
+        g.setColor(background);
+        g.fillRect(clipArea.x, clipArea.y, clipArea.width, clipArea.height);
+
+        // draw time line, starting left of the clip for labels reaching into it
+        if (intersects(clipArea, 0, yofs)) {
+            long rowInc = Math.max(1, (long)(10 / scale));
+            long timeLineShift = triggerPosition % rowInc;
+            long timeRow = xToIndex(clipArea.x - 150);
+            g.setColor(time);
+            for (long row = ( timeRow / rowInc) * rowInc + timeLineShift; row < lastRow; row += rowInc) {
+                int pos = sampleToX(row);
+                if (((row - triggerPosition) / rowInc) % 20 == 0) {
+                    g.drawLine(pos, 1, pos, 15);
+                    StringBuffer label = scratch.label;
+                    label.setLength(0);
+                    if (hasTiming) {
+                        scratch.format.format((double)(row - triggerPosition) / (double)rate, label, scratch.position);
+                        label.append(" sec");
+                    } else
+                        label.append(row - triggerPosition);
+                    scratch.drawLabel(g, pos + 5, 10);
+                } else {
+                    g.drawLine(pos, 12, pos, 15);
+                }
+            }
+        }
+
+        // find the transition at or before "firstRow", shared by all rows
+        int firstIndex = capturedData.getSampleIndex(firstRow);
+
+        // collapse pixel columns spanning several samples
+        // (computed when first needed by a visible row)
+        activityWidth = 0;
+        activityPending = (scale < 1);
+        activityEnvelope = false;
+        for (int block = 0; block < channels / 8 && block < 4; block++)
+            if (((enabled >> (8 * block)) & 0xff) != 0 && (groupSettings[block] & DiagramSettings.DISPLAY_SCOPE) > 0)
+                activityEnvelope = true;
+
+        // draw groups
+        int bofs = yofs;
+        drawGridLine(g, clipArea, bofs++);
+        for (int block = 0; block < channels / 8; block++)
+            if (((enabled >> (8 * block)) & 0xff) != 0) {
+                if (Thread.currentThread().isInterrupted())
+                    return;
+                if (block < 4 && (groupSettings[block] & DiagramSettings.DISPLAY_CHANNELS) > 0)
+                    bofs += drawGroupAnalyzer(g, bofs, capturedData.values, capturedData.timestamps, clipArea, block, firstIndex, firstRow, lastRow);
+                if (block < 4 && (groupSettings[block] & DiagramSettings.DISPLAY_SCOPE) > 0)
+                    bofs += drawGroupScope(g, bofs, capturedData.values, capturedData.timestamps, clipArea, block, firstIndex, firstRow, lastRow);
+                if (block < 4 && (groupSettings[block] & DiagramSettings.DISPLAY_BYTE) > 0)
+                    bofs += drawGroupByte(g, bofs, capturedData.values, capturedData.timestamps, clipArea, block, firstIndex, firstRow, lastRow);
+            }
+    }
+
+    /**
+     * Paints the row labels (channel numbers and group names) left of
+     * <code>offsetX</code>.
+     * @param g graphics context to draw on
+     */
+    public void paintLabels(Graphics g) {
+        int channels = capturedData.channels;
+        int enabled = capturedData.enabledChannels;
+        int width = offsetX;
+
+        g.setColor(background);
+        g.fillRect(0, 0, width, offsetY + 2);
+
+        int bofs = offsetY + 2;
+        g.setColor(grid);
+        g.drawLine(0, bofs, width, bofs);
+        bofs++;
+        for (int block = 0; block < channels / 8 && block < 4; block++)
+            if (((enabled >> (8 * block)) & 0xff) != 0) {
+                if ((groupSettings[block] & DiagramSettings.DISPLAY_CHANNELS) > 0) {
+                    for (int bit = 0; bit < 8; bit++) {
+                        g.setColor(background);
+                        g.fillRect(0, 20 * bit + bofs, width, 19);
+                        g.setColor(grid);
+                        g.drawLine(0, 20 * bit + bofs + 19, width, 20 * bit + bofs + 19);
+                        g.setColor(text);
+                        g.drawString(CHANNEL[bit + block * 8], 5, 20 * bit + bofs + 14);
+                    }
+                    bofs += 20 * 8;
+                }
+                if ((groupSettings[block] & DiagramSettings.DISPLAY_SCOPE) > 0) {
+                    g.setColor(background);
+                    g.fillRect(0, bofs, width, 132);
+                    g.setColor(grid);
+                    g.drawLine(0, bofs + 132, width, bofs + 132);
+                    g.setColor(text);
+                    g.drawString(SCOPE[block], 5, bofs + 70);
+                    bofs += 133;
+                }
+                if ((groupSettings[block] & DiagramSettings.DISPLAY_BYTE) > 0) {
+                    g.setColor(groupBackground);
+                    g.fillRect(0, bofs, width, 19);
+                    g.setColor(grid);
+                    g.drawLine(0, bofs + 19, width, bofs + 19);
+                    g.setColor(text);
+                    g.drawString(BYTE[block], 5, bofs + 14);
+                    bofs += 20;
+                }
+            }
+    }
+
+    /**
+     * @param x horizontal position in pixels
+     * @return first sample at or right of the position, not limited to the captured data
+     */
+    private long columnToSample(int x) {
+        return (long)Math.ceil((x - offsetX + originX) / scale);
+    }
+
+    /**
+     * Convert x position to sample index.
+     * @param x horizontal position in pixels
+     * @return sample index
+     */
+    private long xToIndex(int x) {
+        long index = (long)Math.floor((x - offsetX + originX) / scale);
+        if (index < 0)
+            index = 0;
+        if (index >= capturedData.absoluteLength)
+            index = capturedData.absoluteLength - 1;
+        return (index);
+    }
+}
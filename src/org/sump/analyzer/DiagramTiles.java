@@ -0,0 +1,229 @@
+/*
+ *  Copyright (C) 2012 John Pritchard
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Off-screen images of the waveform, in tiles of fixed size, evicted
+ * least recently used first when the images exceed a memory budget.
+ * <p>
+ * A tile is identified by its column in the scaled waveform and its
+ * row, and by the scale, group settings and diagram height it was
+ * rendered with, so zooming back to a previous scale finds its tiles
+ * again.  The tiles of the bottom row are cut to the diagram height.
+ * The cache is cleared when the captured data changes.  The budget is
+ * never less than the size of the visible tiles, as set by the diagram,
+ * so that painting does not evict the tiles it has just rendered.
+ *
+ * @see Diagram
+ * @author John Pritchard
+ */
+final class DiagramTiles
+    extends Object
+{
+    /** width of a tile in pixels */
+    public final static int WIDTH = 256;
+    /** height of a tile in pixels */
+    public final static int HEIGHT = 256;
+    /** default memory budget in megabytes */
+    public final static int BUDGET = 64;
+    /** smallest memory budget in megabytes */
+    public final static int MINIMUM = 8;
+    /** number of evicted images kept for reuse */
+    public final static int SPARES = 4;
+
+
+    /**
+     * Tile identity.  A probe key is set again for each lookup while
+     * painting, and copied when a tile is kept; keys in the cache are
+     * never set.
+     */
+    public final static class Key
+        extends Object
+    {
+        public double scale;
+        public int settings;
+        public int height;
+        public long column;
+        public int row;
+
+        private int hashCode;
+
+
+        public Key(double scale, int settings, int height, long column, int row){
+            super();
+            this.set(scale, settings, height, column, row);
+        }
+        public Key(Key key){
+            super();
+            this.set(key.scale, key.settings, key.height, key.column, key.row);
+        }
+
+
+        /**
+         * @return this key, identifying another tile
+         */
+        Key set(double scale, int settings, int height, long column, int row){
+            this.scale = scale;
+            this.settings = settings;
+            this.height = height;
+            this.column = column;
+            this.row = row;
+
+            long bits = Double.doubleToLongBits(scale);
+            int hash = (int)(bits ^ (bits >>> 32));
+            hash = 31 * hash + settings;
+            hash = 31 * hash + height;
+            hash = 31 * hash + (int)(column ^ (column >>> 32));
+            hash = 31 * hash + row;
+            this.hashCode = hash;
+            return this;
+        }
+        /**
+         * @return height of the tile image, cut to the diagram height
+         */
+        public int getImageHeight(){
+            return Math.min(HEIGHT, this.height - this.row * HEIGHT);
+        }
+
+
+        public int hashCode(){
+            return this.hashCode;
+        }
+        public boolean equals(Object that){
+            if (this == that)
+                return true;
+            else if (that instanceof Key){
+                Key key = (Key)that;
+                return (this.column == key.column && this.row == key.row && this.scale == key.scale
+                        && this.settings == key.settings && this.height == key.height);
+            }
+            else
+                return false;
+        }
+    }
+
+
+    private final LinkedHashMap<Key,BufferedImage> tiles = new LinkedHashMap<Key,BufferedImage>(64, 0.75f, true);
+
+    private final LinkedList<BufferedImage> spares = new LinkedList<BufferedImage>();
+
+    private long budget;
+
+    private long visible;
+
+    private long used;
+
+
+    public DiagramTiles(){
+        super();
+        this.setBudget(BUDGET);
+    }
+
+
+    /**
+     * @param megabytes memory budget of the tile images, at least {@link #MINIMUM}
+     */
+    public synchronized void setBudget(int megabytes){
+        this.budget = Math.max(MINIMUM, megabytes) * 1024L * 1024L;
+        this.evict();
+    }
+    /**
+     * @param width width of the visible area in pixels
+     * @param height height of the visible area in pixels
+     */
+    public synchronized void setVisible(int width, int height){
+        long columns = width / WIDTH + 2;
+        long rows = height / HEIGHT + 2;
+        this.visible = 4L * columns * WIDTH * rows * HEIGHT;
+    }
+    /**
+     * @return memory budget of the tile images in megabytes
+     */
+    public synchronized int getBudget(){
+        return (int)(this.budget / (1024L * 1024L));
+    }
+    /**
+     * @return tile image, or null when not cached
+     */
+    public synchronized BufferedImage get(Key key){
+        return this.tiles.get(key);
+    }
+    /**
+     * Reuses an evicted tile image of the requested size, or creates
+     * a new one, so that scrolling does not allocate an image for
+     * every tile.
+     * @return tile image for rendering, its content is undefined
+     */
+    public synchronized BufferedImage obtain(int width, int height){
+        while (!this.spares.isEmpty()){
+            BufferedImage image = this.spares.removeFirst();
+            if (width == image.getWidth() && height == image.getHeight())
+                return image;
+        }
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+    /**
+     * Returns an image obtained for a tile that is not kept, as when
+     * its rendering has been cancelled.
+     */
+    public synchronized void recycle(BufferedImage image){
+        if (SPARES > this.spares.size())
+            this.spares.addLast(image);
+    }
+    /**
+     * Adds a tile image, evicting least recently used tiles as needed.
+     */
+    public synchronized void put(Key key, BufferedImage image){
+        BufferedImage previous = this.tiles.put(key, image);
+        if (null != previous)
+            this.used -= Size(previous);
+        this.used += Size(image);
+        this.evict();
+    }
+    /**
+     * Drops all tiles.
+     */
+    public synchronized void clear(){
+        this.tiles.clear();
+        this.spares.clear();
+        this.used = 0;
+    }
+
+    private void evict(){
+        Iterator<Map.Entry<Key,BufferedImage>> entries = this.tiles.entrySet().iterator();
+        long limit = Math.max(this.budget, this.visible);
+        while (this.used > limit && entries.hasNext()){
+            BufferedImage image = entries.next().getValue();
+            this.used -= Size(image);
+            entries.remove();
+
+            this.recycle(image);
+        }
+    }
+
+    private final static long Size(BufferedImage image){
+        return 4L * image.getWidth() * image.getHeight();
+    }
+}
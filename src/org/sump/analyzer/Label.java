@@ -39,6 +39,10 @@ public enum Label {
     SaveProjectAs("Save Project as"),
     Capture("Capture"),
     RepeatCapture("Repeat Capture"),
+    MultiCapture("Multi Capture..."),
+    AbortCapture("Abort Capture"),
+    Cancel("Cancel"),
+    CloseCapture("Close Capture"),
     Exit("Exit"),
     ZoomIn("Zoom In"),
     ZoomOut("Zoom Out"),
@@ -20,6 +20,7 @@
 package org.sump.analyzer;
 
 import java.io.File;
+import java.util.Arrays;
 
 import javax.swing.SwingUtilities;
 import javax.swing.*;
@@ -44,11 +45,28 @@ public class Loader {
      * data ("*.sla") files can be supplied as arguments.  The files
      * will then be loaded. If a file cannot be read, the client will
      * exit.
+     * <p>
+     * With the first argument <code>-export</code>, a data file is
+     * exported to an image without starting the UI, see {@link
+     * DiagramExport#main(String[])}.  With the first argument
+     * <code>-batch</code>, data files are decoded by the tools without
+     * starting the UI, see {@link Batch#main(String[])}.
      * 
      * @param args arguments
      */
     public static void main(String[] args) {
 
+        if (0 < args.length && args[0].equals("-export")) {
+
+            DiagramExport.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        else if (0 < args.length && args[0].equals("-batch")) {
+
+            Batch.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         try {
             for (LookAndFeelInfo info : UIManager.getInstalledLookAndFeels()) {
                 if ("Nimbus".equals(info.getName())) {
@@ -74,7 +92,7 @@ public class Loader {
 
             if (arg.startsWith("-")) {
 
-                System.out.println("Usage: run [file.slp] [file.sla]");
+                System.out.println("Usage: run [file.slp] [file.sla] | run -export file.sla image.(png|svg) [options] | run -batch [options] file.sla...");
                 System.exit(1);
             }
             else {
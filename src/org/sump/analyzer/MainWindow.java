@@ -21,9 +21,8 @@ package org.sump.analyzer;
 
 import java.awt.BorderLayout;
 import java.awt.Container;
-import java.awt.Dimension;
+import java.awt.GridLayout;
 import java.awt.Insets;
-import java.awt.Point;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseWheelEvent;
@@ -33,16 +32,27 @@ import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URL;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiConsumer;
 
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JCheckBoxMenuItem;
-import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -50,16 +60,22 @@ import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
+import javax.swing.JTextField;
 import javax.swing.JToolBar;
-import javax.swing.JViewport;
 import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileFilter;
 
+import org.sump.analyzer.devices.CaptureProgressListener;
 import org.sump.analyzer.devices.DeviceController;
+import org.sump.analyzer.devices.Devices;
 import org.sump.analyzer.devices.FpgaDeviceController;
+import org.sump.analyzer.devices.MultiDeviceCapture;
 import org.sump.analyzer.tools.Tool;
 import org.sump.util.ClassPath;
 
@@ -120,30 +136,48 @@ public final class MainWindow
 
 	
     private static final String APP_NAME = "Logic Analyzer Client";
+    /**
+     * Runs the tasks of tools one at a time, off the event dispatch
+     * thread, so that the diagram repaints while they work.  A
+     * cancelled task is interrupted.
+     */
+    private final static ExecutorService Tools = Executors.newSingleThreadExecutor(new ThreadFactory(){
+            public Thread newThread(Runnable task){
+                Thread thread = new Thread(task, "Tool");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
 
 
     private JMenu toolMenu;
+    private JMenu captureMenu;
     private JMenu diagramMenu;
 	
     private JFileChooser fileChooser;
     private JFileChooser projectChooser;
 
     private int currentController;
+    private CompletableFuture<CapturedData> pendingCapture;
+    private CompletableFuture<?> pendingTask;
+    private CompletableFuture<CapturedData> pendingView;
 
     private JScrollPane diagramPane;
 
     private JLabel status;
+    private JPanel taskPanel;
+    private JProgressBar taskProgressBar;
 
     private JCheckBoxMenuItem cursorsEnabledMenuItem;
-    private JComboBox currentDisplayPage;
-    private JLabel maxDisplayPage;
 
 
     private final Project project;
     private final ClassPath classpath;
     private final Diagram diagram;
+    private final Captures captures;
     private final Tool[] tools;
-    private final DeviceController[] controllers;
+    private final Devices devices;
+    private DeviceController[] controllers;
 
     /**
      * Default constructor.
@@ -157,10 +191,12 @@ public final class MainWindow
 
         this.classpath = new ClassPath();
         this.project = new Project(this.classpath);
-        this.controllers = this.classpath.controllers();
+        this.devices = this.classpath.getDevices();
+        this.controllers = this.devices.controllers();
         this.tools = this.classpath.tools(this);
 
         this.diagram = this.classpath.getDiagram();
+        this.captures = this.classpath.getCaptures();
         this.diagram.addStatusChangeListener(this);
     }
 
@@ -173,17 +209,6 @@ public final class MainWindow
         diagramMenu.setEnabled(enable);
         toolMenu.setEnabled(enable);
     }	
-    /**
-     *
-     */	
-    private void updatePageInfo() {
-        maxDisplayPage.setText("" + diagram.getMaxPages());
-        currentDisplayPage.removeAllItems();
-        for(int i=0;i<diagram.getMaxPages();i++) {
-            currentDisplayPage.addItem(i+1);
-        }
-    }
-	
     /**
      * Handles all user interaction.
      */
@@ -198,14 +223,8 @@ public final class MainWindow
 
                 if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
                     File file = fileChooser.getSelectedFile();
-                    if (file.isFile()) {
-                        loadData(file);
-                        this.setTitle(APP_NAME + " - " + file.getName());
-                    }
-                    cursorsEnabledMenuItem.setSelected(diagram.getCursorMode());
-                    Container contentPane = this.getContentPane();
-                    diagram.zoomFit((contentPane.getSize().width * 95) / 100);
-                    updatePageInfo();
+                    if (file.isFile())
+                        openData(file);
                 }
                 return;			
             case SaveAs:
@@ -223,10 +242,8 @@ public final class MainWindow
                                                                        JOptionPane.ERROR_MESSAGE) == JOptionPane.NO_OPTION)) {
                         writefile = false;
                     }
-                    if (writefile) {
-                        diagram.getCapturedData().writeToFile(file);
-                        this.setTitle(APP_NAME + " - " + file.getName());
-                    }
+                    if (writefile)
+                        saveData(file);
                 }
                 return;
 
@@ -266,11 +283,7 @@ public final class MainWindow
                 if (currentController < 0)
                     return;
                 else if (controllers[currentController].showCaptureDialog(this) == DeviceController.DONE) {
-                    diagram.setCapturedData(controllers[currentController].getDeviceData(this));
-                    Container contentPane = this.getContentPane();
-                    //diagram.zoomFit((contentPane.getSize().width * 95) / 100);
-                    diagram.zoomFit(diagramPane.getViewport().getViewRect().width);
-                    cursorsEnabledMenuItem.setSelected(diagram.getCursorMode());
+                    recordCapture(controllers[currentController].getDeviceData(this));
                 }
                 return;
 
@@ -279,73 +292,56 @@ public final class MainWindow
                 if (currentController < 0)
                     return;
                 else if (controllers[currentController].showCaptureProgress(this) == DeviceController.DONE) {
-                    diagram.setCapturedData(controllers[currentController].getDeviceData(this));
-                    Container contentPane = this.getContentPane();
-                    //diagram.zoomFit((contentPane.getSize().width * 95) / 100);
-                    diagram.zoomFit(diagramPane.getViewport().getViewRect().width);
-                    cursorsEnabledMenuItem.setSelected(diagram.getCursorMode());
+                    recordCapture(controllers[currentController].getDeviceData(this));
                 }
                 return;
 
+            case MultiCapture:
+                {
+                    DeviceController[] selected = selectMultiCapture();
+                    if (null != selected && 0 < selected.length)
+                        multiCapture(selected);
+                }
+                return;
+
+            case AbortCapture:
+
+                if (null != pendingCapture)
+                    pendingCapture.cancel(true);
+                return;
+
+            case Cancel:
+
+                if (null != pendingTask)
+                    pendingTask.cancel(true);
+                return;
+
+            case CloseCapture:
+
+                if (null != captures.getCurrent())
+                    viewCapture(captures.close(captures.getCurrent()));
+                return;
+
             case Exit:
                 System.exit(0);
                 return;
 			
             case ZoomIn:
-                {
-                    JViewport vp = diagramPane.getViewport();
-                    Point p1 = vp.getViewPosition();
-                    int cdiff = vp.getViewRect().width / 2;
-                    p1.x += (cdiff);
-                    double x = (double)p1.x / (double)vp.getViewSize().width;
-				
-                    diagram.zoomIn();
-                    updatePageInfo();
-				
-                    Point p2 = new Point((int)(x * (double)vp.getViewSize().width), 0);
-                    if (p2.x > cdiff) {
-                        p2.x -= cdiff;
-                    }
-				
-                    vp.setViewPosition(p2);
-                }
+                diagram.zoomIn();
                 return;
 			
             case ZoomOut:
-                {
-                    JViewport vp = diagramPane.getViewport();
-                    Point p1 = vp.getViewPosition();
-                    int cdiff = vp.getViewRect().width / 2;
-                    p1.x += (cdiff);
-                    double x = (double)p1.x / (double)vp.getViewSize().width;
-				
-                    diagram.zoomOut();
-				
-                    if (vp.getViewSize().width < vp.getViewRect().width) {
-                        diagram.zoomFit(vp.getViewRect().width);
-                    }
-				
-                    updatePageInfo();
-				
-                    Point p2 = new Point((int)(x * (double)vp.getViewSize().width), 0);
-                    if (p2.x > cdiff) {
-                        p2.x -= cdiff;
-                    }
-				
-                    vp.setViewPosition(p2);
-                }
+                diagram.zoomOut();
                 return;
 
             case DefaultZoom:
                 diagram.zoomDefault();
-                updatePageInfo();
                 return;
 
             case ZoomFit:
                 Container contentPane = this.getContentPane();
                 //diagram.zoomFit((contentPane.getSize().width * 95) / 100);
                 diagram.zoomFit(diagramPane.getViewport().getViewRect().width);
-                updatePageInfo();
                 return;
 				
             case GotoTrigger:
@@ -399,17 +395,6 @@ public final class MainWindow
                                               "About", JOptionPane.INFORMATION_MESSAGE
                                               );
                 return;
-            case ComboBoxChanged:
-                {
-                    Object current = currentDisplayPage.getSelectedItem();
-                    if(current != null) {
-                        Integer page = (Integer)current;
-                        page--;
-                        diagramPane.getViewport().setViewPosition(new Point(0,0));
-                        diagram.setCurrentPage(page.intValue());
-                    }
-                }
-                return;
             case Controller:
                 {
                     String[] possibleControllers = new String[controllers.length];
@@ -440,11 +425,8 @@ public final class MainWindow
              * captured data by tool
              */
             for (int i = 0; i < tools.length; i++){
-                if (label.equals(tools[i].getName())) {
-                    CapturedData newData = tools[i].process(diagram.getCapturedData());
-                    if (newData != null)
-                        diagram.setCapturedData(newData);
-                }
+                if (label.equals(tools[i].getName()))
+                    runTool(tools[i]);
             }
 
             enableDataDependingFunctions(diagram.hasCapturedData());
@@ -461,104 +443,38 @@ public final class MainWindow
     public void mouseWheelMoved(MouseWheelEvent e) {
 		
         int notches = e.getWheelRotation();
-        JViewport vp = diagramPane.getViewport();
 		
         if (e.isControlDown()) {
-			
-            if (notches < 0) {
-                /*
-                 * Zoom in
-                 */
-				
-                Point p1 = vp.getViewPosition();
-                p1.x += e.getX();
-                double x = (double)p1.x / (double)vp.getViewSize().width;
-				
-                diagram.zoomIn();
-                updatePageInfo();
-				
-                Point p2 = new Point((int)(x * (double)vp.getViewSize().width), 0);
-                if (p2.x > e.getX()) {
-                    p2.x -= e.getX();
-                }
-				
-                vp.setViewPosition(p2);
-				
-            } else {
-                /*
-                 * Zoom out
-                 */
-				
-                Point p1 = vp.getViewPosition();
-                p1.x += e.getX();
-                double x = (double)p1.x / (double)vp.getViewSize().width;
-				
-                diagram.zoomOut();
-                updatePageInfo();
-				
-                if (vp.getViewSize().width < vp.getViewRect().width) {
-                    diagram.zoomFit(vp.getViewRect().width);
-                }
-				
-                Point p2 = new Point((int)(x * (double)vp.getViewSize().width), 0);
-                if (p2.x > e.getX()) {
-                    p2.x -= e.getX();
-                }
-				
-                vp.setViewPosition(p2);
-				
-            }
+
+            int x = SwingUtilities.convertPoint(e.getComponent(), e.getPoint(), diagram).x;
+
+            if (notches < 0)
+                diagram.zoomIn(x);
+            else
+                diagram.zoomOut(x);
 			
         } else {
 			
-            if (notches < 0) {
-				
-                Point p = vp.getViewPosition();
-                if (p.x > 30) {
-                    p.x -= 30;
-                } else {
-                    p.x = 0;
-                }
-				
-                vp.setViewPosition(p);
-				
-            } else {
-				
-                Point p = vp.getViewPosition();
-                if ((p.x + 30) < (vp.getViewSize().width - vp.getViewRect().width)) {
-                    p.x += 30;
-                } else {
-                    p.x = (vp.getViewSize().width - vp.getViewRect().width);
-                }
-				
-                vp.setViewPosition(p);
-				
-            }
+            if (notches < 0)
+                diagram.scrollBy(-30);
+            else
+                diagram.scrollBy(30);
 			
         }
 		
     }
 	
     public void onCursorChanged(int mousePos) {
-        Point currentViewPos = diagramPane.getViewport().getViewPosition();
-        int vpMin = currentViewPos.x;
-        int vpMax = diagramPane.getViewport().getSize().width + currentViewPos.x;
-
         /*
          * The step size to left/right depends on the distance of the current mouse
-         * position to the right/left viewport border. So when the mouse cursor is
+         * position to the left/right diagram border. So when the mouse cursor is
          * far outside the diagram scrolls faster.
          */
-        int stepSizeLeft = Math.abs(mousePos - vpMin);  
-        int stepSizeRight = Math.abs(mousePos - vpMax);  
-		
-        if(mousePos < vpMin) {
-            currentViewPos.x -= stepSizeLeft;
-            diagramPane.getViewport().setViewPosition(currentViewPos);
+        if(mousePos < 0) {
+            diagram.scrollBy(mousePos);
         }
-        if(mousePos > vpMax) {
-            currentViewPos.x += stepSizeRight;
-            diagramPane.getViewport().setViewPosition(currentViewPos);
+        if(mousePos > diagram.getWidth()) {
+            diagram.scrollBy(mousePos - diagram.getWidth());
         }
     }
 	
@@ -567,21 +483,7 @@ public final class MainWindow
      * @param samplePos sample position
      */
     private void gotoPosition(long samplePos) {
-        Dimension dim = diagram.getPreferredSize();
-        JViewport vp = diagramPane.getViewport();
-		
-        // do nothing if the zoom factor is nearly the viewport size
-        if(dim.width < vp.getWidth() * 2) return;
-		
-        currentDisplayPage.setSelectedIndex(diagram.getPage(samplePos));
-        int pos = diagram.getTargetPosition(dim.width, samplePos) - 20;
-        if(pos < 0) pos = 0;
-		
-        if(samplePos == 0) {
-            vp.setViewPosition(new Point(0,0));
-        } else {
-            vp.setViewPosition(new Point(pos,0));
-        }
+        diagram.gotoPosition(samplePos);
     }
 
     /** 
@@ -606,6 +508,289 @@ public final class MainWindow
     }
     public void windowDeactivated(WindowEvent evt){
     }
+    /**
+     * Asks for the devices of a multi device capture, with the time
+     * offset and sampling rate of each, adding further devices of a
+     * kind as requested.  The offsets and rates are kept in the
+     * project settings.
+     * @return controllers to capture with, or null when cancelled
+     */
+    private DeviceController[] selectMultiCapture(){
+        final String[] options = {"Capture", "Add Device...", "Cancel"};
+        final Set<Devices.Device> unselected = new HashSet<Devices.Device>();
+        while (true){
+            List<Devices.Device> list = devices.list();
+            JCheckBox[] selects = new JCheckBox[list.size()];
+            JTextField[] offsets = new JTextField[list.size()];
+            JTextField[] rates = new JTextField[list.size()];
+
+            JPanel panel = new JPanel(new GridLayout(list.size() + 1, 3, 5, 5));
+            panel.add(new JLabel("Device"));
+            panel.add(new JLabel("Offset (ns)"));
+            panel.add(new JLabel("Rate without timing (Hz)"));
+            for (int i = 0; i < selects.length; i++){
+                Devices.Device device = list.get(i);
+                selects[i] = new JCheckBox(device.toString(), !unselected.contains(device));
+                offsets[i] = new JTextField(String.valueOf(device.getOffset()), 10);
+                rates[i] = new JTextField((0 < device.getRate()) ? String.valueOf(device.getRate()) : "", 10);
+                panel.add(selects[i]);
+                panel.add(offsets[i]);
+                panel.add(rates[i]);
+            }
+            int option = JOptionPane.showOptionDialog(this, panel, "Capture with the current settings of",
+                                                      JOptionPane.DEFAULT_OPTION, JOptionPane.PLAIN_MESSAGE,
+                                                      null, options, options[0]);
+            if (0 != option && 1 != option)
+                return null;
+
+            try {
+                for (int i = 0; i < selects.length; i++){
+                    long offset = Long.parseLong(offsets[i].getText().trim());
+                    String rate = rates[i].getText().trim();
+                    list.get(i).setOffset(offset);
+                    list.get(i).setRate((0 < rate.length()) ? Integer.parseInt(rate) : CapturedData.NOT_AVAILABLE);
+                }
+            }
+            catch (NumberFormatException exc){
+                JOptionPane.showMessageDialog(this, "Offsets and rates must be whole numbers.",
+                                              "Multi Capture", JOptionPane.ERROR_MESSAGE);
+                continue;
+            }
+            List<DeviceController> selected = new LinkedList<DeviceController>();
+            for (int i = 0; i < selects.length; i++){
+                if (selects[i].isSelected())
+                    selected.add(list.get(i).controller);
+                else
+                    unselected.add(list.get(i));
+            }
+            if (0 == option)
+                return selected.toArray(new DeviceController[0]);
+            else {
+                List<Devices.Device> kinds = devices.kinds();
+                Object kind = kinds.get(0);
+                if (1 < kinds.size())
+                    kind = JOptionPane.showInputDialog(this, "Add a device of the kind", "Multi Capture",
+                                                       JOptionPane.QUESTION_MESSAGE, null,
+                                                       kinds.toArray(), kinds.get(0));
+                if (null != kind){
+                    Devices.Device device = devices.add((Devices.Device)kind);
+                    controllers = devices.controllers();
+                    statusChanged("Added " + device + ", select it with Controller to set it up.");
+                }
+            }
+        }
+    }
+    /**
+     * Captures concurrently on several devices and displays the time
+     * aligned merge of their captures when all have completed.  Each
+     * capture is shifted by the offset of its device, and scaled by
+     * its rate when it has no timing data.
+     * @param devices controllers to capture with, using their current settings
+     */
+    public void multiCapture(DeviceController[] devices){
+        if (null != pendingCapture && !pendingCapture.isDone())
+            return;
+
+        statusChanged("Capturing on " + devices.length + " devices...");
+
+        MultiDeviceCapture multi = new MultiDeviceCapture(devices);
+        for (int i = 0; i < devices.length; i++){
+            Devices.Device device = this.devices.get(devices[i]);
+            if (null != device){
+                multi.setOffset(i, device.getOffset());
+                multi.setRate(i, device.getRate());
+            }
+        }
+        final CompletableFuture<CapturedData> capture = multi.capture(new CaptureProgressListener(){
+                public void captureProgress(final int status, final int percentage){
+                    if (DeviceController.RUNNING == status){
+                        SwingUtilities.invokeLater(new Runnable(){
+                                public void run(){
+                                    statusChanged("Capturing... " + percentage + "%");
+                                }
+                            });
+                    }
+                }
+            });
+        pendingCapture = capture;
+
+        capture.whenComplete(new BiConsumer<CapturedData,Throwable>(){
+                public void accept(final CapturedData data, final Throwable error){
+                    SwingUtilities.invokeLater(new Runnable(){
+                            public void run(){
+                                multiCaptureCompleted(capture, data, error);
+                            }
+                        });
+                }
+            });
+    }
+    private void multiCaptureCompleted(CompletableFuture<CapturedData> capture, CapturedData data, Throwable error){
+        if (capture != pendingCapture)
+            return;
+        else
+            pendingCapture = null;
+
+        if (null != error){
+            Throwable cause = error;
+            while (null != cause.getCause() && cause != cause.getCause())
+                cause = cause.getCause();
+
+            if (cause instanceof CancellationException || cause instanceof InterruptedException)
+                statusChanged("Capture aborted.");
+            else {
+                statusChanged("Capture failed.");
+                JOptionPane.showMessageDialog(this, "Capture failed: " + cause.getMessage(),
+                                              "Multi Capture", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+        else if (null == data)
+            statusChanged("No data captured.");
+        else {
+            statusChanged("Capture completed.");
+            recordCapture(data);
+        }
+    }
+    /**
+     * Opens new data as a capture and displays it.
+     * @param name name of the capture, or null for a numbered name
+     * @param data captured data
+     */
+    private void openCapture(String name, CapturedData data){
+        pendingView = null;
+        captures.add(name, data);
+        diagram.setCapturedData(data);
+        updateCaptureMenu();
+    }
+    /**
+     * Records a capture from a device in the capture history and
+     * displays it when recorded.
+     * @param data captured data
+     */
+    private void recordCapture(final CapturedData data){
+        if (null == data){
+            statusChanged("Capture failed, no data could be decoded.");
+            return;
+        }
+        final CompletableFuture<Captures.Capture> record = captures.record(data);
+        record.whenComplete(new BiConsumer<Captures.Capture,Throwable>(){
+                public void accept(final Captures.Capture capture, final Throwable error){
+                    SwingUtilities.invokeLater(new Runnable(){
+                            public void run(){
+                                if (null != error){
+                                    Throwable cause = error;
+                                    while (null != cause.getCause() && cause != cause.getCause())
+                                        cause = cause.getCause();
+
+                                    statusChanged("Recording capture failed.");
+                                    JOptionPane.showMessageDialog(MainWindow.this, "Recording capture failed: " + cause,
+                                                                  APP_NAME, JOptionPane.ERROR_MESSAGE);
+                                    openCapture(null, data);
+                                    enableDataDependingFunctions(true);
+                                }
+                                else if (0 != capture.getRepeats()){
+                                    statusChanged("Capture identical to " + capture.name + ".");
+                                    if (capture != captures.getCurrent())
+                                        viewCapture(capture);
+                                    else
+                                        updateCaptureMenu();
+                                }
+                                else {
+                                    pendingView = null;
+                                    showCapture(data);
+                                }
+                            }
+                        });
+                }
+            });
+    }
+    /**
+     * Displays an open capture, reading it back in the background if
+     * it has been spilled, or clears the diagram.
+     * @param capture capture to display, or null
+     */
+    private void viewCapture(final Captures.Capture capture){
+        if (null == capture){
+            pendingView = null;
+            showCapture(null);
+            return;
+        }
+        final CompletableFuture<CapturedData> view = captures.view(capture);
+        pendingView = view;
+        updateCaptureMenu();
+        if (!view.isDone())
+            statusChanged("Reading " + capture.name + "...");
+
+        view.whenComplete(new BiConsumer<CapturedData,Throwable>(){
+                public void accept(final CapturedData data, final Throwable error){
+                    SwingUtilities.invokeLater(new Runnable(){
+                            public void run(){
+                                if (view != pendingView)
+                                    return;
+                                else
+                                    pendingView = null;
+
+                                if (null != error){
+                                    Throwable cause = error;
+                                    while (null != cause.getCause() && cause != cause.getCause())
+                                        cause = cause.getCause();
+
+                                    JOptionPane.showMessageDialog(MainWindow.this, "Reading capture failed: " + cause.getMessage(),
+                                                                  APP_NAME, JOptionPane.ERROR_MESSAGE);
+                                    viewCapture(captures.close(capture));
+                                }
+                                else {
+                                    showCapture(data);
+                                    statusChanged(capture.toString() + ".");
+                                }
+                            }
+                        });
+                }
+            });
+    }
+    /**
+     * Displays the data of the current capture, or clears the diagram.
+     * @param data data to display, or null
+     */
+    private void showCapture(CapturedData data){
+        diagram.setCapturedData(data);
+        if (null != data){
+            diagram.zoomFit(diagramPane.getViewport().getViewRect().width);
+            cursorsEnabledMenuItem.setSelected(diagram.getCursorMode());
+        }
+        else
+            diagram.repaint();
+        enableDataDependingFunctions(null != data);
+        updateCaptureMenu();
+    }
+    /**
+     * Lists the open captures in the captures menu, with the current one selected.
+     */
+    private void updateCaptureMenu(){
+        if (null == captureMenu)
+            return;
+
+        captureMenu.removeAll();
+        final Captures.Capture current = captures.getCurrent();
+        for (final Captures.Capture capture: captures.list()){
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(capture.toString(), capture == current);
+            item.addActionListener(new ActionListener(){
+                    public void actionPerformed(ActionEvent event){
+                        if (capture != captures.getCurrent())
+                            viewCapture(capture);
+                        else
+                            updateCaptureMenu();
+                    }
+                });
+            captureMenu.add(item);
+        }
+        if (null != current)
+            captureMenu.add(new JSeparator());
+
+        JMenuItem close = new JMenuItem(Label.CloseCapture.label);
+        close.addActionListener(this);
+        close.setEnabled(null != current);
+        captureMenu.add(close);
+    }
     /**
      * Load the given file as data.
      * @param file file to be loaded as data
@@ -613,7 +798,194 @@ public final class MainWindow
      */
     public void loadData(File file) throws IOException {
 
-        diagram.setCapturedData(new CapturedData(file));
+        openCapture(file.getName(), new CapturedData(file));
+    }
+    /**
+     * Loads a data file in the background, showing its progress, and
+     * displays it when complete.
+     * @param file file to be loaded as data
+     */
+    private void openData(final File file){
+        if (null != pendingTask && !pendingTask.isDone())
+            return;
+
+        final CompletableFuture<CapturedData> load = DataFile.Load(file, taskProgress());
+        startTask(load, false, "Loading " + file.getName() + "...");
+
+        load.whenComplete(new BiConsumer<CapturedData,Throwable>(){
+                public void accept(final CapturedData data, final Throwable error){
+                    SwingUtilities.invokeLater(new Runnable(){
+                            public void run(){
+                                if (taskCompleted(load, error, "Loading")){
+                                    openCapture(file.getName(), data);
+                                    diagram.zoomFit(diagramPane.getViewport().getViewRect().width);
+                                    cursorsEnabledMenuItem.setSelected(diagram.getCursorMode());
+                                    enableDataDependingFunctions(true);
+                                    setTitle(APP_NAME + " - " + file.getName());
+                                    statusChanged("Loaded " + file.getName() + ".");
+                                }
+                            }
+                        });
+                }
+            });
+    }
+    /**
+     * Saves the displayed data in the background, showing its progress.
+     * @param file file to save the data to
+     */
+    private void saveData(final File file){
+        if ((null != pendingTask && !pendingTask.isDone()) || null != pendingView || !diagram.hasCapturedData())
+            return;
+
+        final CompletableFuture<File> save = DataFile.Save(diagram.getCapturedData(), file, taskProgress());
+        startTask(save, false, "Saving " + file.getName() + "...");
+
+        save.whenComplete(new BiConsumer<File,Throwable>(){
+                public void accept(final File saved, final Throwable error){
+                    SwingUtilities.invokeLater(new Runnable(){
+                            public void run(){
+                                if (taskCompleted(save, error, "Saving")){
+                                    setTitle(APP_NAME + " - " + file.getName());
+                                    statusChanged("Saved " + file.getName() + ".");
+                                }
+                            }
+                        });
+                }
+            });
+    }
+    /**
+     * @return progress of a load or save, shown on the progress bar
+     */
+    private DataFile.Progress taskProgress(){
+        return new DataFile.Progress(){
+            public void progress(final int percentage){
+                SwingUtilities.invokeLater(new Runnable(){
+                        public void run(){
+                            taskProgressBar.setValue(percentage);
+                        }
+                    });
+            }
+        };
+    }
+    /**
+     * @return progress of a tool, shown on the progress bar once the
+     * tool reports it
+     */
+    private Tool.Progress toolProgress(){
+        return new Tool.Progress(){
+            private int percentage = -1;
+
+            public void progress(final int percentage){
+                if (percentage != this.percentage){
+                    this.percentage = percentage;
+                    SwingUtilities.invokeLater(new Runnable(){
+                            public void run(){
+                                taskProgressBar.setIndeterminate(false);
+                                taskProgressBar.setStringPainted(true);
+                                taskProgressBar.setValue(percentage);
+                            }
+                        });
+                }
+            }
+        };
+    }
+    /**
+     * Shows the dialog of a tool, and runs its task in the background,
+     * displaying the data it returns when complete.
+     * @param tool tool selected from the tools menu
+     */
+    private void runTool(Tool tool){
+        if ((null != pendingTask && !pendingTask.isDone()) || null != pendingView || !diagram.hasCapturedData())
+            return;
+
+        final Callable<CapturedData> task = tool.prepare(diagram.getCapturedData(), toolProgress());
+        if (null == task)
+            return;
+
+        final Captures.Capture capture = captures.getCurrent();
+        final String name = tool.getName().replace("...", "");
+        final CompletableFuture<CapturedData> result = new CompletableFuture<CapturedData>();
+        final Future<?> running = Tools.submit(new Runnable(){
+                public void run(){
+                    try {
+                        result.complete(task.call());
+                    }
+                    catch (Throwable t){
+                        result.completeExceptionally(t);
+                    }
+                }
+            });
+        startTask(result, true, name + "...");
+
+        result.whenComplete(new BiConsumer<CapturedData,Throwable>(){
+                public void accept(final CapturedData data, final Throwable error){
+                    if (result.isCancelled())
+                        running.cancel(true);
+
+                    SwingUtilities.invokeLater(new Runnable(){
+                            public void run(){
+                                if (taskCompleted(result, error, name)){
+                                    if (null != data){
+                                        if (null == capture || !captures.list().contains(capture))
+                                            openCapture((null != capture) ? capture.name : null, data);
+                                        else {
+                                            captures.replace(capture, data);
+                                            if (capture == captures.getCurrent())
+                                                diagram.setCapturedData(data);
+                                        }
+                                    }
+                                    enableDataDependingFunctions(diagram.hasCapturedData());
+                                    statusChanged(name + " completed.");
+                                }
+                            }
+                        });
+                }
+            });
+    }
+    /**
+     * Shows the progress and cancel button of a load, save or tool.
+     * @param task pending task, cancelled by the cancel button
+     * @param indeterminate when the task does not report its progress
+     * @param message status to show while pending
+     */
+    private void startTask(CompletableFuture<?> task, boolean indeterminate, String message){
+        pendingTask = task;
+        taskProgressBar.setValue(0);
+        taskProgressBar.setIndeterminate(indeterminate);
+        taskProgressBar.setStringPainted(!indeterminate);
+        taskPanel.setVisible(true);
+        statusChanged(message);
+    }
+    /**
+     * Hides the progress of a completed load, save or tool, and reports its errors.
+     * @return <code>true</code> when the task succeeded and is still current
+     */
+    private boolean taskCompleted(CompletableFuture<?> task, Throwable error, String operation){
+        if (task != pendingTask)
+            return false;
+        else {
+            pendingTask = null;
+            taskProgressBar.setIndeterminate(false);
+            taskPanel.setVisible(false);
+        }
+
+        if (null != error){
+            Throwable cause = error;
+            while (null != cause.getCause() && cause != cause.getCause())
+                cause = cause.getCause();
+
+            if (cause instanceof CancellationException || cause instanceof InterruptedIOException
+                || cause instanceof InterruptedException)
+                statusChanged(operation + " cancelled.");
+            else {
+                statusChanged(operation + " failed.");
+                JOptionPane.showMessageDialog(this, operation + " failed: " + cause.getMessage(),
+                                              APP_NAME, JOptionPane.ERROR_MESSAGE);
+            }
+            return false;
+        }
+        else
+            return true;
     }
 	
     /**
@@ -623,7 +995,19 @@ public final class MainWindow
      */
     public void loadProject(File file) throws IOException {
 
+        DeviceController current = (0 <= currentController) ? controllers[currentController] : null;
         project.load(file);
+        controllers = devices.controllers();
+        /*
+         * The project may have fewer devices, keep the current controller when it remains
+         */
+        if (0 <= currentController){
+            currentController = 0;
+            for (int i = 0; i < controllers.length; i++){
+                if (current == controllers[i])
+                    currentController = i;
+            }
+        }
     }
 	
     /**
@@ -662,24 +1046,16 @@ public final class MainWindow
 
                 if (this.controllers[i] instanceof FpgaDeviceController){
                     currentController = i;
+                    break;
                 }
             }
 	
             /*
-             * Device controller menu is only added when at least one controller is available
+             * Device controller menu is only added when at least one controller is available,
+             * further devices of a kind are added from its multi capture entry
              */
-            JMenu deviceMenu = null;
-            if (controllers.length > 1) {
-                /*
-                 * When more than one controller then add a controller seclection to menue
-                 */
-                Label[] deviceEntries = {Label.Controller, Label.UNKNOWN, Label.Capture, Label.RepeatCapture};
-                deviceMenu = createMenu("Device", deviceEntries);
-            }
-            else {				
-                Label[] deviceEntries = {Label.Capture, Label.RepeatCapture};
-                deviceMenu = createMenu("Device", deviceEntries);
-            }
+            Label[] deviceEntries = {Label.Controller, Label.UNKNOWN, Label.Capture, Label.RepeatCapture, Label.UNKNOWN, Label.MultiCapture, Label.AbortCapture};
+            JMenu deviceMenu = createMenu("Device", deviceEntries);
             mb.add(deviceMenu);
         }
 
@@ -693,6 +1069,13 @@ public final class MainWindow
         diagramMenu.add(cursorsEnabledMenuItem);
         mb.add(diagramMenu);
 
+        /*
+         * Captures menu
+         */
+        captureMenu = new JMenu("Captures");
+        updateCaptureMenu();
+        mb.add(captureMenu);
+
         /*
          * Tools menu
          */
@@ -734,30 +1117,33 @@ public final class MainWindow
         createTools(tools, diagramToolsF, diagramToolsD);
         tools.addSeparator();
 
-        tools.add(new JLabel("Page "));
-        String[] pages = {
-            "1"
-        };
-        currentDisplayPage = new JComboBox(pages);
-        currentDisplayPage.addActionListener(this);
-
-        currentDisplayPage.setMaximumSize(new Dimension(60,currentDisplayPage.getMaximumSize().height));
-        tools.add(currentDisplayPage);
-        tools.add(new JLabel(" of "));
-        maxDisplayPage = new JLabel("1");
-        tools.add(maxDisplayPage);
-		
         contentPane.add(tools, BorderLayout.NORTH);
 		
         status = new JLabel(" ");
-        contentPane.add(status, BorderLayout.SOUTH);
+        taskProgressBar = new JProgressBar(0, 100);
+        taskProgressBar.setStringPainted(true);
+        JButton taskCancel = new JButton(Label.Cancel.label);
+        taskCancel.addActionListener(this);
+        taskPanel = new JPanel(new BorderLayout());
+        taskPanel.add(taskProgressBar, BorderLayout.CENTER);
+        taskPanel.add(taskCancel, BorderLayout.EAST);
+        taskPanel.setVisible(false);
+
+        JPanel statusPanel = new JPanel(new BorderLayout());
+        statusPanel.add(status, BorderLayout.CENTER);
+        statusPanel.add(taskPanel, BorderLayout.EAST);
+        contentPane.add(statusPanel, BorderLayout.SOUTH);
 		
 
         diagram.setPreferredSize(contentPane.getSize());
-        diagramPane = new JScrollPane(this.diagram);
+        diagramPane = new JScrollPane(this.diagram, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
         diagramPane.setWheelScrollingEnabled(false);
-		
-        contentPane.add(diagramPane, BorderLayout.CENTER);
+
+        JPanel diagramPanel = new JPanel(new BorderLayout());
+        diagramPanel.add(new DiagramOverview(diagram), BorderLayout.NORTH);
+        diagramPanel.add(diagramPane, BorderLayout.CENTER);
+        diagramPanel.add(diagram.getScrollBar(), BorderLayout.SOUTH);
+        contentPane.add(diagramPanel, BorderLayout.CENTER);
 
         enableDataDependingFunctions(false);
 
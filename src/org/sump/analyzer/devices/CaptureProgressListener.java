@@ -0,0 +1,36 @@
+/*
+ *  Copyright (C) 2012 John Pritchard
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer.devices;
+
+/**
+ * Receives status and progress of a capture started with
+ * {@link DeviceController#capture(CaptureProgressListener)}.
+ * <p>
+ * Called from the capture thread, not from the Swing event dispatcher.
+ * 
+ * @author John Pritchard
+ */
+public interface CaptureProgressListener {
+    /**
+     * Capture status or progress changed.
+     * @param status one of <code>DeviceController.RUNNING</code>, <code>DONE</code> or <code>ABORTED</code>
+     * @param percentage percentage of the expected data read (0-100), or -1 when unknown
+     */
+    public void captureProgress(int status, int percentage);
+}
@@ -0,0 +1,119 @@
+/*
+ *  Copyright (C) 2012 John Pritchard
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer.devices;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.sump.analyzer.CapturedData;
+
+/**
+ * A capture running on its own thread, completing as a future.
+ * <p>
+ * Subclasses implement {@link #capture()}, which runs on the capture
+ * thread and may report progress via {@link #captureProgress(int,int)}.
+ * Cancelling the future calls {@link #abort()} and interrupts the
+ * capture thread.
+ * 
+ * @author John Pritchard
+ */
+abstract class CaptureTask
+    extends CompletableFuture<CapturedData>
+    implements Runnable, CaptureProgressListener
+{
+
+    private final CaptureProgressListener listener;
+    private final Thread thread;
+    private int lastStatus;
+    private int lastPercentage;
+
+
+    CaptureTask(String name, CaptureProgressListener listener){
+        super();
+        this.listener = listener;
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.lastStatus = DeviceController.IDLE;
+        this.lastPercentage = -1;
+    }
+
+
+    /**
+     * Performs the capture.  Called once, on the capture thread.
+     * @return captured data, may be null
+     * @throws Exception when the capture fails or is interrupted
+     */
+    protected abstract CapturedData capture() throws Exception;
+
+    /**
+     * Informs the device that it is supposed to stop reading data.
+     * Called from the thread cancelling the future.
+     */
+    protected void abort(){
+    }
+
+    final CaptureTask start(){
+        this.thread.start();
+        return this;
+    }
+
+    public final void run(){
+        if (isDone())
+            return;
+        try {
+            captureProgress(DeviceController.RUNNING, -1);
+
+            CapturedData data = capture();
+
+            captureProgress(DeviceController.DONE, 100);
+
+            complete(data);
+        }
+        catch (Throwable t){
+
+            captureProgress(DeviceController.ABORTED, -1);
+
+            completeExceptionally(t);
+        }
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning){
+
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled){
+            abort();
+            if (mayInterruptIfRunning)
+                this.thread.interrupt();
+        }
+        return cancelled;
+    }
+    /**
+     * Forwards status and progress changes to the listener.
+     */
+    public void captureProgress(int status, int percentage){
+
+        if (null != this.listener && (!isCancelled()) &&
+            (status != this.lastStatus || percentage != this.lastPercentage))
+        {
+            this.lastStatus = status;
+            this.lastPercentage = percentage;
+
+            this.listener.captureProgress(status,percentage);
+        }
+    }
+}
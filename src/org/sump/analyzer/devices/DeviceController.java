@@ -20,6 +20,7 @@
 package org.sump.analyzer.devices;
 
 import java.awt.Component;
+import java.util.concurrent.CompletableFuture;
 
 import javax.swing.JFrame;
 
@@ -28,6 +29,10 @@ import org.sump.analyzer.Configurable;
 
 /**
  * Device controller interface
+ * <p>
+ * Captures may be run without any user interface using {@link
+ * #capture(CaptureProgressListener)}, the capture dialogs are built on
+ * top of it.
  * 
  * @author Frank Kunz
  * @author John Pritchard
@@ -51,6 +56,12 @@ public interface DeviceController extends Configurable {
     public final static int DONE = 3;
 
 
+    /**
+     * starts a capture with the current settings, without user interface
+     * @param listener receives status and progress from the capture thread (null for none)
+     * @return future completed with the captured data, cancel to abort the capture
+     */
+    public CompletableFuture<CapturedData> capture(CaptureProgressListener listener);
     /**
      * read the captured device data
      * @param parent parent component that requests the data (null if none)
@@ -80,4 +91,11 @@ public interface DeviceController extends Configurable {
      * @return name of the controller
      */
     public String getControllerName();
+    /**
+     * create a controller of the same kind for another device, keeping its
+     * settings under the class name followed by the instance number
+     * @param instance number of the new controller among those of its kind, from 2
+     * @return new device controller
+     */
+    public DeviceController newInstance(int instance);
 }
@@ -0,0 +1,240 @@
+/*
+ *  Copyright (C) 2012 John Pritchard
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer.devices;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.sump.analyzer.CapturedData;
+import org.sump.analyzer.Configurable;
+import org.sump.util.Properties;
+
+/**
+ * The device controllers, including further instances of them added
+ * for more devices of the same kind, and the time offset and sampling
+ * rate of each device in a multi device capture.
+ * <p>
+ * The first controller of a kind is the one found on the class path,
+ * and keeps its settings under its class name.  A further instance
+ * keeps its settings under its class name and instance number, as
+ * <code>FpgaDeviceController2.port</code>.  The number of
+ * controllers of a kind is the property
+ * <code>devices.<i>ClassName</i>.instances</code>, and the offset and
+ * rate of a device are <code>devices.<i>Prefix</i>.offset</code> and
+ * <code>devices.<i>Prefix</i>.rate</code>.
+ *
+ * @see MultiDeviceCapture
+ * @author John Pritchard
+ */
+public class Devices
+    extends Object
+    implements Configurable
+{
+    /**
+     * A device controller with its settings for a multi device capture.
+     */
+    public final static class Device
+        extends Object
+    {
+        public final DeviceController controller;
+        /** number of the controller among those of its kind, from 1 */
+        public final int instance;
+        /** start of the property names of the controller */
+        public final String prefix;
+
+        private long offset;
+        private int rate = CapturedData.NOT_AVAILABLE;
+
+        Device(DeviceController controller, int instance){
+            super();
+            this.controller = controller;
+            this.instance = instance;
+            this.prefix = Prefix(controller, instance);
+        }
+
+        /**
+         * @return time offset of the device's capture in nanoseconds
+         * (in samples when no capture has timing data)
+         */
+        public long getOffset(){
+            return this.offset;
+        }
+        public void setOffset(long offset){
+            this.offset = offset;
+        }
+        /**
+         * @return sampling rate in Hz assumed when the device's capture
+         * has no timing data, or <code>NOT_AVAILABLE</code>
+         */
+        public int getRate(){
+            return this.rate;
+        }
+        public void setRate(int rate){
+            this.rate = (0 < rate) ? rate : CapturedData.NOT_AVAILABLE;
+        }
+        public String toString(){
+            return this.controller.getControllerName();
+        }
+    }
+
+
+    private final List<Device> devices = new ArrayList<Device>();
+
+
+    public Devices(){
+        super();
+    }
+
+
+    /**
+     * @param controllers the first controller of each kind, as found on the class path
+     */
+    public void init(DeviceController[] controllers){
+        for (DeviceController controller: controllers)
+            this.devices.add(new Device(controller, 1));
+    }
+    /**
+     * @return devices in the order they were added
+     */
+    public List<Device> list(){
+        return new ArrayList<Device>(this.devices);
+    }
+    /**
+     * @return the first device of each kind
+     */
+    public List<Device> kinds(){
+        List<Device> kinds = new ArrayList<Device>();
+        for (Device device: this.devices){
+            if (1 == device.instance)
+                kinds.add(device);
+        }
+        return kinds;
+    }
+    /**
+     * @return controllers in the order they were added
+     */
+    public DeviceController[] controllers(){
+        DeviceController[] controllers = new DeviceController[this.devices.size()];
+        for (int i = 0; i < controllers.length; i++)
+            controllers[i] = this.devices.get(i).controller;
+        return controllers;
+    }
+    /**
+     * @return device of the controller, or null
+     */
+    public Device get(DeviceController controller){
+        for (Device device: this.devices){
+            if (controller == device.controller)
+                return device;
+        }
+        return null;
+    }
+    /**
+     * Adds a controller for another device of the same kind.
+     * @param kind a device of the kind to add
+     * @return the new device
+     */
+    public Device add(Device kind){
+        int instance = this.count(kind) + 1;
+        Device device = new Device(kind.controller.newInstance(instance), instance);
+        this.devices.add(device);
+        return device;
+    }
+    /**
+     * @return number of devices of the same kind
+     */
+    private int count(Device kind){
+        int count = 0;
+        for (Device device: this.devices){
+            if (kind.controller.getClass() == device.controller.getClass())
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Adds the devices missing from the number of each kind, removes
+     * those beyond it, and reads the settings of the devices.  The
+     * settings of the first device of a kind are read by the project,
+     * of the others here.
+     */
+    public void readProperties(Properties properties){
+        for (Device kind: this.kinds()){
+            int instances = Math.max(1, Property(properties, "devices." + kind.prefix + ".instances", 1));
+            while (this.count(kind) < instances)
+                this.add(kind).controller.readProperties(properties);
+
+            for (Iterator<Device> list = this.devices.iterator(); list.hasNext(); ){
+                Device device = list.next();
+                if (kind.controller.getClass() == device.controller.getClass() && instances < device.instance)
+                    list.remove();
+            }
+        }
+        for (Device device: this.devices){
+            String value = properties.getProperty("devices." + device.prefix + ".offset");
+            if (null != value){
+                try {
+                    device.setOffset(Long.parseLong(value.trim()));
+                }
+                catch (NumberFormatException exc){
+                }
+            }
+            device.setRate(Property(properties, "devices." + device.prefix + ".rate", device.getRate()));
+        }
+    }
+    public void writeProperties(Properties properties){
+        for (Device kind: this.kinds())
+            properties.setProperty("devices." + kind.prefix + ".instances", String.valueOf(this.count(kind)));
+
+        for (Device device: this.devices){
+            properties.setProperty("devices." + device.prefix + ".offset", String.valueOf(device.getOffset()));
+            properties.setProperty("devices." + device.prefix + ".rate", String.valueOf(device.getRate()));
+            if (1 != device.instance)
+                device.controller.writeProperties(properties);
+        }
+    }
+
+
+    /**
+     * @return start of the property names of a controller, its class
+     * name followed by its instance number from 2
+     */
+    private final static String Prefix(DeviceController controller, int instance){
+        String name = controller.getClass().getSimpleName();
+        if (1 == instance)
+            return name;
+        else
+            return name + instance;
+    }
+    /**
+     * @return integer property, or the default value when missing or malformed
+     */
+    private final static int Property(Properties properties, String name, int value){
+        String string = properties.getProperty(name);
+        if (null != string){
+            try {
+                return Integer.parseInt(string.trim());
+            }
+            catch (NumberFormatException exc){
+            }
+        }
+        return value;
+    }
+}
@@ -26,7 +26,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Enumeration;
-import java.util.LinkedList;
 
 import org.sump.analyzer.CapturedData;
 
@@ -96,14 +95,21 @@ public class FpgaDevice extends Object {
     private final static int CLOCK = 100000000;	// device clock in Hz
     private final static int TRIGGER_STAGES = 4; // number of trigger stages
 
+    /** send reset 5 times because in worst case first 4 are interpreted as data of long command */
+    private final static byte[] RESET_SEQUENCE = { RESET, RESET, RESET, RESET, RESET };
+    /** reset followed by identification request */
+    private final static byte[] ID_SEQUENCE = { RESET, RESET, RESET, RESET, RESET, ID };
+    /** three long commands per trigger stage, divider, size and flags (5 bytes each), run */
+    private final static int COMMANDS_MAX = (3 * TRIGGER_STAGES + 3) * 5 + 1;
+
 
 	
     private SerialPort port;
     private InputStream inputStream;
     private OutputStream outputStream;
 	
-    private boolean running;
-    private int percentageDone;
+    private volatile boolean running;
+    private volatile int percentageDone;
 	
     private int clockSource;
     private boolean demux;
@@ -117,6 +123,10 @@ public class FpgaDevice extends Object {
     private boolean enabledGroups[];
 	
     private int divider;
+
+    private final byte[] commands = new byte[COMMANDS_MAX];
+    private int commandsLength; // zero when settings changed since assembly
+    private ProtocolTraceListener trace;
     private int size;
     private double ratio;
 
@@ -159,6 +169,7 @@ public class FpgaDevice extends Object {
      */
     public void setSize(int size) {
         this.size = size;
+        commandsLength = 0;
     }
 	
     /**
@@ -167,6 +178,7 @@ public class FpgaDevice extends Object {
      */
     public void setRatio(double ratio) {
         this.ratio = ratio;
+        commandsLength = 0;
     }
 
     /**
@@ -184,6 +196,7 @@ public class FpgaDevice extends Object {
             demux = false;
             divider = (CLOCK / rate) - 1;
         }
+        commandsLength = 0;
     }
 	
     /**
@@ -217,6 +230,7 @@ public class FpgaDevice extends Object {
         triggerConfig[stage] |= (level << 16) & TRIGGER_LEVELMASK;
         if (startCapture)
             triggerConfig[stage] |= TRIGGER_CAPTURE;
+        commandsLength = 0;
     }
 
     /**
@@ -254,6 +268,7 @@ public class FpgaDevice extends Object {
         triggerConfig[stage] |= TRIGGER_SERIAL;
         if (startCapture)
             triggerConfig[stage] |= TRIGGER_CAPTURE;
+        commandsLength = 0;
     }
 
     /**
@@ -262,6 +277,7 @@ public class FpgaDevice extends Object {
      */
     public void setTriggerEnabled(boolean enable) {
         triggerEnabled = enable;
+        commandsLength = 0;
     }
 
     /**
@@ -270,6 +286,7 @@ public class FpgaDevice extends Object {
      */
     public void setFilterEnabled(boolean enable) {
         filterEnabled = enable;
+        commandsLength = 0;
     }
 	
     /**
@@ -278,6 +295,7 @@ public class FpgaDevice extends Object {
      */
     public void setRleEnabled(boolean enable) {
         rleEnabled = enable;
+        commandsLength = 0;
     }
 	
     /**
@@ -289,6 +307,7 @@ public class FpgaDevice extends Object {
         // determine enabled groups
         for (int i = 0; i < 4; i++)
             enabledGroups[i] = ((enabledChannels  >> (8 * i)) & 0xff) > 0;
+        commandsLength = 0;
     }
 
     /**
@@ -297,6 +316,7 @@ public class FpgaDevice extends Object {
      */
     public void setClockSource(int source) {
         clockSource = source;
+        commandsLength = 0;
     }
 
     /**
@@ -414,21 +434,8 @@ public class FpgaDevice extends Object {
      * Gets a string array containing the names all available serial ports.
      * @return array containing serial port names
      */
-    @SuppressWarnings("unchecked")
     static public String[] getPorts() {
-        Enumeration<CommPortIdentifier> portIdentifiers = CommPortIdentifier.getPortIdentifiers();
-        LinkedList<String> portList = new LinkedList<String>();
-        CommPortIdentifier portId = null;
-
-        while (portIdentifiers.hasMoreElements()) {
-            portId = portIdentifiers.nextElement();
-            if (portId.getPortType() == CommPortIdentifier.PORT_SERIAL) {
-                portList.addLast(portId.getName());
-                //System.out.println(portId.getName());
-            }
-        }
-
-        return ((String[])portList.toArray(new String[1]));
+        return SerialPorts.Enumerate();
     }
 
     /**
@@ -501,8 +508,7 @@ public class FpgaDevice extends Object {
             try {
                 // try to make sure device is reset (see run() for loop explanation)
                 if (outputStream != null) {
-                    for (int i = 0; i < 5; i++)
-                        sendCommand(RESET);
+                    send(RESET_SEQUENCE, RESET_SEQUENCE.length);
                     outputStream.close();
                 }
                 if (inputStream != null)
@@ -513,61 +519,103 @@ public class FpgaDevice extends Object {
     }
 	
     /**
-     * Sends a long command to the given stream.
+     * Sets a listener receiving every command sent to the device.
+     * @param listener protocol trace listener, null for none
+     */
+    public void setTraceListener(ProtocolTraceListener listener) {
+        trace = listener;
+    }
+
+    /**
+     * Writes a command sequence to the device in a single write.
      * 
-     * @param opcode	one byte operation code
-     * @param data		four byte data portion
+     * @param buffer	command sequence
+     * @param length	number of bytes to send
      * @throws IOException if writing to stream fails
      */
-    private void sendCommand(int opcode, int data) throws IOException {
-        byte[] raw = new byte[5];
-        int mask = 0xff;
-        int shift = 0;
-		
-        raw[0] = (byte)opcode;
-        for (int i = 1; i < 5; i++) {
-            raw[i] = (byte)((data & mask) >> shift);
-            mask = mask << 8;
-            shift += 8;
-        }
+    private void send(byte[] buffer, int length) throws IOException {
+        outputStream.write(buffer, 0, length);
+        outputStream.flush();
 
-        String debugCmd = "";
-        for (int j = 0; j < 5; j++) {
-            for (int i = 7; i >= 0; i--) {
-                if ((raw[j] & (1 << i)) != 0)
-                    debugCmd += "1";
-                else
-                    debugCmd += "0";
+        ProtocolTraceListener trace = this.trace;
+        if (trace != null) {
+            // long commands have the MSB of the opcode set
+            for (int i = 0, n; i < length; i += n) {
+                n = ((buffer[i] & 0x80) != 0) ? 5 : 1;
+                trace.traceCommand(buffer, i, Math.min(n, length - i));
             }
-            debugCmd += " ";
         }
-        //System.out.println(debugCmd);
-		
-        outputStream.write(raw);
     }
-	
+
     /**
-     * Sends a short command to the given stream.
-     * 
-     * This method is intended to be used for short commands, but can also be called
-     * with long command opcodes if the data portion is to be set to 0.
+     * Writes a long command into the command buffer.
      * 
+     * @param offset	position of the command in the buffer
      * @param opcode	one byte operation code
-     * @throws IOException if writing to stream fails
+     * @param data		four byte data portion (little endian)
+     * @return position following the command
      */
-    private void sendCommand(int opcode) throws IOException {
-        byte raw = (byte)opcode;
-		
-        //		String debugCmd = "";
-        //		for (int i = 7; i >= 0; i--) {
-        //			if ((raw & (1 << i)) != 0)
-        //				debugCmd += "1";
-        //			else
-        //				debugCmd += "0";
-        //		}
-        //		System.out.println(debugCmd);
+    private int putCommand(int offset, int opcode, int data) {
+        commands[offset++] = (byte)opcode;
+        commands[offset++] = (byte)data;
+        commands[offset++] = (byte)(data >> 8);
+        commands[offset++] = (byte)(data >> 16);
+        commands[offset++] = (byte)(data >> 24);
+        return offset;
+    }
+
+    /**
+     * Assembles the configuration commands for the current settings,
+     * followed by the run command, into the command buffer.
+     * 
+     * @return number of bytes in the command buffer
+     */
+    private int assembleCommands() {
+        int stopCounter = (int)(size * ratio);
+        int readCounter = size;
+        int effectiveStopCounter;
+        int offset = 0;
+        if (triggerEnabled) {
+            for (int i = 0; i < TRIGGER_STAGES; i++) {
+                offset = putCommand(offset, SETTRIGMASK + 4 * i, triggerMask[i]);
+                offset = putCommand(offset, SETTRIGVAL + 4 * i, triggerValue[i]);
+                offset = putCommand(offset, SETTRIGCFG + 4 * i, triggerConfig[i]);
+            }
+            effectiveStopCounter = stopCounter;
+        } else {
+            offset = putCommand(offset, SETTRIGMASK, 0);
+            offset = putCommand(offset, SETTRIGVAL, 0);
+            offset = putCommand(offset, SETTRIGCFG, TRIGGER_CAPTURE);
+            effectiveStopCounter = readCounter;
+        }
+        offset = putCommand(offset, SETDIVIDER, divider);
 
-        outputStream.write(raw);
+        int flags = 0;
+        if (clockSource == CLOCK_EXTERNAL_RISING || clockSource == CLOCK_EXTERNAL_FALLING) {
+            flags |= FLAG_EXTERNAL;
+            if (clockSource == CLOCK_EXTERNAL_FALLING)
+                flags |= FLAG_INVERTED;
+        }
+        if (demux && clockSource == CLOCK_INTERNAL) {
+            flags |= FLAG_DEMUX;
+            for (int i = 0; i < 2; i++)
+                if (!enabledGroups[i]) {
+                    flags |= FLAG_DISABLE_G0 << i;
+                    flags |= FLAG_DISABLE_G2 << i;
+                }
+            offset = putCommand(offset, SETSIZE, (((effectiveStopCounter - 8) & 0x7fff8) << 13) | (((readCounter & 0x7fff8) >> 3) - 1));
+        } else {
+            if (filterEnabled && isFilterAvailable())
+                flags |= FLAG_FILTER;
+            for (int i = 0; i < 4; i++)
+                if (!enabledGroups[i])
+                    flags |= FLAG_DISABLE_G0 << i;
+            offset = putCommand(offset, SETSIZE, (((effectiveStopCounter - 4) & 0x3fffc) << 14) | (((readCounter & 0x3fffc) >> 2) - 1));
+        }
+        if (rleEnabled) { flags |= FLAG_RLE; }
+        offset = putCommand(offset, SETFLAGS, flags);
+        commands[offset++] = (byte)RUN;
+        return offset;
     }
 
     /**
@@ -621,15 +669,23 @@ public class FpgaDevice extends Object {
      * @throws InterruptedException if a read time out occurs after trigger match or stop() was called before trigger match
      */
     public CapturedData run() throws IOException, InterruptedException {
+        return run(null);
+    }
+
+    /**
+     * Sends the configuration to the device, starts it, reads the captured data
+     * and returns a CapturedData object containing the data read as well as device configuration information.
+     * @param listener receives the percentage read whenever it changes (null for none)
+     * @return captured data
+     * @throws IOException when writing to or reading from device fails
+     * @throws InterruptedException if a read time out occurs after trigger match or stop() was called before trigger match
+     */
+    public CapturedData run(CaptureProgressListener listener) throws IOException, InterruptedException {
 		
         running = true;
 
-        // send reset 5 times because in worst case first 4 are interpreted as data of long command
-        for (int i = 0; i < 5; i++)
-            sendCommand(RESET);
-		
-        // check if device is ready
-        sendCommand(ID);
+        // reset and check if device is ready
+        send(ID_SEQUENCE, ID_SEQUENCE.length);
         int id = 0;
         try {
             id = readInteger();
@@ -641,52 +697,14 @@ public class FpgaDevice extends Object {
             throw new IOException("Device not found.");
         }
 		
-        // configure device
+        // configure and start device, reusing the commands of the previous run when unchanged
+        if (commandsLength == 0)
+            commandsLength = assembleCommands();
+        send(commands, commandsLength);
+
         int stopCounter = (int)(size * ratio);
         int readCounter = size;
-        int effectiveStopCounter;
-        if (triggerEnabled) {
-            for (int i = 0; i < TRIGGER_STAGES; i++) {
-                sendCommand(SETTRIGMASK + 4 * i, triggerMask[i]);
-                sendCommand(SETTRIGVAL + 4 * i, triggerValue[i]);
-                sendCommand(SETTRIGCFG + 4 * i, triggerConfig[i]);
-            }
-            effectiveStopCounter = stopCounter;
-        } else {
-            sendCommand(SETTRIGMASK, 0);
-            sendCommand(SETTRIGVAL, 0);
-            sendCommand(SETTRIGCFG, TRIGGER_CAPTURE);
-            effectiveStopCounter = readCounter;
-        }
-        sendCommand(SETDIVIDER, divider);
 
-        int flags = 0;
-        if (clockSource == CLOCK_EXTERNAL_RISING || clockSource == CLOCK_EXTERNAL_FALLING) {
-            flags |= FLAG_EXTERNAL;
-            if (clockSource == CLOCK_EXTERNAL_FALLING)
-                flags |= FLAG_INVERTED;
-        }
-        if (demux && clockSource == CLOCK_INTERNAL) {
-            flags |= FLAG_DEMUX;
-            for (int i = 0; i < 2; i++)
-                if (!enabledGroups[i]) {
-                    flags |= FLAG_DISABLE_G0 << i;
-                    flags |= FLAG_DISABLE_G2 << i;
-                }
-            sendCommand(SETSIZE, (((effectiveStopCounter - 8) & 0x7fff8) << 13) | (((readCounter & 0x7fff8) >> 3) - 1));
-        } else {
-            if (filterEnabled && isFilterAvailable())
-                flags |= FLAG_FILTER;
-            for (int i = 0; i < 4; i++)
-                if (!enabledGroups[i])
-                    flags |= FLAG_DISABLE_G0 << i;
-            sendCommand(SETSIZE, (((effectiveStopCounter - 4) & 0x3fffc) << 14) | (((readCounter & 0x3fffc) >> 2) - 1));
-        }
-        if (rleEnabled) { flags |= FLAG_RLE; }
-        //System.out.println("Flags: " + Integer.toString(flags, 2));
-        sendCommand(SETFLAGS, flags);
-        sendCommand(RUN);
-		
         // check if data needs to be multiplexed
         int channels;
         int samples;
@@ -717,7 +735,12 @@ public class FpgaDevice extends Object {
         try {
             for (int i = samples - 2; i >= 0 && true; i--) {
                 buffer[i] = readSample(channels);
-                percentageDone = 100 - (100 * i) / buffer.length;
+                int percentage = 100 - (100 * i) / buffer.length;
+                if (percentage != percentageDone) {
+                    percentageDone = percentage;
+                    if (listener != null)
+                        listener.captureProgress(DeviceController.RUNNING, percentage);
+                }
             }
         } finally {
             percentageDone = -1;
@@ -28,6 +28,10 @@ import java.awt.GridLayout;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
@@ -42,7 +46,7 @@ import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 import javax.swing.JTabbedPane;
 import javax.swing.JTextField;
-import javax.swing.Timer;
+import javax.swing.SwingUtilities;
 
 import org.sump.analyzer.CapturedData;
 import org.sump.util.Properties;
@@ -59,7 +63,7 @@ import org.sump.util.Properties;
  */
 public class FpgaDeviceController
     extends JComponent
-    implements DeviceController, ActionListener, Runnable
+    implements DeviceController, ActionListener
 {
     ///////////////////////////////////////////////////////////////////
     // TODO: when the dialog is closed using the window decoration's //
@@ -70,10 +74,9 @@ public class FpgaDeviceController
     private static final String NAME = "FpgaDeviceController";
 
 
-    private Thread worker;
-    private Timer timer;
+    private CompletableFuture<CapturedData> pending;
 	
-    private JComboBox portSelect;
+    private JComboBox<String> portSelect;
     private JComboBox portRateSelect;
     private JComboBox sourceSelect;
     private JComboBox speedSelect;
@@ -97,7 +100,12 @@ public class FpgaDeviceController
 	
     private JDialog dialog;
     private FpgaDevice device;
-    private CapturedData capturedData;
+    private Properties settings;
+    private volatile CapturedData capturedData;
+    private volatile String portName;
+    private volatile int portRate;
+    private final int instance;
+    private final String prefix;
 	
     private int triggerStages;
 	
@@ -110,20 +118,46 @@ public class FpgaDeviceController
      *
      */
     public FpgaDeviceController() {
+        this(1);
+    }
+
+    /**
+     * Constructs device controller component for one of several devices.
+     * @param instance number of the controller, from 2 its settings are named "FpgaDeviceController<i>instance</i>."
+     */
+    public FpgaDeviceController(int instance) {
         super();
+        this.instance = instance;
+        prefix = (instance > 1) ? NAME + instance : NAME;
+        device = new FpgaDevice();
+        triggerStages = device.getTriggerStageCount();
+        settings = new Properties();
+        capturedData = null;
+        portName = null;
+        portRate = 115200;
+        pending = null;
+        status = IDLE;
+    }
+
+    /**
+     * Creates the components of the dialog when first used, with the settings read before.
+     */
+    private void createComponents() {
+        if (portSelect != null)
+            return;
+
         setLayout(new GridBagLayout());
         setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
 
-        device = new FpgaDevice();
-
         // connection pane
         JPanel connectionPane = new JPanel();
         connectionPane.setLayout(new GridLayout(6, 2, 5, 5));
         connectionPane.setBorder(BorderFactory.createCompoundBorder(
                                                                     BorderFactory.createTitledBorder("Connection Settings"),
                                                                     BorderFactory.createEmptyBorder(5, 5, 5, 5)
-                                                                    ));		String[] ports = FpgaDevice.getPorts();
-        portSelect = new JComboBox(ports);
+                                                                    ));
+        portSelect = new JComboBox<String>();
+        SerialPorts.Populate(portSelect);
         connectionPane.add(new JLabel("Analyzer Port:"));
         connectionPane.add(portSelect);
 
@@ -310,10 +344,11 @@ public class FpgaDeviceController
         cancel.addActionListener(this);
         add(cancel, createConstraints(2, 5, 1, 1, 0.5, 0));
 		
-        capturedData = null;
-        timer = null;
-        worker = null;
-        status = IDLE;
+
+        if (!settings.isEmpty()) {
+            readProperties(settings);
+            settings.clear();
+        }
     }
 
     /**
@@ -321,6 +356,8 @@ public class FpgaDeviceController
      * @param frame owner of the dialog
      */
     private void initDialog(JFrame frame) {
+        createComponents();
+
         // check if dialog exists with different owner and dispose if so
         if (dialog != null && dialog.getOwner() != frame) {
             dialog.dispose();
@@ -417,6 +454,7 @@ public class FpgaDeviceController
 
     /** activates / deactivates dialog options according to device status */
     public void updateFields() {
+        createComponents();
         updateFields(true);
     }
 
@@ -432,10 +470,27 @@ public class FpgaDeviceController
 	
     /** writes the dialog settings to the device */
     private void updateDevice() {
+        Properties properties = new Properties();
+        writeProperties(properties);
+        configure(properties);
+        device.setRleEnabled(rleEnable.isSelected());
+    }
+
+    /**
+     * Sets the port and the device from settings as written by
+     * {@link #writeProperties(Properties)}, so that a capture needs
+     * none of the dialog components.  Missing settings take the
+     * defaults of the dialog.
+     */
+    private void configure(Properties properties) {
         String value;
-		
+
+        // set port
+        portName = properties.getProperty(prefix + ".port");
+        portRate = smartParseInt(properties.getProperty(prefix + ".portRate", "115200bps (LL)"));
+
         // set clock source
-        value = (String)sourceSelect.getSelectedItem();
+        value = properties.getProperty(prefix + ".source", "Internal");
         if (value.equals("Internal")) {
             device.setClockSource(FpgaDevice.CLOCK_INTERNAL);
         } else {
@@ -446,7 +501,7 @@ public class FpgaDeviceController
         }
 
         // set sample rate
-        value = (String)speedSelect.getSelectedItem();
+        value = properties.getProperty(prefix + ".speed", "100MHz");
         int f = smartParseInt(value);
         if (value.indexOf("M") > 0)
             f *= 1000000;
@@ -455,14 +510,14 @@ public class FpgaDeviceController
         device.setRate(f);
 		
         // set sample count
-        value = (String)sizeSelect.getSelectedItem();
+        value = properties.getProperty(prefix + ".size", "16K");
         int s = smartParseInt(value);
         if (value.indexOf("K") > 0)
             s *= 1024;
         device.setSize(s);
 		
         // set before / after ratio
-        value = (String)ratioSelect.getSelectedItem();
+        value = properties.getProperty(prefix + ".ratio", "25/75");
         double r = 0.5;
         if (value.equals("100/0")) r = 0;
         else if (value.equals("25/75")) r = 0.75;
@@ -472,29 +527,28 @@ public class FpgaDeviceController
         device.setRatio(r);
 		
         // set filter
-        device.setFilterEnabled(filterEnable.isSelected());
-        device.setRleEnabled(rleEnable.isSelected());
+        device.setFilterEnabled(!"false".equals(properties.getProperty(prefix + ".filter")));
 
         // set trigger
-        boolean triggerEnabled = triggerEnable.isSelected();
+        boolean triggerEnabled = "true".equals(properties.getProperty(prefix + ".trigger"));
         device.setTriggerEnabled(triggerEnabled);
         if (triggerEnabled) {
-            boolean complex = "Complex".equals((String)triggerTypeSelect.getSelectedItem());
+            boolean complex = "Complex".equals(properties.getProperty(prefix + ".triggerType"));
             for (int stage = 0; stage < triggerStages; stage++) {
-                int m = 0;
-                int v = 0;
-                for (int i = 0; i < 32; i++) {
-                    if (triggerMask[stage][i].isSelected())
-                        m |= 1 << i;
-                    if (triggerValue[stage][i].isSelected())
-                        v |= 1 << i;				
-                }
-                int level = triggerLevel[stage].getSelectedIndex();
-                int delay = smartParseInt(triggerDelay[stage].getText());
-                int channel = triggerChannel[stage].getSelectedIndex();
-                boolean startCapture = triggerStart[stage].isSelected();
+                String name = prefix + ".triggerStage" + stage;
+                int m = bits(properties.getProperty(name + "Mask"));
+                int v = bits(properties.getProperty(name + "Value"));
+                int level = (stage > 0) ? 3 : 0;
+                value = properties.getProperty(name + "Level");
+                if (value != null && value.startsWith("On Level "))
+                    level = smartParseInt(value.substring(9));
+                else if (value != null)
+                    level = 0;
+                int delay = smartParseInt(properties.getProperty(name + "Delay", "0"));
+                int channel = smartParseInt(properties.getProperty(name + "Channel", "0"));
+                boolean startCapture = "true".equals(properties.getProperty(name + "StartCapture"));
                 if (complex) {
-                    if (triggerMode[stage].getSelectedIndex() == 0) {
+                    if (!"Serial".equals(properties.getProperty(name + "Mode"))) {
                         device.setParallelTrigger(stage, m, v, level, delay, startCapture);
                     } else {
                         device.setSerialTrigger(stage, channel, m, v, level, delay, startCapture);				
@@ -515,93 +569,127 @@ public class FpgaDeviceController
         }
 		
         // set enabled channel groups
+        String group = properties.getProperty(prefix + ".channelGroup", "1000");
         int enabledChannels = 0;
-        for (int i = 0; i < channelGroup.length; i++)
-            if (channelGroup[i].isSelected())
+        for (int i = 0; i < 4 && i < group.length(); i++)
+            if (group.charAt(i) == '1')
                 enabledChannels |= 0xff << (8 * i);
         device.setEnabledChannels(enabledChannels);
     }
 
     /**
-     * Starts capturing from device. Should not be called externally.
+     * @return bits of a trigger mask or value setting, from bit 0
      */
-    public void run()  {
-        // TODO: need to check if attach was successful
-        device.attach(
-                      (String)portSelect.getSelectedItem(),
-                      smartParseInt((String)portRateSelect.getSelectedItem())
-                      );
-	
-        status = RUNNING;
-		
-        try {
-            //System.out.println("Run started");
-            errorMessage = "";
-            capturedData = device.run();
-            //System.out.println("Run completed");
-            status = DONE;
-        } catch (Exception ex) {
-            // TODO: could make sense to also return half read captures if array length is corrected
-            capturedData = null;
-            status = ABORTED;
-            //System.out.println("Run aborted");
-            if (!(ex instanceof InterruptedException)) {
-                errorMessage = ex.getMessage();
-                ex.printStackTrace(System.out);
+    private static int bits(String value) {
+        int bits = 0;
+        if (value != null)
+            for (int i = 0; i < 32 && i < value.length(); i++)
+                if (value.charAt(i) == '1')
+                    bits |= 1 << i;
+        return bits;
+    }
+
+    /**
+     * Starts a capture with the current device settings on its own
+     * thread.  Cancelling the returned future stops the device.  The
+     * settings are those last read with {@link #readProperties(Properties)}
+     * or written by the dialog, so that no dialog components are used.
+     * 
+     * @param listener receives status and progress from the capture thread (null for none)
+     * @return future completed with the captured data
+     */
+    public CompletableFuture<CapturedData> capture(CaptureProgressListener listener) {
+        final String portName = this.portName;
+        final int portRate = this.portRate;
+
+        return new CaptureTask(prefix, listener) {
+            protected CapturedData capture() throws Exception {
+                if (portName == null)
+                    throw new IOException("No port selected.");
+                if (!device.attach(portName, portRate))
+                    throw new IOException("Port not available: " + portName);
+                try {
+                    if (isCancelled())
+                        throw new InterruptedException("Capture cancelled.");
+                    CapturedData data = device.run(this);
+                    capturedData = data;
+                    return data;
+                } finally {
+                    device.detach();
+                }
             }
-        }
-        device.detach();
+            protected void abort() {
+                device.stop();
+            }
+        }.start();
     }
 	
     /**
      * Properly closes the dialog.
-     * This method makes sure timer and worker thread are stopped before the dialog is closed.
+     * This method makes sure a running capture is cancelled before the dialog is closed.
      *
      */
     private void close() {
-        if (timer != null) {
-            timer.stop();
-            timer = null;
-        }
-        if (worker != null) {
-            device.stop(); // lets hope no one gets here before device.run() is called
-            worker.interrupt();
-            worker = null;
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
         }
         dialog.setVisible(false);
     }
 	
     /**
-     * Starts the capture thread.
+     * Starts the capture thread, reporting to the dialog.
      */
     private void startCapture() {
-        try {
-            setDialogEnabled(false);
-            timer = new Timer(100, this);
-            worker = new Thread(this);
-            timer.start();
-            worker.start();
-        } catch(Exception E) {
-            E.printStackTrace(System.out);
-        }
+        setDialogEnabled(false);
+        status = RUNNING;
+        final CompletableFuture<CapturedData> capture = capture(new CaptureProgressListener() {
+                public void captureProgress(int status, final int percentage) {
+                    if (percentage >= 0) {
+                        SwingUtilities.invokeLater(new Runnable() {
+                                public void run() {
+                                    progress.setValue(percentage);
+                                }
+                            });
+                    }
+                }
+            });
+        pending = capture;
+        capture.whenComplete(new BiConsumer<CapturedData,Throwable>() {
+                public void accept(final CapturedData data, final Throwable error) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                captureCompleted(capture, data, error);
+                            }
+                        });
+                }
+            });
     }
-	
+
     /**
-     * Handles all action events for this component.
-     */ 
-    public void actionPerformed(ActionEvent event) {
-        Object o = event.getSource();
-        String l = event.getActionCommand();
-		
-        // ignore all events when dialog is not displayed
-        if (dialog == null || !dialog.isVisible())
+     * Updates the dialog when a capture started by the dialog has completed.
+     * Called by the Swing event dispatcher.
+     */
+    private void captureCompleted(CompletableFuture<CapturedData> capture, CapturedData data, Throwable error) {
+        if (capture != pending)
             return;
-		
-        if (o == timer) {
-            if (status == DONE) {
+        pending = null;
+
+        if (error == null) {
+            status = DONE;
+            if (dialog.isVisible())
                 close();
-            } else if (status == ABORTED) {
-                timer.stop();
+        } else {
+            // TODO: could make sense to also return half read captures if array length is corrected
+            capturedData = null;
+            status = ABORTED;
+            if (error instanceof InterruptedException || error instanceof CancellationException) {
+                errorMessage = "";
+            } else {
+                errorMessage = error.getMessage();
+                error.printStackTrace(System.out);
+            }
+            if (dialog.isVisible()) {
                 JOptionPane.showMessageDialog(this,
                                               "Error while trying to communicate with device:\n\n"
                                               + "\"" + errorMessage + "\"\n\n"
@@ -613,34 +701,42 @@ public class FpgaDeviceController
                                               JOptionPane.ERROR_MESSAGE
                                               );
                 setDialogEnabled(true);
-            } else {
-                if(device.isRunning())
-                    progress.setValue(device.getPercentage());
             }
-        } else {
+        }
+    }
+	
+    /**
+     * Handles all action events for this component.
+     */ 
+    public void actionPerformed(ActionEvent event) {
+        Object o = event.getSource();
+        String l = event.getActionCommand();
 		
-            if (o == triggerEnable) {
-                updateDevice();
-                updateFields();
+        // ignore all events when dialog is not displayed
+        if (dialog == null || !dialog.isVisible())
+            return;
+		
+        if (o == triggerEnable) {
+            updateDevice();
+            updateFields();
 
-            } else if (o == sourceSelect) {
-                updateDevice();
-                updateFields();
+        } else if (o == sourceSelect) {
+            updateDevice();
+            updateFields();
 
-            } else if (o == speedSelect) {
-                updateDevice();
-                updateFields();
+        } else if (o == speedSelect) {
+            updateDevice();
+            updateFields();
 
-            } else if (l.equals("Capture")) {
-                updateDevice();
-                startCapture();
+        } else if (l.equals("Capture")) {
+            updateDevice();
+            startCapture();
 
-            } else if (l.equals("Close")) {
-                close();
+        } else if (l.equals("Close")) {
+            close();
 
-            } else {
-                updateFields();
-            }
+        } else {
+            updateFields();
         }
     }
 	
@@ -652,36 +748,42 @@ public class FpgaDeviceController
     }
 
     public void readProperties(Properties properties) {
-        selectByValue(portSelect, properties.getProperty(NAME + ".port"));
-        selectByValue(portRateSelect, properties.getProperty(NAME + ".portRate"));
-        selectByValue(sourceSelect, properties.getProperty(NAME + ".source"));
-        selectByValue(speedSelect, properties.getProperty(NAME + ".speed"));
-        selectByValue(sizeSelect, properties.getProperty(NAME + ".size"));
-        selectByValue(ratioSelect, properties.getProperty(NAME + ".ratio"));
-        filterEnable.setSelected("true".equals(properties.getProperty(NAME + ".filter")));
-        triggerEnable.setSelected("true".equals(properties.getProperty(NAME + ".trigger")));
-        selectByValue(triggerTypeSelect, properties.getProperty(NAME + ".triggerType"));
+        configure(properties);
+        if (portSelect == null) {
+            // keep until the components are created
+            settings.copy(properties, prefix + ".");
+            return;
+        }
+        SerialPorts.Select(portSelect, properties.getProperty(prefix + ".port"));
+        selectByValue(portRateSelect, properties.getProperty(prefix + ".portRate"));
+        selectByValue(sourceSelect, properties.getProperty(prefix + ".source"));
+        selectByValue(speedSelect, properties.getProperty(prefix + ".speed"));
+        selectByValue(sizeSelect, properties.getProperty(prefix + ".size"));
+        selectByValue(ratioSelect, properties.getProperty(prefix + ".ratio"));
+        filterEnable.setSelected("true".equals(properties.getProperty(prefix + ".filter")));
+        triggerEnable.setSelected("true".equals(properties.getProperty(prefix + ".trigger")));
+        selectByValue(triggerTypeSelect, properties.getProperty(prefix + ".triggerType"));
 
         for (int stage = 0; stage < triggerStages; stage++) {
-            selectByValue(triggerLevel[stage], properties.getProperty(NAME + ".triggerStage" + stage + "Level"));
-            triggerDelay[stage].setText(properties.getProperty(NAME + ".triggerStage" + stage + "Delay"));
-            selectByValue(triggerMode[stage], properties.getProperty(NAME + ".triggerStage" + stage + "Mode"));
-            selectByValue(triggerChannel[stage], properties.getProperty(NAME + ".triggerStage" + stage + "Channel"));
+            selectByValue(triggerLevel[stage], properties.getProperty(prefix + ".triggerStage" + stage + "Level"));
+            triggerDelay[stage].setText(properties.getProperty(prefix + ".triggerStage" + stage + "Delay"));
+            selectByValue(triggerMode[stage], properties.getProperty(prefix + ".triggerStage" + stage + "Mode"));
+            selectByValue(triggerChannel[stage], properties.getProperty(prefix + ".triggerStage" + stage + "Channel"));
 			
-            String mask = properties.getProperty(NAME + ".triggerStage" + stage + "Mask");
+            String mask = properties.getProperty(prefix + ".triggerStage" + stage + "Mask");
             if (mask != null)
                 for (int i = 0; i < 32 && i < mask.length(); i++)
                     triggerMask[stage][i].setSelected(mask.charAt(i) == '1');
 	
-            String value = properties.getProperty(NAME + ".triggerStage" + stage + "Value");
+            String value = properties.getProperty(prefix + ".triggerStage" + stage + "Value");
             if (value != null)
                 for (int i = 0; i < 32 && i < value.length(); i++)
                     triggerValue[stage][i].setSelected(value.charAt(i) == '1');
 
-            triggerStart[stage].setSelected("true".equals(properties.getProperty(NAME + ".triggerStage" + stage + "StartCapture")));
+            triggerStart[stage].setSelected("true".equals(properties.getProperty(prefix + ".triggerStage" + stage + "StartCapture")));
         }
 		
-        String group = properties.getProperty(NAME + ".channelGroup");
+        String group = properties.getProperty(prefix + ".channelGroup");
         if (group != null)
             for (int i = 0; i < 4 && i < group.length(); i++)
                 channelGroup[i].setSelected(group.charAt(i) == '1');
@@ -691,43 +793,51 @@ public class FpgaDeviceController
     }
 	
     public void writeProperties(Properties properties) {
-        properties.setProperty(NAME + ".port", (String)portSelect.getSelectedItem());
-        properties.setProperty(NAME + ".portRate", (String)portRateSelect.getSelectedItem());
-        properties.setProperty(NAME + ".source", (String)sourceSelect.getSelectedItem());
-        properties.setProperty(NAME + ".speed", (String)speedSelect.getSelectedItem());
-        properties.setProperty(NAME + ".size", (String)sizeSelect.getSelectedItem());
-        properties.setProperty(NAME + ".ratio", (String)ratioSelect.getSelectedItem());
-        properties.setProperty(NAME + ".filter", filterEnable.isSelected()?"true":"false");
-        properties.setProperty(NAME + ".trigger", triggerEnable.isSelected()?"true":"false");
-        properties.setProperty(NAME + ".triggerType", (String)triggerTypeSelect.getSelectedItem());
+        if (portSelect == null) {
+            properties.copy(settings, prefix + ".");
+            return;
+        }
+        properties.setProperty(prefix + ".port", (String)portSelect.getSelectedItem());
+        properties.setProperty(prefix + ".portRate", (String)portRateSelect.getSelectedItem());
+        properties.setProperty(prefix + ".source", (String)sourceSelect.getSelectedItem());
+        properties.setProperty(prefix + ".speed", (String)speedSelect.getSelectedItem());
+        properties.setProperty(prefix + ".size", (String)sizeSelect.getSelectedItem());
+        properties.setProperty(prefix + ".ratio", (String)ratioSelect.getSelectedItem());
+        properties.setProperty(prefix + ".filter", filterEnable.isSelected()?"true":"false");
+        properties.setProperty(prefix + ".trigger", triggerEnable.isSelected()?"true":"false");
+        properties.setProperty(prefix + ".triggerType", (String)triggerTypeSelect.getSelectedItem());
 
         for (int stage = 0; stage < triggerStages; stage++) {
-            properties.setProperty(NAME + ".triggerStage" + stage + "Level", (String)triggerLevel[stage].getSelectedItem());
-            properties.setProperty(NAME + ".triggerStage" + stage + "Delay", triggerDelay[stage].getText());
-            properties.setProperty(NAME + ".triggerStage" + stage + "Mode", (String)triggerMode[stage].getSelectedItem());
-            properties.setProperty(NAME + ".triggerStage" + stage + "Channel", (String)triggerChannel[stage].getSelectedItem());
+            properties.setProperty(prefix + ".triggerStage" + stage + "Level", (String)triggerLevel[stage].getSelectedItem());
+            properties.setProperty(prefix + ".triggerStage" + stage + "Delay", triggerDelay[stage].getText());
+            properties.setProperty(prefix + ".triggerStage" + stage + "Mode", (String)triggerMode[stage].getSelectedItem());
+            properties.setProperty(prefix + ".triggerStage" + stage + "Channel", (String)triggerChannel[stage].getSelectedItem());
 			
             StringBuffer mask = new StringBuffer();
             for (int i = 0; i < 32; i++)
                 mask.append(triggerMask[stage][i].isSelected()?"1":"0");
-            properties.setProperty(NAME + ".triggerStage" + stage + "Mask", mask.toString());
+            properties.setProperty(prefix + ".triggerStage" + stage + "Mask", mask.toString());
 	
             StringBuffer value = new StringBuffer();
             for (int i = 0; i < 32; i++)
                 value.append(triggerValue[stage][i].isSelected()?"1":"0");
-            properties.setProperty(NAME + ".triggerStage" + stage + "Value", value.toString());
+            properties.setProperty(prefix + ".triggerStage" + stage + "Value", value.toString());
 
-            properties.setProperty(NAME + ".triggerStage" + stage + "StartCapture", triggerStart[stage].isSelected()?"true":"false");
+            properties.setProperty(prefix + ".triggerStage" + stage + "StartCapture", triggerStart[stage].isSelected()?"true":"false");
         }
 		
         StringBuffer group = new StringBuffer();
         for (int i = 0; i < 4; i++)
             group.append(channelGroup[i].isSelected()?"1":"0");
-        properties.setProperty(NAME + ".channelGroup", group.toString());
+        properties.setProperty(prefix + ".channelGroup", group.toString());
     }
 	
     public String getControllerName() {
-        return "FPGA Controller";
+        return (instance > 1) ? "FPGA Controller " + instance : "FPGA Controller";
+    }
+
+    public DeviceController newInstance(int instance) {
+        return new FpgaDeviceController(instance);
     }
 	
     /**
@@ -739,6 +849,7 @@ public class FpgaDeviceController
      */
     public int showCaptureDialog(JFrame frame) throws Exception {
         status = IDLE;
+        SerialPorts.Refresh();
         initDialog(frame);
         setDialogEnabled(true);
         //		dialog.setModalityType(ModalityType.APPLICATION_MODAL);
@@ -26,7 +26,6 @@ import gnu.io.SerialPort;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.StringTokenizer;
 
@@ -58,21 +57,8 @@ public class Hp16500Device {
      * Gets a string array containing the names all available serial ports.
      * @return array containing serial port names
      */
-    @SuppressWarnings("unchecked")
     static public String[] getPorts() {
-        Enumeration<CommPortIdentifier> portIdentifiers = CommPortIdentifier.getPortIdentifiers();
-        LinkedList<String> portList = new LinkedList<String>();
-        CommPortIdentifier portId = null;
-
-        while (portIdentifiers.hasMoreElements()) {
-            portId = portIdentifiers.nextElement();
-            if (portId.getPortType() == CommPortIdentifier.PORT_SERIAL) {
-                portList.addLast(portId.getName());
-                //System.out.println(portId.getName());
-            }
-        }
-			
-        return ((String[])portList.toArray(new String[1]));
+        return SerialPorts.Enumerate();
     }
 
     /**
@@ -182,7 +168,7 @@ public class Hp16500Device {
      * @return raw data array
      * @throws IOException when read fails
      */
-    synchronized private byte[] analyzerReadBlock() throws IOException {
+    synchronized private byte[] analyzerReadBlock(CaptureProgressListener listener) throws IOException {
         byte[] retval = new byte[0];
         int timeout = 50;
         int step = 0;
@@ -236,6 +222,8 @@ public class Hp16500Device {
                         }
                         // update progress
                         progress = (k * 100) / readSize;
+                        if (listener != null)
+                            listener.captureProgress(DeviceController.RUNNING, progress);
                         break;
                     case 4:
                         if(debug) System.out.println("read complete");
@@ -365,6 +353,16 @@ public class Hp16500Device {
      * @return raw data bytes
      */
     public byte[] getData(int card) throws IOException, IllegalArgumentException {
+        return getData(card, null);
+    }
+
+    /**
+     * read captured data from an analyzer card
+     * @param card card number
+     * @param listener receives the block read progress (null for none)
+     * @return raw data bytes
+     */
+    public byte[] getData(int card, CaptureProgressListener listener) throws IOException, IllegalArgumentException {
         card++;
         if((card < 1) || (card > cardCage.length)) {
             throw new IllegalArgumentException("card " + card + " is out of range");
@@ -373,7 +371,7 @@ public class Hp16500Device {
         analyzerCommand(cmd);
         analyzerCommand(":SYST:DATA?");
         byte[] data = new byte[0];
-        data = analyzerReadBlock();
+        data = analyzerReadBlock(listener);
         return data;
     }
 	
@@ -416,8 +414,8 @@ public class Hp16500Device {
     private OutputStream outputStream;
     private String analyzerId;
     private int[] cardCage;
-    private int progress;
-    private boolean running; 
+    private volatile int progress;
+    private volatile boolean running; 
 	
     private static int[] ANALYZER_OPTION_CODES = {
         1,2,11,12,13,21,22,30,31,32,33,40,41,42,43
@@ -29,11 +29,14 @@ import java.awt.GridLayout;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
@@ -46,7 +49,7 @@ import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
-import javax.swing.Timer;
+import javax.swing.SwingUtilities;
 
 import org.sump.analyzer.CapturedData;
 import org.sump.util.Properties;
@@ -60,12 +63,16 @@ import org.sump.util.Properties;
  * The current implementation supports only a HP16550A logic analyzer card. It
  * reads out the first pod of the selected analyzer and decodes the data.
  * 
+ * The raw block of the last readout can be saved to a file ("Save Raw...")
+ * and such files can be decoded again without the instrument ("Load Raw...",
+ * or {@link #loadRawData(File,int)}).
+ * 
  * @author Frank Kunz
  * @author John Pritchard
  */
 public class Hp16500DeviceController
     extends JComponent 
-    implements ActionListener, Runnable, DeviceController
+    implements ActionListener, DeviceController
 {
 
 
@@ -83,14 +90,43 @@ public class Hp16500DeviceController
      * create a new HP16500 device controller object
      */
     public Hp16500DeviceController() {
+        this(1);
+    }
+
+    /**
+     * create a new HP16500 device controller object for one of several devices
+     * @param instance number of the controller, from 2 its settings are named "Hp16500DeviceController<i>instance</i>."
+     */
+    public Hp16500DeviceController(int instance) {
         super();
-        setLayout(new GridBagLayout());
-        setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        this.instance = instance;
+        prefix = (instance > 1) ? NAME + instance : NAME;
 		
         debug = false;
         rawStore = false;
 		
         device = new Hp16500Device();
+        settings = new Properties();
+
+        rawData = null;
+        rawDecoded = false;
+        replayFile = null;
+        capturedData = null;
+        configure(settings);
+        card = null;
+        pending = null;
+        status = IDLE;
+    }
+
+    /**
+     * Creates the components of the dialog when first used, with the settings read before.
+     */
+    private void createComponents() {
+        if (portSelect != null)
+            return;
+
+        setLayout(new GridBagLayout());
+        setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
 
         // connection pane
         JPanel connectionPane = new JPanel();
@@ -99,8 +135,8 @@ public class Hp16500DeviceController
                                                                     BorderFactory.createTitledBorder("Connection Settings"),
                                                                     BorderFactory.createEmptyBorder(5, 5, 5, 5)
                                                                     ));		
-        String[] ports = Hp16500Device.getPorts();
-        portSelect = new JComboBox(ports);
+        portSelect = new JComboBox<String>();
+        SerialPorts.Populate(portSelect);
         connectionPane.add(new JLabel("Analyzer Port:"));
         connectionPane.add(portSelect);
 
@@ -187,12 +223,19 @@ public class Hp16500DeviceController
         JButton cancel = new JButton("Close");
         cancel.addActionListener(this);
         add(cancel, createConstraints(2, 5, 1, 1, 0, 0));
-		
-        rawData = null;
-        capturedData = null;
-        timer = null;
-        worker = null;
-        status = IDLE;
+
+        loadRawButton = new JButton("Load Raw...");
+        loadRawButton.addActionListener(this);
+        add(loadRawButton, createConstraints(0, 6, 1, 1, 0, 0));
+
+        saveRawButton = new JButton("Save Raw...");
+        saveRawButton.addActionListener(this);
+        add(saveRawButton, createConstraints(1, 6, 1, 1, 0, 0));
+
+        if (!settings.isEmpty()) {
+            readProperties(settings);
+            settings.clear();
+        }
     }
 
     /**
@@ -216,208 +259,313 @@ public class Hp16500DeviceController
      * Handles all action events for this component.
      */ 
     public void actionPerformed(ActionEvent e) {
-        Object o = e.getSource();
 		
         // ignore all events when dialog is not displayed
         if (dialog == null || !dialog.isVisible())
             return;
 		
-        if (o == timer) {
-            if (status == DONE) {
-                close();
-            } else if (status == ABORTED) {
-                timer.stop();
-                JOptionPane.showMessageDialog(this,
-                                              "Error while trying to communicate with device:\n\n"
-                                              + "\"" + errorMessage + "\"\n\n"
-                                              + "Make sure the device is:\n"
-                                              + " - connected to the specified port\n"
-                                              + " - turned on and properly configured\n"
-                                              + " - set to the selected transfer rate\n",
-                                              "Communication Error",
-                                              JOptionPane.ERROR_MESSAGE
+        int portRate = smartParseInt((String)portRateSelect.getSelectedItem());
+        int portParity = SerialPort.PARITY_NONE;
+        if(portParitySelect.getSelectedItem().equals("odd"))
+            portParity = SerialPort.PARITY_ODD;
+        else if(portParitySelect.getSelectedItem().equals("even"))
+            portParity = SerialPort.PARITY_EVEN;
+        int portStopbits = SerialPort.STOPBITS_1;
+        if(portStopSelect.getSelectedItem().equals("1.5"))
+            portStopbits = SerialPort.STOPBITS_1_5;
+        else if(portStopSelect.getSelectedItem().equals("2"))
+            portStopbits = SerialPort.STOPBITS_2;
+	
+        if(e.getActionCommand().equals("Close")) {
+            close();
+				
+        } else if(e.getActionCommand().equals("Capture")) {
+            updateDevice();
+            if(debug) {
+                // debug mode replays a raw dump file instead of the device
+                startReplay();
+            } else if(sourceSelect.getSelectedItem().equals("get config first") ||
+                      sourceSelect.getSelectedItem().equals("")) {
+                JOptionPane.showMessageDialog(null,
+                                              "use \"Get Config\" first to select analyzer card",
+                                              "Error", JOptionPane.ERROR_MESSAGE
                                               );
-                setDialogEnabled(true);
             } else {
-                if(device.isRunning())
-                    progress.setValue(device.getPercentage());
+                replayFile = null;
+                startCapture();
             }
-        } else {
-		
-            int portRate = smartParseInt((String)portRateSelect.getSelectedItem());
-            int portParity = SerialPort.PARITY_NONE;
-            if(portParitySelect.getSelectedItem().equals("odd"))
-                portParity = SerialPort.PARITY_ODD;
-            else if(portParitySelect.getSelectedItem().equals("even"))
-                portParity = SerialPort.PARITY_EVEN;
-            int portStopbits = SerialPort.STOPBITS_1;
-            if(portStopSelect.getSelectedItem().equals("1.5"))
-                portStopbits = SerialPort.STOPBITS_1_5;
-            else if(portStopSelect.getSelectedItem().equals("2"))
-                portStopbits = SerialPort.STOPBITS_2;
-	
-            if(e.getActionCommand().equals("Close")) {
-                close();
-				
-            } else if(e.getActionCommand().equals("Capture")) {
-                if(!debug && 
-                   (sourceSelect.getSelectedItem().equals("get config first") ||
-                    sourceSelect.getSelectedItem().equals(""))) {
+
+        } else if(e.getActionCommand().equals("Load Raw...")) {
+            startReplay();
+
+        } else if(e.getActionCommand().equals("Save Raw...")) {
+            JFileChooser dumpFileChooser = new JFileChooser();
+            if (dumpFileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+                try {
+                    storeRawData(dumpFileChooser.getSelectedFile());
+                } catch (IOException e3) {
                     JOptionPane.showMessageDialog(null,
-                                                  "use \"Get Config\" first to select analyzer card",
+                                                  e3.getLocalizedMessage(),
                                                   "Error", JOptionPane.ERROR_MESSAGE
                                                   );
-                } else {
-                    try {
-                        setDialogEnabled(false);
-                        timer = new Timer(100, this);
-                        worker = new Thread(this);
-                        timer.start();
-                        worker.start();
-                    } catch(Exception E) {
-                        E.printStackTrace(System.out);
-                    }
                 }
+            }
 
-            } else if(e.getActionCommand().equals("Get Config")) {
-                try {
-                    device.open((String)portSelect.getSelectedItem(), 
-                                portRate, portParity, portStopbits);
-                    int[] cards = device.getCardCage();
+        } else if(e.getActionCommand().equals("Get Config")) {
+            try {
+                device.open((String)portSelect.getSelectedItem(), 
+                            portRate, portParity, portStopbits);
+                int[] cards = device.getCardCage();
 					
-                    //System.out.println("Analyzer:" + device.getAnalyzerId());
+                //System.out.println("Analyzer:" + device.getAnalyzerId());
 					
-                    //System.out.println("Cards:");
-                    String cardString;
-                    sourceSelect.removeAllItems();
-                    for(int i=0;i<cards.length;i++) {
-                        //System.out.println("\t" + cards[i]);
-                        if(cards[i] != -1) {
-                            cardString = device.getCardString(cards[i]);
+                //System.out.println("Cards:");
+                String cardString;
+                sourceSelect.removeAllItems();
+                for(int i=0;i<cards.length;i++) {
+                    //System.out.println("\t" + cards[i]);
+                    if(cards[i] != -1) {
+                        cardString = device.getCardString(cards[i]);
 							
-                            // only allow 16550 Analyzers
-                            if(cardString.contains("16550"))
-                                sourceSelect.addItem(cardString.substring(0, cardString.indexOf(' ')));
-                            if(cardString.contains("16542"))
-                                sourceSelect.addItem(cardString.substring(0, cardString.indexOf(' ')));
-                        }
+                        // only allow 16550 Analyzers
+                        if(cardString.contains("16550"))
+                            sourceSelect.addItem(cardString.substring(0, cardString.indexOf(' ')));
+                        if(cardString.contains("16542"))
+                            sourceSelect.addItem(cardString.substring(0, cardString.indexOf(' ')));
                     }
-                    dialog.pack();
-                } catch (PortInUseException e1) {
-                    JOptionPane.showMessageDialog(null,
-                                                  e1.getLocalizedMessage(),
-                                                  "Error", JOptionPane.ERROR_MESSAGE
-                                                  );
-                } catch (IOException e2) {
-                    JOptionPane.showMessageDialog(null,
-                                                  e2.getLocalizedMessage(),
-                                                  "Error", JOptionPane.ERROR_MESSAGE
-                                                  );
-                } finally {
-                    device.close();
                 }
+                dialog.pack();
+            } catch (PortInUseException e1) {
+                JOptionPane.showMessageDialog(null,
+                                              e1.getLocalizedMessage(),
+                                              "Error", JOptionPane.ERROR_MESSAGE
+                                              );
+            } catch (IOException e2) {
+                JOptionPane.showMessageDialog(null,
+                                              e2.getLocalizedMessage(),
+                                              "Error", JOptionPane.ERROR_MESSAGE
+                                              );
+            } finally {
+                device.close();
             }
         }
     }
 
     /**
-     * Starts capturing from device. Should not be called externally.
+     * Starts the capture thread, reporting to the dialog.
      */
-    public void run() {
-        int portRate = smartParseInt((String)portRateSelect.getSelectedItem());
-		
-        int portParity = SerialPort.PARITY_NONE;
-        if(portParitySelect.getSelectedItem().equals("odd"))
-            portParity = SerialPort.PARITY_ODD;
-        else if(portParitySelect.getSelectedItem().equals("even"))
-            portParity = SerialPort.PARITY_EVEN;
-		
-        int portStopbits = SerialPort.STOPBITS_1;
-        if(portStopSelect.getSelectedItem().equals("1.5"))
-            portStopbits = SerialPort.STOPBITS_1_5;
-        else if(portStopSelect.getSelectedItem().equals("2"))
-            portStopbits = SerialPort.STOPBITS_2;
-		
-        byte[] data = null;
-        Hp16550DeviceDecoder hp16550Data = null;
-        Hp16542DeviceDecoder hp16542Data = null;
-        try {
-            status = RUNNING;
-            errorMessage = "";
-            if(!debug) {
-                // load from Device
-                int selectedCardPos = device.getCardInCage(device.getCardId((String)sourceSelect.getSelectedItem()));
-                device.open((String)portSelect.getSelectedItem(), 
-                            portRate, portParity, portStopbits);
-                data = device.getData(selectedCardPos);
-                //System.out.println("Databytes: " + data.length);
-                device.close();
-            } else {
-                // load from file
-                JFileChooser inDumpFileChooser = new JFileChooser(); 
-                if (inDumpFileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-                    File inf = inDumpFileChooser.getSelectedFile();
-
-                    if(inf.exists() && inf.isFile()) {
-                        try {
-                            FileInputStream is = new FileInputStream(inf);
-                            data = new byte[is.available()];
-                            is.read(data);
-                            is.close();
-                        } catch (FileNotFoundException e1) {
-                            e1.printStackTrace();
-                        } catch (IOException e1) {
-                            e1.printStackTrace();
-                        }
-                    } else {
-                        //System.out.println("File not found");
+    private void startCapture() {
+        setDialogEnabled(false);
+        status = RUNNING;
+        final CompletableFuture<CapturedData> capture = capture(new CaptureProgressListener() {
+                public void captureProgress(int status, final int percentage) {
+                    if (percentage >= 0) {
+                        SwingUtilities.invokeLater(new Runnable() {
+                                public void run() {
+                                    progress.setValue(percentage);
+                                }
+                            });
                     }
                 }
-            }
-			
-            try {
-                hp16550Data = new Hp16550DeviceDecoder(data);
-                capturedData = hp16550Data.getCapturedData(analyzerSelect.getSelectedIndex());
-            } catch (IOException e) {hp16550Data = null;}
-            try {
-                hp16542Data = new Hp16542DeviceDecoder(data);
-                capturedData = hp16542Data.getCapturedData();
-            } catch (IOException e) {hp16542Data = null;}
-			
-            if(((data != null) && (hp16550Data == null) && (hp16542Data == null)) || 
-               (rawStore == true)){
-                // there were some data but no valid decoder was found
-                rawData = new byte[data.length];
-                for(int i=0;i<rawData.length;i++)
-                    rawData[i] = data[i];
-            } else {
-                rawData = null;
-            }
+            });
+        pending = capture;
+        capture.whenComplete(new BiConsumer<CapturedData,Throwable>() {
+                public void accept(final CapturedData data, final Throwable error) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                captureCompleted(capture, error);
+                            }
+                        });
+                }
+            });
+    }
 
+    /**
+     * Updates the dialog when a capture started by the dialog has completed.
+     * Called by the Swing event dispatcher.
+     */
+    private void captureCompleted(CompletableFuture<CapturedData> capture, Throwable error) {
+        if (capture != pending)
+            return;
+        pending = null;
+
+        if (error == null) {
             status = DONE;
-        } catch (Exception ex) {
+            if (dialog.isVisible())
+                close();
+        } else {
             status = ABORTED;
             progress.setValue(0);
-            //System.out.println("Run aborted");
-            if (!(ex instanceof InterruptedException)) {
-                errorMessage = ex.getMessage();
-                ex.printStackTrace(System.out);
+            if (error instanceof InterruptedException || error instanceof CancellationException) {
+                errorMessage = "";
+            } else {
+                errorMessage = error.getMessage();
+                error.printStackTrace(System.out);
+            }
+            if (dialog.isVisible()) {
+                JOptionPane.showMessageDialog(this,
+                                              "Error while trying to communicate with device:\n\n"
+                                              + "\"" + errorMessage + "\"\n\n"
+                                              + "Make sure the device is:\n"
+                                              + " - connected to the specified port\n"
+                                              + " - turned on and properly configured\n"
+                                              + " - set to the selected transfer rate\n",
+                                              "Communication Error",
+                                              JOptionPane.ERROR_MESSAGE
+                                              );
+                setDialogEnabled(true);
+            }
+        }
+    }
+
+    /**
+     * Asks for a raw dump file and starts decoding it in the capture thread.
+     */
+    private void startReplay() {
+        JFileChooser inDumpFileChooser = new JFileChooser();
+        if (inDumpFileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            File inf = inDumpFileChooser.getSelectedFile();
+            if(inf.isFile()) {
+                replayFile = inf;
+                startCapture();
             }
         }
     }
+
+    /**
+     * Starts a readout of the selected card on its own thread, or the
+     * replay of a raw dump file selected with "Load Raw...".  The
+     * future is completed with the decoded data, or null if no
+     * decoder accepts the block read.  The port and card are those
+     * last read with {@link #readProperties(Properties)} or written by
+     * the dialog, so that no dialog components are used.
+     * 
+     * @param listener receives status and block read progress (null for none)
+     * @return future completed with the captured data
+     */
+    public CompletableFuture<CapturedData> capture(CaptureProgressListener listener) {
+        // a readout that cannot be decoded leaves no data
+        capturedData = null;
+        final String portName = this.portName;
+        final int portRate = this.portRate;
+        final int parity = portParity;
+        final int stopbits = portStopbits;
+        final String card = this.card;
+        final int analyzer = this.analyzer;
+        final File file = replayFile;
+        replayFile = null;
+
+        return new CaptureTask(prefix, listener) {
+            protected CapturedData capture() throws Exception {
+                errorMessage = "";
+                byte[] data;
+                if(file != null) {
+                    // load from file
+                    data = readRawData(file);
+                } else {
+                    // load from Device
+                    if (portName == null)
+                        throw new IOException("No port selected.");
+                    int selectedCardPos = device.getCardInCage(device.getCardId(card));
+                    device.open(portName, portRate, parity, stopbits);
+                    try {
+                        data = device.getData(selectedCardPos, this);
+                    } finally {
+                        device.close();
+                    }
+                    //System.out.println("Databytes: " + data.length);
+                }
+                CapturedData decoded = decodeRawData(data, analyzer);
+                if (decoded != null)
+                    capturedData = decoded;
+                return decoded;
+            }
+        }.start();
+    }
+
+    /**
+     * Decodes a raw <code>:SYST:DATA?</code> block with the
+     * HP16550A or HP16542A decoder, whichever accepts it.  The block
+     * is retained as the controller's raw data, so that it can be
+     * written out with {@link #storeRawData(File)}.
+     * 
+     * @param data raw block data as read out from the analyzer
+     * @param analyzer number of the HP16550A analyzer to read out (0 or 1)
+     * @return decoded data or null if no decoder accepts the block
+     */
+    public CapturedData decodeRawData(byte[] data, int analyzer) {
+        CapturedData decoded = null;
+        rawData = data;
+        rawDecoded = false;
+        if(data != null) {
+            try {
+                decoded = new Hp16550DeviceDecoder(data).getCapturedData(analyzer);
+                rawDecoded = true;
+            } catch (IOException e) {}
+            try {
+                decoded = new Hp16542DeviceDecoder(data).getCapturedData();
+                rawDecoded = true;
+            } catch (IOException e) {}
+        }
+        return decoded;
+    }
+
+    /**
+     * Reads a raw block dump file and decodes it as if it had been
+     * read from the analyzer.
+     * 
+     * @param file raw dump file, as written by {@link #storeRawData(File)}
+     * @param analyzer number of the HP16550A analyzer to read out (0 or 1)
+     * @return decoded data or null if no decoder accepts the block
+     * @throws IOException when the file can not be read
+     */
+    public CapturedData loadRawData(File file, int analyzer) throws IOException {
+        return decodeRawData(readRawData(file), analyzer);
+    }
+
+    /**
+     * Writes the raw block of the last capture or replay to a file.
+     * @param file file to write to
+     * @throws IOException when no raw data is available or writing fails
+     */
+    public void storeRawData(File file) throws IOException {
+        byte[] data = rawData;
+        if(data == null)
+            throw new IOException("No raw data available");
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(data);
+            os.flush();
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Reads the complete content of a raw dump file.
+     * @param file file to read
+     * @return file content
+     * @throws IOException when reading fails
+     */
+    private static byte[] readRawData(File file) throws IOException {
+        DataInputStream is = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] data = new byte[(int)file.length()];
+            is.readFully(data);
+            return data;
+        } finally {
+            is.close();
+        }
+    }
 	
     /**
      * Properly closes the dialog.
-     * This method makes sure timer and worker thread are stopped before the dialog is closed.
+     * This method makes sure a running capture is cancelled before the dialog is closed.
      */
     private void close() {
-        if (timer != null) {
-            timer.stop();
-            timer = null;
-        }
-        if (worker != null) {
-            worker.interrupt();
-            worker = null;
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
         }
         dialog.setVisible(false);
     }
@@ -433,34 +581,84 @@ public class Hp16500DeviceController
      * @see org.sump.analyzer.Configurable#readProperties(org.sump.util.Properties)
      */
     public void readProperties(Properties properties) {
-        selectByValue(portSelect, properties.getProperty(NAME + ".port"));
-        selectByValue(portRateSelect, properties.getProperty(NAME + ".portRate"));
-        selectByValue(portParitySelect, properties.getProperty(NAME + ".portParity"));
-        selectByValue(portStopSelect, properties.getProperty(NAME + ".portStop"));
+        configure(properties);
+        if (portSelect == null) {
+            // keep until the components are created
+            settings.copy(properties, prefix + ".");
+        }
+        else {
+            SerialPorts.Select(portSelect, properties.getProperty(prefix + ".port"));
+            selectByValue(portRateSelect, properties.getProperty(prefix + ".portRate"));
+            selectByValue(portParitySelect, properties.getProperty(prefix + ".portParity"));
+            selectByValue(portStopSelect, properties.getProperty(prefix + ".portStop"));
 
-        //selectByValue(sourceSelect, properties.getProperty(NAME + ".source"));
-        selectByValue(analyzerSelect, properties.getProperty(NAME + ".analyzer"));
+            //selectByValue(sourceSelect, properties.getProperty(prefix + ".source"));
+            selectByValue(analyzerSelect, properties.getProperty(prefix + ".analyzer"));
+            updateDevice();
+        }
 		
         // hidden parameter for debug mode enabled
-        debug = Boolean.parseBoolean(properties.getProperty(NAME + ".debug"));
-        if(debug) System.out.println(NAME + "-> debug enabled");
+        debug = Boolean.parseBoolean(properties.getProperty(prefix + ".debug"));
+        if(debug) System.out.println(prefix + "-> debug enabled");
 
         // hidden parameter for raw data store enabled
-        rawStore = Boolean.parseBoolean(properties.getProperty(NAME + ".raw"));
-        if(rawStore) System.out.println(NAME + "-> raw data store enabled");
+        rawStore = Boolean.parseBoolean(properties.getProperty(prefix + ".raw"));
+        if(rawStore) System.out.println(prefix + "-> raw data store enabled");
+    }
+
+    /** writes the dialog settings to the fields read by a capture */
+    private void updateDevice() {
+        Properties properties = new Properties();
+        writeProperties(properties);
+        configure(properties);
+        card = (String)sourceSelect.getSelectedItem();
+    }
+
+    /**
+     * Sets the port and analyzer from settings as written by
+     * {@link #writeProperties(Properties)}.  Missing settings take the
+     * defaults of the dialog.
+     */
+    private void configure(Properties properties) {
+        String value;
+
+        portName = properties.getProperty(prefix + ".port");
+        portRate = smartParseInt(properties.getProperty(prefix + ".portRate", "19200bps"));
+
+        value = properties.getProperty(prefix + ".portParity", "none");
+        if(value.equals("odd"))
+            portParity = SerialPort.PARITY_ODD;
+        else if(value.equals("even"))
+            portParity = SerialPort.PARITY_EVEN;
+        else
+            portParity = SerialPort.PARITY_NONE;
+
+        value = properties.getProperty(prefix + ".portStop", "1");
+        if(value.equals("1.5"))
+            portStopbits = SerialPort.STOPBITS_1_5;
+        else if(value.equals("2"))
+            portStopbits = SerialPort.STOPBITS_2;
+        else
+            portStopbits = SerialPort.STOPBITS_1;
+
+        analyzer = "2".equals(properties.getProperty(prefix + ".analyzer")) ? 1 : 0;
     }
 
     /* (non-Javadoc)
      * @see org.sump.analyzer.Configurable#writeProperties(org.sump.util.Properties)
      */
     public void writeProperties(Properties properties) {
-        properties.setProperty(NAME + ".port", (String)portSelect.getSelectedItem());
-        properties.setProperty(NAME + ".portRate", (String)portRateSelect.getSelectedItem());
-        properties.setProperty(NAME + ".portParity", (String)portParitySelect.getSelectedItem());
-        properties.setProperty(NAME + ".portStop", (String)portStopSelect.getSelectedItem());
+        if (portSelect == null) {
+            properties.copy(settings, prefix + ".");
+            return;
+        }
+        properties.setProperty(prefix + ".port", (String)portSelect.getSelectedItem());
+        properties.setProperty(prefix + ".portRate", (String)portRateSelect.getSelectedItem());
+        properties.setProperty(prefix + ".portParity", (String)portParitySelect.getSelectedItem());
+        properties.setProperty(prefix + ".portStop", (String)portStopSelect.getSelectedItem());
 
-        //properties.setProperty(NAME + ".source", (String)sourceSelect.getSelectedItem());
-        properties.setProperty(NAME + ".analyzer", (String)analyzerSelect.getSelectedItem());
+        //properties.setProperty(prefix + ".source", (String)sourceSelect.getSelectedItem());
+        properties.setProperty(prefix + ".analyzer", (String)analyzerSelect.getSelectedItem());
     }
 
     /**
@@ -470,7 +668,7 @@ public class Hp16500DeviceController
      */
     public CapturedData getDeviceData(Component parent) {
         //System.out.println("getDeviceData");
-        if((rawData != null) && (parent != null)) {
+        if((rawData != null) && (!rawDecoded || rawStore) && (parent != null)) {
             // some data were captured but not decoded
 
             // ask for store a raw dump file
@@ -484,16 +682,13 @@ public class Hp16500DeviceController
                     File file = dumpFileChooser.getSelectedFile();
                     //System.out.println("Saving: " + file.getName() + ".");
                     try {
-                        FileOutputStream os = new FileOutputStream(file);
-                        os.write(rawData);
-                        os.flush();
-                        os.close();
+                        storeRawData(file);
                     } catch (Exception ex) {
                         ex.printStackTrace();
                     }
                 }
             }
-            rawData = null;
+            rawDecoded = true;
         }
         return capturedData;
     }
@@ -503,6 +698,8 @@ public class Hp16500DeviceController
      * @param frame owner of the dialog
      */
     private void initDialog(JFrame frame) {
+        createComponents();
+
         // check if dialog exists with different owner and dispose if so
         if (dialog != null && dialog.getOwner() != frame) {
             dialog.dispose();
@@ -535,6 +732,8 @@ public class Hp16500DeviceController
         portStopSelect.setEnabled(enable);
         sourceSelect.setEnabled(enable);
         analyzerSelect.setEnabled(enable);
+        loadRawButton.setEnabled(enable);
+        saveRawButton.setEnabled(enable && rawData != null);
     }
 
     /**
@@ -546,6 +745,7 @@ public class Hp16500DeviceController
      */
     public int showCaptureDialog(JFrame frame) {
         status = IDLE;
+        SerialPorts.Refresh();
         initDialog(frame);
         setDialogEnabled(true);
         //		dialog.setModalityType(ModalityType.APPLICATION_MODAL);
@@ -567,11 +767,8 @@ public class Hp16500DeviceController
             if(device.getCardCage() != null) {
                 status = IDLE;
                 initDialog(frame);
-                setDialogEnabled(false);
-                timer = new Timer(100, this);
-                worker = new Thread(this);
-                timer.start();
-                worker.start();
+                replayFile = null;
+                startCapture();
                 dialog.setLocationRelativeTo(null);
                 dialog.setVisible(true);
             } else {
@@ -593,13 +790,19 @@ public class Hp16500DeviceController
      * return the name of the device controller
      */
     public String getControllerName() {
-        return "HP 16500 Controller";
+        return (instance > 1) ? "HP 16500 Controller " + instance : "HP 16500 Controller";
+    }
+
+    /**
+     * create a controller for another HP16500
+     */
+    public DeviceController newInstance(int instance) {
+        return new Hp16500DeviceController(instance);
     }
 
-    private Thread worker;
-    private Timer timer;
+    private CompletableFuture<CapturedData> pending;
 
-    private JComboBox portSelect;
+    private JComboBox<String> portSelect;
     private JComboBox portRateSelect;
     private JComboBox portParitySelect;
     private JComboBox portStopSelect;
@@ -610,17 +813,30 @@ public class Hp16500DeviceController
     private JProgressBar progress;
     private JButton captureButton;
     private JButton configButton;
+    private JButton loadRawButton;
+    private JButton saveRawButton;
 
     private JDialog dialog;
     private int status;
     private Hp16500Device device;
+    private Properties settings;
     private String errorMessage;
 	
-    private CapturedData capturedData;
+    private volatile CapturedData capturedData;
+    private volatile String portName;
+    private volatile int portRate;
+    private volatile int portParity;
+    private volatile int portStopbits;
+    private volatile String card;
+    private volatile int analyzer;
     private byte[] rawData;
+    private boolean rawDecoded;
+    private File replayFile;
 
     private static final long serialVersionUID = 1L;
     private static final String NAME = "Hp16500DeviceController";
+    private final int instance;
+    private final String prefix;
 	
     private boolean debug;
     private boolean rawStore;
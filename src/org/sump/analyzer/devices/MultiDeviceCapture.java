@@ -0,0 +1,342 @@
+/*
+ *  Copyright (C) 2012 John Pritchard
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer.devices;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import org.sump.analyzer.CapturedData;
+
+/**
+ * Arms several device controllers concurrently and merges their
+ * captures into one time aligned capture.
+ * <p>
+ * Each controller captures on its own thread with its current
+ * settings.  The enabled channel groups of the captures are packed into
+ * the (at most four) channel groups of the merged capture, in
+ * controller order.  Captures are aligned on their trigger positions
+ * (or on their start when they have no trigger), shifted by a per
+ * device offset, and scaled to the highest sampling rate among them.
+ * The merge walks the transition compressed data of all captures at
+ * once, so the merged capture holds only the merged transitions.
+ *
+ * @author John Pritchard
+ */
+public class MultiDeviceCapture
+    extends Object
+{
+
+    private final DeviceController[] controllers;
+    private final long[] offsets;
+    private final int[] rates;
+
+
+    /**
+     * @param controllers device controllers to capture with
+     */
+    public MultiDeviceCapture(DeviceController[] controllers){
+        super();
+        this.controllers = controllers.clone();
+        this.offsets = new long[controllers.length];
+        this.rates = new int[controllers.length];
+        for (int i = 0; i < this.rates.length; i++)
+            this.rates[i] = CapturedData.NOT_AVAILABLE;
+    }
+
+
+    /**
+     * Sets the time offset of a device's capture in the merged capture.
+     * @param index index of the controller
+     * @param offset offset in nanoseconds (in samples when no capture has timing data)
+     */
+    public void setOffset(int index, long offset){
+        this.offsets[index] = offset;
+    }
+    /**
+     * Sets the sampling rate to assume for a device whose captures
+     * have no timing data, e.g. when sampling with an external clock.
+     * @param index index of the controller
+     * @param rate sampling rate in Hz
+     */
+    public void setRate(int index, int rate){
+        this.rates[index] = rate;
+    }
+    /**
+     * Starts a capture on every controller and merges the results.
+     * Cancelling the returned future cancels all captures, and a
+     * failing capture cancels the others.
+     *
+     * @param listener receives the average progress of all captures (null for none)
+     * @return future completed with the merged capture, or null when no device delivered data
+     */
+    public CompletableFuture<CapturedData> capture(final CaptureProgressListener listener){
+
+        final int count = this.controllers.length;
+        final List<CompletableFuture<CapturedData>> captures = new ArrayList<CompletableFuture<CapturedData>>(count);
+        final int[] percentages = new int[count];
+
+        final CompletableFuture<CapturedData> merged = new CompletableFuture<CapturedData>(){
+            public boolean cancel(boolean mayInterruptIfRunning){
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled){
+                    for (CompletableFuture<CapturedData> capture: captures)
+                        capture.cancel(mayInterruptIfRunning);
+                }
+                return cancelled;
+            }
+        };
+
+        for (int i = 0; i < count; i++){
+            final int index = i;
+
+            captures.add(this.controllers[i].capture(new CaptureProgressListener(){
+                    public void captureProgress(int status, int percentage){
+                        if (null != listener && 0 <= percentage){
+                            int sum = 0;
+                            synchronized(percentages){
+                                percentages[index] = percentage;
+                                for (int p: percentages)
+                                    sum += p;
+                            }
+                            listener.captureProgress(DeviceController.RUNNING, sum / count);
+                        }
+                    }
+                }));
+        }
+
+        BiConsumer<CapturedData,Throwable> completion = new BiConsumer<CapturedData,Throwable>(){
+            public void accept(CapturedData data, Throwable error){
+                if (null != error){
+                    if (merged.completeExceptionally(error)){
+                        for (CompletableFuture<CapturedData> capture: captures)
+                            capture.cancel(true);
+
+                        if (null != listener)
+                            listener.captureProgress(DeviceController.ABORTED, -1);
+                    }
+                }
+                else if (!merged.isDone()){
+                    CapturedData[] results = new CapturedData[count];
+                    for (int i = 0; i < count; i++){
+                        if (!captures.get(i).isDone())
+                            return;
+                        else
+                            results[i] = captures.get(i).getNow(null);
+                    }
+                    try {
+                        CapturedData result = Merge(results, MultiDeviceCapture.this.offsets, MultiDeviceCapture.this.rates);
+                        if (merged.complete(result) && null != listener)
+                            listener.captureProgress(DeviceController.DONE, 100);
+                    }
+                    catch (RuntimeException exc){
+                        merged.completeExceptionally(exc);
+                    }
+                }
+            }
+        };
+        for (CompletableFuture<CapturedData> capture: captures)
+            capture.whenComplete(completion);
+
+        return merged;
+    }
+
+    /**
+     * Merges captures into one time aligned capture.
+     *
+     * @param captures captures to merge, null elements are skipped
+     * @param offsets per capture time offset in nanoseconds (in samples when no capture has timing data)
+     * @param rates per capture sampling rate used when the capture has no timing data, or <code>NOT_AVAILABLE</code>
+     * @return merged capture, or null when all captures are null
+     * @throws IllegalArgumentException when the captures have more than four enabled channel groups
+     */
+    public static CapturedData Merge(CapturedData[] captures, long[] offsets, int[] rates){
+        /*
+         * Collect the non null captures and their effective rates
+         */
+        int count = 0;
+        for (CapturedData capture: captures){
+            if (null != capture)
+                count++;
+        }
+        if (0 == count)
+            return null;
+
+        CapturedData[] sources = new CapturedData[count];
+        long[] offset = new long[count];
+        int[] rate = new int[count];
+        boolean timing = true;
+        int rateOut = 0;
+        for (int i = 0, s = 0; i < captures.length; i++){
+            if (null != captures[i]){
+                sources[s] = captures[i];
+                offset[s] = offsets[i];
+                rate[s] = captures[i].hasTimingData() ? captures[i].rate : rates[i];
+                if (0 >= rate[s])
+                    timing = false;
+                else if (rate[s] > rateOut)
+                    rateOut = rate[s];
+                s++;
+            }
+        }
+        if (!timing)
+            rateOut = CapturedData.NOT_AVAILABLE;
+        /*
+         * Assign output channel groups
+         */
+        int[][] groupFrom = new int[count][];
+        int[][] groupTo = new int[count][];
+        int groupsOut = 0;
+        int enabledOut = 0;
+        for (int s = 0; s < count; s++){
+            CapturedData source = sources[s];
+            int groups = 0;
+            for (int g = 0; g < source.channels / 8 && g < 4; g++){
+                if (0 != ((source.enabledChannels >> (8 * g)) & 0xff))
+                    groups++;
+            }
+            if (groupsOut + groups > 4)
+                throw new IllegalArgumentException("Captures have more than four enabled channel groups.");
+
+            groupFrom[s] = new int[groups];
+            groupTo[s] = new int[groups];
+            for (int g = 0, j = 0; g < source.channels / 8 && g < 4; g++){
+                int mask = (source.enabledChannels >> (8 * g)) & 0xff;
+                if (0 != mask){
+                    groupFrom[s][j] = 8 * g;
+                    groupTo[s][j] = 8 * groupsOut;
+                    enabledOut |= mask << (8 * groupsOut);
+                    groupsOut++;
+                    j++;
+                }
+            }
+        }
+        /*
+         * Time base: align triggers (or starts), apply offsets and
+         * scale to the output rate, then shift to non negative time
+         */
+        double[] scale = new double[count];
+        long[] anchor = new long[count];
+        long[] shift = new long[count];
+        long base = Long.MAX_VALUE;
+        for (int s = 0; s < count; s++){
+            scale[s] = timing ? ((double)rateOut / (double)rate[s]) : 1.0;
+            anchor[s] = sources[s].hasTriggerData() ? sources[s].triggerPosition : 0;
+            shift[s] = timing ? Math.round((double)offset[s] * (double)rateOut / 1e9) : offset[s];
+            base = Math.min(base, Map(0, anchor[s], scale[s], shift[s]));
+        }
+        long triggerOut = CapturedData.NOT_AVAILABLE;
+        long absoluteLength = 0;
+        for (int s = 0; s < count; s++){
+            shift[s] -= base;
+
+            if (CapturedData.NOT_AVAILABLE == triggerOut && sources[s].hasTriggerData())
+                triggerOut = shift[s];
+
+            absoluteLength = Math.max(absoluteLength, Map(sources[s].absoluteLength, anchor[s], scale[s], shift[s]));
+        }
+        /*
+         * Count, then fill
+         */
+        int size = Merge(sources, anchor, scale, shift, groupFrom, groupTo, null, null);
+        int[] values = new int[size];
+        long[] timestamps = new long[size];
+        Merge(sources, anchor, scale, shift, groupFrom, groupTo, values, timestamps);
+
+        return new CapturedData(values, timestamps, triggerOut, rateOut, 8 * groupsOut, enabledOut, absoluteLength);
+    }
+
+    private final static long Map(long time, long anchor, double scale, long shift){
+        return Math.round((time - anchor) * scale) + shift;
+    }
+
+    private final static int Remap(int value, int[] from, int[] to){
+        int remapped = 0;
+        for (int j = 0; j < from.length; j++)
+            remapped |= ((value >>> from[j]) & 0xff) << to[j];
+        return remapped;
+    }
+
+    /**
+     * K-way merge of the transitions of all sources.
+     * @param values output values, or null to count only
+     * @param timestamps output timestamps, or null to count only
+     * @return number of merged transitions
+     */
+    private final static int Merge(CapturedData[] sources, long[] anchor, double[] scale, long[] shift,
+                                   int[][] groupFrom, int[][] groupTo, int[] values, long[] timestamps)
+    {
+        final int count = sources.length;
+        int[] index = new int[count];
+        int[] current = new int[count];
+        long[] next = new long[count];
+
+        int value = 0;
+        for (int s = 0; s < count; s++){
+            current[s] = Remap(sources[s].values[0], groupFrom[s], groupTo[s]);
+            value |= current[s];
+            index[s] = 1;
+            next[s] = (1 < sources[s].timestamps.length) ? Map(sources[s].timestamps[1], anchor[s], scale[s], shift[s]) : Long.MAX_VALUE;
+        }
+        int size = 0;
+        if (null != values){
+            values[0] = value;
+            timestamps[0] = 0;
+        }
+        size++;
+
+        while (true){
+            long time = Long.MAX_VALUE;
+            for (int s = 0; s < count; s++){
+                if (next[s] < time)
+                    time = next[s];
+            }
+            if (Long.MAX_VALUE == time)
+                break;
+
+            int merged = 0;
+            for (int s = 0; s < count; s++){
+                int[] v = sources[s].values;
+                long[] t = sources[s].timestamps;
+                while (next[s] == time){
+                    current[s] = Remap(v[index[s]], groupFrom[s], groupTo[s]);
+                    index[s]++;
+                    next[s] = (index[s] < t.length) ? Map(t[index[s]], anchor[s], scale[s], shift[s]) : Long.MAX_VALUE;
+                }
+                merged |= current[s];
+            }
+            if (merged != value){
+                value = merged;
+                if (time <= 0){
+                    if (null != values)
+                        values[0] = value;
+                }
+                else {
+                    if (null != values){
+                        values[size] = value;
+                        timestamps[size] = time;
+                    }
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+}
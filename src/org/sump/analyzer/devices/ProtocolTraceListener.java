@@ -0,0 +1,38 @@
+/*
+ *  Copyright (C) 2012 John Pritchard
+ * 
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer.devices;
+
+/**
+ * Receives the commands sent to a device, for protocol debugging.
+ * <p>
+ * Called from the capture thread after the commands have been written.
+ * The buffer is reused by the device and must not be retained.
+ * 
+ * @see FpgaDevice#setTraceListener(ProtocolTraceListener)
+ * @author John Pritchard
+ */
+public interface ProtocolTraceListener {
+    /**
+     * A command was sent to the device.
+     * @param buffer command buffer
+     * @param offset position of the command's opcode in the buffer
+     * @param length number of bytes of the command (1 for short, 5 for long commands)
+     */
+    public void traceCommand(byte[] buffer, int offset, int length);
+}
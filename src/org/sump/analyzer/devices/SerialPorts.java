@@ -0,0 +1,174 @@
+/*
+ *  Copyright (C) 2012 John Pritchard
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer.devices;
+
+import gnu.io.CommPortIdentifier;
+
+import java.lang.ref.WeakReference;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import javax.swing.JComboBox;
+import javax.swing.SwingUtilities;
+
+/**
+ * Shared list of the serial ports of the system.
+ * <p>
+ * Enumerating the ports probes every port through the native RXTX
+ * library, which can take seconds.  The enumeration is done once on a
+ * background thread when first needed, and its result is shared by all
+ * device controllers until {@link #Refresh()} enumerates again.
+ *
+ * @author John Pritchard
+ */
+public final class SerialPorts
+    extends Object
+{
+
+    private static CompletableFuture<String[]> Ports;
+
+    /**
+     * Combo boxes to update after a refresh, weakly referenced so that
+     * the dialog of a removed device controller can be collected
+     */
+    private final static LinkedList<WeakReference<JComboBox<String>>> Listeners = new LinkedList<WeakReference<JComboBox<String>>>();
+
+
+    /**
+     * @return the cached port list, enumerated in the background on first use
+     */
+    public static synchronized CompletableFuture<String[]> Ports(){
+        if (null == Ports)
+            return Refresh();
+        else
+            return Ports;
+    }
+    /**
+     * Enumerates the ports again in the background.  Combo boxes
+     * registered with {@link #Populate(JComboBox)} are updated when
+     * the new list arrives.
+     * @return the new port list
+     */
+    public static synchronized CompletableFuture<String[]> Refresh(){
+        if (null == Ports || Ports.isDone()){
+
+            final CompletableFuture<String[]> ports = new CompletableFuture<String[]>();
+            Thread thread = new Thread(new Runnable(){
+                    public void run(){
+                        try {
+                            ports.complete(Enumerate());
+                        }
+                        catch (Throwable t){
+                            ports.completeExceptionally(t);
+                        }
+                    }
+                },"SerialPorts");
+            thread.setDaemon(true);
+            thread.start();
+
+            Ports = ports;
+
+            for (Iterator<WeakReference<JComboBox<String>>> list = Listeners.iterator(); list.hasNext(); ){
+                JComboBox<String> box = list.next().get();
+                if (null == box)
+                    list.remove();
+                else
+                    Update(box, ports);
+            }
+        }
+        return Ports;
+    }
+    /**
+     * Fills the combo box with the port list when it arrives, and
+     * again after every refresh.  The current selection is kept, and
+     * kept in the list when the port is not present, so that a port
+     * read from a project survives until the device is plugged in.
+     * @param box combo box of port names
+     */
+    public static synchronized void Populate(JComboBox<String> box){
+        Listeners.add(new WeakReference<JComboBox<String>>(box));
+        Update(box, Ports());
+    }
+    /**
+     * Selects a port in a combo box populated by this class.  A port
+     * not (yet) in the list is added, so that a port read from a
+     * project is kept until the enumeration has completed.
+     * @param box combo box of port names
+     * @param port port name, may be null
+     */
+    public static void Select(JComboBox<String> box, String port){
+        if (null != port){
+            for (int i = 0; i < box.getItemCount(); i++){
+                if (port.equals(box.getItemAt(i))){
+                    box.setSelectedIndex(i);
+                    return;
+                }
+            }
+            box.addItem(port);
+            box.setSelectedItem(port);
+        }
+    }
+    /**
+     * Enumerates the serial ports on the calling thread.
+     * @return names of the serial ports
+     */
+    public static String[] Enumerate(){
+        Enumeration<?> portIdentifiers = CommPortIdentifier.getPortIdentifiers();
+        LinkedList<String> portList = new LinkedList<String>();
+        CommPortIdentifier portId = null;
+
+        while (portIdentifiers.hasMoreElements()) {
+            portId = (CommPortIdentifier)portIdentifiers.nextElement();
+            if (portId.getPortType() == CommPortIdentifier.PORT_SERIAL) {
+                portList.addLast(portId.getName());
+            }
+        }
+        return (portList.toArray(new String[portList.size()]));
+    }
+
+
+    private static void Update(final JComboBox<String> box, final CompletableFuture<String[]> ports){
+        ports.whenComplete(new BiConsumer<String[],Throwable>(){
+                public void accept(final String[] list, Throwable error){
+                    if (null != list){
+                        SwingUtilities.invokeLater(new Runnable(){
+                                public void run(){
+                                    if (ports == Ports())
+                                        Fill(box, list);
+                                }
+                            });
+                    }
+                    else if (null != error)
+                        error.printStackTrace();
+                }
+            });
+    }
+    private static void Fill(JComboBox<String> box, String[] list){
+        Object selected = box.getSelectedItem();
+        box.removeAllItems();
+        for (String port: list)
+            box.addItem(port);
+
+        if (null != selected)
+            Select(box, (String)selected);
+    }
+}
@@ -20,9 +20,11 @@ package org.sump.analyzer.tools;
 
 import java.awt.Frame;
 
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 
 import org.sump.analyzer.CapturedData;
+import org.sump.util.Properties;
 
 /**
  * Abstract base class that may be used for tools. 
@@ -38,11 +40,49 @@ import org.sump.analyzer.CapturedData;
 public abstract class Base extends Object implements Tool {
     public abstract String getName();
 
+    private Frame frame;
+    private final Properties settings = new Properties();
+
     /**
-     * Does nothing. If initialization is needed it must be overwritten.
-     * @param frame ignored
+     * Keeps the frame, so that a tool can create its dialog when first used.
+     * @param frame owner of the dialog
      */
     public void init(Frame frame) {
+        this.frame = frame;
+    }
+
+    /**
+     * @return owner of the dialog, or <code>null</code> before <code>init(Frame frame)</code>
+     */
+    protected Frame getFrame() {
+        return (frame);
+    }
+
+    /**
+     * Keeps the settings of the tool, named "tools.<i>ClassName</i>.", until its dialog is created.
+     * @param properties Properties containing dialog settings
+     */
+    protected void keepProperties(Properties properties) {
+        settings.copy(properties, getPrefix());
+    }
+
+    /**
+     * Writes the settings kept while the dialog has not been created.
+     * @param properties Properties where the settings are written to
+     */
+    protected void writeKeptProperties(Properties properties) {
+        properties.copy(settings, getPrefix());
+    }
+
+    /**
+     * @return settings kept while the dialog has not been created, for the dialog to read
+     */
+    protected Properties getKeptProperties() {
+        return (settings);
+    }
+
+    private String getPrefix() {
+        return ("tools." + getClass().getSimpleName() + ".");
     }
 	
     public abstract CapturedData process(CapturedData data);
@@ -81,6 +121,17 @@ public abstract class Base extends Object implements Tool {
                     box.setSelectedIndex(i);
     }
 
+    /**
+     * Selects or clears a check box as the given value is "true" or not.
+     * 
+     * @param box check box to be selected or cleared
+     * @param value string containing boolean, the check box is unchanged when null
+     */
+    public void selectByValue(JCheckBox box, String value) {
+        if (value != null)
+            box.setSelected(Boolean.parseBoolean(value.trim()));
+    }
+
     /**
      * Selects the item of a combo box at the given index.
      * 
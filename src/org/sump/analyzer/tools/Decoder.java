@@ -0,0 +1,168 @@
+/*
+ *  Copyright (C) 2012 John Pritchard
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.analyzer.tools;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.sump.analyzer.CapturedData;
+import org.sump.util.Properties;
+
+/**
+ * The analysis of a tool apart from its dialog, so that it can run
+ * without a display.  A decoder takes its settings from the project
+ * properties written by the dialog of its tool, and its results are
+ * written as CSV or JSON.
+ * <p>
+ * A decoder stops early when aborted or when its thread is
+ * interrupted.
+ *
+ * @author John Pritchard
+ */
+public abstract class Decoder
+    extends Object
+{
+
+    private final static boolean DEBUG = Boolean.getBoolean("decoder.debug");
+
+
+    private volatile boolean aborted;
+    private Tool.Progress progress;
+
+
+    protected Decoder(){
+        super();
+    }
+
+
+    /**
+     * Decodes the data, replacing the results of a previous decode.
+     * @param data captured data to decode
+     */
+    public abstract void decode(CapturedData data);
+    /**
+     * @return <code>true</code> when there are no results
+     */
+    public abstract boolean isEmpty();
+    /**
+     * Writes the results as a header line and a line per result.
+     */
+    public abstract void writeCSV(Writer out) throws IOException;
+    /**
+     * Writes the results as an array of objects.
+     */
+    public abstract void writeJSON(Writer out) throws IOException;
+
+    /**
+     * Stops a decode in progress.
+     */
+    public void abort(){
+        this.aborted = true;
+    }
+    /**
+     * @return <code>true</code> when the decode should stop
+     */
+    public boolean isAborted(){
+        return (this.aborted || Thread.currentThread().isInterrupted());
+    }
+    /**
+     * @param progress receives the progress of a decode, or null
+     */
+    public void setProgress(Tool.Progress progress){
+        this.progress = progress;
+    }
+    /**
+     * Reports the progress of a decode to the progress set, if any.
+     */
+    protected void progress(int percentage){
+        if (null != this.progress)
+            this.progress.progress(percentage);
+    }
+    /**
+     * Writes a debug line to the error stream when the system property
+     * <code>decoder.debug</code> is true, so that the output of a batch
+     * run is left to its results.
+     */
+    protected void debug(String message){
+        if (DEBUG)
+            System.err.println(message);
+    }
+
+
+    /**
+     * @return integer property, or the default value when missing or malformed
+     */
+    protected final static int Property(Properties properties, String name, int value){
+        String string = properties.getProperty(name);
+        if (null != string){
+            try {
+                return Integer.parseInt(string.trim());
+            }
+            catch (NumberFormatException exc){
+            }
+        }
+        return value;
+    }
+    /**
+     * @return string property, or the default value when missing
+     */
+    protected final static String Property(Properties properties, String name, String value){
+        String string = properties.getProperty(name);
+        if (null != string)
+            return string;
+        else
+            return value;
+    }
+    /**
+     * @return boolean property, or the default value when missing
+     */
+    protected final static boolean Property(Properties properties, String name, boolean value){
+        String string = properties.getProperty(name);
+        if (null != string)
+            return Boolean.parseBoolean(string.trim());
+        else
+            return value;
+    }
+    /**
+     * @return string as a JSON string literal
+     */
+    protected final static String Quote(String string){
+        StringBuilder quoted = new StringBuilder(string.length() + 2);
+        quoted.append('"');
+        for (int i = 0; i < string.length(); i++){
+            char c = string.charAt(i);
+            switch (c){
+            case '"':
+                quoted.append("\\\"");
+                break;
+            case '\\':
+                quoted.append("\\\\");
+                break;
+            default:
+                if (c < 0x20)
+                    quoted.append(String.format("\\u%04x", (int)c));
+                else
+                    quoted.append(c);
+                break;
+            }
+        }
+        quoted.append('"');
+        return quoted.toString();
+    }
+}
@@ -18,7 +18,6 @@
  */
 package org.sump.analyzer.tools;
 
-import java.awt.BorderLayout;
 import java.awt.Frame;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
@@ -29,10 +28,13 @@ import java.awt.event.ActionListener;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.util.Date;
 import java.util.Locale;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
@@ -43,8 +45,8 @@ import javax.swing.JEditorPane;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
-import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileFilter;
 
 import org.sump.analyzer.CapturedData;
@@ -85,7 +87,7 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 	 * An I2C dataset consists of a timestamp, a value, or it can have
 	 * an I2C event. This class is used to store the decoded I2C data in a Vector.
 	 */
-	private class I2CProtocolAnalysisDataSet {
+	private static class I2CProtocolAnalysisDataSet {
 		public I2CProtocolAnalysisDataSet (long tm, int val) {
 			this.time = tm;
 			this.value = val;
@@ -115,15 +117,12 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 	 * consists of three main parts. A settings panel, a table panel
 	 * and three buttons.
 	 */
-	private class I2CProtocolAnalysisDialog extends JDialog implements ActionListener, Runnable {
+	private class I2CProtocolAnalysisDialog extends JDialog implements ActionListener {
 		public I2CProtocolAnalysisDialog(Frame frame, String name) {
 			super(frame, name, true);
 			setLayout(new GridBagLayout());
 			getRootPane().setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
 
-			decodedData = new Vector<I2CProtocolAnalysisDataSet>();
-			startOfDecode = 0;
-			
 			/*
 			 * add protocol settings elements
 			 */
@@ -184,22 +183,6 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 			panTable.add(new JScrollPane(outText));
 			add(panTable, createConstraints(1, 0, 3, 3, 1.0, 1.0));
 			
-			/*
-			 * add progress bar
-			 */
-			JPanel panProgress = new JPanel();
-			panProgress.setLayout(new BorderLayout());
-			panProgress.setBorder(BorderFactory.createCompoundBorder(
-				BorderFactory.createTitledBorder("Progress"),
-				BorderFactory.createEmptyBorder(5, 5, 5, 5)
-			));
-			progress = new JProgressBar(0, 100);
-			progress.setMinimum(0);
-			progress.setValue(0);
-			progress.setMaximum(100);
-			panProgress.add(progress, BorderLayout.CENTER);
-			add(panProgress, createConstraints(0, 3, 4, 1, 1.0, 0));
-
 			/*
 			 * add buttons
 			 */
@@ -223,40 +206,40 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 			//pack();
 			setSize(900, 500);
 			setResizable(false);
-			runFlag = false;
-			thrWorker = null;
+			decoder = null;
 		}
 
 		/**
-		 * shows the dialog and sets the data to use
-		 * @param data data to use for analysis
+		 * shows the dialog until the user starts an analysis or closes it
+		 * @return <code>true</code> when an analysis has been started
 		 */
-		public void showDialog(CapturedData data) {
-			analysisData = data;
+		public boolean showDialog() {
+			analyze = false;
 			setLocationRelativeTo(null);
 			setVisible(true);
+			return (analyze);
 		}
 
 		/**
-		 * set the controls of the dialog enabled/disabled
-		 * @param enable status of the controls
+		 * shows the results of an analysis
+		 * @param decoder decoder that has decoded the data
 		 */
-		private void setControlsEnabled(boolean enable) {
-			lineA.setEnabled(enable);
-			lineB.setEnabled(enable);
-			detectSTART.setEnabled(enable);
-			detectSTOP.setEnabled(enable);
-			detectACK.setEnabled(enable);
-			detectNACK.setEnabled(enable);
-			btnExport.setEnabled(enable);
-			btnCancel.setEnabled(enable);
+		public void showResults(I2CDecoder decoder) {
+			this.decoder = decoder;
+			if(decoder.getSCL() >= 0) {
+				busSetSCL.setText((String)lineA.getItemAt(decoder.getSCL()));
+				busSetSDA.setText((String)lineA.getItemAt(decoder.getSDA()));
+			}
+			outText.setText(toHtmlPage(false));
+			outText.setEditable(false);
+			setLocationRelativeTo(null);
+			setVisible(true);
 		}
 
 		public void actionPerformed(ActionEvent e) {
 			if (e.getActionCommand().equals("Analyze")) {
-				runFlag = true;
-				thrWorker = new Thread(this);
-				thrWorker.start();
+				analyze = true;
+				setVisible(false);
 			} else if (e.getActionCommand().equals("Close")) {
 				setVisible(false);
 			} else if (e.getActionCommand().equals("Export")) {
@@ -268,234 +251,7 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 						storeToCsvFile(file);
 					}
 				}
-			} else if (e.getActionCommand().equals("Abort")) {
-				runFlag = false;
-			}
-		}
-		
-		/**
-		 * calculate the time offset
-		 * @param time absolute sample number
-		 * @return time relative to data
-		 */
-		private long calculateTime(long time) {
-			if(analysisData.hasTriggerData()) {
-				return time - analysisData.triggerPosition;
-			} else {
-				return time;
-			}
-		}
-
-		/**
-		 * This is the I2C protocol decoder core
-		 *
-		 * The decoder scans for a decode start event when one of the two
-		 * lines is going low (start condition). After this the
-		 * decoder starts to decode the data.
-		 */
-		private void decode() {
-			// process the captured data and write to output
-			int a,b,c,d;
-			int sdaValue;
-			int sdaMask, sclMask;
-						
-			// clear old data
-			decodedData.clear();
-			sdaMask = 0;
-			sclMask = 0;
-			statBusErrorCount = 0;
-			statDecodedBytes = 0;
-			
-			/*
-			 * Build bitmasks based on the lineA, lineB pins
-			 * pins.
-			 */
-			int lineAmask = (1 << lineA.getSelectedIndex());
-			int lineBmask = (1 << lineB.getSelectedIndex());
-			
-			System.out.println("lineAmask = 0x" + Integer.toHexString(lineAmask));
-			System.out.println("lineBmask = 0x" + Integer.toHexString(lineBmask));
-			
-			progress.setValue(0);			
-			
-			/*
-			 * first of all scan both lines until they are high (IDLE), then
-			 * the first line that goes low is the SDA line (START condition).
-			 */
-			for(a = 0; a < analysisData.values.length; a++)
-			{
-				if((analysisData.values[a] & (lineAmask | lineBmask)) == (lineAmask | lineBmask))
-				{
-					// IDLE found here
-					break;
-				}
-				
-				if(runFlag == false) return;
-				progress.setValue((int)(a * 100 / analysisData.values.length));
-			}
-			if(a == analysisData.values.length)
-			{
-				// no idle state could be found
-				return;
-			}
-			// a is now the start of idle, now find the first start condition
-			for(; a < analysisData.values.length; a++)
-			{
-				if(((analysisData.values[a] & (lineAmask | lineBmask)) != (lineAmask | lineBmask)) &&
-						((analysisData.values[a] & (lineAmask | lineBmask)) != 0))
-				{
-					// one line is low
-					if((analysisData.values[a] & lineAmask) == 0)
-					{
-						// lineA is low and lineB is high here: lineA = SDA, lineB = SCL
-						sdaMask = lineAmask;
-						sclMask = lineBmask;
-						
-						busSetSCL.setText((String)lineB.getSelectedItem());
-						busSetSDA.setText((String)lineA.getSelectedItem());
-					}
-					else
-					{
-						// lineB is low and lineA is high here: lineA = SCL, lineB = SDA
-						sdaMask = lineBmask;
-						sclMask = lineAmask;
-
-						busSetSCL.setText((String)lineA.getSelectedItem());
-						busSetSDA.setText((String)lineB.getSelectedItem());
-					}
-					break;
-				}
-				
-				if(runFlag == false) return;
-				progress.setValue((int)(a * 100 / analysisData.values.length));
-			}
-			if(a == analysisData.values.length)
-			{
-				// no start condition could be found
-				return;
-			}
-			
-			/*
-			 * now it is clear what is SCL (sclMask) and what is SDA (sdaMask).
-			 * Variable a points to the start condition. 
-			 */
-			if(detectSTART.isSelected()) {
-				decodedData.addElement(new I2CProtocolAnalysisDataSet(a, "START"));
-			}
-			startOfDecode = a;
-			endOfDecode = analysisData.values.length;
-			if(analysisData.cursorEnabled) {
-				startOfDecode = analysisData.getSampleIndex(analysisData.getCursorPositionA());
-				endOfDecode = analysisData.getSampleIndex(analysisData.getCursorPositionB());
-			}
-			
-			/*
-			 * Now decode the bytes, SDA may only change when SCL is low. Otherwise
-			 * it may be a repeated start condition or stop condition. If the start/stop
-			 * condition is not at a byte boundary a bus error is detected. So we have to
-			 * scan for SCL rises and for SDA changes during SCL is high.
-			 * Each byte is followed by a 9th bit (ACK/NACK).
-			 */
-			b = analysisData.values[a] & sclMask;
-			c = analysisData.values[a] & sdaMask;
-			d = 8;
-			sdaValue = 0;
-			a = startOfDecode;
-			while(a < endOfDecode-1)
-			{
-				a++;
-				
-				// detect SCL rise
-				if((analysisData.values[a] & sclMask) > b)
-				{
-					// SCL rises
-					if((analysisData.values[a] & sdaMask) != c)
-					{
-						// SDA changes too, bus error
-						decodedData.addElement(new I2CProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[a]), "BUS-ERROR"));
-						statBusErrorCount++;
-					}
-					else
-					{
-						// read SDA
-						if(d == 0)
-						{
-							// read the ACK/NACK state
-							if((analysisData.values[a] & sdaMask) != 0)
-							{
-								// NACK
-								if(detectNACK.isSelected()) {
-									decodedData.addElement(new I2CProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[a]), "NACK"));
-								}
-							}
-							else
-							{
-								// ACK
-								if(detectACK.isSelected()) {
-									decodedData.addElement(new I2CProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[a]), "ACK"));
-								}
-							}
-							// next byte
-							d = 8;
-						}
-						else
-						{
-							d--;
-							if((analysisData.values[a] & sdaMask) != 0)
-							{
-								sdaValue |= (1 << d);
-							}
-							if(d == 0)
-							{
-								// store decoded byte
-								decodedData.addElement(new I2CProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[a]),sdaValue));
-								sdaValue = 0;
-								statDecodedBytes++;
-							}
-						}
-					}
-				}
-				
-				// detect SDA change when SCL high
-				if(((analysisData.values[a] & sclMask) == sclMask) && ((analysisData.values[a] & sdaMask) != c))
-				{
-					// SDA changes here
-					if(d < 7)
-					{
-						// bus error, no complete byte detected
-						decodedData.addElement(new I2CProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[a]), "BUS-ERROR"));
-						statBusErrorCount++;
-					}
-					else
-					{
-						if((analysisData.values[a] & sdaMask) > c)
-						{
-							// SDA rises, this is a stop condition
-							if(detectSTOP.isSelected()) {
-								decodedData.addElement(new I2CProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[a]), "STOP"));
-							}
-						}
-						else
-						{
-							// SDA falls, this is a start condition
-							if(detectSTART.isSelected()) {
-								decodedData.addElement(new I2CProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[a]), "START"));
-							}
-						}
-						// new byte
-						d = 8;
-					}
-				}
-				
-				b = analysisData.values[a] & sclMask;
-				c = analysisData.values[a] & sdaMask;
-				
-				if(runFlag == false) return;
-				progress.setValue((int)(analysisData.timestamps[a] * 100 / (endOfDecode - startOfDecode)));
 			}
-
-			outText.setText(toHtmlPage(false));
-			outText.setEditable(false);
 		}
 		
 		/**
@@ -535,8 +291,8 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 					"<TR><TD style=\"width:30%;\">Detected Bus Errors</TD><TD>-</TD></TR>");
 			} else {
 				stats = stats.concat(
-					"<TR><TD style=\"width:30%;\">Decoded Bytes</TD><TD>" + statDecodedBytes + "</TD></TR>" +
-					"<TR><TD style=\"width:30%;\">Detected Bus Errors</TD><TD>" + statBusErrorCount + "</TD></TR>");
+					"<TR><TD style=\"width:30%;\">Decoded Bytes</TD><TD>" + decoder.statDecodedBytes + "</TD></TR>" +
+					"<TR><TD style=\"width:30%;\">Detected Bus Errors</TD><TD>" + decoder.statBusErrorCount + "</TD></TR>");
 			}
 			stats = stats.concat(
 				"</table>" +
@@ -550,8 +306,8 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 			if(empty) {
 			} else {
 					I2CProtocolAnalysisDataSet ds;
-					for (int i = 0; i < decodedData.size(); i++) {
-						ds = decodedData.get(i);
+					for (int i = 0; i < decoder.decodedData.size(); i++) {
+						ds = decoder.decodedData.get(i);
 						if(ds.isEvent()) {
 							// this is an event
 							if(ds.event.equals("START")) {
@@ -560,7 +316,7 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 									"<tr style=\"background-color:#E0E0E0;\"><td>" +
 									i +
 									"</td><td>" +
-									indexToTime(ds.time) +
+									decoder.indexToTime(ds.time) +
 									"</td><td>START</td><td></td><td></td><td></td></tr>");
 							} else if(ds.event.equals("STOP")) {
 								// stop condition
@@ -568,7 +324,7 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 									"<tr style=\"background-color:#E0E0E0;\"><td>" +
 									i +
 									"</td><td>" +
-									indexToTime(ds.time) +
+									decoder.indexToTime(ds.time) +
 									"</td><td>STOP</td><td></td><td></td><td></td></tr>");
 							} else if(ds.event.equals("ACK")) {
 								// acknowledge
@@ -576,7 +332,7 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 									"<tr style=\"background-color:#C0FFC0;\"><td>" +
 									i +
 									"</td><td>" +
-									indexToTime(ds.time) +
+									decoder.indexToTime(ds.time) +
 									"</td><td>ACK</td><td></td><td></td><td></td></tr>");
 							} else if(ds.event.equals("NACK")) {
 								// no acknowledge
@@ -584,7 +340,7 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 									"<tr style=\"background-color:#FFC0C0;\"><td>" +
 									i +
 									"</td><td>" +
-									indexToTime(ds.time) +
+									decoder.indexToTime(ds.time) +
 									"</td><td>NACK</td><td></td><td></td><td></td></tr>");
 							} else if(ds.event.equals("BUS-ERROR")) {
 								// bus error
@@ -592,7 +348,7 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 									"<tr style=\"background-color:#FF8000;\"><td>" +
 									i +
 									"</td><td>" +
-									indexToTime(ds.time) +
+									decoder.indexToTime(ds.time) +
 									"</td><td>BUS-ERROR</td><td></td><td></td><td></td></tr>");
 							} else {
 								// unknown event
@@ -600,7 +356,7 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 									"<tr style=\"background-color:#FF8000;\"><td>" +
 									i +
 									"</td><td>" +
-									indexToTime(ds.time) +
+									decoder.indexToTime(ds.time) +
 									"</td><td>UNKNOWN</td><td></td><td></td><td></td></tr>");
 							}
 						} else {
@@ -608,7 +364,7 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 								"<tr style=\"background-color:#FFFFFF;\"><td>" +
 								i +
 								"</td><td>" +
-								indexToTime(ds.time) +
+								decoder.indexToTime(ds.time) +
 								"</td><td>" +
 								"0x" + integerToHexString(ds.value, 2) +
 								"</td><td>" +
@@ -637,42 +393,11 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 		 * @param file File object
 		 */
 		private void storeToCsvFile(File file) {
-			if(decodedData.size() > 0) {
-				I2CProtocolAnalysisDataSet dSet;
+			if(decoder != null && !decoder.isEmpty()) {
 				System.out.println("writing decoded data to " + file.getPath());
 				try {
 					BufferedWriter bw = new BufferedWriter(new FileWriter(file));
-
-					bw.write("\"" + 
-							"index" + 
-							"\",\"" +
-							"time" +
-							"\",\"" +
-							"data or event" +
-							"\"");
-					bw.newLine();
-
-					for(int i = 0; i < decodedData.size(); i++) {
-						dSet = decodedData.get(i);
-						if(dSet.isEvent()) {
-							bw.write("\"" + 
-									i + 
-									"\",\"" +
-									indexToTime(dSet.time) +
-									"\",\"" +
-									dSet.event +
-									"\"");
-						} else {
-							bw.write("\"" + 
-									i + 
-									"\",\"" +
-									indexToTime(dSet.time) +
-									"\",\"" +
-									dSet.value +
-									"\"");
-						}
-						bw.newLine();
-					}
+					decoder.writeCSV(bw);
 					bw.close();
 				} catch (Exception E) {
 					E.printStackTrace(System.out);
@@ -685,7 +410,7 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 		 * @param file file object
 		 */
 		private void storeToHtmlFile(File file) {
-			if(decodedData.size() > 0) {
+			if(decoder != null && !decoder.isEmpty()) {
 				System.out.println("writing decoded data to " + file.getPath());
 				try {
 					BufferedWriter bw = new BufferedWriter(new FileWriter(file));
@@ -700,33 +425,22 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 			}
 		}
 		
-		/**
-		 * Convert sample count to time string.
-		 * @param count sample count (or index)
-		 * @return string containing time information
-		 */
-		private String indexToTime(long count) {
-			count -= startOfDecode;
-			if(count < 0) count = 0;
-			if(analysisData.hasTimingData()) {
-				float time = (float)(count * (1.0 / analysisData.rate));
-				if(time < 1.0e-6) 			{return(Math.rint(time*1.0e9*100)/100 + "ns");}
-				else if(time < 1.0e-3) 		{return(Math.rint(time*1.0e6*100)/100 + "µs");}
-				else if(time < 1.0) 		{return(Math.rint(time*1.0e3*100)/100 + "ms");}
-				else 						{return(Math.rint(time*100)/100 + "s");}
-			} else {
-				return("" + count);
-			}
-		}
-
 		public void readProperties(Properties properties) {
 			selectByIndex(lineA, properties.getProperty("tools.I2CProtocolAnalysis.lineA"));
 			selectByIndex(lineB, properties.getProperty("tools.I2CProtocolAnalysis.lineB"));
+			selectByValue(detectSTART, properties.getProperty("tools.I2CProtocolAnalysis.start"));
+			selectByValue(detectSTOP, properties.getProperty("tools.I2CProtocolAnalysis.stop"));
+			selectByValue(detectACK, properties.getProperty("tools.I2CProtocolAnalysis.ack"));
+			selectByValue(detectNACK, properties.getProperty("tools.I2CProtocolAnalysis.nack"));
 		}
 
 		public void writeProperties(Properties properties) {
 			properties.setProperty("tools.I2CProtocolAnalysis.lineA", Integer.toString(lineA.getSelectedIndex()));
 			properties.setProperty("tools.I2CProtocolAnalysis.lineB", Integer.toString(lineB.getSelectedIndex()));
+			properties.setProperty("tools.I2CProtocolAnalysis.start", Boolean.toString(detectSTART.isSelected()));
+			properties.setProperty("tools.I2CProtocolAnalysis.stop", Boolean.toString(detectSTOP.isSelected()));
+			properties.setProperty("tools.I2CProtocolAnalysis.ack", Boolean.toString(detectACK.isSelected()));
+			properties.setProperty("tools.I2CProtocolAnalysis.nack", Boolean.toString(detectNACK.isSelected()));
 		}
 		
 		/**
@@ -771,42 +485,23 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 			return(new String(ldz + str));
 		}
 
-		/**
-		 * runs the conversion when started
-		 */
-		public void run() {
-			setControlsEnabled(false);
-			btnConvert.setText("Abort");
-			decode();
-			setControlsEnabled(true);
-			btnConvert.setText("Analyze");
-		}
-
 		private JComboBox lineA;
 		private JComboBox lineB;
-		private CapturedData analysisData;
 		private JEditorPane outText;
-		private Vector<I2CProtocolAnalysisDataSet> decodedData;
 		private JFileChooser fileChooser;
-		private int startOfDecode;
-		private int endOfDecode;
 		private JLabel busSetSCL;
 		private JLabel busSetSDA;
 		private JCheckBox detectSTART;
 		private JCheckBox detectSTOP;
 		private JCheckBox detectACK;
 		private JCheckBox detectNACK;
-		private int statDecodedBytes;
-		private int statBusErrorCount;
 		
 		private JButton btnConvert;
 		private JButton btnExport;
 		private JButton btnCancel;
 		
-		private JProgressBar progress;
-		private boolean runFlag;
-		
-		private Thread thrWorker;
+		private I2CDecoder decoder;
+		private boolean analyze;
 		
 		private static final long serialVersionUID = 1L;
 	}
@@ -837,12 +532,352 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 		}
 	}
 
-	public I2CProtocolAnalysis () {
-	}
-	
-	public void init(Frame frame) {
-		spad = new I2CProtocolAnalysisDialog(frame, getName());
-	}
+	/**
+	 * The I2C decoder, configured from the properties of the dialog
+	 */
+	public static class I2CDecoder extends Decoder {
+		private static final String NEWLINE = System.getProperty("line.separator");
+
+		public I2CDecoder(Properties properties) {
+			lineA = Property(properties, "tools.I2CProtocolAnalysis.lineA", 0);
+			lineB = Property(properties, "tools.I2CProtocolAnalysis.lineB", 0);
+			lineAmask = (1 << lineA);
+			lineBmask = (1 << lineB);
+			showSTART = Property(properties, "tools.I2CProtocolAnalysis.start", true);
+			showSTOP = Property(properties, "tools.I2CProtocolAnalysis.stop", true);
+			showACK = Property(properties, "tools.I2CProtocolAnalysis.ack", true);
+			showNACK = Property(properties, "tools.I2CProtocolAnalysis.nack", true);
+			decodedData = new Vector<I2CProtocolAnalysisDataSet>();
+			startOfDecode = 0;
+			sclChannel = -1;
+			sdaChannel = -1;
+		}
+
+		/**
+		 * @return channel detected as SCL, or -1 before a start condition is found
+		 */
+		public int getSCL() {
+			return sclChannel;
+		}
+
+		/**
+		 * @return channel detected as SDA, or -1 before a start condition is found
+		 */
+		public int getSDA() {
+			return sdaChannel;
+		}
+
+		/**
+		 * calculate the time offset
+		 * @param time absolute sample number
+		 * @return time relative to data
+		 */
+		private long calculateTime(long time) {
+			if(analysisData.hasTriggerData()) {
+				return time - analysisData.triggerPosition;
+			} else {
+				return time;
+			}
+		}
+
+		/**
+		 * This is the I2C protocol decoder core
+		 *
+		 * The decoder scans for a decode start event when one of the two
+		 * lines is going low (start condition). After this the
+		 * decoder starts to decode the data.
+		 */
+		public void decode(CapturedData data) {
+			// process the captured data and write to output
+			int a,b,c,d;
+			int sdaValue;
+			int sdaMask, sclMask;
+						
+			// clear old data
+			analysisData = data;
+			decodedData.clear();
+			sclChannel = -1;
+			sdaChannel = -1;
+			sdaMask = 0;
+			sclMask = 0;
+			statBusErrorCount = 0;
+			statDecodedBytes = 0;
+			
+			debug("lineAmask = 0x" + Integer.toHexString(lineAmask));
+			debug("lineBmask = 0x" + Integer.toHexString(lineBmask));
+			
+			progress(0);			
+			
+			/*
+			 * first of all scan both lines until they are high (IDLE), then
+			 * the first line that goes low is the SDA line (START condition).
+			 */
+			for(a = 0; a < analysisData.values.length; a++)
+			{
+				if((analysisData.values[a] & (lineAmask | lineBmask)) == (lineAmask | lineBmask))
+				{
+					// IDLE found here
+					break;
+				}
+				
+				if(isAborted()) return;
+				progress((int)(a * 100 / analysisData.values.length));
+			}
+			if(a == analysisData.values.length)
+			{
+				// no idle state could be found
+				return;
+			}
+			// a is now the start of idle, now find the first start condition
+			for(; a < analysisData.values.length; a++)
+			{
+				if(((analysisData.values[a] & (lineAmask | lineBmask)) != (lineAmask | lineBmask)) &&
+						((analysisData.values[a] & (lineAmask | lineBmask)) != 0))
+				{
+					// one line is low
+					if((analysisData.values[a] & lineAmask) == 0)
+					{
+						// lineA is low and lineB is high here: lineA = SDA, lineB = SCL
+						sdaMask = lineAmask;
+						sclMask = lineBmask;
+						
+						sclChannel = lineB;
+						sdaChannel = lineA;
+					}
+					else
+					{
+						// lineB is low and lineA is high here: lineA = SCL, lineB = SDA
+						sdaMask = lineBmask;
+						sclMask = lineAmask;
+
+						sclChannel = lineA;
+						sdaChannel = lineB;
+					}
+					break;
+				}
+				
+				if(isAborted()) return;
+				progress((int)(a * 100 / analysisData.values.length));
+			}
+			if(a == analysisData.values.length)
+			{
+				// no start condition could be found
+				return;
+			}
+			
+			/*
+			 * now it is clear what is SCL (sclMask) and what is SDA (sdaMask).
+			 * Variable a points to the start condition. 
+			 */
+			if(showSTART) {
+				decodedData.addElement(new I2CProtocolAnalysisDataSet(a, "START"));
+			}
+			startOfDecode = a;
+			endOfDecode = analysisData.values.length;
+			if(analysisData.cursorEnabled) {
+				startOfDecode = analysisData.getSampleIndex(analysisData.getCursorPositionA());
+				endOfDecode = analysisData.getSampleIndex(analysisData.getCursorPositionB());
+			}
+			
+			/*
+			 * Now decode the bytes, SDA may only change when SCL is low. Otherwise
+			 * it may be a repeated start condition or stop condition. If the start/stop
+			 * condition is not at a byte boundary a bus error is detected. So we have to
+			 * scan for SCL rises and for SDA changes during SCL is high.
+			 * Each byte is followed by a 9th bit (ACK/NACK).
+			 */
+			b = analysisData.values[a] & sclMask;
+			c = analysisData.values[a] & sdaMask;
+			d = 8;
+			sdaValue = 0;
+			a = startOfDecode;
+			while(a < endOfDecode-1)
+			{
+				a++;
+				
+				// detect SCL rise
+				if((analysisData.values[a] & sclMask) > b)
+				{
+					// SCL rises
+					if((analysisData.values[a] & sdaMask) != c)
+					{
+						// SDA changes too, bus error
+						decodedData.addElement(new I2CProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[a]), "BUS-ERROR"));
+						statBusErrorCount++;
+					}
+					else
+					{
+						// read SDA
+						if(d == 0)
+						{
+							// read the ACK/NACK state
+							if((analysisData.values[a] & sdaMask) != 0)
+							{
+								// NACK
+								if(showNACK) {
+									decodedData.addElement(new I2CProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[a]), "NACK"));
+								}
+							}
+							else
+							{
+								// ACK
+								if(showACK) {
+									decodedData.addElement(new I2CProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[a]), "ACK"));
+								}
+							}
+							// next byte
+							d = 8;
+						}
+						else
+						{
+							d--;
+							if((analysisData.values[a] & sdaMask) != 0)
+							{
+								sdaValue |= (1 << d);
+							}
+							if(d == 0)
+							{
+								// store decoded byte
+								decodedData.addElement(new I2CProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[a]),sdaValue));
+								sdaValue = 0;
+								statDecodedBytes++;
+							}
+						}
+					}
+				}
+				
+				// detect SDA change when SCL high
+				if(((analysisData.values[a] & sclMask) == sclMask) && ((analysisData.values[a] & sdaMask) != c))
+				{
+					// SDA changes here
+					if(d < 7)
+					{
+						// bus error, no complete byte detected
+						decodedData.addElement(new I2CProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[a]), "BUS-ERROR"));
+						statBusErrorCount++;
+					}
+					else
+					{
+						if((analysisData.values[a] & sdaMask) > c)
+						{
+							// SDA rises, this is a stop condition
+							if(showSTOP) {
+								decodedData.addElement(new I2CProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[a]), "STOP"));
+							}
+						}
+						else
+						{
+							// SDA falls, this is a start condition
+							if(showSTART) {
+								decodedData.addElement(new I2CProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[a]), "START"));
+							}
+						}
+						// new byte
+						d = 8;
+					}
+				}
+				
+				b = analysisData.values[a] & sclMask;
+				c = analysisData.values[a] & sdaMask;
+				
+				if(isAborted()) return;
+				progress((int)(analysisData.timestamps[a] * 100 / (endOfDecode - startOfDecode)));
+			}
+		}
+		
+		public void writeCSV(Writer out) throws IOException {
+			I2CProtocolAnalysisDataSet dSet;
+			out.write("\"" + 
+					"index" + 
+					"\",\"" +
+					"time" +
+					"\",\"" +
+					"data or event" +
+					"\"");
+			out.write(NEWLINE);
+
+			for(int i = 0; i < decodedData.size(); i++) {
+				dSet = decodedData.get(i);
+				if(dSet.isEvent()) {
+					out.write("\"" + 
+							i + 
+							"\",\"" +
+							indexToTime(dSet.time) +
+							"\",\"" +
+							dSet.event +
+							"\"");
+				} else {
+					out.write("\"" + 
+							i + 
+							"\",\"" +
+							indexToTime(dSet.time) +
+							"\",\"" +
+							dSet.value +
+							"\"");
+				}
+				out.write(NEWLINE);
+			}
+		}
+
+		public void writeJSON(Writer out) throws IOException {
+			out.write("[");
+			for(int i = 0; i < decodedData.size(); i++) {
+				I2CProtocolAnalysisDataSet dSet = decodedData.get(i);
+				out.write((i == 0 ? "" : ",") + NEWLINE + "{\"index\":" + i + ",\"sample\":" + dSet.time +
+					",\"time\":" + Quote(indexToTime(dSet.time)));
+				if(dSet.isEvent())
+					out.write(",\"event\":" + Quote(dSet.event) + "}");
+				else
+					out.write(",\"data\":" + dSet.value + "}");
+			}
+			out.write(NEWLINE + "]" + NEWLINE);
+		}
+
+		public boolean isEmpty() {
+			return decodedData.isEmpty();
+		}
+
+		/**
+		 * Convert sample count to time string.
+		 * @param count sample count (or index)
+		 * @return string containing time information
+		 */
+		private String indexToTime(long count) {
+			count -= startOfDecode;
+			if(count < 0) count = 0;
+			if(analysisData.hasTimingData()) {
+				float time = (float)(count * (1.0 / analysisData.rate));
+				if(time < 1.0e-6) 			{return(Math.rint(time*1.0e9*100)/100 + "ns");}
+				else if(time < 1.0e-3) 		{return(Math.rint(time*1.0e6*100)/100 + "µs");}
+				else if(time < 1.0) 		{return(Math.rint(time*1.0e3*100)/100 + "ms");}
+				else 						{return(Math.rint(time*100)/100 + "s");}
+			} else {
+				return("" + count);
+			}
+		}
+
+		private final int lineA;
+		private final int lineB;
+		private final int lineAmask;
+		private final int lineBmask;
+		private final boolean showSTART;
+		private final boolean showSTOP;
+		private final boolean showACK;
+		private final boolean showNACK;
+
+		private CapturedData analysisData;
+		private Vector<I2CProtocolAnalysisDataSet> decodedData;
+		private int startOfDecode;
+		private int endOfDecode;
+		private int sclChannel;
+		private int sdaChannel;
+		private int statDecodedBytes;
+		private int statBusErrorCount;
+	}
+
+	public I2CProtocolAnalysis () {
+	}
+	
 	
 	/**
 	 * Returns the tools visible name.
@@ -853,21 +888,69 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 	}
 
 	/**
-	 * Convert captured data from timing data to state data using the given channel as clock.
+	 * Shows the dialog, and runs the analysis in place when the user starts it.
 	 * @param data - captured data to work on
 	 * @return always <code>null</code>
 	 */
 	public CapturedData process(CapturedData data) {
-		spad.showDialog(data);
+		Callable<CapturedData> task = prepare(data, null);
+		if (task != null) {
+			try {
+				task.call();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
 		return(null);
 	}
-	
+
+	/**
+	 * Shows the dialog for the settings, and returns the analysis to be run in the background.
+	 * The results are shown in the dialog when the analysis completes.
+	 * @param data - captured data to work on
+	 * @param progress - receives the percentage decoded
+	 */
+	public Callable<CapturedData> prepare(final CapturedData data, Progress progress) {
+		// if no data exists or init has not been called, return null
+		if (data == null || getFrame() == null)
+			return (null);
+
+		// if the dialog has been closed without an analysis, return null
+		final I2CProtocolAnalysisDialog dialog = getDialog();
+		if (!dialog.showDialog())
+			return (null);
+
+		Properties properties = new Properties();
+		dialog.writeProperties(properties);
+		final I2CDecoder decoder = new I2CDecoder(properties);
+		decoder.setProgress(progress);
+
+		return new Callable<CapturedData>() {
+			public CapturedData call() throws InterruptedException {
+				decoder.decode(data);
+				if (Thread.interrupted())
+					throw new InterruptedException();
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						dialog.showResults(decoder);
+					}
+				});
+				return (null);
+			}
+		};
+	}
+
 	/**
 	 * Reads dialog settings from given properties.
 	 * @param properties Properties containing dialog settings
 	 */
 	public void readProperties(Properties properties) {
-		spad.readProperties(properties);
+		if (spad == null)
+			keepProperties(properties);
+		else
+			spad.readProperties(properties);
 	}
 
 	/**
@@ -875,7 +958,22 @@ public class I2CProtocolAnalysis extends Base implements Tool, Configurable {
 	 * @param properties Properties where the settings are written to
 	 */
 	public void writeProperties(Properties properties) {
-		spad.writeProperties(properties);
+		if (spad == null)
+			writeKeptProperties(properties);
+		else
+			spad.writeProperties(properties);
+	}
+
+	/**
+	 * Creates the dialog when first used, with the settings read before.
+	 * @return the dialog
+	 */
+	private I2CProtocolAnalysisDialog getDialog() {
+		if (spad == null) {
+			spad = new I2CProtocolAnalysisDialog(getFrame(), getName());
+			spad.readProperties(getKeptProperties());
+		}
+		return (spad);
 	}
 
 	
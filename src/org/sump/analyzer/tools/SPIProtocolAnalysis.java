@@ -18,7 +18,6 @@
  */
 package org.sump.analyzer.tools;
   
-import java.awt.BorderLayout;
 import java.awt.Container;
 import java.awt.Frame;
 import java.awt.GridBagConstraints;
@@ -30,10 +29,13 @@ import java.awt.event.ActionListener;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.util.Date;
 import java.util.Locale;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
@@ -43,8 +45,8 @@ import javax.swing.JEditorPane;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
-import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileFilter;
 
 import org.sump.analyzer.CapturedData;
@@ -76,7 +78,7 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 	 * A SPI dataset consists of a timestamp, MISO and MOSI values, or it can have
 	 * an SPI event. This class is used to store the decoded SPI data in a Vector.
 	 */
-	private class SPIProtocolAnalysisDataSet {
+	private static class SPIProtocolAnalysisDataSet {
 		public SPIProtocolAnalysisDataSet (long tm, int mo, int mi) {
 			this.time = tm;
 			this.miso = mi;
@@ -108,16 +110,13 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 	 * consists of three main parts. A settings panel, a table panel
 	 * and three buttons.
 	 */
-	private class SPIProtocolAnalysisDialog extends JDialog implements ActionListener, Runnable {
+	private class SPIProtocolAnalysisDialog extends JDialog implements ActionListener {
 		public SPIProtocolAnalysisDialog(Frame frame, String name) {
 			super(frame, name, true);
 			Container pane = getContentPane();
 			pane.setLayout(new GridBagLayout());
 			getRootPane().setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
 
-			decodedData = new Vector<SPIProtocolAnalysisDataSet>();
-			startOfDecode = 0;
-			
 			/*
 			 * add protocol settings elements
 			 */
@@ -183,22 +182,6 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 			panTable.add(new JScrollPane(outText));
 			add(panTable, createConstraints(1, 0, 3, 3, 1.0, 1.0));
 			
-			/*
-			 * add progress bar
-			 */
-			JPanel panProgress = new JPanel();
-			panProgress.setLayout(new BorderLayout());
-			panProgress.setBorder(BorderFactory.createCompoundBorder(
-				BorderFactory.createTitledBorder("Progress"),
-				BorderFactory.createEmptyBorder(5, 5, 5, 5)
-			));
-			progress = new JProgressBar(0, 100);
-			progress.setMinimum(0);
-			progress.setValue(0);
-			progress.setMaximum(100);
-			panProgress.add(progress, BorderLayout.CENTER);
-			add(panProgress, createConstraints(0, 3, 4, 1, 1.0, 0));
-
 			/*
 			 * add buttons
 			 */
@@ -218,41 +201,36 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 
 			setSize(1000, 500);
 			setResizable(false);
-			thrWorker = null;
-			runFlag = false;
+			decoder = null;
 		}
 
 		/**
-		 * shows the dialog and sets the data to use
-		 * @param data data to use for analysis
+		 * shows the dialog until the user starts an analysis or closes it
+		 * @return <code>true</code> when an analysis has been started
 		 */
-		public void showDialog(CapturedData data) {
-			analysisData = data;
+		public boolean showDialog() {
+			analyze = false;
 			setLocationRelativeTo(null);
 			setVisible(true);
+			return (analyze);
 		}
-		
+
 		/**
-		 * set the controls of the dialog enabled/disabled
-		 * @param enable status of the controls
+		 * shows the results of an analysis
+		 * @param decoder decoder that has decoded the data
 		 */
-		private void setControlsEnabled(boolean enable) {
-			sck.setEnabled(enable);
-			miso.setEnabled(enable);
-			mosi.setEnabled(enable);
-			cs.setEnabled(enable);
-			mode.setEnabled(enable);
-			bits.setEnabled(enable);
-			order.setEnabled(enable);
-			btnExport.setEnabled(enable);
-			btnCancel.setEnabled(enable);
+		public void showResults(SPIDecoder decoder) {
+			this.decoder = decoder;
+			outText.setText(toHtmlPage(false));
+			outText.setEditable(false);
+			setLocationRelativeTo(null);
+			setVisible(true);
 		}
 
 		public void actionPerformed(ActionEvent e) {
 			if (e.getActionCommand().equals("Analyze")) {
-				runFlag = true;
-				thrWorker = new Thread(this);
-				thrWorker.start();
+				analyze = true;
+				setVisible(false);
 			} else if (e.getActionCommand().equals("Close")) {
 				setVisible(false);
 			} else if (e.getActionCommand().equals("Export")) {
@@ -264,254 +242,19 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 						storeToCsvFile(file);
 					}
 				}
-			} else if (e.getActionCommand().equals("Abort")) {
-				runFlag = false;
 			}
 		}
 
-		/**
-		 * calculate the time offset
-		 * @param time absolute sample number
-		 * @return time relative to data
-		 */
-		private long calculateTime(long time) {
-			if(analysisData.hasTriggerData()) {
-				return time - analysisData.triggerPosition;
-			} else {
-				return time;
-			}
-		}
-
-		/**
-		 * This is the SPI protocol decoder core
-		 *
-		 * The decoder scans for a decode start event like CS high to
-		 * low edge or the trigger of the captured data. After this the
-		 * decoder starts to decode the data by the selected mode, number
-		 * of bits and bit order. The decoded data are put to a JTable
-		 * object directly.
-		 */
-		private void decode() {
-			// process the captured data and write to output
-			int a,c;
-			int bitCount, mosivalue, misovalue, maxbits;
-			
-			// clear old data
-			decodedData.clear();
-			
-			/*
-			 * Buid bitmasks based on the SCK, MISO, MOSI and CS
-			 * pins.
-			 */
-			int csmask = (1 << cs.getSelectedIndex());
-			int sckmask = (1 << sck.getSelectedIndex());
-			int misomask = (1 << miso.getSelectedIndex());
-			int mosimask = (1 << mosi.getSelectedIndex());
-			
-			System.out.println("csmask   = 0x" + Integer.toHexString(csmask));
-			System.out.println("sckmask  = 0x" + Integer.toHexString(sckmask));
-			System.out.println("misomask = 0x" + Integer.toHexString(misomask));
-			System.out.println("mosimask = 0x" + Integer.toHexString(mosimask));
-			
-			startOfDecode = 0;
-			endOfDecode = analysisData.values.length;
-			if(analysisData.cursorEnabled) {
-				startOfDecode = analysisData.getSampleIndex(analysisData.getCursorPositionA());
-				endOfDecode = analysisData.getSampleIndex(analysisData.getCursorPositionB() + 1);
-			} else {
-				/*
-				 * For analyze scan the CS line for a falling edge. If
-				 * no edge could be found, the position of the trigger
-				 * is used for start of analysis. If no trigger and no
-				 * edge is found the analysis fails.
-				 */
-				a = analysisData.values[0] & csmask;
-				c = 0;
-				for (int i = startOfDecode; i < endOfDecode; i++) {
-					if (a > (analysisData.values[i] & csmask)) {
-						// cs to low found here
-						startOfDecode = i;
-						c = 1;
-						System.out.println("CS found at " + i);
-						break;
-					}
-					a = analysisData.values[i] & csmask;
-					
-					if(runFlag == false) return;
-					progress.setValue((int)(analysisData.timestamps[i] * 100 / (endOfDecode - startOfDecode)));
-				}
-				if (c == 0)
-				{
-					// no CS edge found, look for trigger
-					if (analysisData.hasTriggerData())
-						startOfDecode = analysisData.getSampleIndex(analysisData.triggerPosition);
-				}
-				// now the trigger is in b, add trigger event to table
-				decodedData.addElement(new SPIProtocolAnalysisDataSet(startOfDecode, "CSLOW"));
-			}
-			
-			/*
-			 * Use the mode parameter to determine which edges are
-			 * to detect. Mode 0 and mode 3 are sampling on the
-			 * rising clk edge, mode 2 and 4 are sampling on the
-			 * falling edge.
-			 * a is used for start of value, c is register for 
-			 * detect line changes.
-			 */
-			if ((mode.getSelectedItem().equals("0")) || (mode.getSelectedItem().equals("2"))) {
-				// scanning for rising clk edges
-				c = analysisData.values[startOfDecode] & sckmask;
-				a = analysisData.values[startOfDecode] & csmask;
-				bitCount = Integer.parseInt((String)bits.getSelectedItem()) - 1;
-				maxbits = bitCount;
-				misovalue = 0;
-				mosivalue = 0;
-				for (int i = startOfDecode; i < endOfDecode; i++) {
-					if(c < (analysisData.values[i] & sckmask)) {
-						// sample here
-						if (order.getSelectedItem().equals("MSB first")) {
-							if ((analysisData.values[i] & misomask) == misomask)
-								misovalue |= (1 << bitCount);
-							if ((analysisData.values[i] & mosimask) == mosimask)
-								mosivalue |= (1 << bitCount);
-						} else {
-							if ((analysisData.values[i] & misomask) == misomask)
-								misovalue |= (1 << (maxbits - bitCount));
-							if ((analysisData.values[i] & mosimask) == mosimask)
-								mosivalue |= (1 << (maxbits - bitCount));
-						}
-						
-						if (bitCount > 0) {
-							bitCount--;
-						} else {
-							decodedData.addElement(new SPIProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[i]),mosivalue,misovalue));
-
-							//System.out.println("MISO = 0x" + Integer.toHexString(misovalue));
-							//System.out.println("MOSI = 0x" + Integer.toHexString(mosivalue));
-							bitCount = Integer.parseInt((String)bits.getSelectedItem()) - 1;
-							misovalue = 0;
-							mosivalue = 0;
-
-						}
-					}
-					c = analysisData.values[i] & sckmask;
-
-					/* CS edge detection */
-					if(a > (analysisData.values[i] & csmask)) {
-						// falling edge
-						decodedData.addElement(new SPIProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[i]),"CSLOW"));
-					} else if (a < (analysisData.values[i] & csmask)) {
-						// rising edge
-						decodedData.addElement(new SPIProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[i]),"CSHIGH"));
-					}
-					a = analysisData.values[i] & csmask;
-					
-					if(runFlag == false) return;
-					progress.setValue((int)(analysisData.timestamps[i] * 100 / (endOfDecode - startOfDecode)));
-				}
-			} else {
-				// scanning for falling clk edges
-				c = analysisData.values[startOfDecode] & sckmask;
-				a = analysisData.values[startOfDecode] & csmask;
-				bitCount = Integer.parseInt((String)bits.getSelectedItem()) - 1;
-				maxbits = bitCount;
-				misovalue = 0;
-				mosivalue = 0;
-				for (int i = startOfDecode; i < endOfDecode; i++) {
-					if(c > (analysisData.values[i] & sckmask)) {
-						// sample here
-						if (order.getSelectedItem().equals("MSB first")) {
-							if ((analysisData.values[i] & misomask) == misomask)
-								misovalue |= (1 << bitCount);
-							if ((analysisData.values[i] & mosimask) == mosimask)
-								mosivalue |= (1 << bitCount);
-						} else {
-							if ((analysisData.values[i] & misomask) == misomask)
-								misovalue |= (1 << (maxbits - bitCount));
-							if ((analysisData.values[i] & mosimask) == mosimask)
-								mosivalue |= (1 << (maxbits - bitCount));
-						}
-
-						if (bitCount > 0) {
-							bitCount--;
-						} else {
-							decodedData.addElement(new SPIProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[i]),mosivalue,misovalue));
-
-							//System.out.println("MISO = 0x" + Integer.toHexString(misovalue));
-							//System.out.println("MOSI = 0x" + Integer.toHexString(mosivalue));
-							bitCount = Integer.parseInt((String)bits.getSelectedItem()) - 1;
-							misovalue = 0;
-							mosivalue = 0;
-						}
-					}
-					c = analysisData.values[i] & sckmask;
-
-					/* CS edge detection */
-					if(a > (analysisData.values[i] & csmask)) {
-						// falling edge
-						decodedData.addElement(new SPIProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[i]),"CSLOW"));
-					} else if (a < (analysisData.values[i] & csmask)) {
-						// rising edge
-						decodedData.addElement(new SPIProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[i]),"CSHIGH"));
-					}
-					a = analysisData.values[i] & csmask;
-					
-					if(runFlag == false) return;
-					progress.setValue((int)(analysisData.timestamps[i] * 100 / (endOfDecode - startOfDecode)));
-				}
-			}
-			
-			outText.setText(toHtmlPage(false));
-			outText.setEditable(false);
-		}
-		
 		/**
 		 * exports the table data to a CSV file
 		 * @param file File object
 		 */
 		private void storeToCsvFile(File file) {
-			if(decodedData.size() > 0) {
-				SPIProtocolAnalysisDataSet dSet;
+			if(decoder != null && !decoder.isEmpty()) {
 				System.out.println("writing decoded data to " + file.getPath());
 				try {
 					BufferedWriter bw = new BufferedWriter(new FileWriter(file));
-
-					bw.write("\"" + 
-							"index" + 
-							"\",\"" +
-							"time" +
-							"\",\"" +
-							"mosi data or event" +
-							"\",\"" +
-							"miso data or event" +
-							"\"");
-					bw.newLine();
-
-					for(int i = 0; i < decodedData.size(); i++) {
-						dSet = decodedData.get(i);
-						if(dSet.isEvent()) {
-							bw.write("\"" + 
-									i + 
-									"\",\"" +
-									indexToTime(dSet.time) +
-									"\",\"" +
-									dSet.event +
-									"\",\"" +
-									dSet.event +
-									"\"");
-						} else {
-							bw.write("\"" + 
-									i + 
-									"\",\"" +
-									indexToTime(dSet.time) +
-									"\",\"" +
-									dSet.mosi +
-									"\",\"" +
-									dSet.miso +
-									"\"");
-						}
-						bw.newLine();
-					}
+					decoder.writeCSV(bw);
 					bw.close();
 				} catch (Exception E) {
 					E.printStackTrace(System.out);
@@ -524,7 +267,7 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 		 * @param file file object
 		 */
 		private void storeToHtmlFile(File file) {
-			if(decodedData.size() > 0) {
+			if(decoder != null && !decoder.isEmpty()) {
 				System.out.println("writing decoded data to " + file.getPath());
 				try {
 					BufferedWriter bw = new BufferedWriter(new FileWriter(file));
@@ -539,25 +282,6 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 			}
 		}
 		
-		/**
-		 * Convert sample count to time string.
-		 * @param count sample count (or index)
-		 * @return string containing time information
-		 */
-		private String indexToTime(long count) {
-			count -= startOfDecode;
-			if(count < 0) count = 0;
-			if(analysisData.hasTimingData()) {
-				float time = (float)(count * (1.0 / analysisData.rate));
-				if(time < 1.0e-6) 			{return(Math.rint(time*1.0e9*100)/100 + "ns");}
-				else if(time < 1.0e-3) 		{return(Math.rint(time*1.0e6*100)/100 + "µs");}
-				else if(time < 1.0) 		{return(Math.rint(time*1.0e3*100)/100 + "ms");}
-				else 						{return(Math.rint(time*100)/100 + "s");}
-			} else {
-				return("" + count);
-			}
-		}
-
 		/**
 		 * generate a HTML page
 		 * @param empty if this is true an empty output is generated
@@ -599,8 +323,8 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 			if(empty) {
 			} else {
 					SPIProtocolAnalysisDataSet ds;
-					for (int i = 0; i < decodedData.size(); i++) {
-						ds = decodedData.get(i);
+					for (int i = 0; i < decoder.decodedData.size(); i++) {
+						ds = decoder.decodedData.get(i);
 						if(ds.isEvent()) {
 							// this is an event
 							if(ds.event.equals("CSLOW")) {
@@ -609,7 +333,7 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 									"<tr style=\"background-color:#E0E0E0;\"><td>" +
 									i +
 									"</td><td>" +
-									indexToTime(ds.time) +
+									decoder.indexToTime(ds.time) +
 									"</td><td>CSLOW</td><td></td><td></td><td></td><td>CSLOW</td><td></td><td></td><td></td></tr>");
 							} else if(ds.event.equals("CSHIGH")) {
 								// stop condition
@@ -617,7 +341,7 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 									"<tr style=\"background-color:#E0E0E0;\"><td>" +
 									i +
 									"</td><td>" +
-									indexToTime(ds.time) +
+									decoder.indexToTime(ds.time) +
 									"</td><td>CSHIGH</td><td></td><td></td><td></td><td>CSHIGH</td><td></td><td></td><td></td></tr>");
 							} else {
 								// unknown event
@@ -625,7 +349,7 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 									"<tr style=\"background-color:#FF8000;\"><td>" +
 									i +
 									"</td><td>" +
-									indexToTime(ds.time) +
+									decoder.indexToTime(ds.time) +
 									"</td><td>UNKNOWN</td><td></td><td></td><td></td><td>UNKNOWN</td><td></td><td></td><td></td></tr>");
 							}
 						} else {
@@ -633,7 +357,7 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 								"<tr style=\"background-color:#FFFFFF;\"><td>" +
 								i +
 								"</td><td>" +
-								indexToTime(ds.time) +
+								decoder.indexToTime(ds.time) +
 								"</td><td>" +
 								"0x" + integerToHexString(ds.mosi, bitCount / 4 + bitAdder) +
 								"</td><td>" +
@@ -728,17 +452,6 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 			return(new String(ldz + str));
 		}
 
-		/**
-		 * runs the conversion when started
-		 */
-		public void run() {
-			setControlsEnabled(false);
-			btnConvert.setText("Abort");
-			decode();
-			setControlsEnabled(true);
-			btnConvert.setText("Analyze");
-		}
-
 		private String[] modearray;
 		private String[] bitarray;
 		private String[] orderarray;
@@ -749,23 +462,17 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 		private JComboBox cs;
 		private JComboBox mode;
 		private JComboBox bits;
-		private CapturedData analysisData;
 		private JEditorPane outText;
 		private JComboBox order;
-		private Vector<SPIProtocolAnalysisDataSet> decodedData;
 		private JFileChooser fileChooser;
-		private int startOfDecode;
-		private int endOfDecode;
 		
 		private JButton btnConvert;
 		private JButton btnExport;
 		private JButton btnCancel;
 		
-		private JProgressBar progress;
-		private boolean runFlag;
+		private SPIDecoder decoder;
+		private boolean analyze;
 		
-		private Thread thrWorker;
-
 		private static final long serialVersionUID = 1L;
 	}
 	
@@ -795,12 +502,303 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 		}
 	}
 
+	/**
+	 * The SPI decoder, configured from the properties of the dialog
+	 */
+	public static class SPIDecoder extends Decoder {
+		private static final String NEWLINE = System.getProperty("line.separator");
+
+		public SPIDecoder(Properties properties) {
+			sckmask = (1 << Property(properties, "tools.SPIProtocolAnalysis.sck", 0));
+			misomask = (1 << Property(properties, "tools.SPIProtocolAnalysis.miso", 0));
+			mosimask = (1 << Property(properties, "tools.SPIProtocolAnalysis.mosi", 0));
+			csmask = (1 << Property(properties, "tools.SPIProtocolAnalysis.cs", 0));
+			mode = Property(properties, "tools.SPIProtocolAnalysis.mode", "0");
+			bits = Property(properties, "tools.SPIProtocolAnalysis.bits", 8);
+			order = Property(properties, "tools.SPIProtocolAnalysis.order", "MSB first");
+			decodedData = new Vector<SPIProtocolAnalysisDataSet>();
+			startOfDecode = 0;
+		}
+
+		/**
+		 * calculate the time offset
+		 * @param time absolute sample number
+		 * @return time relative to data
+		 */
+		private long calculateTime(long time) {
+			if(analysisData.hasTriggerData()) {
+				return time - analysisData.triggerPosition;
+			} else {
+				return time;
+			}
+		}
+
+		/**
+		 * This is the SPI protocol decoder core
+		 *
+		 * The decoder scans for a decode start event like CS high to
+		 * low edge or the trigger of the captured data. After this the
+		 * decoder starts to decode the data by the selected mode, number
+		 * of bits and bit order.
+		 */
+		public void decode(CapturedData data) {
+			// process the captured data and write to output
+			int a,c;
+			int bitCount, mosivalue, misovalue, maxbits;
+			
+			// clear old data
+			analysisData = data;
+			decodedData.clear();
+			
+			debug("csmask   = 0x" + Integer.toHexString(csmask));
+			debug("sckmask  = 0x" + Integer.toHexString(sckmask));
+			debug("misomask = 0x" + Integer.toHexString(misomask));
+			debug("mosimask = 0x" + Integer.toHexString(mosimask));
+			
+			startOfDecode = 0;
+			endOfDecode = analysisData.values.length;
+			if(analysisData.cursorEnabled) {
+				startOfDecode = analysisData.getSampleIndex(analysisData.getCursorPositionA());
+				endOfDecode = analysisData.getSampleIndex(analysisData.getCursorPositionB() + 1);
+			} else {
+				/*
+				 * For analyze scan the CS line for a falling edge. If
+				 * no edge could be found, the position of the trigger
+				 * is used for start of analysis. If no trigger and no
+				 * edge is found the analysis fails.
+				 */
+				a = analysisData.values[0] & csmask;
+				c = 0;
+				for (int i = startOfDecode; i < endOfDecode; i++) {
+					if (a > (analysisData.values[i] & csmask)) {
+						// cs to low found here
+						startOfDecode = i;
+						c = 1;
+						debug("CS found at " + i);
+						break;
+					}
+					a = analysisData.values[i] & csmask;
+					
+					if(isAborted()) return;
+					progress((int)(analysisData.timestamps[i] * 100 / (endOfDecode - startOfDecode)));
+				}
+				if (c == 0)
+				{
+					// no CS edge found, look for trigger
+					if (analysisData.hasTriggerData())
+						startOfDecode = analysisData.getSampleIndex(analysisData.triggerPosition);
+				}
+				// now the trigger is in b, add trigger event to table
+				decodedData.addElement(new SPIProtocolAnalysisDataSet(startOfDecode, "CSLOW"));
+			}
+			
+			/*
+			 * Use the mode parameter to determine which edges are
+			 * to detect. Mode 0 and mode 3 are sampling on the
+			 * rising clk edge, mode 2 and 4 are sampling on the
+			 * falling edge.
+			 * a is used for start of value, c is register for 
+			 * detect line changes.
+			 */
+			if ((mode.equals("0")) || (mode.equals("2"))) {
+				// scanning for rising clk edges
+				c = analysisData.values[startOfDecode] & sckmask;
+				a = analysisData.values[startOfDecode] & csmask;
+				bitCount = bits - 1;
+				maxbits = bitCount;
+				misovalue = 0;
+				mosivalue = 0;
+				for (int i = startOfDecode; i < endOfDecode; i++) {
+					if(c < (analysisData.values[i] & sckmask)) {
+						// sample here
+						if (order.equals("MSB first")) {
+							if ((analysisData.values[i] & misomask) == misomask)
+								misovalue |= (1 << bitCount);
+							if ((analysisData.values[i] & mosimask) == mosimask)
+								mosivalue |= (1 << bitCount);
+						} else {
+							if ((analysisData.values[i] & misomask) == misomask)
+								misovalue |= (1 << (maxbits - bitCount));
+							if ((analysisData.values[i] & mosimask) == mosimask)
+								mosivalue |= (1 << (maxbits - bitCount));
+						}
+						
+						if (bitCount > 0) {
+							bitCount--;
+						} else {
+							decodedData.addElement(new SPIProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[i]),mosivalue,misovalue));
+
+							//System.out.println("MISO = 0x" + Integer.toHexString(misovalue));
+							//System.out.println("MOSI = 0x" + Integer.toHexString(mosivalue));
+							bitCount = bits - 1;
+							misovalue = 0;
+							mosivalue = 0;
+
+						}
+					}
+					c = analysisData.values[i] & sckmask;
+
+					/* CS edge detection */
+					if(a > (analysisData.values[i] & csmask)) {
+						// falling edge
+						decodedData.addElement(new SPIProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[i]),"CSLOW"));
+					} else if (a < (analysisData.values[i] & csmask)) {
+						// rising edge
+						decodedData.addElement(new SPIProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[i]),"CSHIGH"));
+					}
+					a = analysisData.values[i] & csmask;
+					
+					if(isAborted()) return;
+					progress((int)(analysisData.timestamps[i] * 100 / (endOfDecode - startOfDecode)));
+				}
+			} else {
+				// scanning for falling clk edges
+				c = analysisData.values[startOfDecode] & sckmask;
+				a = analysisData.values[startOfDecode] & csmask;
+				bitCount = bits - 1;
+				maxbits = bitCount;
+				misovalue = 0;
+				mosivalue = 0;
+				for (int i = startOfDecode; i < endOfDecode; i++) {
+					if(c > (analysisData.values[i] & sckmask)) {
+						// sample here
+						if (order.equals("MSB first")) {
+							if ((analysisData.values[i] & misomask) == misomask)
+								misovalue |= (1 << bitCount);
+							if ((analysisData.values[i] & mosimask) == mosimask)
+								mosivalue |= (1 << bitCount);
+						} else {
+							if ((analysisData.values[i] & misomask) == misomask)
+								misovalue |= (1 << (maxbits - bitCount));
+							if ((analysisData.values[i] & mosimask) == mosimask)
+								mosivalue |= (1 << (maxbits - bitCount));
+						}
+
+						if (bitCount > 0) {
+							bitCount--;
+						} else {
+							decodedData.addElement(new SPIProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[i]),mosivalue,misovalue));
+
+							//System.out.println("MISO = 0x" + Integer.toHexString(misovalue));
+							//System.out.println("MOSI = 0x" + Integer.toHexString(mosivalue));
+							bitCount = bits - 1;
+							misovalue = 0;
+							mosivalue = 0;
+						}
+					}
+					c = analysisData.values[i] & sckmask;
+
+					/* CS edge detection */
+					if(a > (analysisData.values[i] & csmask)) {
+						// falling edge
+						decodedData.addElement(new SPIProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[i]),"CSLOW"));
+					} else if (a < (analysisData.values[i] & csmask)) {
+						// rising edge
+						decodedData.addElement(new SPIProtocolAnalysisDataSet(calculateTime(analysisData.timestamps[i]),"CSHIGH"));
+					}
+					a = analysisData.values[i] & csmask;
+					
+					if(isAborted()) return;
+					progress((int)(analysisData.timestamps[i] * 100 / (endOfDecode - startOfDecode)));
+				}
+			}
+			
+		}
+		
+		public void writeCSV(Writer out) throws IOException {
+			SPIProtocolAnalysisDataSet dSet;
+			out.write("\"" + 
+					"index" + 
+					"\",\"" +
+					"time" +
+					"\",\"" +
+					"mosi data or event" +
+					"\",\"" +
+					"miso data or event" +
+					"\"");
+			out.write(NEWLINE);
+
+			for(int i = 0; i < decodedData.size(); i++) {
+				dSet = decodedData.get(i);
+				if(dSet.isEvent()) {
+					out.write("\"" + 
+							i + 
+							"\",\"" +
+							indexToTime(dSet.time) +
+							"\",\"" +
+							dSet.event +
+							"\",\"" +
+							dSet.event +
+							"\"");
+				} else {
+					out.write("\"" + 
+							i + 
+							"\",\"" +
+							indexToTime(dSet.time) +
+							"\",\"" +
+							dSet.mosi +
+							"\",\"" +
+							dSet.miso +
+							"\"");
+				}
+				out.write(NEWLINE);
+			}
+		}
+
+		public void writeJSON(Writer out) throws IOException {
+			out.write("[");
+			for(int i = 0; i < decodedData.size(); i++) {
+				SPIProtocolAnalysisDataSet dSet = decodedData.get(i);
+				out.write((i == 0 ? "" : ",") + NEWLINE + "{\"index\":" + i + ",\"sample\":" + dSet.time +
+					",\"time\":" + Quote(indexToTime(dSet.time)));
+				if(dSet.isEvent())
+					out.write(",\"event\":" + Quote(dSet.event) + "}");
+				else
+					out.write(",\"mosi\":" + dSet.mosi + ",\"miso\":" + dSet.miso + "}");
+			}
+			out.write(NEWLINE + "]" + NEWLINE);
+		}
+
+		public boolean isEmpty() {
+			return decodedData.isEmpty();
+		}
+
+		/**
+		 * Convert sample count to time string.
+		 * @param count sample count (or index)
+		 * @return string containing time information
+		 */
+		private String indexToTime(long count) {
+			count -= startOfDecode;
+			if(count < 0) count = 0;
+			if(analysisData.hasTimingData()) {
+				float time = (float)(count * (1.0 / analysisData.rate));
+				if(time < 1.0e-6) 			{return(Math.rint(time*1.0e9*100)/100 + "ns");}
+				else if(time < 1.0e-3) 		{return(Math.rint(time*1.0e6*100)/100 + "µs");}
+				else if(time < 1.0) 		{return(Math.rint(time*1.0e3*100)/100 + "ms");}
+				else 						{return(Math.rint(time*100)/100 + "s");}
+			} else {
+				return("" + count);
+			}
+		}
+
+		private final int sckmask;
+		private final int misomask;
+		private final int mosimask;
+		private final int csmask;
+		private final String mode;
+		private final int bits;
+		private final String order;
+
+		private CapturedData analysisData;
+		private Vector<SPIProtocolAnalysisDataSet> decodedData;
+		private int startOfDecode;
+		private int endOfDecode;
+	}
+
 	public SPIProtocolAnalysis () {
 	}
 	
-	public void init(Frame frame) {
-		spad = new SPIProtocolAnalysisDialog(frame, getName());
-	}
 	
 	/**
 	 * Returns the tools visible name.
@@ -811,21 +809,69 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 	}
 
 	/**
-	 * Convert captured data from timing data to state data using the given channel as clock.
+	 * Shows the dialog, and runs the analysis in place when the user starts it.
 	 * @param data - captured data to work on
 	 * @return always <code>null</code>
 	 */
 	public CapturedData process(CapturedData data) {
-		spad.showDialog(data);
+		Callable<CapturedData> task = prepare(data, null);
+		if (task != null) {
+			try {
+				task.call();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
 		return(null);
 	}
-	
+
+	/**
+	 * Shows the dialog for the settings, and returns the analysis to be run in the background.
+	 * The results are shown in the dialog when the analysis completes.
+	 * @param data - captured data to work on
+	 * @param progress - receives the percentage decoded
+	 */
+	public Callable<CapturedData> prepare(final CapturedData data, Progress progress) {
+		// if no data exists or init has not been called, return null
+		if (data == null || getFrame() == null)
+			return (null);
+
+		// if the dialog has been closed without an analysis, return null
+		final SPIProtocolAnalysisDialog dialog = getDialog();
+		if (!dialog.showDialog())
+			return (null);
+
+		Properties properties = new Properties();
+		dialog.writeProperties(properties);
+		final SPIDecoder decoder = new SPIDecoder(properties);
+		decoder.setProgress(progress);
+
+		return new Callable<CapturedData>() {
+			public CapturedData call() throws InterruptedException {
+				decoder.decode(data);
+				if (Thread.interrupted())
+					throw new InterruptedException();
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						dialog.showResults(decoder);
+					}
+				});
+				return (null);
+			}
+		};
+	}
+
 	/**
 	 * Reads dialog settings from given properties.
 	 * @param properties Properties containing dialog settings
 	 */
 	public void readProperties(Properties properties) {
-		spad.readProperties(properties);
+		if (spad == null)
+			keepProperties(properties);
+		else
+			spad.readProperties(properties);
 	}
 
 	/**
@@ -833,7 +879,22 @@ public class SPIProtocolAnalysis extends Base implements Tool, Configurable {
 	 * @param properties Properties where the settings are written to
 	 */
 	public void writeProperties(Properties properties) {
-		spad.writeProperties(properties);
+		if (spad == null)
+			writeKeptProperties(properties);
+		else
+			spad.writeProperties(properties);
+	}
+
+	/**
+	 * Creates the dialog when first used, with the settings read before.
+	 * @return the dialog
+	 */
+	private SPIProtocolAnalysisDialog getDialog() {
+		if (spad == null) {
+			spad = new SPIProtocolAnalysisDialog(getFrame(), getName());
+			spad.readProperties(getKeptProperties());
+		}
+		return (spad);
 	}
 
 	
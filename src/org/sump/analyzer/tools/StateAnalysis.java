@@ -23,6 +23,9 @@ import java.awt.Frame;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.Callable;
 import org.sump.util.Properties;
 
 import javax.swing.BorderFactory;
@@ -123,11 +126,78 @@ public class StateAnalysis extends Base implements Tool, Configurable {
 		private int result;
 	}
 	
-	public StateAnalysis () {
+	/**
+	 * The state conversion, configured from the properties of the dialog
+	 */
+	public static class StateDecoder extends Decoder {
+		private static final String NEWLINE = System.getProperty("line.separator");
+
+		public StateDecoder(Properties properties) {
+			number = Property(properties, "tools.StateAnalysis.channel", 0);
+			level = (Property(properties, "tools.StateAnalysis.edge", "Rising").equals("Rising") ? 0 : 1);
+		}
+
+		public void decode(CapturedData data) {
+			try {
+				state = convert(data, number, level);
+			} catch (InterruptedException e) {
+				state = null;
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * @return state data, or null when there are no clock edges
+		 */
+		public CapturedData getState() {
+			return (state);
+		}
+
+		public boolean isEmpty() {
+			return (state == null);
+		}
+
+		/**
+		 * Writes a line per state.
+		 */
+		public void writeCSV(Writer out) throws IOException {
+			out.write("\"index\",\"value\"" + NEWLINE);
+			for (int i = 0; i < count(); i++)
+				out.write("\"" + i + "\",\"" + valueAt(i) + "\"" + NEWLINE);
+		}
+
+		/**
+		 * Writes an object per state.
+		 */
+		public void writeJSON(Writer out) throws IOException {
+			out.write("[");
+			for (int i = 0; i < count(); i++)
+				out.write((i == 0 ? "" : ",") + NEWLINE + "{\"index\":" + i + ",\"value\":" + valueAt(i) + "}");
+			out.write(NEWLINE + "]" + NEWLINE);
+		}
+
+		private int count() {
+			return (state == null ? 0 : (int)state.absoluteLength);
+		}
+
+		/**
+		 * States are written in order, so the transition is advanced rather than searched.
+		 */
+		private int valueAt(int index) {
+			if (index == 0)
+				transition = 0;
+			while (transition + 1 < state.timestamps.length && state.timestamps[transition + 1] <= index)
+				transition++;
+			return (state.values[transition]);
+		}
+
+		private final int number;
+		private final int level;
+		private CapturedData state;
+		private int transition;
 	}
-	
-	public void init(Frame frame) {
-		sad = new StateAnalysisDialog(frame, getName());
+
+	public StateAnalysis () {
 	}
 	
 	/**
@@ -143,18 +213,50 @@ public class StateAnalysis extends Base implements Tool, Configurable {
 	 * @param data - captured data to work on
 	 */
 	public CapturedData process(CapturedData data) {
+		Callable<CapturedData> task = prepare(data, null);
+		if (task == null)
+			return (null);
+		try {
+			return (task.call());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return (null);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Asks for the clock channel and edge, and returns the conversion to be run in the background.
+	 * @param data - captured data to work on
+	 */
+	public Callable<CapturedData> prepare(final CapturedData data, Progress progress) {
 		// if no data exists or init has has not been called, return null
-		if (data == null || sad == null)
+		if (data == null || getFrame() == null)
 			return (null);
 
 		// if function has been cancelled by the user, return null
-		if (sad.showDialog() == StateAnalysisDialog.CANCEL)
+		StateAnalysisDialog dialog = getDialog();
+		if (dialog.showDialog() == StateAnalysisDialog.CANCEL)
 			return (null);
 		
 		// obtain user choices
-		int number = sad.channel;
-		int level = (sad.edge == StateAnalysisDialog.RISING ? 0 : 1); // this seems overly complicated right now, but RISING might change
-		
+		final int number = dialog.channel;
+		final int level = (dialog.edge == StateAnalysisDialog.RISING ? 0 : 1); // this seems overly complicated right now, but RISING might change
+
+		return new Callable<CapturedData>() {
+			public CapturedData call() throws InterruptedException {
+				return (convert(data, number, level));
+			}
+		};
+	}
+
+	/**
+	 * Keeps the sample before each clock edge.
+	 * @return state data, or null when the clock channel has no edges
+	 * @throws InterruptedException when the thread is interrupted
+	 */
+	private static CapturedData convert(CapturedData data, int number, int level) throws InterruptedException {
 		// obtain data from captured data
 		int[] values = data.values;
 		long triggerPosition = data.triggerPosition;
@@ -167,7 +269,11 @@ public class StateAnalysis extends Base implements Tool, Configurable {
 			if (last == level && current != level)
 				size++;
 			last = current;
+			if ((i & 0xffff) == 0 && Thread.interrupted())
+				throw new InterruptedException();
 		}
+		if (size == 0)
+			return (null);
 
 		// convert captured data
 		last = values[0] & 1 << number;
@@ -181,6 +287,8 @@ public class StateAnalysis extends Base implements Tool, Configurable {
 			if (triggerPosition == i)
 				newTrigger = pos;
 			last = current;
+			if ((i & 0xffff) == 0 && Thread.interrupted())
+				throw new InterruptedException();
 		}
 
 		// return new data
@@ -192,7 +300,10 @@ public class StateAnalysis extends Base implements Tool, Configurable {
 	 * @param properties Properties containing dialog settings
 	 */
 	public void readProperties(Properties properties) {
-		sad.readProperties(properties);
+		if (sad == null)
+			keepProperties(properties);
+		else
+			sad.readProperties(properties);
 	}
 
 	/**
@@ -200,7 +311,22 @@ public class StateAnalysis extends Base implements Tool, Configurable {
 	 * @param properties Properties where the settings are written to
 	 */
 	public void writeProperties(Properties properties) {
-		sad.writeProperties(properties);
+		if (sad == null)
+			writeKeptProperties(properties);
+		else
+			sad.writeProperties(properties);
+	}
+
+	/**
+	 * Creates the dialog when first used, with the settings read before.
+	 * @return the dialog
+	 */
+	private StateAnalysisDialog getDialog() {
+		if (sad == null) {
+			sad = new StateAnalysisDialog(getFrame(), getName());
+			sad.readProperties(getKeptProperties());
+		}
+		return (sad);
 	}
 	
 	private StateAnalysisDialog sad;
@@ -20,6 +20,7 @@
 package org.sump.analyzer.tools;
 
 import java.awt.Frame;
+import java.util.concurrent.Callable;
 
 import org.sump.analyzer.CapturedData;
 
@@ -35,6 +36,14 @@ import org.sump.analyzer.CapturedData;
  */
 public interface Tool {
 
+    /**
+     * Receives the progress of the task of a tool on its background thread.
+     */
+    public interface Progress {
+
+        public void progress(int percentage);
+    }
+
     /**
      * Is called to get the name for the menu entry.
      * The name must be unique among all tools. Should end in "..." if it opens a dialog window.
@@ -44,7 +53,8 @@ public interface Tool {
 
     /**
      * Performs tool initialization.
-     * This method should also prepare the dialog, if one is needed
+     * This method should only keep the frame, a dialog is created when the tool is first used
+     * so that startup does not build dialogs that are never opened.
      * @param frame main window's frame (needed for modal dialogs)
      */
     public void init(Frame frame);
@@ -57,6 +67,30 @@ public interface Tool {
      */
     public CapturedData process(CapturedData data);
 
+    /**
+     * This method is invoked on the event dispatch thread when the tool is selected from the Tools menu.
+     * It should request any missing information using a dialog, and return the tool's actual task,
+     * which the client runs in the background.  The task should stop with an <code>InterruptedException</code>
+     * when its thread is interrupted, as it is when the user cancels it.
+     * <p>
+     * By default, calls <code>process(CapturedData data)</code> in place, for tools
+     * that do not separate their dialog from their task.
+     * @param data currently displayed captured data
+     * @param progress receives the percentage of the task done, or <code>null</code>
+     * @return task returning new <code>CapturedData</code> or <code>null</code>, or <code>null</code> if there is nothing to do
+     */
+    public default Callable<CapturedData> prepare(CapturedData data, Progress progress) {
+        final CapturedData processed = process(data);
+        if (processed == null)
+            return (null);
+        else
+            return new Callable<CapturedData>() {
+                public CapturedData call() {
+                    return (processed);
+                }
+            };
+    }
+
     /**
      * This method is invoked when the tool is selected from the context menu after right clicking someplace in the diagram.
      * It should request any missing information using a dialog and perform the tool's actual task.
@@ -19,7 +19,6 @@
  */
 package org.sump.analyzer.tools;
   
-import java.awt.BorderLayout;
 import java.awt.Container;
 import java.awt.Frame;
 import java.awt.GridBagConstraints;
@@ -31,12 +30,15 @@ import java.awt.event.ActionListener;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.Locale;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
@@ -47,8 +49,8 @@ import javax.swing.JEditorPane;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
-import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileFilter;
 
 import org.sump.analyzer.CapturedData;
@@ -78,7 +80,7 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
      * Class for UART dataset
      * @author Frank Kunz
      */
-    private class UARTProtocolAnalysisDataSet implements Comparable<UARTProtocolAnalysisDataSet> {
+    private static class UARTProtocolAnalysisDataSet implements Comparable<UARTProtocolAnalysisDataSet> {
         /*
          * data
          */
@@ -137,19 +139,13 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
      * consists of three main parts. A settings panel, a table panel
      * and three buttons.
      */
-    private class UARTProtocolAnalysisDialog extends JDialog implements ActionListener, Runnable {
+    private class UARTProtocolAnalysisDialog extends JDialog implements ActionListener {
         public UARTProtocolAnalysisDialog(Frame frame, String name) {
             super(frame, name, true);
             Container pane = getContentPane();
             pane.setLayout(new GridBagLayout());
             getRootPane().setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
 
-            decodedData = new Vector<UARTProtocolAnalysisDataSet>();
-            startOfDecode = -1;
-            decodedSymbols = 0;
-            bitLength = 0;
-            detectedErrors = 0;
-			
             /*
              * add protocol settings elements
              */
@@ -245,22 +241,6 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
             panTable.add(new JScrollPane(outText));
             add(panTable, createConstraints(1, 0, 3, 3, 1.0, 1.0));
 			
-            /*
-             * add progress bar
-             */
-            JPanel panProgress = new JPanel();
-            panProgress.setLayout(new BorderLayout());
-            panProgress.setBorder(BorderFactory.createCompoundBorder(
-                                                                     BorderFactory.createTitledBorder("Progress"),
-                                                                     BorderFactory.createEmptyBorder(5, 5, 5, 5)
-                                                                     ));
-            progress = new JProgressBar(0, 100);
-            progress.setMinimum(0);
-            progress.setValue(0);
-            progress.setMaximum(100);
-            panProgress.add(progress, BorderLayout.CENTER);
-            add(panProgress, createConstraints(0, 3, 3, 1, 1.0, 0));
-
             /*
              * add buttons
              */
@@ -280,49 +260,39 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
 
             setSize(1000, 550);
             setResizable(false);
-            runFlag = false;
-            thrWorker = null;
+            decoder = null;
         }
 
         /**
-         * shows the dialog and sets the data to use
-         * @param data data to use for analysis
+         * shows the dialog until the user starts an analysis or closes it
+         * @return <code>true</code> when an analysis has been started
          */
-        public void showDialog(CapturedData data) {
-            analysisData = data;
-            setVisible(true);
+        public boolean showDialog() {
+            analyze = false;
             setLocationRelativeTo(null);
+            setVisible(true);
+            return (analyze);
         }
-		
+
         /**
-         * set the controls of the dialog enabled/disabled
-         * @param enable status of the controls
+         * shows the results of an analysis
+         * @param decoder decoder that has decoded the data
          */
-        private void setControlsEnabled(boolean enable) {
-            rxd.setEnabled(enable);
-            txd.setEnabled(enable);
-            cts.setEnabled(enable);
-            rts.setEnabled(enable);
-            dtr.setEnabled(enable);
-            dsr.setEnabled(enable);
-            dcd.setEnabled(enable);
-            ri.setEnabled(enable);
-            parity.setEnabled(enable);
-            bits.setEnabled(enable);
-            stop.setEnabled(enable);
-            inv.setEnabled(enable);
-            btnExport.setEnabled(enable);
-            btnCancel.setEnabled(enable);
+        public void showResults(UARTDecoder decoder) {
+            this.decoder = decoder;
+            outText.setText(toHtmlPage(false));
+            outText.setEditable(false);
+            setLocationRelativeTo(null);
+            setVisible(true);
         }
-		
+
         /**
          * Dialog Action handler
          */
         public void actionPerformed(ActionEvent e) {
             if (e.getActionCommand().equals("Analyze")) {
-                runFlag = true;
-                thrWorker = new Thread(this);
-                thrWorker.start();
+                analyze = true;
+                setVisible(false);
             } else if (e.getActionCommand().equals("Close")) {
                 setVisible(false);
             } else if (e.getActionCommand().equals("Export")) {
@@ -334,262 +304,667 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
                         storeToCsvFile(file);
                     }
                 }
-            } else if (e.getActionCommand().equals("Abort")) {
-                runFlag = false;
             }
         }
 
         /**
-         * This is the UART protocol decoder core
-         *
-         * The decoder scans for a decode start event like CS high to
-         * low edge or the trigger of the captured data. After this the
-         * decoder starts to decode the data by the selected mode, number
-         * of bits and bit order. The decoded data are put to a JTable
-         * object directly.
+         * exports the data to a CSV file
+         * @param file File object
          */
-        private void decode() {
-            // process the captured data and write to output
-            int i,a;
-			
-            // clear old data
-            decodedData.clear();
-			
-            /*
-             * Build bitmasks based on the RxD, TxD, CTS and RTS
-             * pins.
-             */
-			
-            int rxdmask = 0;
-            if(!((String)rxd.getSelectedItem()).equals("unused"))
-                rxdmask= (1 << rxd.getSelectedIndex());
-			
-            int txdmask = 0;
-            if(!((String)txd.getSelectedItem()).equals("unused"))
-                txdmask = (1 << txd.getSelectedIndex());
-			
-            int ctsmask = 0;
-            if(!((String)cts.getSelectedItem()).equals("unused"))
-                ctsmask = (1 << cts.getSelectedIndex());
-			
-            int rtsmask = 0;
-            if(!((String)rts.getSelectedItem()).equals("unused"))
-                rtsmask = (1 << rts.getSelectedIndex());
-			
-            int dcdmask = 0;
-            if(!((String)dcd.getSelectedItem()).equals("unused"))
-                dcdmask = (1 << dcd.getSelectedIndex());
-			
-            int rimask = 0;
-            if(!((String)ri.getSelectedItem()).equals("unused"))
-                rimask  = (1 << ri.getSelectedIndex());
-			
-            int dsrmask = 0;
-            if(!((String)dsr.getSelectedItem()).equals("unused"))
-                dsrmask = (1 << dsr.getSelectedIndex());
-			
-            int dtrmask = 0;
-            if(!((String)dtr.getSelectedItem()).equals("unused"))
-                dtrmask = (1 << dtr.getSelectedIndex());
-			
-            System.out.println("rxdmask = 0x" + Integer.toHexString(rxdmask));
-            System.out.println("txdmask = 0x" + Integer.toHexString(txdmask));
-            System.out.println("ctsmask = 0x" + Integer.toHexString(ctsmask));
-            System.out.println("rtsmask = 0x" + Integer.toHexString(rtsmask));
-            System.out.println("dcdmask = 0x" + Integer.toHexString(dcdmask));
-            System.out.println("rimask  = 0x" + Integer.toHexString(rimask));
-            System.out.println("dsrmask = 0x" + Integer.toHexString(dsrmask));
-            System.out.println("dtrmask = 0x" + Integer.toHexString(dtrmask));
-			
-            /*
-             * Start decode from trigger or if no trigger is available from the
-             * first falling edge.
-             * The decoder works with two independant decoder runs. First for 
-             * RxD and then for TxD, after this CTS, RTS, etc. is detected if enabled.
-             * After decoding all the decoded data are unsortet before the data is
-             * displayed it must be sortet by time.
-             */
-			
-            /*
-             * set the start of decode to the trigger if avail or
-             * find first state change on the selected lines
-             */
-            if(analysisData.cursorEnabled) {
-                startOfDecode = analysisData.getCursorPositionA();
-                endOfDecode = analysisData.getCursorPositionB();
-            } else {
-                if(analysisData.hasTriggerData()) {
-                    startOfDecode = analysisData.triggerPosition;
-                    // the trigger may be too late, a workaround is to go back some samples here
-                    startOfDecode -= 10;
-                    if(startOfDecode < 0) startOfDecode = 0;
-                } else {
-                    int mask = rxdmask | rimask | ctsmask | txdmask | dcdmask | rimask | dsrmask | dtrmask;
-                    a = analysisData.values[0] & mask;
-                    for(i=0;i<analysisData.values.length;i++) {
-                        if(a != (analysisData.values[i] & mask)) {
-                            startOfDecode = analysisData.timestamps[i];
-                            break;
-                        }
-                    }
-                }
-                endOfDecode = analysisData.absoluteLength;
-            }
-            decodedSymbols = 0;
-            detectedErrors = 0;
-			
-            // decode RxD
-            if(rxdmask != 0) {
-                BaudRateAnalyzer baudrate = new BaudRateAnalyzer(analysisData.values, analysisData.timestamps, rxdmask);
-                System.out.println(baudrate.toString());
-                bitLength = baudrate.getBest();
-                if(bitLength == 0) {
-                    System.out.println("No data for decode");
-                } else {
-                    System.out.println("Samplerate=" + analysisData.rate + " Bitlength=" + bitLength + " Baudrate=" + analysisData.rate / bitLength);
-                    decodedSymbols += decodeData(bitLength, rxdmask, UARTProtocolAnalysisDataSet.UART_TYPE_RXDATA);
-                }
-            }
-            // decode TxD
-            if(txdmask != 0) {
-                BaudRateAnalyzer baudrate = new BaudRateAnalyzer(analysisData.values, analysisData.timestamps, txdmask);
-                System.out.println(baudrate.toString());
-                bitLength = baudrate.getBest();
-                if(bitLength == 0) {
-                    System.out.println("No data for decode");
-                } else {
-                    System.out.println("Samplerate=" + analysisData.rate + " Bitlength=" + bitLength + " Baudrate=" + analysisData.rate / bitLength);
-                    decodedSymbols += decodeData(bitLength, txdmask, UARTProtocolAnalysisDataSet.UART_TYPE_TXDATA);
+        private void storeToCsvFile(File file) {
+            if(decoder != null && !decoder.isEmpty()) {
+                System.out.println("writing decoded data to " + file.getPath());
+                try {
+                    BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+                    decoder.writeCSV(bw);
+                    bw.close();
+                } catch (Exception E) {
+                    E.printStackTrace(System.out);
                 }
             }
-            // decode control lines
-            decodeControl(ctsmask, "CTS");
-            decodeControl(rtsmask, "RTS");
-            decodeControl(dcdmask, "DCD");
-            decodeControl(rimask,  "RI");
-            decodeControl(dsrmask, "DSR");
-            decodeControl(dtrmask, "DTR");
-			
-            // sort the results by time
-            Collections.sort(decodedData);
-			
-            outText.setText(toHtmlPage(false));
-            outText.setEditable(false);
         }
-		
+
         /**
-         * decode a control line
-         * @param mask bitmask for the control line
-         * @param name name string of the control line
+         * stores the data to a HTML file
+         * @param file file object
          */
-        private void decodeControl(int mask, String name) {
-            if(mask == 0) return;
-            System.out.println("Decode " + name);
-            long i;
-            int a;
-            a = analysisData.getDataAt(0) & mask;
-            progress.setValue(0);
-            for(i=startOfDecode;i<endOfDecode;i++) {
-                if(a < (analysisData.getDataAt(i) & mask)) {
-                    // rising edge
-                    decodedData.add(new UARTProtocolAnalysisDataSet(i,name + "_HIGH"));
-                }
-                if(a > (analysisData.getDataAt(i) & mask)) {
-                    // falling edge
-                    decodedData.add(new UARTProtocolAnalysisDataSet(i,name + "_LOW"));
-                }
-                a = analysisData.getDataAt(i) & mask;
-				
-                // update progress
-                progress.setValue((int)(i * 100 / (endOfDecode - startOfDecode)));
-
-                // abort here
-                if(!runFlag) {
-                    break;
+        private void storeToHtmlFile(File file) {
+            if(decoder != null && !decoder.isEmpty()) {
+                System.out.println("writing decoded data to " + file.getPath());
+                try {
+                    BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+					
+                    // write the complete displayed html page to file
+                    bw.write(outText.getText());
+					
+                    bw.close();
+                } catch (Exception E) {
+                    E.printStackTrace(System.out);
                 }
             }
-            progress.setValue(100);
         }
 		
         /**
-         * calculate the time offset
-         * @param time absolute sample number
-         * @return time relative to data
-         */
-        private long calculateTime(long time) {
-            if(analysisData.hasTriggerData()) {
-                return time - analysisData.triggerPosition;
-            } else {
-                return time;
-            }
-        }
-
-        /**
-         * decode a UART data line
-         * @param baud baudrate (counted samples per bit)
-         * @param mask bitmask for the dataline
-         * @param type type of the data (rx or tx)
+         * generate a HTML page
+         * @param empty if this is true an empty output is generated
+         * @return String with HTML data
          */
-        private int decodeData(int baud, int mask, int type) {
-            if(mask == 0) return(0);
-            long a = 0;
-            int b = 0;
-            long c = 0;
-            long i = 0;
-            int value = 0;
-            int bitCount;
-            int stopCount;
-            int parityCount;
-            int count = 0;
+        private String toHtmlPage(boolean empty) {
+            Date now = new Date();
+            DateFormat df=DateFormat.getDateInstance(DateFormat.LONG, Locale.US);
+            int bitCount = Integer.parseInt((String)bits.getSelectedItem());
+            int bitAdder = 0;
 			
-            bitCount = Integer.parseInt((String)bits.getSelectedItem());
-            if(((String)parity.getSelectedItem()).equals("none")) {
-                parityCount = 0;
-            } else {
-                parityCount = 1;
-            }
-            if(((String)stop.getSelectedItem()).equals("1")) {
-                stopCount = 1;
-            } else {
-                stopCount = 2;
+            if(bitCount % 4 != 0) {
+                bitAdder = 1;
             }
 			
-            if(startOfDecode > 0) a = startOfDecode;
-			
-            while((endOfDecode - a) > ((bitCount + stopCount + parityCount) * baud)) {
+            // generate html page header
+            String header =
+                "<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.01//EN\" \"http://www.w3.org/TR/html4/strict.dtd\">" +
+                "<html>" +
+                "  <head>" +
+                "    <title></title>" +
+                "    <meta content=\"\">" +
+                "    <style>" +
+                "			th { text-align:left;font-style:italic;font-weight:bold;font-size:medium;font-family:sans-serif;background-color:#C0C0FF; }" +
+                "		</style>" +
+                "  </head>" +
+                "	<body>" +
+                "		<H2>UART Analysis Results</H2>" +
+                "		<hr>" +
+                "			<div style=\"text-align:right;font-size:x-small;\">" +
+                df.format(now) +
+                "           </div>" +
+                "		<br>";
 
-                /*
-                 * find first falling edge this 
-                 * is the start of the startbit.
-                 * If the inverted checkbox is set find the first rising edge.
-                 */
-                b = analysisData.getDataAt(a) & mask;
-                for(i=a;i<endOfDecode;i++) {
-                    if(inv.isSelected()) {
-                        if(b < (analysisData.getDataAt(i) & mask)) {
-                            c = i;
-                            break;
-                        }
-                    } else {
-                        if(b > (analysisData.getDataAt(i) & mask)) {
-                            c = i;
-                            break;
-                        }
+            // generate the statistics table
+            String stats = new String(); 
+            if(!empty) {
+                if(decoder.bitLength == 0) {
+                    stats = stats.concat("<p style=\"color:red;\">Baudrate calculation failed !</p><br><br>");
+                } else {
+                    stats = stats.concat(
+                                         "<table style=\"width:100%;\">" +
+                                         "<TR><TD style=\"width:30%;\">Decoded Symbols</TD><TD>" + decoder.decodedSymbols + "</TD></TR>" +
+                                         "<TR><TD style=\"width:30%;\">Detected Bus Errors</TD><TD>" + decoder.detectedErrors + "</TD></TR>" +
+                                         "<TR><TD style=\"width:30%;\">Baudrate</TD><TD>" + decoder.analysisData.rate / decoder.bitLength + "</TD></TR>" +
+                                         "</table>" +
+                                         "<br>" +
+                                         "<br>");
+                    if(decoder.bitLength < 15) {
+                        stats = stats.concat("<p style=\"color:red;\">The baudrate may be wrong, use a higher samplerate to avoid this !</p><br><br>");
                     }
-                    b = analysisData.getDataAt(i) & mask;
-
-                    // update progress
-                    progress.setValue((int)(i * 100 / (endOfDecode - startOfDecode)));
+                }
+            }
 
-                    // abort here
-                    if(!runFlag) {
-                        System.out.println("Abort: count=" + count + " pos=" + i);
-                        i = endOfDecode;
+            // generate the data table
+            String data =
+                "<table style=\"font-family:monospace;width:100%;\">" +
+                "<tr><th style=\"width:15%;\">Index</th><th style=\"width:15%;\">Time</th><th style=\"width:10%;\">RxD Hex</th><th style=\"width:10%;\">RxD Bin</th><th style=\"width:8%;\">RxD Dec</th><th style=\"width:7%;\">RxD ASCII</th><th style=\"width:10%;\">TxD Hex</th><th style=\"width:10%;\">TxD Bin</th><th style=\"width:8%;\">TxD Dec</th><th style=\"width:7%;\">TxD ASCII</th></tr>";
+            if(empty) {
+            } else {
+                UARTProtocolAnalysisDataSet ds;
+                for (int i = 0; i < decoder.decodedData.size(); i++) {
+                    ds = decoder.decodedData.get(i);
+                    switch(ds.type) {
+                    case UARTProtocolAnalysisDataSet.UART_TYPE_EVENT:
+                        data = data.concat( 
+                                           "<tr style=\"background-color:#E0E0E0;\"><td>" +
+                                           i +
+                                           "</td><td>" +
+                                           decoder.indexToTime(ds.time) +
+                                           "</td><td>" +
+                                           ds.event +
+                                           "</td><td></td><td></td><td></td><td>" +
+                                           ds.event +
+                                           "</td><td></td><td></td><td></td></tr>");
+                        break;
+                    case UARTProtocolAnalysisDataSet.UART_TYPE_RXEVENT:
+                        data = data.concat( 
+                                           "<tr style=\"background-color:#E0E0E0;\"><td>" +
+                                           i +
+                                           "</td><td>" +
+                                           decoder.indexToTime(ds.time) +
+                                           "</td><td>" +
+                                           ds.event +
+                                           "</td><td></td><td></td><td></td><td>" +
+                                           "</td><td></td><td></td><td></td></tr>");
+                        break;
+                    case UARTProtocolAnalysisDataSet.UART_TYPE_TXEVENT:
+                        data = data.concat( 
+                                           "<tr style=\"background-color:#E0E0E0;\"><td>" +
+                                           i +
+                                           "</td><td>" +
+                                           decoder.indexToTime(ds.time) +
+                                           "</td><td>" +
+                                           "</td><td></td><td></td><td></td><td>" +
+                                           ds.event +
+                                           "</td><td></td><td></td><td></td></tr>");
+                        break;
+                    case UARTProtocolAnalysisDataSet.UART_TYPE_RXDATA:
+                        data = data.concat(
+                                           "<tr style=\"background-color:#FFFFFF;\"><td>" +
+                                           i +
+                                           "</td><td>" +
+                                           decoder.indexToTime(ds.time) +
+                                           "</td><td>" +
+                                           "0x" + integerToHexString(ds.data, bitCount / 4 + bitAdder) +
+                                           "</td><td>" +
+                                           "0b" + integerToBinString(ds.data, bitCount) +
+                                           "</td><td>" +
+                                           ds.data +
+                                           "</td><td>");
+						
+                        if((ds.data >= 32) && (bitCount == 8))
+                            data += (char)ds.data;
+                        data = data.concat("</td><td>" +
+                                           "</td><td>" +
+                                           "</td><td>" +
+                                           "</td><td>");
+                        data = data.concat("</td></tr>");
+
+                        break;
+                    case UARTProtocolAnalysisDataSet.UART_TYPE_TXDATA:
+                        data = data.concat(
+                                           "<tr style=\"background-color:#FFFFFF;\"><td>" +
+                                           i +
+                                           "</td><td>" +
+                                           decoder.indexToTime(ds.time) +
+                                           "</td><td>" +
+                                           "</td><td>" +
+                                           "</td><td>" +
+                                           "</td><td>");
+
+                        data = data.concat("</td><td>" +
+                                           "0x" + integerToHexString(ds.data, bitCount / 4 + bitAdder) +
+                                           "</td><td>" +
+                                           "0b" + integerToBinString(ds.data, bitCount) +
+                                           "</td><td>" +
+                                           ds.data +
+                                           "</td><td>");
+						
+                        if((ds.data >= 32) && (bitCount == 8))
+                            data += (char)ds.data;
+                        data = data.concat("</td></tr>");
+
+                        break;
+                    default:
+                        break;								
+                    }
+					
+                }
+            }
+            data = data.concat("</table");
+
+            // generate the footer table
+            String footer =
+                "	</body>" +
+                "</html>";
+
+            return(header + stats + data + footer);
+        }
+
+        public void readProperties(Properties properties) {
+            selectByIndex(rxd, properties.getProperty("tools.UARTProtocolAnalysis.rxd"));
+            selectByIndex(txd, properties.getProperty("tools.UARTProtocolAnalysis.txd"));
+            selectByIndex(cts, properties.getProperty("tools.UARTProtocolAnalysis.cts"));
+            selectByIndex(rts, properties.getProperty("tools.UARTProtocolAnalysis.rts"));			
+            selectByIndex(dtr, properties.getProperty("tools.UARTProtocolAnalysis.dtr"));			
+            selectByIndex(dsr, properties.getProperty("tools.UARTProtocolAnalysis.dsr"));			
+            selectByIndex(dcd, properties.getProperty("tools.UARTProtocolAnalysis.dcd"));			
+            selectByIndex(ri, properties.getProperty("tools.UARTProtocolAnalysis.ri"));			
+            selectByValue(parity, parityarray, properties.getProperty("tools.UARTProtocolAnalysis.parity"));
+            selectByValue(bits, bitarray, properties.getProperty("tools.UARTProtocolAnalysis.bits"));
+            selectByValue(stop, stoparray, properties.getProperty("tools.UARTProtocolAnalysis.stop"));
+            inv.setSelected(Boolean.parseBoolean(properties.getProperty("tools.UARTProtocolAnalysis.inverted")));
+        }
+
+        public void writeProperties(Properties properties) {
+            properties.setProperty("tools.UARTProtocolAnalysis.rxd", Integer.toString(rxd.getSelectedIndex()));
+            properties.setProperty("tools.UARTProtocolAnalysis.txd", Integer.toString(txd.getSelectedIndex()));
+            properties.setProperty("tools.UARTProtocolAnalysis.cts", Integer.toString(cts.getSelectedIndex()));
+            properties.setProperty("tools.UARTProtocolAnalysis.rts", Integer.toString(rts.getSelectedIndex()));
+            properties.setProperty("tools.UARTProtocolAnalysis.dtr", Integer.toString(dtr.getSelectedIndex()));
+            properties.setProperty("tools.UARTProtocolAnalysis.dsr", Integer.toString(dsr.getSelectedIndex()));
+            properties.setProperty("tools.UARTProtocolAnalysis.dcd", Integer.toString(dcd.getSelectedIndex()));
+            properties.setProperty("tools.UARTProtocolAnalysis.ri", Integer.toString(ri.getSelectedIndex()));
+            properties.setProperty("tools.UARTProtocolAnalysis.parity", (String)parity.getSelectedItem());
+            properties.setProperty("tools.UARTProtocolAnalysis.bits", (String)bits.getSelectedItem());
+            properties.setProperty("tools.UARTProtocolAnalysis.stop", (String)stop.getSelectedItem());
+            properties.setProperty("tools.UARTProtocolAnalysis.inverted", "" + inv.isSelected());
+        }
+		
+        /**
+         * converts an integer to a hex string with leading zeros
+         * @param val integer value for conversion
+         * @param fieldWidth number of charakters in field
+         * @return a nice string
+         */
+        private String integerToHexString(int val, int fieldWidth) {
+            // first build a mask to cut off the signed extension
+            int mask = (int)Math.pow(16.0, (double)fieldWidth);
+            mask--;
+            String str = Integer.toHexString(val & mask);
+            int numberOfLeadingZeros = fieldWidth - str.length();
+            if(numberOfLeadingZeros < 0) numberOfLeadingZeros = 0;
+            if(numberOfLeadingZeros > fieldWidth) numberOfLeadingZeros = fieldWidth;
+            char zeros[] = new char[numberOfLeadingZeros];
+            for(int i = 0; i < zeros.length; i++)
+                zeros[i] = '0';
+            String ldz = new String(zeros);
+            return(new String(ldz + str));
+        }
+
+        /**
+         * converts an integer to a bin string with leading zeros
+         * @param val integer value for conversion
+         * @param fieldWidth number of charakters in field
+         * @return a nice string
+         */
+        private String integerToBinString(int val, int fieldWidth) {
+            // first build a mask to cut off the signed extension
+            int mask = (int)Math.pow(2.0, (double)(fieldWidth));
+            mask--;
+            String str = Integer.toBinaryString(val & mask);
+            int numberOfLeadingZeros = fieldWidth - str.length();
+            if(numberOfLeadingZeros < 0) numberOfLeadingZeros = 0;
+            if(numberOfLeadingZeros > fieldWidth) numberOfLeadingZeros = fieldWidth;
+            char zeros[] = new char[numberOfLeadingZeros];
+            for(int i = 0; i < zeros.length; i++)
+                zeros[i] = '0';
+            String ldz = new String(zeros);
+            return(new String(ldz + str));
+        }
+
+        private String[] parityarray;
+        private String[] bitarray;
+        private String[] stoparray;
+
+        private JComboBox rxd;
+        private JComboBox txd;
+		
+        private JComboBox cts;
+        private JComboBox rts;
+        private JComboBox dtr;
+        private JComboBox dsr;
+        private JComboBox dcd;
+        private JComboBox ri;
+		
+        private JComboBox parity;
+        private JComboBox bits;
+        private JComboBox stop;
+        private JCheckBox inv;
+		
+        private JButton btnConvert;
+        private JButton btnExport;
+        private JButton btnCancel;
+		
+        private UARTDecoder decoder;
+        private boolean analyze;
+		
+        private JEditorPane outText;
+        private JFileChooser fileChooser;
+		
+        private static final long serialVersionUID = 1L;
+    }
+	
+    /**
+     * Inner class defining a File Filter for CSV files. 
+     * 
+     */
+    private class CSVFilter extends FileFilter {
+        public boolean accept(File f) {
+            return (f.isDirectory() || f.getName().toLowerCase().endsWith(".csv"));
+        }
+        public String getDescription() {
+            return ("Character sepatated Values (*.csv)");
+        }
+    }
+
+    /**
+     * Inner class defining a File Filter for HTML files. 
+     * 
+     */
+    private class HTMLFilter extends FileFilter {
+        public boolean accept(File f) {
+            return (f.isDirectory() || f.getName().toLowerCase().endsWith(".html"));
+        }
+        public String getDescription() {
+            return ("Website (*.html)");
+        }
+    }
+
+    /**
+     * Inner class for statistical baudrate analysis
+     *
+     */
+    private static class BaudRateAnalyzer {
+        /*
+         * create a histogram that allows to evaluate each
+         * detected bitlength. The bitlength with the highest
+         * occurrence is used for baudrate calculation.
+         */
+        public BaudRateAnalyzer(int[] data, long[] time, int mask) {
+            int a,b,c;
+            int[] valuePair;
+            long last = 0;
+            b = data[0] & mask;
+            a = 0;
+            statData = new LinkedList<int[]>();
+            for(int i=0;i<data.length;i++) {
+                if(b != (data[i] & mask)) {
+                    a = (int)(time[i] - last);
+                    c = findValue(a);
+                    if(c < 0) {
+                        valuePair = new int[2];
+                        valuePair[0] = a; // bitlength
+                        valuePair[1] = 1; // count
+                        statData.add(valuePair);
+                    } else {
+                        statData.get(c)[1]++;
+                    }
+                    last = time[i];
+                }
+                b = data[i] & mask;
+            }
+        }
+		
+        private int findValue(int val) {
+            for(int i=0;i<statData.size();i++) {
+                if(statData.get(i)[0] == val)
+                    return i;
+            }
+            return -1;
+        }
+		
+        public int getMax() {
+            int max = 0;
+            for(int i=0;i<statData.size();i++) {
+                if(statData.get(i)[0] > max) max = statData.get(i)[0];
+            }
+            return max;
+        }
+        public int getMin() {
+            int min = Integer.MAX_VALUE;
+            for(int i=0;i<statData.size();i++) {
+                if(statData.get(i)[0] < min) min = statData.get(i)[0];
+            }
+            return min;
+        }
+        public int getBest() {
+            int rank = 0;
+            int index = 0;
+            for(int i=0;i<statData.size();i++) {
+                if(statData.get(i)[1] > rank) {
+                    rank = statData.get(i)[1];
+                    index = i;
+                }
+            }
+            if(statData.size() == 0)
+                return 0;
+            return statData.get(index)[0];
+        }
+        public String toString() {
+            return new String("BaudRateAnalyzer:min=" + getMin() + ":max=" + getMax() + ":best=" + getBest());
+        }
+		
+        /*
+         * Store as linked list with 2 int sized arrays as elements.
+         * Each array element stores at index 0 the bitlength and at
+         * index 1 the number of occurrences.
+         */
+        private LinkedList<int[]> statData;
+    }
+
+
+    /**
+     * The UART decoder, configured from the properties of the dialog
+     */
+    public static class UARTDecoder extends Decoder {
+        private static final String NEWLINE = System.getProperty("line.separator");
+        private static final String[] TYPES = {"event", "rxd-event", "txd-event", "rxd", "txd"};
+
+        public UARTDecoder(Properties properties) {
+            rxdmask = Mask(properties, "tools.UARTProtocolAnalysis.rxd", 0);
+            txdmask = Mask(properties, "tools.UARTProtocolAnalysis.txd", 0);
+            ctsmask = Mask(properties, "tools.UARTProtocolAnalysis.cts", 32);
+            rtsmask = Mask(properties, "tools.UARTProtocolAnalysis.rts", 32);
+            dtrmask = Mask(properties, "tools.UARTProtocolAnalysis.dtr", 32);
+            dsrmask = Mask(properties, "tools.UARTProtocolAnalysis.dsr", 32);
+            dcdmask = Mask(properties, "tools.UARTProtocolAnalysis.dcd", 32);
+            rimask = Mask(properties, "tools.UARTProtocolAnalysis.ri", 32);
+            parity = Property(properties, "tools.UARTProtocolAnalysis.parity", "none");
+            bits = Property(properties, "tools.UARTProtocolAnalysis.bits", 8);
+            stop = Property(properties, "tools.UARTProtocolAnalysis.stop", "1");
+            inverted = Property(properties, "tools.UARTProtocolAnalysis.inverted", false);
+            decodedData = new Vector<UARTProtocolAnalysisDataSet>();
+            startOfDecode = -1;
+        }
+
+        /**
+         * @return mask of the channel, or zero for "unused"
+         */
+        private static int Mask(Properties properties, String name, int channel) {
+            channel = Property(properties, name, channel);
+            if(channel < 0 || channel >= 32)
+                return 0;
+            else
+                return (1 << channel);
+        }
+
+        /**
+         * This is the UART protocol decoder core
+         *
+         * The decoder scans for a decode start event like CS high to
+         * low edge or the trigger of the captured data. After this the
+         * decoder starts to decode the data by the selected mode, number
+         * of bits and bit order.
+         */
+        public void decode(CapturedData data) {
+            // process the captured data and write to output
+            int i,a;
+			
+            // clear old data
+            analysisData = data;
+            decodedData.clear();
+			
+            debug("rxdmask = 0x" + Integer.toHexString(rxdmask));
+            debug("txdmask = 0x" + Integer.toHexString(txdmask));
+            debug("ctsmask = 0x" + Integer.toHexString(ctsmask));
+            debug("rtsmask = 0x" + Integer.toHexString(rtsmask));
+            debug("dcdmask = 0x" + Integer.toHexString(dcdmask));
+            debug("rimask  = 0x" + Integer.toHexString(rimask));
+            debug("dsrmask = 0x" + Integer.toHexString(dsrmask));
+            debug("dtrmask = 0x" + Integer.toHexString(dtrmask));
+			
+            /*
+             * Start decode from trigger or if no trigger is available from the
+             * first falling edge.
+             * The decoder works with two independant decoder runs. First for 
+             * RxD and then for TxD, after this CTS, RTS, etc. is detected if enabled.
+             * After decoding all the decoded data are unsortet before the data is
+             * displayed it must be sortet by time.
+             */
+			
+            /*
+             * set the start of decode to the trigger if avail or
+             * find first state change on the selected lines
+             */
+            if(analysisData.cursorEnabled) {
+                startOfDecode = analysisData.getCursorPositionA();
+                endOfDecode = analysisData.getCursorPositionB();
+            } else {
+                if(analysisData.hasTriggerData()) {
+                    startOfDecode = analysisData.triggerPosition;
+                    // the trigger may be too late, a workaround is to go back some samples here
+                    startOfDecode -= 10;
+                    if(startOfDecode < 0) startOfDecode = 0;
+                } else {
+                    int mask = rxdmask | rimask | ctsmask | txdmask | dcdmask | rimask | dsrmask | dtrmask;
+                    a = analysisData.values[0] & mask;
+                    for(i=0;i<analysisData.values.length;i++) {
+                        if(a != (analysisData.values[i] & mask)) {
+                            startOfDecode = analysisData.timestamps[i];
+                            break;
+                        }
+                    }
+                }
+                endOfDecode = analysisData.absoluteLength;
+            }
+            decodedSymbols = 0;
+            detectedErrors = 0;
+			
+            // decode RxD
+            if(rxdmask != 0) {
+                BaudRateAnalyzer baudrate = new BaudRateAnalyzer(analysisData.values, analysisData.timestamps, rxdmask);
+                debug(baudrate.toString());
+                bitLength = baudrate.getBest();
+                if(bitLength == 0) {
+                    debug("No data for decode");
+                } else {
+                    debug("Samplerate=" + analysisData.rate + " Bitlength=" + bitLength + " Baudrate=" + analysisData.rate / bitLength);
+                    decodedSymbols += decodeData(bitLength, rxdmask, UARTProtocolAnalysisDataSet.UART_TYPE_RXDATA);
+                }
+            }
+            // decode TxD
+            if(txdmask != 0) {
+                BaudRateAnalyzer baudrate = new BaudRateAnalyzer(analysisData.values, analysisData.timestamps, txdmask);
+                debug(baudrate.toString());
+                bitLength = baudrate.getBest();
+                if(bitLength == 0) {
+                    debug("No data for decode");
+                } else {
+                    debug("Samplerate=" + analysisData.rate + " Bitlength=" + bitLength + " Baudrate=" + analysisData.rate / bitLength);
+                    decodedSymbols += decodeData(bitLength, txdmask, UARTProtocolAnalysisDataSet.UART_TYPE_TXDATA);
+                }
+            }
+            // decode control lines
+            decodeControl(ctsmask, "CTS");
+            decodeControl(rtsmask, "RTS");
+            decodeControl(dcdmask, "DCD");
+            decodeControl(rimask,  "RI");
+            decodeControl(dsrmask, "DSR");
+            decodeControl(dtrmask, "DTR");
+			
+            // sort the results by time
+            Collections.sort(decodedData);
+			
+        }
+		
+        /**
+         * decode a control line
+         * @param mask bitmask for the control line
+         * @param name name string of the control line
+         */
+        private void decodeControl(int mask, String name) {
+            if(mask == 0) return;
+            debug("Decode " + name);
+            long i;
+            int a;
+            a = analysisData.getDataAt(0) & mask;
+            progress(0);
+            for(i=startOfDecode;i<endOfDecode;i++) {
+                if(a < (analysisData.getDataAt(i) & mask)) {
+                    // rising edge
+                    decodedData.add(new UARTProtocolAnalysisDataSet(i,name + "_HIGH"));
+                }
+                if(a > (analysisData.getDataAt(i) & mask)) {
+                    // falling edge
+                    decodedData.add(new UARTProtocolAnalysisDataSet(i,name + "_LOW"));
+                }
+                a = analysisData.getDataAt(i) & mask;
+				
+                // update progress
+                progress((int)(i * 100 / (endOfDecode - startOfDecode)));
+
+                // abort here
+                if(isAborted()) {
+                    break;
+                }
+            }
+            progress(100);
+        }
+		
+        /**
+         * calculate the time offset
+         * @param time absolute sample number
+         * @return time relative to data
+         */
+        private long calculateTime(long time) {
+            if(analysisData.hasTriggerData()) {
+                return time - analysisData.triggerPosition;
+            } else {
+                return time;
+            }
+        }
+
+        /**
+         * decode a UART data line
+         * @param baud baudrate (counted samples per bit)
+         * @param mask bitmask for the dataline
+         * @param type type of the data (rx or tx)
+         */
+        private int decodeData(int baud, int mask, int type) {
+            if(mask == 0) return(0);
+            long a = 0;
+            int b = 0;
+            long c = 0;
+            long i = 0;
+            int value = 0;
+            int bitCount;
+            int stopCount;
+            int parityCount;
+            int count = 0;
+			
+            bitCount = bits;
+            if(parity.equals("none")) {
+                parityCount = 0;
+            } else {
+                parityCount = 1;
+            }
+            if(stop.equals("1")) {
+                stopCount = 1;
+            } else {
+                stopCount = 2;
+            }
+			
+            if(startOfDecode > 0) a = startOfDecode;
+			
+            while((endOfDecode - a) > ((bitCount + stopCount + parityCount) * baud)) {
+
+                /*
+                 * find first falling edge this 
+                 * is the start of the startbit.
+                 * If the inverted checkbox is set find the first rising edge.
+                 */
+                b = analysisData.getDataAt(a) & mask;
+                for(i=a;i<endOfDecode;i++) {
+                    if(inverted) {
+                        if(b < (analysisData.getDataAt(i) & mask)) {
+                            c = i;
+                            break;
+                        }
+                    } else {
+                        if(b > (analysisData.getDataAt(i) & mask)) {
+                            c = i;
+                            break;
+                        }
+                    }
+                    b = analysisData.getDataAt(i) & mask;
+
+                    // update progress
+                    progress((int)(i * 100 / (endOfDecode - startOfDecode)));
+
+                    // abort here
+                    if(isAborted()) {
+                        debug("Abort: count=" + count + " pos=" + i);
+                        i = endOfDecode;
                         break;
                     }
                 }
                 if(i >= endOfDecode) {
-                    System.out.println("End decode");
+                    debug("End decode");
                     break;
                 }
 	
@@ -600,7 +975,7 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
                  * If the inverted checkbox is set the startbit must be high
                  */
                 a = c + baud / 2;
-                if(inv.isSelected()) {
+                if(inverted) {
                     if((analysisData.getDataAt(a) & mask) == 0) {
                         // this is not a start bit !
                         if(type == UARTProtocolAnalysisDataSet.UART_TYPE_RXDATA)
@@ -627,7 +1002,7 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
                 value = 0;
                 for(i=0;i<bitCount;i++) {
                     a += baud;
-                    if(inv.isSelected()) {
+                    if(inverted) {
                         if((analysisData.getDataAt(a) & mask) == 0) {
                             value |= (1 << i);
                         }
@@ -643,11 +1018,11 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
                 /*
                  * sample parity bit if available
                  */
-                String parityText = (String)parity.getSelectedItem();
+                String parityText = parity;
                 if(parityText.equals("odd")) {
                     a += baud;
                     if((Integer.bitCount(value) & 1) == 0) {
-                        if(inv.isSelected()) {
+                        if(inverted) {
                             // odd parity, bitcount is even --> parity bit must be 0 (inverted)
                             if((analysisData.getDataAt(a) & mask) != 0) {
                                 // parity error
@@ -669,7 +1044,7 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
                             }
                         }
                     } else {
-                        if(inv.isSelected()) {
+                        if(inverted) {
                             // odd parity, bitcount is odd --> parity bit must be 1 (Inverted)
                             if((analysisData.getDataAt(a) & mask) == 0) {
                                 // parity error
@@ -695,7 +1070,7 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
                 if(parityText.equals("even")) {
                     a += baud;
                     if((Integer.bitCount(value) & 1) == 0) {
-                        if(inv.isSelected()) {
+                        if(inverted) {
                             // even parity, bitcount is even --> parity bit must be 1 (inverted)
                             if((analysisData.getDataAt(a) & mask) == 0) {
                                 // parity error
@@ -717,7 +1092,7 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
                             }
                         }
                     } else {
-                        if(inv.isSelected()) {
+                        if(inverted) {
                             // even parity, bitcount is odd --> parity bit must be 0 (inverted)
                             if((analysisData.getDataAt(a) & mask) != 0) {
                                 // parity error
@@ -744,10 +1119,10 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
                 /*
                  * sample stopbit(s)
                  */
-                String stopText = (String)stop.getSelectedItem();
+                String stopText = stop;
                 a += baud;
                 if(stopText.equals("1")) {
-                    if(inv.isSelected()) {
+                    if(inverted) {
                         if((analysisData.getDataAt(a) & mask) != 0) {
                             // framing error
                             if(type == UARTProtocolAnalysisDataSet.UART_TYPE_RXDATA)
@@ -767,7 +1142,7 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
                         }
                     }
                 } else if(stopText.equals("1.5")) {
-                    if(inv.isSelected()) {
+                    if(inverted) {
                         if((analysisData.getDataAt(a) & mask) != 0) {
                             // framing error
                             if(type == UARTProtocolAnalysisDataSet.UART_TYPE_RXDATA)
@@ -787,7 +1162,7 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
                         }
                     }
                     a += (baud / 4);
-                    if(inv.isSelected()) {
+                    if(inverted) {
                         if((analysisData.getDataAt(a) & mask) != 0) {
                             // framing error
                             if(type == UARTProtocolAnalysisDataSet.UART_TYPE_RXDATA)
@@ -807,7 +1182,7 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
                         }
                     }
                 } else {
-                    if(inv.isSelected()) {
+                    if(inverted) {
                         if((analysisData.getDataAt(a) & mask) != 0) {
                             // framing error
                             if(type == UARTProtocolAnalysisDataSet.UART_TYPE_RXDATA)
@@ -827,7 +1202,7 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
                         }
                     }
                     a += baud;
-                    if(inv.isSelected()) {
+                    if(inverted) {
                         if((analysisData.getDataAt(a) & mask) != 0) {
                             // framing error
                             if(type == UARTProtocolAnalysisDataSet.UART_TYPE_RXDATA)
@@ -848,530 +1223,142 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
                     }
                 }
             }
-            progress.setValue(100);
-            return(count);
-        }
-		
-        /**
-         * exports the data to a CSV file
-         * @param file File object
-         */
-        private void storeToCsvFile(File file) {
-            if(decodedData.size() > 0) {
-                UARTProtocolAnalysisDataSet dSet;
-                System.out.println("writing decoded data to " + file.getPath());
-                try {
-                    BufferedWriter bw = new BufferedWriter(new FileWriter(file));
-
-                    bw.write("\"" + 
-                             "index" + 
-                             "\",\"" +
-                             "time" +
-                             "\",\"" +
-                             "RxD data or event" +
-                             "\",\"" +
-                             "TxD data or event" +
-                             "\"");
-                    bw.newLine();
-
-                    for(int i = 0; i < decodedData.size(); i++) {
-                        dSet = decodedData.get(i);
-                        switch(dSet.type) {
-                        case UARTProtocolAnalysisDataSet.UART_TYPE_EVENT:
-                            bw.write("\"" + 
-                                     i + 
-                                     "\",\"" +
-                                     indexToTime(dSet.time) +
-                                     "\",\"" +
-                                     dSet.event +
-                                     "\",\"" +
-                                     dSet.event +
-                                     "\"");
-                            break;
-                        case UARTProtocolAnalysisDataSet.UART_TYPE_RXEVENT:
-                            bw.write("\"" + 
-                                     i + 
-                                     "\",\"" +
-                                     indexToTime(dSet.time) +
-                                     "\",\"" +
-                                     dSet.event +
-                                     "\",\"" +
-                                     "\"");
-                            break;
-                        case UARTProtocolAnalysisDataSet.UART_TYPE_TXEVENT:
-                            bw.write("\"" + 
-                                     i + 
-                                     "\",\"" +
-                                     indexToTime(dSet.time) +
-                                     "\",\"" +
-                                     "\",\"" +
-                                     dSet.event +
-                                     "\"");
-                            break;
-                        case UARTProtocolAnalysisDataSet.UART_TYPE_RXDATA:
-                            bw.write("\"" + 
-                                     i + 
-                                     "\",\"" +
-                                     indexToTime(dSet.time) +
-                                     "\",\"" +
-                                     dSet.data +
-                                     "\",\"" +
-                                     "\"");
-                            break;
-                        case UARTProtocolAnalysisDataSet.UART_TYPE_TXDATA:
-                            bw.write("\"" + 
-                                     i + 
-                                     "\",\"" +
-                                     indexToTime(dSet.time) +
-                                     "\",\"" +
-                                     "\",\"" +
-                                     dSet.data +
-                                     "\"");
-                            break;
-                        default:
-                            break;
-                        }
-                        bw.newLine();
-                    }
-                    bw.close();
-                } catch (Exception E) {
-                    E.printStackTrace(System.out);
-                }
-            }
-        }
-		
-        /**
-         * stores the data to a HTML file
-         * @param file file object
-         */
-        private void storeToHtmlFile(File file) {
-            if(decodedData.size() > 0) {
-                System.out.println("writing decoded data to " + file.getPath());
-                try {
-                    BufferedWriter bw = new BufferedWriter(new FileWriter(file));
-					
-                    // write the complete displayed html page to file
-                    bw.write(outText.getText());
-					
-                    bw.close();
-                } catch (Exception E) {
-                    E.printStackTrace(System.out);
-                }
-            }
-        }
-		
-        /**
-         * Convert sample count to time string.
-         * @param count sample count (or index)
-         * @return string containing time information
-         */
-        private String indexToTime(long count) {
-            count -= startOfDecode;
-            if(count < 0) count = 0;
-            if(analysisData.hasTimingData()) {
-                float time = (float)(count * (1.0 / analysisData.rate));
-                if(time < 1.0e-6) 			{return(Math.rint(time*1.0e9*100)/100 + "ns");}
-                else if(time < 1.0e-3) 		{return(Math.rint(time*1.0e6*100)/100 + "µs");}
-                else if(time < 1.0) 		{return(Math.rint(time*1.0e3*100)/100 + "ms");}
-                else 						{return(Math.rint(time*100)/100 + "s");}
-            } else {
-                return("" + count);
-            }
-        }
-
-        /**
-         * generate a HTML page
-         * @param empty if this is true an empty output is generated
-         * @return String with HTML data
-         */
-        private String toHtmlPage(boolean empty) {
-            Date now = new Date();
-            DateFormat df=DateFormat.getDateInstance(DateFormat.LONG, Locale.US);
-            int bitCount = Integer.parseInt((String)bits.getSelectedItem());
-            int bitAdder = 0;
-			
-            if(bitCount % 4 != 0) {
-                bitAdder = 1;
-            }
-			
-            // generate html page header
-            String header =
-                "<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.01//EN\" \"http://www.w3.org/TR/html4/strict.dtd\">" +
-                "<html>" +
-                "  <head>" +
-                "    <title></title>" +
-                "    <meta content=\"\">" +
-                "    <style>" +
-                "			th { text-align:left;font-style:italic;font-weight:bold;font-size:medium;font-family:sans-serif;background-color:#C0C0FF; }" +
-                "		</style>" +
-                "  </head>" +
-                "	<body>" +
-                "		<H2>UART Analysis Results</H2>" +
-                "		<hr>" +
-                "			<div style=\"text-align:right;font-size:x-small;\">" +
-                df.format(now) +
-                "           </div>" +
-                "		<br>";
-
-            // generate the statistics table
-            String stats = new String(); 
-            if(!empty) {
-                if(bitLength == 0) {
-                    stats = stats.concat("<p style=\"color:red;\">Baudrate calculation failed !</p><br><br>");
-                } else {
-                    stats = stats.concat(
-                                         "<table style=\"width:100%;\">" +
-                                         "<TR><TD style=\"width:30%;\">Decoded Symbols</TD><TD>" + decodedSymbols + "</TD></TR>" +
-                                         "<TR><TD style=\"width:30%;\">Detected Bus Errors</TD><TD>" + detectedErrors + "</TD></TR>" +
-                                         "<TR><TD style=\"width:30%;\">Baudrate</TD><TD>" + analysisData.rate / bitLength + "</TD></TR>" +
-                                         "</table>" +
-                                         "<br>" +
-                                         "<br>");
-                    if(bitLength < 15) {
-                        stats = stats.concat("<p style=\"color:red;\">The baudrate may be wrong, use a higher samplerate to avoid this !</p><br><br>");
-                    }
-                }
-            }
-
-            // generate the data table
-            String data =
-                "<table style=\"font-family:monospace;width:100%;\">" +
-                "<tr><th style=\"width:15%;\">Index</th><th style=\"width:15%;\">Time</th><th style=\"width:10%;\">RxD Hex</th><th style=\"width:10%;\">RxD Bin</th><th style=\"width:8%;\">RxD Dec</th><th style=\"width:7%;\">RxD ASCII</th><th style=\"width:10%;\">TxD Hex</th><th style=\"width:10%;\">TxD Bin</th><th style=\"width:8%;\">TxD Dec</th><th style=\"width:7%;\">TxD ASCII</th></tr>";
-            if(empty) {
-            } else {
-                UARTProtocolAnalysisDataSet ds;
-                for (int i = 0; i < decodedData.size(); i++) {
-                    ds = decodedData.get(i);
-                    switch(ds.type) {
-                    case UARTProtocolAnalysisDataSet.UART_TYPE_EVENT:
-                        data = data.concat( 
-                                           "<tr style=\"background-color:#E0E0E0;\"><td>" +
-                                           i +
-                                           "</td><td>" +
-                                           indexToTime(ds.time) +
-                                           "</td><td>" +
-                                           ds.event +
-                                           "</td><td></td><td></td><td></td><td>" +
-                                           ds.event +
-                                           "</td><td></td><td></td><td></td></tr>");
-                        break;
-                    case UARTProtocolAnalysisDataSet.UART_TYPE_RXEVENT:
-                        data = data.concat( 
-                                           "<tr style=\"background-color:#E0E0E0;\"><td>" +
-                                           i +
-                                           "</td><td>" +
-                                           indexToTime(ds.time) +
-                                           "</td><td>" +
-                                           ds.event +
-                                           "</td><td></td><td></td><td></td><td>" +
-                                           "</td><td></td><td></td><td></td></tr>");
-                        break;
-                    case UARTProtocolAnalysisDataSet.UART_TYPE_TXEVENT:
-                        data = data.concat( 
-                                           "<tr style=\"background-color:#E0E0E0;\"><td>" +
-                                           i +
-                                           "</td><td>" +
-                                           indexToTime(ds.time) +
-                                           "</td><td>" +
-                                           "</td><td></td><td></td><td></td><td>" +
-                                           ds.event +
-                                           "</td><td></td><td></td><td></td></tr>");
-                        break;
-                    case UARTProtocolAnalysisDataSet.UART_TYPE_RXDATA:
-                        data = data.concat(
-                                           "<tr style=\"background-color:#FFFFFF;\"><td>" +
-                                           i +
-                                           "</td><td>" +
-                                           indexToTime(ds.time) +
-                                           "</td><td>" +
-                                           "0x" + integerToHexString(ds.data, bitCount / 4 + bitAdder) +
-                                           "</td><td>" +
-                                           "0b" + integerToBinString(ds.data, bitCount) +
-                                           "</td><td>" +
-                                           ds.data +
-                                           "</td><td>");
-						
-                        if((ds.data >= 32) && (bitCount == 8))
-                            data += (char)ds.data;
-                        data = data.concat("</td><td>" +
-                                           "</td><td>" +
-                                           "</td><td>" +
-                                           "</td><td>");
-                        data = data.concat("</td></tr>");
-
-                        break;
-                    case UARTProtocolAnalysisDataSet.UART_TYPE_TXDATA:
-                        data = data.concat(
-                                           "<tr style=\"background-color:#FFFFFF;\"><td>" +
-                                           i +
-                                           "</td><td>" +
-                                           indexToTime(ds.time) +
-                                           "</td><td>" +
-                                           "</td><td>" +
-                                           "</td><td>" +
-                                           "</td><td>");
-
-                        data = data.concat("</td><td>" +
-                                           "0x" + integerToHexString(ds.data, bitCount / 4 + bitAdder) +
-                                           "</td><td>" +
-                                           "0b" + integerToBinString(ds.data, bitCount) +
-                                           "</td><td>" +
-                                           ds.data +
-                                           "</td><td>");
-						
-                        if((ds.data >= 32) && (bitCount == 8))
-                            data += (char)ds.data;
-                        data = data.concat("</td></tr>");
-
-                        break;
-                    default:
-                        break;								
-                    }
-					
-                }
-            }
-            data = data.concat("</table");
-
-            // generate the footer table
-            String footer =
-                "	</body>" +
-                "</html>";
-
-            return(header + stats + data + footer);
+            progress(100);
+            return(count);
         }
+		
+        public void writeCSV(Writer out) throws IOException {
+            UARTProtocolAnalysisDataSet dSet;
+            out.write("\"" + 
+                      "index" + 
+                      "\",\"" +
+                      "time" +
+                      "\",\"" +
+                      "RxD data or event" +
+                      "\",\"" +
+                      "TxD data or event" +
+                      "\"");
+            out.write(NEWLINE);
 
-        public void readProperties(Properties properties) {
-            selectByIndex(rxd, properties.getProperty("tools.UARTProtocolAnalysis.rxd"));
-            selectByIndex(txd, properties.getProperty("tools.UARTProtocolAnalysis.txd"));
-            selectByIndex(cts, properties.getProperty("tools.UARTProtocolAnalysis.cts"));
-            selectByIndex(rts, properties.getProperty("tools.UARTProtocolAnalysis.rts"));			
-            selectByIndex(dtr, properties.getProperty("tools.UARTProtocolAnalysis.dtr"));			
-            selectByIndex(dsr, properties.getProperty("tools.UARTProtocolAnalysis.dsr"));			
-            selectByIndex(dcd, properties.getProperty("tools.UARTProtocolAnalysis.dcd"));			
-            selectByIndex(ri, properties.getProperty("tools.UARTProtocolAnalysis.ri"));			
-            selectByValue(parity, parityarray, properties.getProperty("tools.UARTProtocolAnalysis.parity"));
-            selectByValue(bits, bitarray, properties.getProperty("tools.UARTProtocolAnalysis.bits"));
-            selectByValue(stop, stoparray, properties.getProperty("tools.UARTProtocolAnalysis.stop"));
-            inv.setSelected(Boolean.parseBoolean(properties.getProperty("tools.UARTProtocolAnalysis.inverted")));
+            for(int i = 0; i < decodedData.size(); i++) {
+                dSet = decodedData.get(i);
+                switch(dSet.type) {
+                case UARTProtocolAnalysisDataSet.UART_TYPE_EVENT:
+                    out.write("\"" + 
+                              i + 
+                              "\",\"" +
+                              indexToTime(dSet.time) +
+                              "\",\"" +
+                              dSet.event +
+                              "\",\"" +
+                              dSet.event +
+                              "\"");
+                    break;
+                case UARTProtocolAnalysisDataSet.UART_TYPE_RXEVENT:
+                    out.write("\"" + 
+                              i + 
+                              "\",\"" +
+                              indexToTime(dSet.time) +
+                              "\",\"" +
+                              dSet.event +
+                              "\",\"" +
+                              "\"");
+                    break;
+                case UARTProtocolAnalysisDataSet.UART_TYPE_TXEVENT:
+                    out.write("\"" + 
+                              i + 
+                              "\",\"" +
+                              indexToTime(dSet.time) +
+                              "\",\"" +
+                              "\",\"" +
+                              dSet.event +
+                              "\"");
+                    break;
+                case UARTProtocolAnalysisDataSet.UART_TYPE_RXDATA:
+                    out.write("\"" + 
+                              i + 
+                              "\",\"" +
+                              indexToTime(dSet.time) +
+                              "\",\"" +
+                              dSet.data +
+                              "\",\"" +
+                              "\"");
+                    break;
+                case UARTProtocolAnalysisDataSet.UART_TYPE_TXDATA:
+                    out.write("\"" + 
+                              i + 
+                              "\",\"" +
+                              indexToTime(dSet.time) +
+                              "\",\"" +
+                              "\",\"" +
+                              dSet.data +
+                              "\"");
+                    break;
+                default:
+                    break;
+                }
+                out.write(NEWLINE);
+            }
         }
 
-        public void writeProperties(Properties properties) {
-            properties.setProperty("tools.UARTProtocolAnalysis.rxd", Integer.toString(rxd.getSelectedIndex()));
-            properties.setProperty("tools.UARTProtocolAnalysis.txd", Integer.toString(txd.getSelectedIndex()));
-            properties.setProperty("tools.UARTProtocolAnalysis.cts", Integer.toString(cts.getSelectedIndex()));
-            properties.setProperty("tools.UARTProtocolAnalysis.rts", Integer.toString(rts.getSelectedIndex()));
-            properties.setProperty("tools.UARTProtocolAnalysis.dtr", Integer.toString(dtr.getSelectedIndex()));
-            properties.setProperty("tools.UARTProtocolAnalysis.dsr", Integer.toString(dsr.getSelectedIndex()));
-            properties.setProperty("tools.UARTProtocolAnalysis.dcd", Integer.toString(dcd.getSelectedIndex()));
-            properties.setProperty("tools.UARTProtocolAnalysis.ri", Integer.toString(ri.getSelectedIndex()));
-            properties.setProperty("tools.UARTProtocolAnalysis.parity", (String)parity.getSelectedItem());
-            properties.setProperty("tools.UARTProtocolAnalysis.bits", (String)bits.getSelectedItem());
-            properties.setProperty("tools.UARTProtocolAnalysis.stop", (String)stop.getSelectedItem());
-            properties.setProperty("tools.UARTProtocolAnalysis.inverted", "" + inv.isSelected());
-        }
-		
-        /**
-         * converts an integer to a hex string with leading zeros
-         * @param val integer value for conversion
-         * @param fieldWidth number of charakters in field
-         * @return a nice string
-         */
-        private String integerToHexString(int val, int fieldWidth) {
-            // first build a mask to cut off the signed extension
-            int mask = (int)Math.pow(16.0, (double)fieldWidth);
-            mask--;
-            String str = Integer.toHexString(val & mask);
-            int numberOfLeadingZeros = fieldWidth - str.length();
-            if(numberOfLeadingZeros < 0) numberOfLeadingZeros = 0;
-            if(numberOfLeadingZeros > fieldWidth) numberOfLeadingZeros = fieldWidth;
-            char zeros[] = new char[numberOfLeadingZeros];
-            for(int i = 0; i < zeros.length; i++)
-                zeros[i] = '0';
-            String ldz = new String(zeros);
-            return(new String(ldz + str));
+        public void writeJSON(Writer out) throws IOException {
+            out.write("[");
+            for(int i = 0; i < decodedData.size(); i++) {
+                UARTProtocolAnalysisDataSet dSet = decodedData.get(i);
+                out.write((i == 0 ? "" : ",") + NEWLINE + "{\"index\":" + i + ",\"sample\":" + dSet.time +
+                          ",\"time\":" + Quote(indexToTime(dSet.time)) + ",\"type\":" + Quote(TYPES[dSet.type]));
+                if(dSet.event != null)
+                    out.write(",\"event\":" + Quote(dSet.event) + "}");
+                else
+                    out.write(",\"data\":" + dSet.data + "}");
+            }
+            out.write(NEWLINE + "]" + NEWLINE);
         }
 
-        /**
-         * converts an integer to a bin string with leading zeros
-         * @param val integer value for conversion
-         * @param fieldWidth number of charakters in field
-         * @return a nice string
-         */
-        private String integerToBinString(int val, int fieldWidth) {
-            // first build a mask to cut off the signed extension
-            int mask = (int)Math.pow(2.0, (double)(fieldWidth));
-            mask--;
-            String str = Integer.toBinaryString(val & mask);
-            int numberOfLeadingZeros = fieldWidth - str.length();
-            if(numberOfLeadingZeros < 0) numberOfLeadingZeros = 0;
-            if(numberOfLeadingZeros > fieldWidth) numberOfLeadingZeros = fieldWidth;
-            char zeros[] = new char[numberOfLeadingZeros];
-            for(int i = 0; i < zeros.length; i++)
-                zeros[i] = '0';
-            String ldz = new String(zeros);
-            return(new String(ldz + str));
+        public boolean isEmpty() {
+            return decodedData.isEmpty();
         }
 
         /**
-         * runs the conversion when started
+         * Convert sample count to time string.
+         * @param count sample count (or index)
+         * @return string containing time information
          */
-        public void run() {
-            setControlsEnabled(false);
-            btnConvert.setText("Abort");
-            decode();
-            setControlsEnabled(true);
-            btnConvert.setText("Analyze");
+        private String indexToTime(long count) {
+            count -= startOfDecode;
+            if(count < 0) count = 0;
+            if(analysisData.hasTimingData()) {
+                float time = (float)(count * (1.0 / analysisData.rate));
+                if(time < 1.0e-6) 			{return(Math.rint(time*1.0e9*100)/100 + "ns");}
+                else if(time < 1.0e-3) 		{return(Math.rint(time*1.0e6*100)/100 + "µs");}
+                else if(time < 1.0) 		{return(Math.rint(time*1.0e3*100)/100 + "ms");}
+                else 						{return(Math.rint(time*100)/100 + "s");}
+            } else {
+                return("" + count);
+            }
         }
 
-        private String[] parityarray;
-        private String[] bitarray;
-        private String[] stoparray;
+        private final int rxdmask;
+        private final int txdmask;
+        private final int ctsmask;
+        private final int rtsmask;
+        private final int dtrmask;
+        private final int dsrmask;
+        private final int dcdmask;
+        private final int rimask;
+        private final String parity;
+        private final int bits;
+        private final String stop;
+        private final boolean inverted;
 
-        private JComboBox rxd;
-        private JComboBox txd;
-		
-        private JComboBox cts;
-        private JComboBox rts;
-        private JComboBox dtr;
-        private JComboBox dsr;
-        private JComboBox dcd;
-        private JComboBox ri;
-		
-        private JComboBox parity;
-        private JComboBox bits;
-        private JComboBox stop;
-        private JCheckBox inv;
-		
-        private JButton btnConvert;
-        private JButton btnExport;
-        private JButton btnCancel;
-		
-        private JProgressBar progress;
-        private boolean runFlag;
-		
-        private Thread thrWorker;
-		
         private CapturedData analysisData;
-        private JEditorPane outText;
         private Vector<UARTProtocolAnalysisDataSet> decodedData;
-        private JFileChooser fileChooser;
         private long startOfDecode;
         private long endOfDecode;
         private int decodedSymbols;
         private int bitLength;
         private int detectedErrors;
-		
-        private static final long serialVersionUID = 1L;
     }
-	
-    /**
-     * Inner class defining a File Filter for CSV files. 
-     * 
-     */
-    private class CSVFilter extends FileFilter {
-        public boolean accept(File f) {
-            return (f.isDirectory() || f.getName().toLowerCase().endsWith(".csv"));
-        }
-        public String getDescription() {
-            return ("Character sepatated Values (*.csv)");
-        }
-    }
-
-    /**
-     * Inner class defining a File Filter for HTML files. 
-     * 
-     */
-    private class HTMLFilter extends FileFilter {
-        public boolean accept(File f) {
-            return (f.isDirectory() || f.getName().toLowerCase().endsWith(".html"));
-        }
-        public String getDescription() {
-            return ("Website (*.html)");
-        }
-    }
-
-    /**
-     * Inner class for statistical baudrate analysis
-     *
-     */
-    private class BaudRateAnalyzer {
-        /*
-         * create a histogram that allows to evaluate each
-         * detected bitlength. The bitlength with the highest
-         * occurrence is used for baudrate calculation.
-         */
-        public BaudRateAnalyzer(int[] data, long[] time, int mask) {
-            int a,b,c;
-            int[] valuePair;
-            long last = 0;
-            b = data[0] & mask;
-            a = 0;
-            statData = new LinkedList<int[]>();
-            for(int i=0;i<data.length;i++) {
-                if(b != (data[i] & mask)) {
-                    a = (int)(time[i] - last);
-                    c = findValue(a);
-                    if(c < 0) {
-                        valuePair = new int[2];
-                        valuePair[0] = a; // bitlength
-                        valuePair[1] = 1; // count
-                        statData.add(valuePair);
-                    } else {
-                        statData.get(c)[1]++;
-                    }
-                    last = time[i];
-                }
-                b = data[i] & mask;
-            }
-        }
-		
-        private int findValue(int val) {
-            for(int i=0;i<statData.size();i++) {
-                if(statData.get(i)[0] == val)
-                    return i;
-            }
-            return -1;
-        }
-		
-        public int getMax() {
-            int max = 0;
-            for(int i=0;i<statData.size();i++) {
-                if(statData.get(i)[0] > max) max = statData.get(i)[0];
-            }
-            return max;
-        }
-        public int getMin() {
-            int min = Integer.MAX_VALUE;
-            for(int i=0;i<statData.size();i++) {
-                if(statData.get(i)[0] < min) min = statData.get(i)[0];
-            }
-            return min;
-        }
-        public int getBest() {
-            int rank = 0;
-            int index = 0;
-            for(int i=0;i<statData.size();i++) {
-                if(statData.get(i)[1] > rank) {
-                    rank = statData.get(i)[1];
-                    index = i;
-                }
-            }
-            if(statData.size() == 0)
-                return 0;
-            return statData.get(index)[0];
-        }
-        public String toString() {
-            return new String("BaudRateAnalyzer:min=" + getMin() + ":max=" + getMax() + ":best=" + getBest());
-        }
-		
-        /*
-         * Store as linked list with 2 int sized arrays as elements.
-         * Each array element stores at index 0 the bitlength and at
-         * index 1 the number of occurrences.
-         */
-        private LinkedList<int[]> statData;
-    }
-
 
     private UARTProtocolAnalysisDialog spad;
 
@@ -1380,9 +1367,6 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
         super();
     }
 	
-    public void init(Frame frame) {
-        spad = new UARTProtocolAnalysisDialog(frame, getName());
-    }
 	
     /**
      * Returns the tools visible name.
@@ -1393,21 +1377,69 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
     }
 
     /**
-     * Convert captured data from timing data to state data using the given channel as clock.
+     * Shows the dialog, and runs the analysis in place when the user starts it.
      * @param data - captured data to work on
      * @return always <code>null</code>
      */
     public CapturedData process(CapturedData data) {
-        spad.showDialog(data);
-        return null;
+        Callable<CapturedData> task = prepare(data, null);
+        if (task != null) {
+            try {
+                task.call();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return (null);
     }
-	
+
+    /**
+     * Shows the dialog for the settings, and returns the analysis to be run in the background.
+     * The results are shown in the dialog when the analysis completes.
+     * @param data - captured data to work on
+     * @param progress - receives the percentage decoded
+     */
+    public Callable<CapturedData> prepare(final CapturedData data, Progress progress) {
+        // if no data exists or init has not been called, return null
+        if (data == null || getFrame() == null)
+            return (null);
+
+        // if the dialog has been closed without an analysis, return null
+        final UARTProtocolAnalysisDialog dialog = getDialog();
+        if (!dialog.showDialog())
+            return (null);
+
+        Properties properties = new Properties();
+        dialog.writeProperties(properties);
+        final UARTDecoder decoder = new UARTDecoder(properties);
+        decoder.setProgress(progress);
+
+        return new Callable<CapturedData>() {
+            public CapturedData call() throws InterruptedException {
+                decoder.decode(data);
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        dialog.showResults(decoder);
+                    }
+                });
+                return (null);
+            }
+        };
+    }
+
     /**
      * Reads dialog settings from given properties.
      * @param properties Properties containing dialog settings
      */
     public void readProperties(Properties properties) {
-        spad.readProperties(properties);
+        if (spad == null)
+            keepProperties(properties);
+        else
+            spad.readProperties(properties);
     }
 
     /**
@@ -1415,6 +1447,21 @@ public class UARTProtocolAnalysis extends Base implements Tool, Configurable {
      * @param properties Properties where the settings are written to
      */
     public void writeProperties(Properties properties) {
-        spad.writeProperties(properties);
+        if (spad == null)
+            writeKeptProperties(properties);
+        else
+            spad.writeProperties(properties);
+    }
+
+    /**
+     * Creates the dialog when first used, with the settings read before.
+     * @return the dialog
+     */
+    private UARTProtocolAnalysisDialog getDialog() {
+        if (spad == null) {
+            spad = new UARTProtocolAnalysisDialog(getFrame(), getName());
+            spad.readProperties(getKeptProperties());
+        }
+        return (spad);
     }
 }
@@ -18,33 +18,52 @@
  */
 package org.sump.util;
 
+import org.sump.analyzer.Captures;
 import org.sump.analyzer.Configurable;
 import org.sump.analyzer.Diagram;
 import org.sump.analyzer.devices.DeviceController;
+import org.sump.analyzer.devices.Devices;
 import org.sump.analyzer.tools.Tool;
 
 import java.awt.Frame;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.lang.reflect.Modifier;
 import java.net.URL;
+import java.util.Collections;
 import java.util.Enumeration;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.StringTokenizer;
+import java.util.Set;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 /**
- * Scan class path for tools, devices, etc..
+ * Find tools, devices, etc..
+ * <p>
+ * The classes are listed in the {@link #INDEX} resource, written by
+ * {@link #main(String[])} when the jar is built.  Without the index,
+ * as when running from the compiled classes, the location of this
+ * class is scanned instead, loading its classes without initializing
+ * them.
  */
 public final class ClassPath 
     extends Object
 {
-    private final static Class DeviceControllerClass = DeviceController.class;
-    private final static Class ToolClass = Tool.class;
-    private final static Class ConfigurableClass = Configurable.class;
+    /**
+     * Resource listing the classes of tools, devices, etc., one class
+     * name per line.
+     */
+    public final static String INDEX = "org/sump/util/ClassPath.index";
+
+    private final static Class<DeviceController> DeviceControllerClass = DeviceController.class;
+    private final static Class<Tool> ToolClass = Tool.class;
+    private final static Class<Configurable> ConfigurableClass = Configurable.class;
 
 
     private final DeviceController[] controllers;
@@ -54,87 +73,86 @@ public final class ClassPath
 
     public ClassPath(){
         super();
-        final List<DeviceController> controllers = new LinkedList();
-        final List<Tool> tools = new LinkedList();
-        final List<Configurable> configurables = new LinkedList();
-
-
-        final StringTokenizer strtok = new StringTokenizer(System.getProperty("java.class.path"),System.getProperty("path.separator"));
-        while (strtok.hasMoreTokens()){
-            String pel = strtok.nextToken();
-            try {
-                JarFile jf = new JarFile(pel);
-
-                Enumeration<JarEntry> je = jf.entries();
+        final List<DeviceController> controllers = new LinkedList<DeviceController>();
+        final List<Tool> tools = new LinkedList<Tool>();
+        final List<Configurable> configurables = new LinkedList<Configurable>();
 
-                while(je.hasMoreElements()) {
+        final ClassLoader loader = ClassPath.class.getClassLoader();
 
-                    String entryname = je.nextElement().getName();
-
-                    if (entryname.endsWith(".class")) {
+        Set<String> classnames = Read(loader);
+        if (classnames.isEmpty()){
+            File location = Location();
+            System.err.printf("Index '%s' not found, scanning '%s'%n",INDEX,location);
+            classnames = Scan(location);
+        }
 
-                        String classname = entryname.substring(0, entryname.indexOf(".class")).replace('/', '.');
-                        try {
-                            final Class clas = Class.forName(classname);
-                            final int type = clas.getModifiers();
+        for (String classname : classnames){
+            try {
+                final Class<?> clas = Class.forName(classname,false,loader);
 
-                            if ((!clas.isInterface()) && (!Modifier.isAbstract(type))){
-                                /*
-                                 * Instantiate each class at most once
-                                 */
-                                if (DeviceControllerClass.isAssignableFrom(clas)){
+                if (IsPlugin(clas)){
+                    /*
+                     * Instantiate each class at most once
+                     */
+                    if (DeviceControllerClass.isAssignableFrom(clas)){
 
-                                    DeviceController controller = (DeviceController)clas.newInstance();
+                        DeviceController controller = clas.asSubclass(DeviceControllerClass).getDeclaredConstructor().newInstance();
 
-                                    controllers.add(controller);
+                        controllers.add(controller);
 
-                                    System.err.printf("Loaded Controller %s%n",clas.getName());
+                        System.err.printf("Loaded Controller %s%n",clas.getName());
 
-                                    if (controller instanceof Tool)
-                                        tools.add((Tool)controller);
+                        if (controller instanceof Tool)
+                            tools.add((Tool)controller);
 
-                                    if (controller instanceof Configurable)
-                                        configurables.add((Configurable)controller);
+                        if (controller instanceof Configurable)
+                            configurables.add((Configurable)controller);
 
-                                }
-                                else if (ToolClass.isAssignableFrom(clas)){
+                    }
+                    else if (ToolClass.isAssignableFrom(clas)){
 
-                                    Tool tool = (Tool)clas.newInstance();
+                        Tool tool = clas.asSubclass(ToolClass).getDeclaredConstructor().newInstance();
 
-                                    tools.add(tool);
+                        tools.add(tool);
 
-                                    System.err.printf("Loaded Tool %s%n",clas.getName());
+                        System.err.printf("Loaded Tool %s%n",clas.getName());
 
-                                    if (tool instanceof Configurable)
-                                        configurables.add((Configurable)tool);
+                        if (tool instanceof Configurable)
+                            configurables.add((Configurable)tool);
 
-                                }
-                                else if (ConfigurableClass.isAssignableFrom(clas)){
+                    }
+                    else {
 
-                                    Configurable configurable = (Configurable)clas.newInstance();
+                        Configurable configurable = clas.asSubclass(ConfigurableClass).getDeclaredConstructor().newInstance();
 
-                                    configurables.add(configurable);
+                        configurables.add(configurable);
 
-                                    System.err.printf("Loaded Configurable %s%n",clas.getName());
-                                }
-                            }
-                        }
-                        catch (Exception e) {
-                            synchronized(System.err){
-                                System.err.printf("Error loading class '%s'%n",classname);
-                                e.printStackTrace();
-                            }
-                        }
+                        System.err.printf("Loaded Configurable %s%n",clas.getName());
                     }
                 }
             }
             catch (Exception e) {
-                e.printStackTrace();
+                synchronized(System.err){
+                    System.err.printf("Error loading class '%s'%n",classname);
+                    e.printStackTrace();
+                }
+            }
+            catch (LinkageError e) {
+                synchronized(System.err){
+                    System.err.printf("Error loading class '%s'%n",classname);
+                    e.printStackTrace();
+                }
             }
         }
         this.controllers = controllers.toArray(new DeviceController[0]);
         this.tools = tools.toArray(new Tool[0]);
         this.configurables = configurables.toArray(new Configurable[0]);
+
+        for (Configurable c: this.configurables){
+
+            if (c instanceof Devices)
+                ((Devices)c).init(this.controllers);
+        }
     }
 
 
@@ -164,4 +182,172 @@ public final class ClassPath
         }
         throw new Error();
     }
+    /**
+     * @return devices of the controllers, including further instances added to them
+     */
+    public Devices getDevices(){
+
+        for (Configurable c: this.configurables){
+
+            if (c instanceof Devices)
+                return (Devices)c;
+        }
+        throw new Error();
+    }
+    public Captures getCaptures(){
+
+        for (Configurable c: this.configurables){
+
+            if (c instanceof Captures)
+                return (Captures)c;
+        }
+        throw new Error();
+    }
+
+
+    /**
+     * Writes the index of the classes found in a directory or jar.
+     * The arguments are
+     * <pre>
+     * directory|file.jar index
+     * </pre>
+     * where the classes are loaded from the class path without
+     * initializing them.  Exits with status 1 on errors.
+     *
+     * @param args arguments
+     */
+    public static void main(String[] args){
+        if (2 != args.length){
+            System.out.println("Usage: java org.sump.util.ClassPath directory|file.jar index");
+            System.exit(1);
+        }
+        final ClassLoader loader = ClassPath.class.getClassLoader();
+
+        List<String> index = new LinkedList<String>();
+        for (String classname : Scan(new File(args[0]))){
+            try {
+                if (IsPlugin(Class.forName(classname,false,loader)))
+                    index.add(classname);
+            }
+            catch (Exception e) {
+                System.err.printf("Error loading class '%s'%n",classname);
+            }
+            catch (LinkageError e) {
+                System.err.printf("Error loading class '%s'%n",classname);
+            }
+        }
+        Collections.sort(index);
+
+        File file = new File(args[1]);
+        try {
+            PrintStream out = new PrintStream(new FileOutputStream(file));
+            try {
+                for (String classname : index)
+                    out.println(classname);
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException exc){
+            System.err.printf("Unable to write to file '%s'%n",file);
+            System.exit(1);
+        }
+    }
+
+
+    /**
+     * @return whether the class is a concrete public tool, device, etc.
+     */
+    private final static boolean IsPlugin(Class<?> clas){
+        final int type = clas.getModifiers();
+
+        if (clas.isInterface() || Modifier.isAbstract(type) || (!Modifier.isPublic(type)))
+            return false;
+        else if (clas.isMemberClass() && (!Modifier.isStatic(type)))
+            return false;
+        else
+            return (DeviceControllerClass.isAssignableFrom(clas)
+                    || ToolClass.isAssignableFrom(clas)
+                    || ConfigurableClass.isAssignableFrom(clas));
+    }
+    /**
+     * @return class names listed by every index resource, in order
+     */
+    private final static Set<String> Read(ClassLoader loader){
+        Set<String> classnames = new LinkedHashSet<String>();
+        try {
+            Enumeration<URL> indices = loader.getResources(INDEX);
+            while (indices.hasMoreElements()){
+                URL url = indices.nextElement();
+                BufferedReader in = new BufferedReader(new InputStreamReader(url.openStream(),"UTF-8"));
+                try {
+                    String line;
+                    while (null != (line = in.readLine())){
+                        line = line.trim();
+                        if (0 < line.length() && '#' != line.charAt(0))
+                            classnames.add(line);
+                    }
+                }
+                finally {
+                    in.close();
+                }
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        return classnames;
+    }
+    /**
+     * @return directory or jar containing this class
+     */
+    private final static File Location(){
+        try {
+            return new File(ClassPath.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        }
+        catch (Exception e) {
+            return new File(".");
+        }
+    }
+    /**
+     * @return names of the classes in a directory or jar
+     */
+    private final static Set<String> Scan(File location){
+        Set<String> classnames = new LinkedHashSet<String>();
+        try {
+            if (location.isDirectory())
+                Scan(location,"",classnames);
+            else {
+                JarFile jf = new JarFile(location);
+                try {
+                    Enumeration<JarEntry> je = jf.entries();
+                    while (je.hasMoreElements()){
+                        String entryname = je.nextElement().getName();
+                        if (entryname.endsWith(".class"))
+                            classnames.add(entryname.substring(0, entryname.length()-6).replace('/', '.'));
+                    }
+                }
+                finally {
+                    jf.close();
+                }
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        return classnames;
+    }
+    private final static void Scan(File dir, String pkg, Set<String> classnames){
+        File[] files = dir.listFiles();
+        if (null != files){
+            for (File file : files){
+                String name = file.getName();
+                if (file.isDirectory())
+                    Scan(file, pkg+name+'.', classnames);
+                else if (name.endsWith(".class"))
+                    classnames.add(pkg+name.substring(0, name.length()-6));
+            }
+        }
+    }
 }
@@ -0,0 +1,176 @@
+/*
+ *  Copyright (C) 2012 John Pritchard
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes an RGB PNG image row by row, so that images of any height
+ * can be written without holding them in memory.
+ *
+ * @author John Pritchard
+ */
+public class PngWriter
+    extends Object
+{
+    /** size of the compressed data chunks */
+    public final static int CHUNK = 64 * 1024;
+
+    private final static byte[] SIGNATURE = {(byte)137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final DeflaterOutputStream data;
+    private final byte[] scanline;
+    private int rows;
+
+
+    /**
+     * Writes the image header.
+     * @param out stream to write the image to, not closed by this writer
+     * @param width width of the image in pixels
+     * @param height height of the image in pixels
+     */
+    public PngWriter(OutputStream out, int width, int height) throws IOException {
+        super();
+        if (width < 1 || height < 1 || width > (Integer.MAX_VALUE - 1) / 3)
+            throw new IllegalArgumentException("Image size "+width+"x"+height);
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.scanline = new byte[1 + 3 * width];
+
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        Int(header, 0, width);
+        Int(header, 4, height);
+        header[8] = 8;          // bit depth
+        header[9] = 2;          // truecolour
+        Chunk(out, "IHDR", header, header.length);
+
+        // compression runs on the writing thread, so favour speed
+        this.data = new DeflaterOutputStream(new Chunks(out), new Deflater(Deflater.BEST_SPEED), CHUNK);
+    }
+
+
+    /**
+     * Writes the next row of the image.
+     * @param rgb pixels in <code>0xRRGGBB</code> format
+     * @param offset index of the first pixel of the row
+     */
+    public void writeRow(int[] rgb, int offset) throws IOException {
+        if (rows == height)
+            throw new IllegalStateException("Image is complete");
+
+        // filter type "sub" turns runs of a colour into zeros
+        byte[] line = scanline;
+        line[0] = 1;
+        int previous = 0;
+        for (int x = 0, i = 1; x < width; x++) {
+            int pixel = rgb[offset + x];
+            line[i++] = (byte)((pixel >> 16) - (previous >> 16));
+            line[i++] = (byte)((pixel >> 8) - (previous >> 8));
+            line[i++] = (byte)(pixel - previous);
+            previous = pixel;
+        }
+        data.write(line);
+        rows++;
+    }
+
+    /**
+     * Writes the end of the image after its last row, and flushes the stream.
+     */
+    public void finish() throws IOException {
+        if (rows != height)
+            throw new IllegalStateException("Image has "+rows+" of "+height+" rows");
+        data.finish();
+        data.flush();
+        Chunk(out, "IEND", new byte[0], 0);
+        out.flush();
+    }
+
+
+    /**
+     * Compressed data, written in chunks.
+     */
+    private final static class Chunks
+        extends OutputStream
+    {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[CHUNK];
+        private int length;
+
+        Chunks(OutputStream out){
+            super();
+            this.out = out;
+        }
+
+        public void write(int b) throws IOException {
+            if (length == buffer.length)
+                flush();
+            buffer[length++] = (byte)b;
+        }
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0){
+                if (length == buffer.length)
+                    flush();
+                int n = Math.min(len, buffer.length - length);
+                System.arraycopy(b, off, buffer, length, n);
+                length += n;
+                off += n;
+                len -= n;
+            }
+        }
+        public void flush() throws IOException {
+            if (length > 0){
+                Chunk(out, "IDAT", buffer, length);
+                length = 0;
+            }
+        }
+    }
+
+    private final static void Chunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] header = new byte[8];
+        Int(header, 0, length);
+        for (int i = 0; i < 4; i++)
+            header[4 + i] = (byte)type.charAt(i);
+        out.write(header);
+        out.write(data, 0, length);
+
+        CRC32 crc = new CRC32();
+        crc.update(header, 4, 4);
+        crc.update(data, 0, length);
+        byte[] trailer = new byte[4];
+        Int(trailer, 0, (int)crc.getValue());
+        out.write(trailer);
+    }
+
+    private final static void Int(byte[] b, int off, int value){
+        b[off] = (byte)(value >>> 24);
+        b[off + 1] = (byte)(value >>> 16);
+        b[off + 2] = (byte)(value >>> 8);
+        b[off + 3] = (byte)value;
+    }
+}
@@ -44,4 +44,16 @@ public class Properties
     public synchronized Enumeration keys() {
         return Collections.enumeration(new TreeSet(keySet()));
     }
+
+    /**
+     * Copy the properties whose names start with the prefix.
+     * @param from properties to copy from
+     * @param prefix start of the property names, as "tools.StateAnalysis."
+     */
+    public void copy(java.util.Properties from, String prefix) {
+        for (String name : from.stringPropertyNames()) {
+            if (name.startsWith(prefix))
+                setProperty(name, from.getProperty(name));
+        }
+    }
 }
@@ -0,0 +1,511 @@
+/*
+ *  Copyright (C) 2012 John Pritchard
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or (at
+ *  your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin St, Fifth Floor, Boston, MA 02110, USA
+ *
+ */
+package org.sump.util;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.Toolkit;
+import java.awt.image.ImageObserver;
+import java.io.PrintWriter;
+import java.text.AttributedCharacterIterator;
+
+/**
+ * Graphics context writing SVG elements to a stream as it is drawn on,
+ * so that drawings of any size can be exported without holding them
+ * in memory.
+ * <p>
+ * Lines, rectangles, polylines, polygons, ovals and text are written,
+ * with integer translation and rectangular clips; round rectangles
+ * are written as plain rectangles.  Arcs, images, XOR mode and area
+ * copies are ignored.  Lines are one pixel wide and placed on pixel
+ * centers, like the lines drawn on an image.
+ * <p>
+ * Errors are reported by {@link PrintWriter#checkError()} of the
+ * output stream.  The document is opened with {@link #begin(int,int)}
+ * and closed with {@link #end()}.
+ *
+ * @author John Pritchard
+ */
+public class SvgGraphics
+    extends Graphics
+{
+
+    private final PrintWriter out;
+    /*
+     * Clip path ids are shared by the graphics contexts created from
+     * one document
+     */
+    private final int[] clipIds;
+
+    private Color color = Color.black;
+    private Font font = new Font("Dialog", Font.PLAIN, 12);
+    private int translateX, translateY;
+    /*
+     * Clip in device coordinates, or null; elements are written inside
+     * a group with this clip when open
+     */
+    private Rectangle clip;
+    private boolean group;
+
+
+    public SvgGraphics(PrintWriter out) {
+        this(out, new int[1]);
+    }
+    private SvgGraphics(PrintWriter out, int[] clipIds) {
+        super();
+        this.out = out;
+        this.clipIds = clipIds;
+    }
+
+
+    /**
+     * Writes the start of the document.
+     * @param width width of the drawing in pixels
+     * @param height height of the drawing in pixels
+     */
+    public void begin(int width, int height) {
+        out.print("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.print("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\" width=\"");
+        out.print(width);
+        out.print("\" height=\"");
+        out.print(height);
+        out.print("\" viewBox=\"0 0 ");
+        out.print(width);
+        out.print(' ');
+        out.print(height);
+        out.print("\" shape-rendering=\"crispEdges\" stroke-width=\"1\">\n");
+    }
+
+    /**
+     * Writes the end of the document and flushes the stream.
+     */
+    public void end() {
+        closeGroup();
+        out.print("</svg>\n");
+        out.flush();
+    }
+
+
+    public Graphics create() {
+        closeGroup();
+        SvgGraphics copy = new SvgGraphics(out, clipIds);
+        copy.color = color;
+        copy.font = font;
+        copy.translateX = translateX;
+        copy.translateY = translateY;
+        copy.clip = (clip == null) ? null : new Rectangle(clip);
+        return copy;
+    }
+
+    public void dispose() {
+        closeGroup();
+        out.flush();
+    }
+
+    public void translate(int x, int y) {
+        translateX += x;
+        translateY += y;
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
+    public void setColor(Color c) {
+        if (c != null)
+            color = c;
+    }
+
+    public void setPaintMode() {
+    }
+
+    public void setXORMode(Color c) {
+    }
+
+    public Font getFont() {
+        return font;
+    }
+
+    public void setFont(Font font) {
+        if (font != null)
+            this.font = font;
+    }
+
+    @SuppressWarnings("deprecation")
+    public FontMetrics getFontMetrics(Font f) {
+        return Toolkit.getDefaultToolkit().getFontMetrics(f);
+    }
+
+    public Rectangle getClipBounds() {
+        if (clip == null)
+            return null;
+        else
+            return new Rectangle(clip.x - translateX, clip.y - translateY, clip.width, clip.height);
+    }
+
+    public void clipRect(int x, int y, int width, int height) {
+        Rectangle r = new Rectangle(x + translateX, y + translateY, width, height);
+        setDeviceClip((clip == null) ? r : clip.intersection(r));
+    }
+
+    public void setClip(int x, int y, int width, int height) {
+        setDeviceClip(new Rectangle(x + translateX, y + translateY, width, height));
+    }
+
+    public Shape getClip() {
+        return getClipBounds();
+    }
+
+    public void setClip(Shape clip) {
+        if (clip == null)
+            setDeviceClip(null);
+        else {
+            Rectangle r = clip.getBounds();
+            setClip(r.x, r.y, r.width, r.height);
+        }
+    }
+
+    public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+    }
+
+    public void drawLine(int x1, int y1, int x2, int y2) {
+        openGroup();
+        out.print("<path d=\"M");
+        point(x1 + translateX, y1 + translateY, true);
+        out.print('L');
+        point(x2 + translateX, y2 + translateY, true);
+        out.print('"');
+        stroke();
+        out.print("/>\n");
+    }
+
+    public void fillRect(int x, int y, int width, int height) {
+        if (width > 0 && height > 0) {
+            openGroup();
+            out.print("<rect x=\"");
+            out.print(x + translateX);
+            out.print("\" y=\"");
+            out.print(y + translateY);
+            out.print("\" width=\"");
+            out.print(width);
+            out.print("\" height=\"");
+            out.print(height);
+            out.print('"');
+            fill();
+            out.print("/>\n");
+        }
+    }
+
+    public void drawRect(int x, int y, int width, int height) {
+        if (width >= 0 && height >= 0) {
+            openGroup();
+            out.print("<rect x=\"");
+            center(x + translateX);
+            out.print("\" y=\"");
+            center(y + translateY);
+            out.print("\" width=\"");
+            out.print(width);
+            out.print("\" height=\"");
+            out.print(height);
+            out.print("\" fill=\"none\"");
+            stroke();
+            out.print("/>\n");
+        }
+    }
+
+    public void clearRect(int x, int y, int width, int height) {
+        Color c = color;
+        color = Color.white;
+        fillRect(x, y, width, height);
+        color = c;
+    }
+
+    public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        drawRect(x, y, width, height);
+    }
+
+    public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        fillRect(x, y, width, height);
+    }
+
+    public void drawOval(int x, int y, int width, int height) {
+        ellipse(x, y, width, height, false);
+    }
+
+    public void fillOval(int x, int y, int width, int height) {
+        ellipse(x, y, width, height, true);
+    }
+
+    public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+    }
+
+    public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+    }
+
+    public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
+        poly("polyline", xPoints, yPoints, nPoints, false);
+    }
+
+    public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        poly("polygon", xPoints, yPoints, nPoints, false);
+    }
+
+    public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        poly("polygon", xPoints, yPoints, nPoints, true);
+    }
+
+    public void drawString(String str, int x, int y) {
+        if (str.length() > 0) {
+            openGroup();
+            out.print("<text x=\"");
+            out.print(x + translateX);
+            out.print("\" y=\"");
+            out.print(y + translateY);
+            out.print("\" font-family=\"");
+            escape(family());
+            out.print("\" font-size=\"");
+            out.print(font.getSize());
+            out.print('"');
+            if (font.isBold())
+                out.print(" font-weight=\"bold\"");
+            if (font.isItalic())
+                out.print(" font-style=\"italic\"");
+            fill();
+            out.print('>');
+            escape(str);
+            out.print("</text>\n");
+        }
+    }
+
+    public void drawChars(char[] data, int offset, int length, int x, int y) {
+        drawString(new String(data, offset, length), x, y);
+    }
+
+    public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+        StringBuilder string = new StringBuilder();
+        for (char c = iterator.first(); c != AttributedCharacterIterator.DONE; c = iterator.next())
+            string.append(c);
+        drawString(string.toString(), x, y);
+    }
+
+    public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+        return true;
+    }
+
+    public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+        return true;
+    }
+
+    public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
+        return true;
+    }
+
+    public boolean drawImage(Image img, int x, int y, int width, int height, Color bgcolor, ImageObserver observer) {
+        return true;
+    }
+
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, ImageObserver observer) {
+        return true;
+    }
+
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, Color bgcolor, ImageObserver observer) {
+        return true;
+    }
+
+
+    /**
+     * Sets the clip, starting a new group of elements when it changes.
+     */
+    private void setDeviceClip(Rectangle clip) {
+        if (clip == null ? this.clip == null : clip.equals(this.clip))
+            return;
+        closeGroup();
+        this.clip = clip;
+    }
+
+    private void openGroup() {
+        if (group || clip == null)
+            return;
+        int id = clipIds[0]++;
+        out.print("<clipPath id=\"c");
+        out.print(id);
+        out.print("\"><rect x=\"");
+        out.print(clip.x);
+        out.print("\" y=\"");
+        out.print(clip.y);
+        out.print("\" width=\"");
+        out.print(Math.max(0, clip.width));
+        out.print("\" height=\"");
+        out.print(Math.max(0, clip.height));
+        out.print("\"/></clipPath>\n<g clip-path=\"url(#c");
+        out.print(id);
+        out.print(")\">\n");
+        group = true;
+    }
+
+    private void closeGroup() {
+        if (group) {
+            out.print("</g>\n");
+            group = false;
+        }
+    }
+
+    private void poly(String element, int[] xPoints, int[] yPoints, int nPoints, boolean filled) {
+        if (nPoints < 1)
+            return;
+        openGroup();
+        out.print('<');
+        out.print(element);
+        out.print(" points=\"");
+        for (int i = 0; i < nPoints; i++) {
+            if (i > 0)
+                out.print(' ');
+            point(xPoints[i] + translateX, yPoints[i] + translateY, !filled);
+        }
+        out.print('"');
+        if (filled)
+            fill();
+        else {
+            out.print(" fill=\"none\"");
+            stroke();
+        }
+        out.print("/>\n");
+    }
+
+    private void ellipse(int x, int y, int width, int height, boolean filled) {
+        openGroup();
+        out.print("<ellipse cx=\"");
+        out.print((x + translateX) + width / 2.0 + (filled ? 0 : 0.5));
+        out.print("\" cy=\"");
+        out.print((y + translateY) + height / 2.0 + (filled ? 0 : 0.5));
+        out.print("\" rx=\"");
+        out.print(width / 2.0);
+        out.print("\" ry=\"");
+        out.print(height / 2.0);
+        out.print('"');
+        if (filled)
+            fill();
+        else {
+            out.print(" fill=\"none\"");
+            stroke();
+        }
+        out.print("/>\n");
+    }
+
+    /**
+     * Writes a point, on the pixel center for strokes.
+     */
+    private void point(int x, int y, boolean center) {
+        if (center)
+            center(x);
+        else
+            out.print(x);
+        out.print(',');
+        if (center)
+            center(y);
+        else
+            out.print(y);
+    }
+
+    /**
+     * Writes the center of a pixel, <code>v + 0.5</code>.
+     */
+    private void center(int v) {
+        if (v >= 0)
+            out.print(v);
+        else if (v == -1)
+            out.print('-');
+        else
+            out.print(v + 1);
+        out.print(".5");
+    }
+
+    /**
+     * @return generic SVG family for the logical java fonts
+     */
+    private String family() {
+        String name = font.getFamily();
+        if (name.equals(Font.DIALOG) || name.equals(Font.SANS_SERIF))
+            return "sans-serif";
+        else if (name.equals(Font.SERIF))
+            return "serif";
+        else if (name.equals(Font.MONOSPACED) || name.equals(Font.DIALOG_INPUT))
+            return "monospace";
+        else
+            return name;
+    }
+
+    private void stroke() {
+        out.print(" stroke=\"");
+        color();
+        out.print('"');
+        if (color.getAlpha() < 255) {
+            out.print(" stroke-opacity=\"");
+            out.print(color.getAlpha() / 255f);
+            out.print('"');
+        }
+    }
+
+    private void fill() {
+        out.print(" fill=\"");
+        color();
+        out.print('"');
+        if (color.getAlpha() < 255) {
+            out.print(" fill-opacity=\"");
+            out.print(color.getAlpha() / 255f);
+            out.print('"');
+        }
+    }
+
+    private void color() {
+        String hex = Integer.toHexString(color.getRGB() & 0xffffff);
+        out.print('#');
+        for (int i = hex.length(); i < 6; i++)
+            out.print('0');
+        out.print(hex);
+    }
+
+    private void escape(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+            case '<':
+                out.print("&lt;");
+                break;
+            case '>':
+                out.print("&gt;");
+                break;
+            case '&':
+                out.print("&amp;");
+                break;
+            case '"':
+                out.print("&quot;");
+                break;
+            default:
+                out.print(c);
+                break;
+            }
+        }
+    }
+}